@@ -0,0 +1,135 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.hierarchical;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark the storage layouts of the cluster distance matrix, compared to
+ * direct access to a plain double array (as used before the storage layouts
+ * were introduced). The default {@code DOUBLE} layout should not be slower
+ * than the plain array.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterDistanceMatrixBenchmark {
+  /**
+   * Number of objects.
+   */
+  @Param({ "2000" })
+  int size;
+
+  /**
+   * Storage layout.
+   */
+  @Param({ "DOUBLE", "FLOAT", "MAPPED" })
+  ClusterDistanceMatrix.Storage storage;
+
+  /**
+   * Distance matrix.
+   */
+  ClusterDistanceMatrix mat;
+
+  /**
+   * Plain array, for comparison.
+   */
+  double[] array;
+
+  /**
+   * Prepare the matrix.
+   */
+  @Setup
+  public void setup() {
+    mat = ClusterDistanceMatrix.create(size, storage);
+    array = new double[(int) ClusterDistanceMatrix.triangleSize(size)];
+    for(int p = 0; p < array.length; p++) {
+      mat.set(p, array[p] = p & 0xFFFF);
+    }
+  }
+
+  /**
+   * Read the matrix linearly.
+   *
+   * @return Sum
+   */
+  @Benchmark
+  public double scan() {
+    double sum = 0.;
+    for(long p = 0, e = ClusterDistanceMatrix.triangleSize(size); p < e; p++) {
+      sum += mat.get(p);
+    }
+    return sum;
+  }
+
+  /**
+   * Read the plain array linearly.
+   *
+   * @return Sum
+   */
+  @Benchmark
+  public double scanArray() {
+    double sum = 0.;
+    for(int p = 0; p < array.length; p++) {
+      sum += array[p];
+    }
+    return sum;
+  }
+
+  /**
+   * Update the rows and columns of one object, as after a merge.
+   */
+  @Benchmark
+  public void update() {
+    final int x = size >>> 1;
+    final long xbase = ClusterDistanceMatrix.triangleSize(x);
+    for(int y = 0; y < x; y++) {
+      mat.set(xbase + y, mat.get(xbase + y) + 1.);
+    }
+    for(int y = x + 1; y < size; y++) {
+      final long p = ClusterDistanceMatrix.triangleSize(y) + x;
+      mat.set(p, mat.get(p) + 1.);
+    }
+  }
+
+  /**
+   * Update the rows and columns of one object in the plain array.
+   */
+  @Benchmark
+  public void updateArray() {
+    final int x = size >>> 1;
+    final int xbase = (int) ClusterDistanceMatrix.triangleSize(x);
+    for(int y = 0; y < x; y++) {
+      array[xbase + y] += 1.;
+    }
+    for(int y = x + 1; y < size; y++) {
+      array[(int) ClusterDistanceMatrix.triangleSize(y) + x] += 1.;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.datastore;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.database.ids.*;
+
+/**
+ * Benchmark data store access, for array-backed storage on DBID ranges and
+ * hash-based storage on arbitrary DBIDs.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataStoreBenchmark {
+  /**
+   * Number of objects.
+   */
+  @Param({ "100000" })
+  int size;
+
+  /**
+   * Use a DBID range (array storage), or a hash set (map storage).
+   */
+  @Param({ "true", "false" })
+  boolean range;
+
+  /**
+   * Object ids, in random order.
+   */
+  ArrayModifiableDBIDs ids;
+
+  /**
+   * Double storage.
+   */
+  WritableDoubleDataStore dstore;
+
+  /**
+   * Object storage.
+   */
+  WritableDataStore<double[]> ostore;
+
+  /**
+   * Prepare the storage.
+   */
+  @Setup
+  public void setup() {
+    DBIDRange all = DBIDUtil.generateStaticDBIDRange(size);
+    DBIDs base = range ? all : DBIDUtil.newHashSet(all);
+    dstore = DataStoreUtil.makeDoubleStorage(base, DataStoreFactory.HINT_DB);
+    ostore = DataStoreUtil.makeStorage(base, DataStoreFactory.HINT_DB, double[].class);
+    ids = DBIDUtil.newArray(all);
+    DBIDUtil.randomShuffle(ids, new Random(0L));
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      dstore.putDouble(it, 1.);
+      ostore.put(it, new double[] { 1. });
+    }
+  }
+
+  /**
+   * Update all double values, in random order.
+   */
+  @Benchmark
+  public void putDouble() {
+    double v = 0.;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      dstore.putDouble(it, v += 1.);
+    }
+  }
+
+  /**
+   * Read all double values, in random order.
+   *
+   * @return Sum
+   */
+  @Benchmark
+  public double getDouble() {
+    double sum = 0.;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      sum += dstore.doubleValue(it);
+    }
+    return sum;
+  }
+
+  /**
+   * Read all objects, in random order.
+   *
+   * @return Sum
+   */
+  @Benchmark
+  public double getObject() {
+    double sum = 0.;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      sum += ostore.get(it)[0];
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.ids;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark the DBID heaps ({@code DoubleIntegerDBIDKNNHeap} and
+ * {@code DoubleIntegerDBIDHeap}, obtained via {@link DBIDUtil}), as used by
+ * kNN queries and best-first searches.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DBIDHeapBenchmark {
+  /**
+   * Number of candidates.
+   */
+  @Param({ "10000" })
+  int size;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10", "100" })
+  int k;
+
+  /**
+   * Candidate DBIDs.
+   */
+  DBIDRange ids;
+
+  /**
+   * Candidate distances.
+   */
+  double[] dists;
+
+  /**
+   * Generate the candidates.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    ids = DBIDUtil.generateStaticDBIDRange(size);
+    dists = new double[size];
+    for(int i = 0; i < size; i++) {
+      dists[i] = rnd.nextDouble();
+    }
+  }
+
+  /**
+   * kNN heap, as used by a linear scan.
+   *
+   * @return kNN list
+   */
+  @Benchmark
+  public KNNList knnHeap() {
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    double max = Double.POSITIVE_INFINITY;
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      final double d = dists[it.getOffset()];
+      max = d <= max ? heap.insert(d, it) : max;
+    }
+    return heap.toKNNList();
+  }
+
+  /**
+   * Bounded max heap, keeping the k smallest values.
+   *
+   * @return Largest remaining value
+   */
+  @Benchmark
+  public double maxHeapBounded() {
+    DoubleDBIDHeap heap = DBIDUtil.newMaxHeap(k);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      heap.insert(dists[it.getOffset()], it, k);
+    }
+    return heap.peekKey();
+  }
+
+  /**
+   * Min heap, fully filled and emptied.
+   *
+   * @return Sum of all keys
+   */
+  @Benchmark
+  public double minHeapSort() {
+    DoubleDBIDHeap heap = DBIDUtil.newMinHeap(size);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      heap.insert(dists[it.getOffset()], it);
+    }
+    double sum = 0.;
+    while(!heap.isEmpty()) {
+      sum += heap.peekKey();
+      heap.poll();
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.query.knn;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+
+/**
+ * Benchmark the Euclidean linear scan kNN query, on object storage and on
+ * packed storage, which uses blocked distance kernels.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinearScanEuclideanKNNBenchmark {
+  /**
+   * Data set size.
+   */
+  @Param({ "10000" })
+  int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "8", "64", "512" })
+  int dim;
+
+  /**
+   * Use packed storage.
+   */
+  @Param({ "false", "true" })
+  boolean packed;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10" })
+  int k;
+
+  /**
+   * Query to benchmark.
+   */
+  KNNSearcher<NumberVector> knnq;
+
+  /**
+   * Query vectors.
+   */
+  NumberVector[] queries;
+
+  /**
+   * Next query.
+   */
+  int next;
+
+  /**
+   * Generate the data set.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(double[] row : data) {
+      for(int d = 0; d < dim; d++) {
+        row[d] = rnd.nextDouble();
+      }
+    }
+    int hints = packed ? DataStoreFactory.HINT_DB | DataStoreFactory.HINT_PACKED : DataStoreFactory.HINT_DB;
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null, hints);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    knnq = new QueryBuilder<>(rel, EuclideanDistance.STATIC).kNNByObject(k);
+    queries = new NumberVector[100];
+    for(int i = 0; i < queries.length; i++) {
+      queries[i] = DoubleVector.wrap(data[rnd.nextInt(size)]);
+    }
+  }
+
+  /**
+   * Benchmark a single kNN query.
+   *
+   * @return kNN result
+   */
+  @Benchmark
+  public KNNList knn() {
+    next = next + 1 < queries.length ? next + 1 : 0;
+    return knnq.getKNN(queries[next], k);
+  }
+}
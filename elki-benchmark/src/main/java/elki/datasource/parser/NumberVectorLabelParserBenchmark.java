@@ -0,0 +1,100 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.data.DoubleVector;
+import elki.datasource.bundle.MultipleObjectsBundle;
+
+/**
+ * Benchmark parsing CSV number vectors with labels, from memory, serially and
+ * with the {@link ParallelNumberVectorLabelParser}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberVectorLabelParserBenchmark {
+  /**
+   * Number of lines.
+   */
+  @Param({ "100000" })
+  int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "3", "50" })
+  int dim;
+
+  /**
+   * Use the parallel parser.
+   */
+  @Param({ "false", "true" })
+  boolean parallel;
+
+  /**
+   * Serialized input.
+   */
+  byte[] input;
+
+  /**
+   * Generate the input file.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    StringBuilder buf = new StringBuilder(size * dim * 20);
+    for(int i = 0; i < size; i++) {
+      for(int d = 0; d < dim; d++) {
+        buf.append(rnd.nextDouble()).append(' ');
+      }
+      buf.append("label").append(i % 10).append('\n');
+    }
+    input = buf.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Parse the complete input.
+   *
+   * @return Bundle
+   */
+  @Benchmark
+  public MultipleObjectsBundle parse() {
+    NumberVectorLabelParser<DoubleVector> parser = parallel ? //
+        new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY, 1 << 16) : //
+        new NumberVectorLabelParser<>(DoubleVector.FACTORY);
+    MultipleObjectsBundle bundle = parser.parse(new ByteArrayInputStream(input));
+    parser.cleanup();
+    return bundle;
+  }
+}
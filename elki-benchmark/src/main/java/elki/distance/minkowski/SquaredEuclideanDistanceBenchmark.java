@@ -0,0 +1,122 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.distance.minkowski;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+
+/**
+ * Benchmark the squared Euclidean distance on number vectors.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SquaredEuclideanDistanceBenchmark {
+  /**
+   * Dimensionality.
+   */
+  @Param({ "3", "32", "256" })
+  int dim;
+
+  /**
+   * Number of vectors.
+   */
+  static final int SIZE = 1000;
+
+  /**
+   * Data vectors.
+   */
+  NumberVector[] data;
+
+  /**
+   * Query vector.
+   */
+  NumberVector query;
+
+  /**
+   * Generate the vectors.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    data = new NumberVector[SIZE];
+    for(int i = 0; i < SIZE; i++) {
+      data[i] = randomVector(rnd, dim);
+    }
+    query = randomVector(rnd, dim);
+  }
+
+  /**
+   * Generate a random vector.
+   *
+   * @param rnd Random generator
+   * @param dim Dimensionality
+   * @return Vector
+   */
+  private static DoubleVector randomVector(Random rnd, int dim) {
+    double[] v = new double[dim];
+    for(int d = 0; d < dim; d++) {
+      v[d] = rnd.nextDouble();
+    }
+    return DoubleVector.wrap(v);
+  }
+
+  /**
+   * Distances from the query to all vectors.
+   *
+   * @return Sum of distances
+   */
+  @Benchmark
+  public double distance() {
+    final SquaredEuclideanDistance dist = SquaredEuclideanDistance.STATIC;
+    double sum = 0.;
+    for(NumberVector v : data) {
+      sum += dist.distance(query, v);
+    }
+    return sum;
+  }
+
+  /**
+   * Squared norms of all vectors.
+   *
+   * @return Sum of norms
+   */
+  @Benchmark
+  public double norm() {
+    final SquaredEuclideanDistance dist = SquaredEuclideanDistance.STATIC;
+    double sum = 0.;
+    for(NumberVector v : data) {
+      sum += dist.norm(v);
+    }
+    return sum;
+  }
+}
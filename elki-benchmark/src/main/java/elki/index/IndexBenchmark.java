@@ -0,0 +1,192 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.tree.metrical.covertree.CoverTree;
+import elki.index.tree.metrical.mtreevariants.mtree.MTreeFactory;
+import elki.index.tree.metrical.vptree.VPTree;
+import elki.index.tree.spatial.kd.MemoryKDTree;
+import elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.exceptions.AbortException;
+
+/**
+ * Benchmark index construction and Euclidean kNN queries for each index type.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+  /**
+   * Index type.
+   */
+  @Param({ "kdtree", "rstar", "mtree", "covertree", "vptree" })
+  String index;
+
+  /**
+   * Data set size.
+   */
+  @Param({ "10000" })
+  int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "3", "16" })
+  int dim;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10" })
+  int k;
+
+  /**
+   * Data relation.
+   */
+  Relation<NumberVector> relation;
+
+  /**
+   * Index factory.
+   */
+  IndexFactory<NumberVector> factory;
+
+  /**
+   * kNN query on the prebuilt index.
+   */
+  KNNSearcher<NumberVector> knnq;
+
+  /**
+   * Query vectors.
+   */
+  NumberVector[] queries;
+
+  /**
+   * Next query.
+   */
+  int next;
+
+  /**
+   * Generate the data, and build the index once for querying.
+   */
+  @SuppressWarnings("unchecked")
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(double[] row : data) {
+      for(int d = 0; d < dim; d++) {
+        row[d] = rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    relation = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    factory = makeFactory(index);
+    Index idx = factory.instantiate(relation);
+    idx.initialize();
+    DistanceQuery<NumberVector> dq = new QueryBuilder<>(relation, EuclideanDistance.STATIC).distanceQuery();
+    knnq = ((KNNIndex<NumberVector>) idx).kNNByObject(dq, k, 0);
+    if(knnq == null) {
+      throw new AbortException("Index " + index + " does not support Euclidean kNN queries.");
+    }
+    queries = new NumberVector[100];
+    for(int i = 0; i < queries.length; i++) {
+      double[] q = new double[dim];
+      for(int d = 0; d < dim; d++) {
+        q[d] = rnd.nextDouble();
+      }
+      queries[i] = DoubleVector.wrap(q);
+    }
+  }
+
+  /**
+   * Make the index factory.
+   *
+   * @param name Index name
+   * @return Factory
+   */
+  private static IndexFactory<NumberVector> makeFactory(String name) {
+    switch(name){
+    case "kdtree":
+      return new ELKIBuilder<MemoryKDTree.Factory<NumberVector>>(MemoryKDTree.Factory.class).build();
+    case "rstar":
+      return new ELKIBuilder<RStarTreeFactory<NumberVector>>(RStarTreeFactory.class).build();
+    case "mtree":
+      return new ELKIBuilder<MTreeFactory<NumberVector>>(MTreeFactory.class).build();
+    case "covertree":
+      return new ELKIBuilder<CoverTree.Factory<NumberVector>>(CoverTree.Factory.class) //
+          .with(CoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class).build();
+    case "vptree":
+      return new ELKIBuilder<VPTree.Factory<NumberVector>>(VPTree.Factory.class) //
+          .with(VPTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class).build();
+    default:
+      throw new AbortException("Unknown index: " + name);
+    }
+  }
+
+  /**
+   * Build the index from scratch.
+   *
+   * @return Index
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Index build() {
+    Index idx = factory.instantiate(relation);
+    idx.initialize();
+    return idx;
+  }
+
+  /**
+   * Query the prebuilt index.
+   *
+   * @return kNN result
+   */
+  @Benchmark
+  public KNNList knn() {
+    next = next + 1 < queries.length ? next + 1 : 0;
+    return knnq.getKNN(queries[next], k);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.utilities.datastructures.heap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmark the {@link UpdatableHeap}, with a mixture of inserts, priority
+ * updates and removals as seen in OPTICS.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdatableHeapBenchmark {
+  /**
+   * Number of distinct keys.
+   */
+  @Param({ "1000", "100000" })
+  int keys;
+
+  /**
+   * Number of operations.
+   */
+  static final int OPS = 100000;
+
+  /**
+   * Pregenerated entries.
+   */
+  Entry[] entries;
+
+  /**
+   * Generate the entries.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    entries = new Entry[OPS];
+    for(int i = 0; i < OPS; i++) {
+      entries[i] = new Entry(rnd.nextDouble(), rnd.nextInt(keys));
+    }
+  }
+
+  /**
+   * Insert all entries (updating existing keys), polling every tenth step.
+   *
+   * @return Sum of polled priorities
+   */
+  @Benchmark
+  public double addUpdatePoll() {
+    UpdatableHeap<Entry> heap = new UpdatableHeap<>();
+    double sum = 0.;
+    for(int i = 0; i < OPS; i++) {
+      heap.add(entries[i]);
+      if(i % 10 == 9) {
+        sum += heap.poll().priority;
+      }
+    }
+    while(!heap.isEmpty()) {
+      sum += heap.poll().priority;
+    }
+    return sum;
+  }
+
+  /**
+   * Heap entry, identified by the key only.
+   *
+   * @author Erich Schubert
+   */
+  static class Entry implements Comparable<Entry> {
+    /**
+     * Priority.
+     */
+    final double priority;
+
+    /**
+     * Key.
+     */
+    final int key;
+
+    /**
+     * Constructor.
+     *
+     * @param priority Priority
+     * @param key Key
+     */
+    Entry(double priority, int key) {
+      this.priority = priority;
+      this.key = key;
+    }
+
+    @Override
+    public int hashCode() {
+      return key;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Entry && ((Entry) obj).key == key;
+    }
+
+    @Override
+    public int compareTo(Entry o) {
+      return Double.compare(priority, o.priority);
+    }
+  }
+}
@@ -20,7 +20,11 @@
  */
 package elki.clustering.dbscan;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import elki.Algorithm;
 import elki.clustering.ClusteringAlgorithm;
@@ -54,9 +58,11 @@ import elki.logging.progress.FiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
 import elki.logging.statistics.StringStatistic;
+import elki.parallel.ParallelCore;
 import elki.result.Metadata;
 import elki.utilities.documentation.Reference;
 import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.exceptions.IncompatibleDataException;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
@@ -64,6 +70,7 @@ import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.constraints.GreaterEqualConstraint;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -80,6 +87,10 @@ import net.jafama.FastMath;
  * <p>
  * Because of partitioning the data, this version does not make use of indexes.
  * <p>
+ * Optionally, the grid cells can be clustered in parallel. The partial results
+ * are merged in the same order as in the sequential version, hence the result
+ * is identical.
+ * <p>
  * Reference:
  * <p>
  * S. Mahran, K. Mahar<br>
@@ -125,6 +136,11 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
    */
   protected double gridwidth;
 
+  /**
+   * Process the grid cells in parallel.
+   */
+  protected boolean parallel;
+
   /**
    * Constructor with parameters.
    *
@@ -134,11 +150,25 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
    * @param gridwidth Grid width
    */
   public GriDBSCAN(Distance<? super V> distance, double epsilon, int minpts, double gridwidth) {
+    this(distance, epsilon, minpts, gridwidth, false);
+  }
+
+  /**
+   * Constructor with parameters.
+   *
+   * @param distance Distance function
+   * @param epsilon Epsilon value
+   * @param minpts Minpts parameter
+   * @param gridwidth Grid width
+   * @param parallel Process the grid cells in parallel
+   */
+  public GriDBSCAN(Distance<? super V> distance, double epsilon, int minpts, double gridwidth, boolean parallel) {
     super();
     this.distance = distance;
     this.epsilon = epsilon;
     this.minpts = minpts;
     this.gridwidth = gridwidth;
+    this.parallel = parallel;
   }
 
   @Override
@@ -165,7 +195,7 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
       LOG.warning("Invalid grid width (less than 2*epsilon, recommended 10*epsilon). Increasing grid width automatically.");
       adjgridwidth = 2. * epsilon;
     }
-    return new Instance<V>(distance, epsilon, minpts, adjgridwidth).run(relation);
+    return new Instance<V>(distance, epsilon, minpts, adjgridwidth, parallel).run(relation);
   }
 
   /**
@@ -206,6 +236,11 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
      */
     protected double gridwidth;
 
+    /**
+     * Process the grid cells in parallel.
+     */
+    protected boolean parallel;
+
     /**
      * Value domain.
      */
@@ -246,11 +281,6 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
      */
     private WritableDataStore<Assignment> clusterids;
 
-    /**
-     * Temporary assignments of a single run.
-     */
-    private WritableIntegerDataStore temporary;
-
     /**
      * Indicates that the number of grid cells has overflown.
      */
@@ -263,12 +293,14 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
      * @param epsilon Epsilon
      * @param minpts MinPts
      * @param gridwidth Grid width
+     * @param parallel Process the grid cells in parallel
      */
-    public Instance(Distance<? super V> distance, double epsilon, int minpts, double gridwidth) {
+    public Instance(Distance<? super V> distance, double epsilon, int minpts, double gridwidth, boolean parallel) {
       this.distance = distance;
       this.epsilon = epsilon;
       this.minpts = minpts;
       this.gridwidth = gridwidth;
+      this.parallel = parallel;
     }
 
     /**
@@ -299,38 +331,120 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
 
       // (Temporary) store the cluster ID assigned.
       clusterids = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_TEMP, Assignment.class);
-      temporary = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP, UNPROCESSED);
-      final ArrayModifiableDBIDs activeSet = DBIDUtil.newArray();
       // Reserve the first two cluster ids:
-      int clusterid = NOISE + 1;
       this.cores = new Core[2];
       this.borders = new Border[2];
 
-      // Reused storage for neighbors:
-      ModifiableDoubleDBIDList neighbors = DBIDUtil.newDistanceDBIDList(minpts << 1);
       // Run DBSCAN on each cell that has enough objects.
       FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Processing grid cells", mincells, LOG) : null;
+      int clusterid = parallel && ParallelCore.getCore().getParallelism() > 1 && mincells > 1 ? //
+          runParallel(relation, mincells, cprog) : runSequential(relation, cprog);
+      LOG.ensureCompleted(cprog);
+      return buildResult(ids, clusterid);
+    }
+
+    /**
+     * Run DBSCAN on each grid cell, sequentially.
+     *
+     * @param relation Data relation
+     * @param cprog Cell progress
+     * @return Largest valid cluster number
+     */
+    private int runSequential(Relation<V> relation, FiniteProgress cprog) {
+      WritableIntegerDataStore temporary = DataStoreUtil.makeIntegerStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, UNPROCESSED);
+      final ArrayModifiableDBIDs activeSet = DBIDUtil.newArray();
+      // Reused storage for neighbors:
+      ModifiableDoubleDBIDList neighbors = DBIDUtil.newDistanceDBIDList(minpts << 1);
+      int clusterid = NOISE + 1;
       for(ModifiableDBIDs cellids : grid.values()) {
         if(cellids.size() < minpts) {
           continue; // Too few objects.
         }
-        clusterid += runDBSCANOnCell(cellids, relation, neighbors, activeSet, clusterid);
+        temporary.clear(); // Reset to "UNPROCESSED"
+        FiniteProgress pprog = LOG.isVerbose() ? new FiniteProgress("Running DBSCAN", cellids.size(), LOG) : null;
+        final int next = runDBSCANOnCell(cellids, relation, temporary, neighbors, activeSet, clusterid, pprog);
         // Post-process DBSCAN clustering result:
-        updateCoreBorderObjects(clusterid);
-        mergeClusterInformation(cellids, temporary, clusterids);
+        updateCoreBorderObjects(next);
+        mergeClusterInformation(cellids, temporary, clusterids, 0);
+        clusterid = next;
         LOG.incrementProcessed(cprog);
       }
-      LOG.ensureCompleted(cprog);
       temporary.destroy();
+      return clusterid;
+    }
 
-      return buildResult(ids, clusterid);
+    /**
+     * Run DBSCAN on each grid cell in parallel. Each cell uses local cluster
+     * numbers, and the results are merged in the order of the cells, with the
+     * same cluster numbers as the sequential version.
+     *
+     * @param relation Data relation
+     * @param mincells Number of cells with at least minPts points
+     * @param cprog Cell progress
+     * @return Largest valid cluster number
+     */
+    private int runParallel(Relation<V> relation, int mincells, FiniteProgress cprog) {
+      ParallelCore core = ParallelCore.getCore();
+      core.connect();
+      try {
+        List<ModifiableDBIDs> cells = new ArrayList<>(mincells);
+        List<WritableIntegerDataStore> temporaries = new ArrayList<>(mincells);
+        List<Future<Integer>> futures = new ArrayList<>(mincells);
+        for(ModifiableDBIDs cellids : grid.values()) {
+          if(cellids.size() < minpts) {
+            continue; // Too few objects.
+          }
+          final WritableIntegerDataStore temporary = DataStoreUtil.makeIntegerStorage(cellids, DataStoreFactory.HINT_TEMP, UNPROCESSED);
+          cells.add(cellids);
+          temporaries.add(temporary);
+          futures.add(core.submit(() -> {
+            ModifiableDoubleDBIDList neighbors = DBIDUtil.newDistanceDBIDList(minpts << 1);
+            return runDBSCANOnCell(cellids, relation, temporary, neighbors, DBIDUtil.newArray(), NOISE + 1, null);
+          }));
+        }
+        // Merge the results in cell order, while further cells are processed.
+        int clusterid = NOISE + 1;
+        for(int i = 0; i < futures.size(); i++) {
+          final int next = clusterid + futures.get(i).get() - (NOISE + 1);
+          WritableIntegerDataStore temporary = temporaries.set(i, null);
+          updateCoreBorderObjects(next);
+          mergeClusterInformation(cells.get(i), temporary, clusterids, clusterid - (NOISE + 1));
+          temporary.destroy();
+          clusterid = next;
+          LOG.incrementProcessed(cprog);
+        }
+        return clusterid;
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new AbortException("GriDBSCAN was interrupted.", e);
+      }
+      catch(ExecutionException e) {
+        if(e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new AbortException("GriDBSCAN failed.", e.getCause());
+      }
+      finally {
+        core.disconnect();
+      }
     }
 
-    private int runDBSCANOnCell(DBIDs cellids, Relation<V> relation, ModifiableDoubleDBIDList neighbors, ArrayModifiableDBIDs activeSet, int clusterid) {
-      temporary.clear(); // Reset to "UNPROCESSED"
+    /**
+     * Run DBSCAN on a single grid cell.
+     *
+     * @param cellids IDs in the current cell
+     * @param relation Data relation
+     * @param temporary Temporary assignments, initially unprocessed
+     * @param neighbors Reused storage for neighbors
+     * @param activeSet Set to manage active candidates
+     * @param clusterid First cluster number to use
+     * @param pprog Object progress (may be {@code null})
+     * @return Next unused cluster number
+     */
+    private int runDBSCANOnCell(DBIDs cellids, Relation<V> relation, WritableIntegerDataStore temporary, ModifiableDoubleDBIDList neighbors, ArrayModifiableDBIDs activeSet, int clusterid, FiniteProgress pprog) {
       ProxyView<V> rel = new ProxyView<>(cellids, relation);
       RangeSearcher<DBIDRef> rq = new QueryBuilder<>(rel, distance).rangeByDBID(epsilon);
-      FiniteProgress pprog = LOG.isVerbose() ? new FiniteProgress("Running DBSCAN", cellids.size(), LOG) : null;
       for(DBIDIter id = cellids.iter(); id.valid(); id.advance()) {
         // Skip already processed ids.
         if(temporary.intValue(id) != UNPROCESSED) {
@@ -562,11 +676,13 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
      * @param cellids IDs in current cell
      * @param temporary Temporary assignments
      * @param clusterids Merged cluster assignment
+     * @param off Offset to add to the temporary cluster numbers
      */
-    protected void mergeClusterInformation(ModifiableDBIDs cellids, WritableIntegerDataStore temporary, WritableDataStore<Assignment> clusterids) {
+    protected void mergeClusterInformation(ModifiableDBIDs cellids, WritableIntegerDataStore temporary, WritableDataStore<Assignment> clusterids, int off) {
       FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Collecting result", cellids.size(), LOG) : null;
       for(DBIDIter id = cellids.iter(); id.valid(); id.advance()) {
         int nclus = temporary.intValue(id);
+        nclus = nclus > NOISE ? nclus + off : nclus < 0 ? nclus - off : nclus;
         if(nclus > NOISE) { // Core point
           Core core = cores[nclus];
           assert (core.num > NOISE);
@@ -695,6 +811,11 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
      */
     public static final OptionID GRID_ID = new OptionID("gridbscan.gridwidth", "Width of the grid used, must be at least two times epsilon.");
 
+    /**
+     * Flag to process the grid cells in parallel.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("gridbscan.parallel", "Process the grid cells in parallel.");
+
     /**
      * Holds the epsilon radius threshold.
      */
@@ -715,6 +836,11 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
      */
     protected LPNormDistance distance;
 
+    /**
+     * Process the grid cells in parallel.
+     */
+    protected boolean parallel;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<LPNormDistance>(Algorithm.Utils.DISTANCE_FUNCTION_ID, LPNormDistance.class, EuclideanDistance.class) //
@@ -735,11 +861,13 @@ public class GriDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Cl
           .setDefaultValue(epsilon > 0 ? 10. * epsilon : 1.) //
           .addConstraint(new GreaterEqualConstraint(2. * epsilon)) //
           .grab(config, x -> gridwidth = x);
+      new Flag(PARALLEL_ID) //
+          .grab(config, x -> parallel = x);
     }
 
     @Override
     public GriDBSCAN<O> make() {
-      return new GriDBSCAN<>(distance, epsilon, minpts, gridwidth);
+      return new GriDBSCAN<>(distance, epsilon, minpts, gridwidth, parallel);
     }
   }
 }
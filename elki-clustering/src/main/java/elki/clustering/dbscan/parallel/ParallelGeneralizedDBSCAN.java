@@ -20,17 +20,13 @@
  */
 package elki.clustering.dbscan.parallel;
 
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import elki.clustering.ClusteringAlgorithm;
 import elki.clustering.dbscan.predicates.CorePredicate;
 import elki.clustering.dbscan.predicates.EpsilonNeighborPredicate;
 import elki.clustering.dbscan.predicates.MinPtsCorePredicate;
 import elki.clustering.dbscan.predicates.NeighborPredicate;
-import elki.clustering.dbscan.util.Assignment;
-import elki.clustering.dbscan.util.Border;
-import elki.clustering.dbscan.util.Core;
-import elki.clustering.dbscan.util.MultiBorder;
 import elki.data.Cluster;
 import elki.data.Clustering;
 import elki.data.model.ClusterModel;
@@ -38,9 +34,6 @@ import elki.data.model.Model;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
 import elki.database.Database;
-import elki.database.datastore.DataStoreFactory;
-import elki.database.datastore.DataStoreUtil;
-import elki.database.datastore.WritableDataStore;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDRef;
 import elki.database.ids.DBIDUtil;
@@ -52,6 +45,8 @@ import elki.parallel.Executor;
 import elki.parallel.ParallelExecutor;
 import elki.parallel.processor.Processor;
 import elki.result.Metadata;
+import elki.utilities.datastructures.unionfind.ConcurrentUnionFindDBIDs;
+import elki.utilities.datastructures.unionfind.UnionFindUtil;
 import elki.utilities.documentation.Reference;
 import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.OptionID;
@@ -68,20 +63,20 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * sequentially expand a cluster, but processes points in arbitrary order and
  * merges clusters when neighboring core points occur.
  * <p>
- * Because of synchronization when labeling points, the speedup will only be
- * sublinear in the number of cores. But in particular without an index and on
- * large data, the majority of the work is finding the neighbors; not in
- * labeling the points.
+ * Clusters are merged with a lock-free union-find data structure
+ * ({@link ConcurrentUnionFindDBIDs}), so labeling points does not need
+ * synchronization. Each core point is first marked as core, and then joined
+ * with all neighbors already marked as core; hence one of two neighboring core
+ * points always observes the other. Non-core neighbors are claimed as border
+ * points by the first core point to find them.
  * <p>
  * Reference:
  * <p>
  * Please cite the latest ELKI version.
  * <p>
  * Related is the following publication, whose "disjoint set data structure"
- * appears to be a similar union-find approach to ours, and whose DSDBSCAN
- * appears rather similar. The main benefit of our approach is that we avoid
- * using the union-find data structure for every object, but only use it for
- * merging clusters.
+ * is a similar union-find approach to ours, and whose DSDBSCAN appears rather
+ * similar.
  * <p>
  * M. Patwary, D. Palsetia, A. Agrawal, W. K. Liao, F. Manne, A. Choudhary<br>
  * A new scalable parallel DBSCAN algorithm using the disjoint-set data
@@ -186,24 +181,15 @@ public class ParallelGeneralizedDBSCAN implements ClusteringAlgorithm<Clustering
     protected boolean coremodel = false;
 
     /**
-     * Cluster assignment storage.
+     * State of each object: {@link #CORE}, {@link #NOISE}, or the offset of
+     * a core point plus one for border points.
      */
-    private WritableDataStore<Assignment> clusterids;
+    private AtomicIntegerArray state;
 
     /**
-     * Core objects (shared)
+     * Union-find structure to merge core points.
      */
-    private Core[] cores;
-
-    /**
-     * Border objects (shared)
-     */
-    private Border[] borders;
-
-    /**
-     * Next cluster number assigned.
-     */
-    private int nextclus = 0;
+    private ConcurrentUnionFindDBIDs uf;
 
     /**
      * Database for cloning neighbor predicates.
@@ -220,6 +206,16 @@ public class ParallelGeneralizedDBSCAN implements ClusteringAlgorithm<Clustering
      */
     private FiniteProgress progress;
 
+    /**
+     * State of core points.
+     */
+    private static final int CORE = -1;
+
+    /**
+     * State of noise (and unprocessed) points.
+     */
+    private static final int NOISE = 0;
+
     /**
      * Full Constructor
      *
@@ -235,9 +231,6 @@ public class ParallelGeneralizedDBSCAN implements ClusteringAlgorithm<Clustering
       this.npreds = npreds;
       this.corepred = corepred.instantiate(database);
       this.coremodel = coremodel;
-      this.clusterids = DataStoreUtil.makeStorage(npred.getIDs(), DataStoreFactory.HINT_TEMP, Assignment.class);
-      this.cores = new Core[100];
-      this.borders = new Border[100];
     }
 
     /**
@@ -247,6 +240,8 @@ public class ParallelGeneralizedDBSCAN implements ClusteringAlgorithm<Clustering
      */
     public Clustering<Model> run() {
       DBIDs ids = npred.getIDs();
+      uf = UnionFindUtil.makeConcurrent(DBIDUtil.makeUnmodifiable(ids));
+      state = new AtomicIntegerArray(ids.size());
 
       progress = LOG.isVerbose() ? new FiniteProgress("DBSCAN clustering", ids.size(), LOG) : null;
       // Do the majority of the work in parallel:
@@ -254,37 +249,26 @@ public class ParallelGeneralizedDBSCAN implements ClusteringAlgorithm<Clustering
       ParallelExecutor.run(ids, this);
       LOG.ensureCompleted(progress);
 
-      // Build the final result
+      // Build the final result, clusters ordered by their smallest member
       FiniteProgress pprog = LOG.isVerbose() ? new FiniteProgress("Building final result", ids.size(), LOG) : null;
-      ModifiableDBIDs[] clusters = new ModifiableDBIDs[nextclus];
+      ModifiableDBIDs[] clusters = new ModifiableDBIDs[ids.size()];
       ModifiableDBIDs noise = DBIDUtil.newArray();
       for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
-        Assignment cids = clusterids.get(it);
-        if(cids == null) {
+        final int off = uf.offset(it), s = state.get(off);
+        if(s == NOISE) {
           noise.add(it);
           LOG.incrementProcessed(pprog);
           continue;
         }
-        if(cids instanceof MultiBorder) {
-          cids = ((MultiBorder) cids).getCore();
-        }
-        else if(cids instanceof Border) {
-          cids = ((Border) cids).core;
-        }
-        assert (cids instanceof Core);
-        Core co = (Core) cids;
-        while(cores[co.num].num != co.num) {
-          co = cores[co.num = cores[co.num].num];
-        }
-        ModifiableDBIDs clu = clusters[co.num];
+        final int root = uf.find(s == CORE ? off : s - 1);
+        ModifiableDBIDs clu = clusters[root];
         if(clu == null) {
-          clu = clusters[co.num] = DBIDUtil.newArray();
+          clu = clusters[root] = DBIDUtil.newArray();
         }
         clu.add(it);
         LOG.incrementProcessed(pprog);
       }
       LOG.ensureCompleted(pprog);
-      clusterids.destroy();
 
       // Wrap into final format
       Clustering<Model> result = new Clustering<>();
@@ -301,7 +285,7 @@ public class ParallelGeneralizedDBSCAN implements ClusteringAlgorithm<Clustering
     }
 
     /**
-     * Synchronize function to process the neighbors.
+     * Process the neighbors of a point, without locking.
      *
      * @param id Current point
      * @param neighbors Neighbors
@@ -311,51 +295,20 @@ public class ParallelGeneralizedDBSCAN implements ClusteringAlgorithm<Clustering
         LOG.incrementProcessed(progress);
         return;
       }
-      Core core = null;
-      // Find a possible cluster assignment
+      final int off = uf.offset(id);
+      // Mark as core first, before inspecting the neighbors:
+      state.set(off, CORE);
       for(DBIDIter it = npred.iterDBIDs(neighbors); it.valid(); it.advance()) {
-        Assignment cand = clusterids.get(it);
-        if(cand instanceof Core) { // Another core point
-          core = (Core) cand;
-          break;
+        final int noff = uf.offset(it);
+        if(noff == off) {
+          continue;
         }
-      }
-      synchronized(this) {
-        // Make a new cluster
-        if(core == null) {
-          // Grow arrays when necessary:
-          if(nextclus == cores.length) {
-            cores = Arrays.copyOf(cores, cores.length + (cores.length >> 1));
-            borders = Arrays.copyOf(borders, cores.length);
-          }
-          core = cores[nextclus] = new Core(nextclus);
-          borders[nextclus] = new Border(core);
-          ++nextclus;
+        final int s = state.get(noff);
+        if(s == CORE) { // Core and core - merge!
+          uf.union(off, noff);
         }
-        Border border = borders[core.num];
-        clusterids.put(id, core);
-        // Label neighbors, execute merges.
-        for(DBIDIter it = npred.iterDBIDs(neighbors); it.valid(); it.advance()) {
-          Assignment oclus = clusterids.get(it);
-          if(oclus == core) {
-            continue;
-          }
-          if(oclus == null) { // Neighbor is still noise:
-            clusterids.put(it, border);
-          }
-          else if(oclus instanceof Core) { // Core and core - merge!
-            core.mergeWith((Core) oclus);
-          }
-          else if(oclus instanceof Border) { // Border point -> MultiBorder
-            Border oborder = (Border) oclus;
-            if(border.core.num != oborder.core.num) {
-              clusterids.put(it, new MultiBorder(border, oborder));
-            }
-          }
-          else { // Point is already border for multiple clusters
-            assert (oclus instanceof MultiBorder);
-            clusterids.put(it, ((MultiBorder) oclus).update(border));
-          }
+        else if(s == NOISE) { // Claim as border point, unless someone was faster
+          state.compareAndSet(noff, NOISE, off + 1);
         }
       }
       LOG.incrementProcessed(progress);
@@ -23,6 +23,7 @@ package elki.clustering.em;
 import static elki.math.linearalgebra.VMath.argmax;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import elki.clustering.ClusteringAlgorithm;
@@ -38,6 +39,8 @@ import elki.data.type.TypeUtil;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.ModifiableDBIDs;
@@ -46,6 +49,7 @@ import elki.database.relation.Relation;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
 import elki.result.Metadata;
 import elki.utilities.Priority;
 import elki.utilities.documentation.Description;
@@ -147,6 +151,16 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
    */
   protected boolean soft;
 
+  /**
+   * Process the E and M steps in parallel.
+   */
+  protected boolean parallel;
+
+  /**
+   * Minimum block size for parallel processing.
+   */
+  protected static final int PARALLEL_MIN_BLOCK = 128;
+
   /**
    * Minimum loglikelihood to avoid -infinity.
    */
@@ -207,6 +221,22 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
    * @param soft Include soft assignments
    */
   public EM(int k, double delta, EMClusterModelFactory<? super O, M> mfactory, int miniter, int maxiter, double prior, boolean soft) {
+    this(k, delta, mfactory, miniter, maxiter, prior, soft, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param k k parameter
+   * @param delta delta parameter
+   * @param mfactory EM cluster model factory
+   * @param miniter Minimum number of iterations
+   * @param maxiter Maximum number of iterations
+   * @param prior MAP prior
+   * @param soft Include soft assignments
+   * @param parallel Process the E and M steps in parallel
+   */
+  public EM(int k, double delta, EMClusterModelFactory<? super O, M> mfactory, int miniter, int maxiter, double prior, boolean soft, boolean parallel) {
     super();
     this.k = k;
     this.delta = delta;
@@ -215,6 +245,7 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     this.maxiter = maxiter;
     this.prior = prior;
     this.soft = soft;
+    this.parallel = parallel;
   }
 
   @Override
@@ -240,7 +271,7 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     // initial models
     List<? extends EMClusterModel<? super O, M>> models = mfactory.buildInitialModels(relation, k);
     WritableDataStore<double[]> probClusterIGivenX = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_SORTED, double[].class);
-    double loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+    double loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX, parallel);
     DoubleStatistic likestat = new DoubleStatistic(this.getClass().getName() + ".loglikelihood");
     LOG.statistics(likestat.setDouble(loglikelihood));
 
@@ -249,9 +280,9 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     double bestloglikelihood = Double.NEGATIVE_INFINITY;//loglikelihood; // For detecting instabilities.
     for(++it; it < maxiter || maxiter < 0; it++) {
       final double oldloglikelihood = loglikelihood;
-      recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior);
+      recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior, parallel);
       // reassign probabilities
-      loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+      loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX, parallel);
 
       LOG.statistics(likestat.setDouble(loglikelihood));
       if(loglikelihood - bestloglikelihood > delta) {
@@ -340,6 +371,120 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     }
   }
 
+  /**
+   * Recompute the covariance matrixes, optionally in parallel.
+   * <p>
+   * In parallel mode, each block of objects is aggregated into separate
+   * accumulators (see {@link EMClusterModel#newAccumulator()}), which are
+   * merged in block order before finalizing the E step. If a model does not
+   * support accumulators, the sequential code is used.
+   *
+   * @param relation Vector data
+   * @param probClusterIGivenX Object probabilities
+   * @param models Cluster models to update
+   * @param prior MAP prior (use 0 for MLE)
+   * @param parallel Process in parallel
+   * @param <O> Object type
+   */
+  public static <O> void recomputeCovarianceMatrices(Relation<? extends O> relation, WritableDataStore<double[]> probClusterIGivenX, List<? extends EMClusterModel<? super O, ?>> models, double prior, boolean parallel) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int[] bounds = ParallelExecutor.blocks(0, ids.size(), PARALLEL_MIN_BLOCK);
+    final int k = models.size(), nblocks = bounds.length - 1;
+    if(!parallel || nblocks <= 1) {
+      recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior);
+      return;
+    }
+    boolean needsTwoPass = false;
+    for(EMClusterModel<?, ?> m : models) {
+      m.beginEStep();
+      needsTwoPass |= m.needsTwoPass();
+    }
+    List<List<EMClusterModel<? super O, ?>>> partials = newAccumulators(models, nblocks);
+    if(partials == null) {
+      recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior);
+      return;
+    }
+    // First pass, only for two-pass models.
+    if(needsTwoPass) {
+      final List<List<EMClusterModel<? super O, ?>>> first = partials;
+      ParallelExecutor.run(bounds, (start, end) -> {
+        final List<EMClusterModel<? super O, ?>> acc = first.get(Arrays.binarySearch(bounds, start));
+        for(DBIDArrayIter iditer = ids.iter().seek(start); iditer.getOffset() < end; iditer.advance()) {
+          double[] clusterProbabilities = probClusterIGivenX.get(iditer);
+          O instance = relation.get(iditer);
+          for(int i = 0; i < clusterProbabilities.length; i++) {
+            final double prob = clusterProbabilities[i];
+            if(prob > 1e-10) {
+              acc.get(i).firstPassE(instance, prob);
+            }
+          }
+        }
+      });
+      for(int i = 0; i < k; i++) {
+        EMClusterModel<?, ?> m = models.get(i);
+        for(List<EMClusterModel<? super O, ?>> acc : first) {
+          m.mergeFirstPassE(acc.get(i));
+        }
+        m.finalizeFirstPassE();
+      }
+      // Second pass accumulators need the new means.
+      partials = newAccumulators(models, nblocks);
+    }
+    final List<List<EMClusterModel<? super O, ?>>> second = partials;
+    final double[][] wsums = new double[nblocks][k];
+    ParallelExecutor.run(bounds, (start, end) -> {
+      final int b = Arrays.binarySearch(bounds, start);
+      final List<EMClusterModel<? super O, ?>> acc = second.get(b);
+      final double[] wsum = wsums[b];
+      for(DBIDArrayIter iditer = ids.iter().seek(start); iditer.getOffset() < end; iditer.advance()) {
+        double[] clusterProbabilities = probClusterIGivenX.get(iditer);
+        O instance = relation.get(iditer);
+        for(int i = 0; i < clusterProbabilities.length; i++) {
+          final double prob = clusterProbabilities[i];
+          if(prob > 1e-10) {
+            acc.get(i).updateE(instance, prob);
+          }
+          wsum[i] += prob;
+        }
+      }
+    });
+    for(int i = 0; i < k; i++) {
+      EMClusterModel<?, ?> m = models.get(i);
+      double wsum = 0.;
+      for(int b = 0; b < nblocks; b++) {
+        m.mergeE(second.get(b).get(i));
+        wsum += wsums[b][i];
+      }
+      // MLE / MAP
+      final double weight = prior <= 0. ? wsum / relation.size() : (wsum + prior - 1) / (relation.size() + prior * k - k);
+      m.finalizeEStep(weight, prior);
+    }
+  }
+
+  /**
+   * Create accumulators for each block and model.
+   *
+   * @param models Cluster models
+   * @param nblocks Number of blocks
+   * @param <O> Object type
+   * @return Accumulators, or {@code null} if not supported by a model
+   */
+  private static <O> List<List<EMClusterModel<? super O, ?>>> newAccumulators(List<? extends EMClusterModel<? super O, ?>> models, int nblocks) {
+    List<List<EMClusterModel<? super O, ?>>> partials = new ArrayList<>(nblocks);
+    for(int b = 0; b < nblocks; b++) {
+      List<EMClusterModel<? super O, ?>> acc = new ArrayList<>(models.size());
+      for(EMClusterModel<? super O, ?> m : models) {
+        EMClusterModel<? super O, ?> a = m.newAccumulator();
+        if(a == null) {
+          return null;
+        }
+        acc.add(a);
+      }
+      partials.add(acc);
+    }
+    return partials;
+  }
+
   /**
    * Assigns the current probability values to the instances in the database and
    * compute the expectation value of the current mixture of distributions.
@@ -374,6 +519,51 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     return emSum / relation.size();
   }
 
+  /**
+   * Assigns the current probability values to the instances in the database,
+   * optionally in parallel.
+   *
+   * @param relation the database used for assignment to instances
+   * @param models Cluster models
+   * @param probClusterIGivenX Output storage for cluster probabilities
+   * @param parallel Process in parallel
+   * @param <O> Object type
+   * @return the expectation value of the current mixture of distributions
+   */
+  public static <O> double assignProbabilitiesToInstances(Relation<? extends O> relation, List<? extends EMClusterModel<? super O, ?>> models, WritableDataStore<double[]> probClusterIGivenX, boolean parallel) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int[] bounds = ParallelExecutor.blocks(0, ids.size(), PARALLEL_MIN_BLOCK);
+    if(!parallel || bounds.length <= 2) {
+      return assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+    }
+    final int k = models.size();
+    final double[] emSums = new double[bounds.length - 1];
+    ParallelExecutor.run(bounds, (start, end) -> {
+      double emSum = 0.;
+      for(DBIDArrayIter iditer = ids.iter().seek(start); iditer.getOffset() < end; iditer.advance()) {
+        O vec = relation.get(iditer);
+        double[] probs = new double[k];
+        for(int i = 0; i < k; i++) {
+          double v = models.get(i).estimateLogDensity(vec);
+          probs[i] = v > MIN_LOGLIKELIHOOD ? v : MIN_LOGLIKELIHOOD;
+        }
+        final double logP = logSumExp(probs);
+        for(int i = 0; i < k; i++) {
+          probs[i] = FastMath.exp(probs[i] - logP);
+        }
+        probClusterIGivenX.put(iditer, probs);
+        emSum += logP;
+      }
+      emSums[Arrays.binarySearch(bounds, start)] = emSum;
+    });
+    // Sum in block order, for reproducible results.
+    double emSum = 0.;
+    for(double v : emSums) {
+      emSum += v;
+    }
+    return emSum / relation.size();
+  }
+
   /**
    * Compute log(sum(exp(x_i)), with attention to numerical issues.
    * 
@@ -461,6 +651,11 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
      */
     public static final OptionID SOFT_ID = new OptionID("em.soft", "Retain soft assignment of clusters.");
 
+    /**
+     * Parameter to enable parallel processing.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("em.parallel", "Process the E and M steps in parallel.");
+
     /**
      * Number of clusters.
      */
@@ -496,6 +691,11 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
      */
     boolean soft = false;
 
+    /**
+     * Process in parallel.
+     */
+    boolean parallel = false;
+
     @Override
     public void configure(Parameterization config) {
       new IntParameter(K_ID) //
@@ -520,11 +720,13 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
           .grab(config, x -> prior = x);
       new Flag(SOFT_ID) //
           .grab(config, x -> soft = x);
+      new Flag(PARALLEL_ID) //
+          .grab(config, x -> parallel = x);
     }
 
     @Override
     public EM<O, M> make() {
-      return new EM<>(k, delta, mfactory, miniter, maxiter, prior, soft);
+      return new EM<>(k, delta, mfactory, miniter, maxiter, prior, soft, parallel);
     }
   }
 }
@@ -144,6 +144,30 @@ public class DiagonalGaussianModel implements BetulaClusterModel {
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public DiagonalGaussianModel newAccumulator() {
+    DiagonalGaussianModel acc = new DiagonalGaussianModel(weight, new double[mean.length]);
+    acc.beginEStep();
+    return acc;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<?, ?> other) {
+    DiagonalGaussianModel o = (DiagonalGaussianModel) other;
+    if(!(o.wsum > 0.)) {
+      return;
+    }
+    final double nwsum = wsum + o.wsum;
+    final double f = o.wsum / nwsum, g = wsum * f;
+    // Combine means and variances (Chan et al.)
+    for(int i = 0; i < mean.length; i++) {
+      final double delta = o.mean[i] - mean[i];
+      variances[i] += o.variances[i] + delta * delta * g;
+      mean[i] += delta * f;
+    }
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = variances.length;
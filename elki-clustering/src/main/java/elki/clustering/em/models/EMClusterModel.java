@@ -83,6 +83,47 @@ public interface EMClusterModel<O, M extends Model> {
    */
   void finalizeEStep(double weight, double prior);
 
+  /**
+   * Create an empty accumulator for the current E step, for parallel
+   * processing. The accumulator receives the {@link #firstPassE} and
+   * {@link #updateE} calls of one block of the data, and is then merged back
+   * into this model using {@link #mergeFirstPassE} and {@link #mergeE}.
+   * <p>
+   * For two-pass models, a new accumulator is needed for each pass, created
+   * after {@link #beginEStep()} and after {@link #finalizeFirstPassE()}.
+   * <p>
+   * By default, this returns {@code null}, which means the model does not
+   * support a parallel E step, and EM then processes the data sequentially.
+   *
+   * @return Accumulator, or {@code null} if not supported
+   */
+  default EMClusterModel<O, M> newAccumulator() {
+    return null;
+  }
+
+  /**
+   * Merge the first pass statistics of an accumulator into this model.
+   * <p>
+   * By default, this is not used (c.f. {@link #needsTwoPass()}.
+   *
+   * @param other Accumulator obtained from {@link #newAccumulator()}
+   */
+  default void mergeFirstPassE(EMClusterModel<?, ?> other) {
+    // empty.
+  }
+
+  /**
+   * Merge the statistics of an accumulator into this model.
+   * <p>
+   * Only called if {@link #newAccumulator()} returned an accumulator, so
+   * models that support a parallel E step must override both.
+   *
+   * @param other Accumulator obtained from {@link #newAccumulator()}
+   */
+  default void mergeE(EMClusterModel<?, ?> other) {
+    throw new UnsupportedOperationException("Model " + getClass().getName() + " does not support a parallel E step.");
+  }
+
   /**
    * Estimate the log likelihood of a vector.
    * 
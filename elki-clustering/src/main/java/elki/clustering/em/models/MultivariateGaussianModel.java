@@ -150,6 +150,40 @@ public class MultivariateGaussianModel implements BetulaClusterModel {
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public MultivariateGaussianModel newAccumulator() {
+    MultivariateGaussianModel acc = new MultivariateGaussianModel(weight, new double[mean.length]);
+    acc.beginEStep();
+    return acc;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<?, ?> other) {
+    MultivariateGaussianModel o = (MultivariateGaussianModel) other;
+    if(!(o.wsum > 0.)) {
+      return;
+    }
+    final int dim = mean.length;
+    final double nwsum = wsum + o.wsum;
+    final double f = o.wsum / nwsum, g = wsum * f;
+    // Combine means and covariances (Chan et al.)
+    for(int i = 0; i < dim; i++) {
+      nmea[i] = o.mean[i] - mean[i];
+    }
+    for(int i = 0; i < dim; i++) {
+      final double d_i = nmea[i] * g;
+      final double[] cov_i = covariance[i], ocov_i = o.covariance[i];
+      for(int j = 0; j <= i; j++) {
+        cov_i[j] += ocov_i[j] + d_i * nmea[j];
+      }
+      // Other half is NOT updated here, but in finalizeEStep!
+    }
+    for(int i = 0; i < dim; i++) {
+      mean[i] += nmea[i] * f;
+    }
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = covariance.length;
@@ -131,6 +131,32 @@ public class SphericalGaussianModel implements BetulaClusterModel {
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public SphericalGaussianModel newAccumulator() {
+    SphericalGaussianModel acc = new SphericalGaussianModel(weight, new double[mean.length]);
+    acc.beginEStep();
+    return acc;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<?, ?> other) {
+    SphericalGaussianModel o = (SphericalGaussianModel) other;
+    if(!(o.wsum > 0.)) {
+      return;
+    }
+    final double nwsum = wsum + o.wsum;
+    final double f = o.wsum / nwsum, g = wsum * f;
+    // Combine means and variance (Chan et al.)
+    double ssq = 0.;
+    for(int i = 0; i < mean.length; i++) {
+      final double delta = o.mean[i] - mean[i];
+      ssq += delta * delta;
+      mean[i] += delta * f;
+    }
+    variance += o.variance + ssq * g;
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = mean.length;
@@ -158,6 +158,22 @@ public class TextbookMultivariateGaussianModel implements EMClusterModel<NumberV
     wsum += wei;
   }
 
+  @Override
+  public TextbookMultivariateGaussianModel newAccumulator() {
+    TextbookMultivariateGaussianModel acc = new TextbookMultivariateGaussianModel(weight, new double[mean.length]);
+    acc.beginEStep();
+    return acc;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<?, ?> other) {
+    TextbookMultivariateGaussianModel o = (TextbookMultivariateGaussianModel) other;
+    // Naive aggregates can simply be added:
+    plusEquals(mean, o.mean);
+    plusEquals(covariance, o.covariance);
+    wsum += o.wsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = covariance.length;
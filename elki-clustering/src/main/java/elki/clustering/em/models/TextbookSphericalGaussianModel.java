@@ -116,6 +116,22 @@ public class TextbookSphericalGaussianModel implements EMClusterModel<NumberVect
     // System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public TextbookSphericalGaussianModel newAccumulator() {
+    TextbookSphericalGaussianModel acc = new TextbookSphericalGaussianModel(weight, new double[mean.length]);
+    acc.beginEStep();
+    return acc;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<?, ?> other) {
+    TextbookSphericalGaussianModel o = (TextbookSphericalGaussianModel) other;
+    // Naive aggregates can simply be added:
+    plusEquals(mean, o.mean);
+    variance += o.variance;
+    wsum += o.wsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = mean.length;
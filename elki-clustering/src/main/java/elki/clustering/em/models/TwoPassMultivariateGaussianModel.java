@@ -169,6 +169,30 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<NumberVe
     }
   }
 
+  /**
+   * Create an accumulator, using the current mean. In the first pass, this is
+   * the cleared mean, in the second pass the mean computed in the first pass.
+   */
+  @Override
+  public TwoPassMultivariateGaussianModel newAccumulator() {
+    TwoPassMultivariateGaussianModel acc = new TwoPassMultivariateGaussianModel(weight, copy(mean));
+    clear(acc.covariance);
+    return acc;
+  }
+
+  @Override
+  public void mergeFirstPassE(EMClusterModel<?, ?> other) {
+    TwoPassMultivariateGaussianModel o = (TwoPassMultivariateGaussianModel) other;
+    plusEquals(mean, o.mean);
+    wsum += o.wsum;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<?, ?> other) {
+    // The weight sum was already merged in the first pass.
+    plusEquals(covariance, ((TwoPassMultivariateGaussianModel) other).covariance);
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = covariance.length;
@@ -38,11 +38,15 @@ import elki.distance.minkowski.EuclideanDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Alias;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -113,6 +117,11 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
    */
   private static final Logging LOG = Logging.getLogger(AGNES.class);
 
+  /**
+   * Minimum number of rows (or matrix columns) per thread in parallel mode.
+   */
+  protected static final int PARALLEL_MIN_BLOCK = 1024;
+
   /**
    * Distance function used.
    */
@@ -123,6 +132,16 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
    */
   protected Linkage linkage = WardLinkage.STATIC;
 
+  /**
+   * Storage layout of the distance matrix.
+   */
+  protected ClusterDistanceMatrix.Storage storage;
+
+  /**
+   * Use multiple threads for the distance matrix and its updates.
+   */
+  protected boolean parallel;
+
   /**
    * Constructor.
    *
@@ -130,9 +149,23 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
    * @param linkage Linkage method
    */
   public AGNES(Distance<? super O> distance, Linkage linkage) {
+    this(distance, linkage, ClusterDistanceMatrix.Storage.DOUBLE, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function to use
+   * @param linkage Linkage method
+   * @param storage Storage layout of the distance matrix
+   * @param parallel Use multiple threads
+   */
+  public AGNES(Distance<? super O> distance, Linkage linkage, ClusterDistanceMatrix.Storage storage, boolean parallel) {
     super();
     this.distance = distance;
     this.linkage = linkage;
+    this.storage = storage;
+    this.parallel = parallel;
   }
 
   /**
@@ -148,8 +181,8 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
     final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
     // Compute the initial (lower triangular) distance matrix.
     DistanceQuery<O> dq = new QueryBuilder<>(relation, distance).distanceQuery();
-    ClusterDistanceMatrix mat = initializeDistanceMatrix(ids, dq, linkage);
-    return new Instance(linkage).run(mat, new ClusterMergeHistoryBuilder(ids, distance.isSquared()));
+    ClusterDistanceMatrix mat = initializeDistanceMatrix(ids, dq, linkage, storage, parallel);
+    return new Instance(linkage, parallel).run(mat, new ClusterMergeHistoryBuilder(ids, distance.isSquared()));
   }
 
   /**
@@ -161,30 +194,84 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
    * @return cluster distance matrix
    */
   protected static ClusterDistanceMatrix initializeDistanceMatrix(ArrayDBIDs ids, DistanceQuery<?> dq, Linkage linkage) {
-    ClusterDistanceMatrix mat = new ClusterDistanceMatrix(ids.size());
-    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
-    final double[] matrix = mat.matrix;
+    return initializeDistanceMatrix(ids, dq, linkage, ClusterDistanceMatrix.Storage.DOUBLE, false);
+  }
+
+  /**
+   * Initialize a distance matrix.
+   * <p>
+   * In parallel mode, the rows are split into blocks with roughly the same
+   * number of matrix entries, which are computed by different threads. The
+   * resulting matrix is identical to the sequential version.
+   *
+   * @param ids Object ids
+   * @param dq Distance query
+   * @param linkage Linkage method
+   * @param storage Matrix storage layout
+   * @param parallel Use multiple threads
+   * @return cluster distance matrix
+   */
+  protected static ClusterDistanceMatrix initializeDistanceMatrix(ArrayDBIDs ids, DistanceQuery<?> dq, Linkage linkage, ClusterDistanceMatrix.Storage storage, boolean parallel) {
+    final int size = ids.size();
+    ClusterDistanceMatrix mat = ClusterDistanceMatrix.create(size, storage);
     final boolean issquare = dq.getDistance().isSquared();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Distance matrix computation", matrix.length, LOG) : null;
-    int pos = 0;
-    for(ix.seek(1); ix.valid(); ix.advance()) {
-      final int x = ix.getOffset();
-      assert pos == ClusterDistanceMatrix.triangleSize(x);
-      for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
-        matrix[pos++] = linkage.initial(dq.distance(ix, iy), issquare);
-      }
-      if(prog != null) {
-        prog.setProcessed(pos, LOG);
-      }
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Distance matrix computation", size, LOG) : null;
+    if(parallel && size > PARALLEL_MIN_BLOCK && ParallelCore.getCore().getParallelism() > 1) {
+      ParallelExecutor.run(triangleBlocks(size), (start, stop) -> computeRows(ids, dq, linkage, issquare, mat, start, stop, null));
+    }
+    else {
+      computeRows(ids, dq, linkage, issquare, mat, 1, size, prog);
     }
-    // Avoid logging errors in case scratch space was too large:
     if(prog != null) {
-      prog.setProcessed(matrix.length, LOG);
+      prog.setProcessed(size, LOG);
     }
     LOG.ensureCompleted(prog);
     return mat;
   }
 
+  /**
+   * Compute the rows [start;stop) of the initial distance matrix.
+   *
+   * @param ids Object ids
+   * @param dq Distance query
+   * @param linkage Linkage method
+   * @param issquare Distance is squared
+   * @param mat Output matrix
+   * @param start First row
+   * @param stop Stop row (exclusive)
+   * @param prog Progress, may be {@code null}
+   */
+  private static void computeRows(ArrayDBIDs ids, DistanceQuery<?> dq, Linkage linkage, boolean issquare, ClusterDistanceMatrix mat, int start, int stop, FiniteProgress prog) {
+    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+    long pos = ClusterDistanceMatrix.triangleSize(start);
+    for(ix.seek(start); ix.getOffset() < stop; ix.advance()) {
+      for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
+        mat.set(pos++, linkage.initial(dq.distance(ix, iy), issquare));
+      }
+      if(prog != null) {
+        prog.setProcessed(ix.getOffset() + 1, LOG);
+      }
+    }
+  }
+
+  /**
+   * Split the rows of a triangular matrix into blocks of about the same number
+   * of entries, one per thread.
+   *
+   * @param size Matrix size
+   * @return Block boundaries (rows)
+   */
+  protected static int[] triangleBlocks(int size) {
+    final int nb = Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), size / PARALLEL_MIN_BLOCK));
+    int[] bounds = new int[nb + 1];
+    bounds[0] = 1; // Row 0 is empty
+    for(int i = 1; i < nb; i++) {
+      bounds[i] = Math.max(bounds[i - 1], (int) (size * Math.sqrt(i / (double) nb)));
+    }
+    bounds[nb] = size;
+    return bounds;
+  }
+
   /**
    * Main worker instance of AGNES.
    * 
@@ -211,13 +298,29 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
      */
     protected int end;
 
+    /**
+     * Use multiple threads for matrix updates.
+     */
+    protected boolean parallel;
+
     /**
      * Constructor.
      *
      * @param linkage Linkage
      */
     public Instance(Linkage linkage) {
+      this(linkage, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param linkage Linkage
+     * @param parallel Use multiple threads for matrix updates
+     */
+    public Instance(Linkage linkage, boolean parallel) {
       this.linkage = linkage;
+      this.parallel = parallel;
     }
 
     /**
@@ -250,11 +353,11 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
      */
     protected int findMerge() {
       assert end > 0;
-      final double[] matrix = mat.matrix;
       double mindist = Double.POSITIVE_INFINITY;
       int x = -1, y = -1;
       // Find minimum:
-      for(int ox = 0, xbase = 0; ox < end; xbase += ox++) {
+      long xbase = 0;
+      for(int ox = 0; ox < end; xbase += ox++) {
         // Skip if object has already joined a cluster:
         if(mat.clustermap[ox] < 0) {
           continue;
@@ -265,7 +368,7 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
           if(mat.clustermap[oy] < 0) {
             continue;
           }
-          final double dist = matrix[xbase + oy];
+          final double dist = mat.get(xbase + oy);
           if(dist <= mindist) { // Prefer later on ==, to truncate more often.
             mindist = dist;
             x = ox;
@@ -307,34 +410,59 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
      * @param sizey Old size of second cluster
      */
     protected void updateMatrix(double mindist, int x, int y, final int sizex, final int sizey) {
-      final int xbase = ClusterDistanceMatrix.triangleSize(x);
-      final int ybase = ClusterDistanceMatrix.triangleSize(y);
-      double[] scratch = mat.matrix;
+      if(parallel && end > PARALLEL_MIN_BLOCK << 1 && ParallelCore.getCore().getParallelism() > 1) {
+        ParallelExecutor.run(ParallelExecutor.blocks(0, end, PARALLEL_MIN_BLOCK), //
+            (start, stop) -> updateMatrix(mindist, x, y, sizex, sizey, start, stop));
+        return;
+      }
+      updateMatrix(mindist, x, y, sizex, sizey, 0, end);
+    }
+
+    /**
+     * Update the scratch distance matrix, for the objects in the range
+     * [start;stop). Each j only modifies its own matrix cell with y, hence
+     * disjoint ranges can be processed concurrently.
+     *
+     * @param mindist Minimum distance
+     * @param x First matrix position
+     * @param y Second matrix position
+     * @param sizex Old size of first cluster
+     * @param sizey Old size of second cluster
+     * @param start First object to update
+     * @param stop Stop index (exclusive)
+     */
+    protected void updateMatrix(double mindist, int x, int y, final int sizex, final int sizey, int start, int stop) {
+      final long xbase = ClusterDistanceMatrix.triangleSize(x);
+      final long ybase = ClusterDistanceMatrix.triangleSize(y);
 
       // Write to (y, j), with j < y
-      int j = 0;
-      for(; j < y; j++) {
+      int j = start;
+      for(final int e = Math.min(y, stop); j < e; j++) {
         if(mat.clustermap[j] >= 0) {
           assert j < y; // Otherwise, ybase + j is the wrong position!
-          final int yb = ybase + j;
-          scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], builder.getSize(mat.clustermap[j]), mindist);
+          final long yb = ybase + j;
+          mat.set(yb, linkage.combine(sizex, mat.get(xbase + j), sizey, mat.get(yb), builder.getSize(mat.clustermap[j]), mindist));
         }
       }
-      j++; // Skip y
+      if(j == y) {
+        j++; // Skip y
+      }
       // Write to (j, y), with y < j < x
-      int jbase = ClusterDistanceMatrix.triangleSize(j);
-      for(; j < x; jbase += j++) {
+      long jbase = ClusterDistanceMatrix.triangleSize(j);
+      for(final int e = Math.min(x, stop); j < e; jbase += j++) {
         if(mat.clustermap[j] >= 0) {
-          final int jb = jbase + y;
-          scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], builder.getSize(mat.clustermap[j]), mindist);
+          final long jb = jbase + y;
+          mat.set(jb, linkage.combine(sizex, mat.get(xbase + j), sizey, mat.get(jb), builder.getSize(mat.clustermap[j]), mindist));
         }
       }
-      jbase += j++; // Skip x
+      if(j == x) {
+        jbase += j++; // Skip x
+      }
       // Write to (j, y), with y < x < j
-      for(; j < end; jbase += j++) {
+      for(; j < stop; jbase += j++) {
         if(mat.clustermap[j] >= 0) {
-          final int jb = jbase + y;
-          scratch[jb] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jb], builder.getSize(mat.clustermap[j]), mindist);
+          final long jb = jbase + y;
+          mat.set(jb, linkage.combine(sizex, mat.get(jbase + x), sizey, mat.get(jb), builder.getSize(mat.clustermap[j]), mindist));
         }
       }
     }
@@ -379,6 +507,16 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
      */
     public static final OptionID LINKAGE_ID = new OptionID("hierarchical.linkage", "Linkage method to use (e.g. Ward, Single-Link)");
 
+    /**
+     * Option ID for parallel processing.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("hierarchical.parallel", "Use multiple threads for computing and updating the distance matrix.");
+
+    /**
+     * Option ID for the matrix storage layout.
+     */
+    public static final OptionID MATRIX_ID = new OptionID("hierarchical.matrix", "Storage of the distance matrix: DOUBLE (in memory), FLOAT (in memory, half the size, reduced precision) or MAPPED (memory-mapped temporary file).");
+
     /**
      * Current linkage in use.
      */
@@ -389,6 +527,16 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
      */
     protected Distance<? super O> distance;
 
+    /**
+     * Storage layout of the distance matrix.
+     */
+    protected ClusterDistanceMatrix.Storage storage;
+
+    /**
+     * Use multiple threads.
+     */
+    protected boolean parallel;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Linkage>(LINKAGE_ID, Linkage.class) //
@@ -398,11 +546,14 @@ public class AGNES<O> implements HierarchicalClusteringAlgorithm {
           ? SquaredEuclideanDistance.class : EuclideanDistance.class;
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, defaultD) //
           .grab(config, x -> distance = x);
+      new EnumParameter<ClusterDistanceMatrix.Storage>(MATRIX_ID, ClusterDistanceMatrix.Storage.class, ClusterDistanceMatrix.Storage.DOUBLE) //
+          .grab(config, x -> storage = x);
+      new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
     }
 
     @Override
     public AGNES<O> make() {
-      return new AGNES<>(distance, linkage);
+      return new AGNES<>(distance, linkage, storage, parallel);
     }
   }
 }
@@ -20,6 +20,8 @@
  */
 package elki.clustering.hierarchical;
 
+import java.util.function.Supplier;
+
 import elki.Algorithm;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
@@ -36,12 +38,20 @@ import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.math.MathUtil;
 import elki.math.geometry.PrimsMinimumSpanningTree;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.KDistanceProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
 import elki.utilities.datastructures.heap.DoubleLongHeap;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -78,6 +88,16 @@ public abstract class AbstractHDBSCAN<O> implements Algorithm {
    */
   protected Distance<? super O> distance;
 
+  /**
+   * Use multiple threads.
+   */
+  protected boolean parallel;
+
+  /**
+   * Minimum block size for parallel processing.
+   */
+  protected static final int PARALLEL_MIN_BLOCK = 1024;
+
   /**
    * Constructor.
    *
@@ -85,9 +105,21 @@ public abstract class AbstractHDBSCAN<O> implements Algorithm {
    * @param minPts Minimum number of points for coredists
    */
   public AbstractHDBSCAN(Distance<? super O> distance, int minPts) {
+    this(distance, minPts, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param minPts Minimum number of points for coredists
+   * @param parallel Use multiple threads
+   */
+  public AbstractHDBSCAN(Distance<? super O> distance, int minPts, boolean parallel) {
     super();
     this.distance = distance;
     this.minPts = minPts;
+    this.parallel = parallel;
   }
 
   /**
@@ -110,6 +142,39 @@ public abstract class AbstractHDBSCAN<O> implements Algorithm {
     return coredists;
   }
 
+  /**
+   * Compute the core distances for all objects, using multiple threads.
+   *
+   * @param ids Objects
+   * @param knnQ Factory for kNN queries, one per thread
+   * @param minPts Minimum neighborhood size
+   * @return Data store with core distances
+   */
+  protected WritableDoubleDataStore computeCoreDists(DBIDs ids, Supplier<KNNSearcher<DBIDRef>> knnQ, int minPts) {
+    final WritableDoubleDataStore coredists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB);
+    KNNProcessor knnm = new KNNProcessor(minPts, knnQ);
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    knnm.connectKNNOutput(knnv);
+    KDistanceProcessor kdistm = new KDistanceProcessor(minPts);
+    SharedDouble kdistv = new SharedDouble();
+    kdistm.connectKNNInput(knnv);
+    kdistm.connectOutput(kdistv);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(coredists);
+    storem.connectInput(kdistv);
+    ParallelExecutor.run(ids, knnm, kdistm, storem);
+    return coredists;
+  }
+
+  /**
+   * Test whether to use multiple threads for a range of the given size.
+   *
+   * @param size Range size
+   * @return {@code true} when parallel processing is enabled and useful
+   */
+  protected boolean useParallel(int size) {
+    return parallel && size > PARALLEL_MIN_BLOCK << 1 && ParallelCore.getCore().getParallelism() > 1;
+  }
+
   /**
    * Class for processing the HDBSCAN G_mpts graph.
    *
@@ -262,6 +327,11 @@ public abstract class AbstractHDBSCAN<O> implements Algorithm {
      */
     public static final OptionID MIN_PTS_ID = new OptionID("hdbscan.minPts", "Threshold for minimum number of points in the epsilon-neighborhood of a point (including this point).");
 
+    /**
+     * Flag to use multiple threads.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("hdbscan.parallel", "Use multiple threads for core distances and the spanning tree.");
+
     /**
      * Minimum size of core.
      */
@@ -272,6 +342,11 @@ public abstract class AbstractHDBSCAN<O> implements Algorithm {
      */
     protected Distance<? super O> distance;
 
+    /**
+     * Use multiple threads.
+     */
+    protected boolean parallel;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Distance<O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
@@ -279,6 +354,8 @@ public abstract class AbstractHDBSCAN<O> implements Algorithm {
       new IntParameter(MIN_PTS_ID) //
           .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
           .grab(config, x -> minPts = x);
+      new Flag(PARALLEL_ID) //
+          .grab(config, x -> parallel = x);
     }
   }
 }
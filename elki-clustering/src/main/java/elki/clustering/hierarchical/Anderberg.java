@@ -39,10 +39,14 @@ import elki.distance.minkowski.EuclideanDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Priority;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -94,6 +98,18 @@ public class Anderberg<O> extends AGNES<O> {
     super(distance, linkage);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function to use
+   * @param linkage Linkage method
+   * @param storage Storage layout of the distance matrix
+   * @param parallel Use multiple threads
+   */
+  public Anderberg(Distance<? super O> distance, Linkage linkage, ClusterDistanceMatrix.Storage storage, boolean parallel) {
+    super(distance, linkage, storage, parallel);
+  }
+
   @Override
   public ClusterMergeHistory run(Relation<O> relation) {
     if(SingleLinkage.class.isInstance(linkage)) {
@@ -101,8 +117,8 @@ public class Anderberg<O> extends AGNES<O> {
     }
     final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
     DistanceQuery<O> dq = new QueryBuilder<>(relation, distance).distanceQuery();
-    ClusterDistanceMatrix mat = AGNES.initializeDistanceMatrix(ids, dq, linkage);
-    return new Instance(linkage).run(mat, new ClusterMergeHistoryBuilder(ids, distance.isSquared()));
+    ClusterDistanceMatrix mat = AGNES.initializeDistanceMatrix(ids, dq, linkage, storage, parallel);
+    return new Instance(linkage, parallel).run(mat, new ClusterMergeHistoryBuilder(ids, distance.isSquared()));
   }
 
   /**
@@ -130,6 +146,16 @@ public class Anderberg<O> extends AGNES<O> {
       super(linkage);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param linkage Linkage method
+     * @param parallel Use multiple threads for matrix updates
+     */
+    public Instance(Linkage linkage, boolean parallel) {
+      super(linkage, parallel);
+    }
+
     @Override
     public ClusterMergeHistory run(ClusterDistanceMatrix mat, ClusterMergeHistoryBuilder builder) {
       final int size = mat.size;
@@ -138,7 +164,7 @@ public class Anderberg<O> extends AGNES<O> {
       this.end = size;
       this.bestd = new double[size];
       this.besti = new int[size];
-      initializeNNCache(mat.matrix, bestd, besti);
+      initializeNNCache(mat, bestd, besti, parallel);
 
       // Repeat until everything merged into 1 cluster
       FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Agglomerative clustering", size - 1, LOG) : null;
@@ -153,21 +179,51 @@ public class Anderberg<O> extends AGNES<O> {
     /**
      * Initialize the NN cache.
      *
-     * @param scratch Scratch space
+     * @param mat Distance matrix
      * @param bestd Best distance
      * @param besti Best index
      */
-    protected static void initializeNNCache(double[] scratch, double[] bestd, int[] besti) {
+    protected static void initializeNNCache(ClusterDistanceMatrix mat, double[] bestd, int[] besti) {
+      initializeNNCache(mat, bestd, besti, false);
+    }
+
+    /**
+     * Initialize the NN cache.
+     *
+     * @param mat Distance matrix
+     * @param bestd Best distance
+     * @param besti Best index
+     * @param parallel Use multiple threads
+     */
+    protected static void initializeNNCache(ClusterDistanceMatrix mat, double[] bestd, int[] besti, boolean parallel) {
       final int size = bestd.length;
       Arrays.fill(bestd, Double.POSITIVE_INFINITY);
       Arrays.fill(besti, -1);
       besti[0] = Integer.MAX_VALUE; // invalid, but not deactivated
-      for(int x = 1, p = 0; x < size; x++) {
+      if(parallel && size > PARALLEL_MIN_BLOCK && ParallelCore.getCore().getParallelism() > 1) {
+        ParallelExecutor.run(triangleBlocks(size), (start, stop) -> initializeNNCache(mat, bestd, besti, start, stop));
+        return;
+      }
+      initializeNNCache(mat, bestd, besti, 1, size);
+    }
+
+    /**
+     * Initialize the NN cache for the rows [start;stop).
+     *
+     * @param mat Distance matrix
+     * @param bestd Best distance
+     * @param besti Best index
+     * @param start First row
+     * @param stop Stop row (exclusive)
+     */
+    private static void initializeNNCache(ClusterDistanceMatrix mat, double[] bestd, int[] besti, int start, int stop) {
+      long p = ClusterDistanceMatrix.triangleSize(start);
+      for(int x = start; x < stop; x++) {
         assert p == ClusterDistanceMatrix.triangleSize(x);
         double bestdx = Double.POSITIVE_INFINITY;
         int bestix = -1;
         for(int y = 0; y < x; y++) {
-          final double v = scratch[p++];
+          final double v = mat.get(p++);
           if(v < bestdx) {
             bestdx = v;
             bestix = y;
@@ -225,64 +281,75 @@ public class Anderberg<O> extends AGNES<O> {
       mat.clustermap[x] = besti[x] = -1; // Deactivate removed cluster.
       updateMatrix(mindist, x, y, sizex, sizey);
       if(y > 0) {
-        findBest(mat.matrix, bestd, besti, y);
+        findBest(mat, bestd, besti, y);
       }
     }
 
     /**
-     * Update the scratch distance matrix.
+     * Update the scratch distance matrix and the NN cache, for the objects in
+     * the range [start;stop). The cache of j is only modified when processing
+     * j, hence disjoint ranges can be processed concurrently.
      *
      * @param mindist Distance that was used for merging
      * @param x First matrix position
      * @param y Second matrix position
      * @param sizex Old size of first cluster, with {@code x > y}
      * @param sizey Old size of second cluster, with {@code y > x}
+     * @param start First object to update
+     * @param stop Stop index (exclusive)
      */
-    protected void updateMatrix(double mindist, int x, int y, int sizex, int sizey) {
-      final int xbase = ClusterDistanceMatrix.triangleSize(x);
-      final int ybase = ClusterDistanceMatrix.triangleSize(y);
-      double[] scratch = mat.matrix;
+    @Override
+    protected void updateMatrix(double mindist, int x, int y, int sizex, int sizey, int start, int stop) {
+      final long xbase = ClusterDistanceMatrix.triangleSize(x);
+      final long ybase = ClusterDistanceMatrix.triangleSize(y);
 
       // Write to (y, j), with j < y
-      int j = 0;
-      for(; j < y; j++) {
+      int j = start;
+      for(final int e = Math.min(y, stop); j < e; j++) {
         if(mat.clustermap[j] < 0) {
           continue;
         }
         final int sizej = builder.getSize(mat.clustermap[j]);
-        final int yb = ybase + j;
-        final double d = scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], sizej, mindist);
-        updateCache(scratch, bestd, besti, x, y, j, d);
+        final long yb = ybase + j;
+        final double d = linkage.combine(sizex, mat.get(xbase + j), sizey, mat.get(yb), sizej, mindist);
+        mat.set(yb, d);
+        updateCache(mat, bestd, besti, x, y, j, d);
+      }
+      if(j == y) {
+        j++; // Skip y
       }
-      j++; // Skip y
       // Write to (j, y), with y < j < x
-      int jbase = ClusterDistanceMatrix.triangleSize(j);
-      for(; j < x; jbase += j++) {
+      long jbase = ClusterDistanceMatrix.triangleSize(j);
+      for(final int e = Math.min(x, stop); j < e; jbase += j++) {
         if(mat.clustermap[j] < 0) {
           continue;
         }
         final int sizej = builder.getSize(mat.clustermap[j]);
-        final int jb = jbase + y;
-        final double d = scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], sizej, mindist);
-        updateCache(scratch, bestd, besti, x, y, j, d);
+        final long jb = jbase + y;
+        final double d = linkage.combine(sizex, mat.get(xbase + j), sizey, mat.get(jb), sizej, mindist);
+        mat.set(jb, d);
+        updateCache(mat, bestd, besti, x, y, j, d);
+      }
+      if(j == x) {
+        jbase += j++; // Skip x
       }
-      jbase += j++; // Skip x
       // Write to (j, y), with y < x < j
-      for(; j < end; jbase += j++) {
+      for(; j < stop; jbase += j++) {
         if(mat.clustermap[j] < 0) {
           continue;
         }
         final int sizej = builder.getSize(mat.clustermap[j]);
-        final int jb = jbase + y;
-        final double d = scratch[jb] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jb], sizej, mindist);
-        updateCache(scratch, bestd, besti, x, y, j, d);
+        final long jb = jbase + y;
+        final double d = linkage.combine(sizex, mat.get(jbase + x), sizey, mat.get(jb), sizej, mindist);
+        mat.set(jb, d);
+        updateCache(mat, bestd, besti, x, y, j, d);
       }
     }
 
     /**
      * Update the cache.
      *
-     * @param scratch Scratch matrix
+     * @param mat Distance matrix
      * @param bestd Best distance
      * @param besti Best index
      * @param x First cluster
@@ -290,7 +357,7 @@ public class Anderberg<O> extends AGNES<O> {
      * @param j Updated value d(y, j)
      * @param d New distance
      */
-    protected static void updateCache(double[] scratch, double[] bestd, int[] besti, int x, int y, int j, double d) {
+    protected static void updateCache(ClusterDistanceMatrix mat, double[] bestd, int[] besti, int x, int y, int j, double d) {
       assert y < x;
       // New best
       if(y < j && d <= bestd[j]) {
@@ -300,28 +367,28 @@ public class Anderberg<O> extends AGNES<O> {
       }
       // Needs slow update.
       if(besti[j] == x || besti[j] == y) {
-        findBest(scratch, bestd, besti, j);
+        findBest(mat, bestd, besti, j);
       }
     }
 
     /**
      * Find the best in a row of the triangular matrix.
      *
-     * @param scratch Scratch matrix
+     * @param mat Distance matrix
      * @param bestd Best distances cache
      * @param besti Best indexes cache
      * @param j Row to update
      */
-    protected static void findBest(double[] scratch, double[] bestd, int[] besti, int j) {
+    protected static void findBest(ClusterDistanceMatrix mat, double[] bestd, int[] besti, int j) {
       // The distance has increased, we may no longer be the best merge.
       double bestdj = Double.POSITIVE_INFINITY;
       int bestij = -1;
-      for(int i = 0,
-          o = ClusterDistanceMatrix.triangleSize(j); i < j; i++, o++) {
+      long o = ClusterDistanceMatrix.triangleSize(j);
+      for(int i = 0; i < j; i++, o++) {
         if(besti[i] < 0) {
           continue;
         }
-        final double dist = scratch[o];
+        final double dist = mat.get(o);
         if(dist <= bestdj) {
           bestdj = dist;
           bestij = i;
@@ -358,6 +425,16 @@ public class Anderberg<O> extends AGNES<O> {
      */
     protected Distance<? super O> distance;
 
+    /**
+     * Storage layout of the distance matrix.
+     */
+    protected ClusterDistanceMatrix.Storage storage;
+
+    /**
+     * Use multiple threads.
+     */
+    protected boolean parallel;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Linkage>(AGNES.Par.LINKAGE_ID, Linkage.class) //
@@ -367,11 +444,14 @@ public class Anderberg<O> extends AGNES<O> {
           ? SquaredEuclideanDistance.class : EuclideanDistance.class;
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, defaultD) //
           .grab(config, x -> distance = x);
+      new EnumParameter<ClusterDistanceMatrix.Storage>(AGNES.Par.MATRIX_ID, ClusterDistanceMatrix.Storage.class, ClusterDistanceMatrix.Storage.DOUBLE) //
+          .grab(config, x -> storage = x);
+      new Flag(AGNES.Par.PARALLEL_ID).grab(config, x -> parallel = x);
     }
 
     @Override
     public Anderberg<O> make() {
-      return new Anderberg<>(distance, linkage);
+      return new Anderberg<>(distance, linkage, storage, parallel);
     }
   }
 }
@@ -20,6 +20,14 @@
  */
 package elki.clustering.hierarchical;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import elki.math.MathUtil;
 import elki.utilities.exceptions.AbortException;
 
@@ -32,16 +40,47 @@ import elki.utilities.exceptions.AbortException;
  * the matrix view (indexed by integers 0...n-1).
  * <p>
  * While this will usually store (merge-) distances when clustering, it can
- * store arbitrary doubles.
+ * store arbitrary doubles. The lower triangular matrix is stored linearized,
+ * with positions given by {@code triangleSize(x) + y} for {@code y < x}. As
+ * this exceeds the integer range beyond 65536 objects, positions are longs;
+ * see {@link Storage} for the available storage layouts.
  *
  * @author Erich Schubert
  * @since 0.7.5
  */
-public class ClusterDistanceMatrix {
+public abstract class ClusterDistanceMatrix {
+  /**
+   * Storage layouts of the matrix.
+   *
+   * @author Erich Schubert
+   */
+  public static enum Storage {
+    /**
+     * Double precision, in main memory (8 bytes per pair).
+     */
+    DOUBLE,
+    /**
+     * Single precision, in main memory (4 bytes per pair). Distances are
+     * computed in double precision, but rounded when stored.
+     */
+    FLOAT,
+    /**
+     * Double precision, in a memory-mapped temporary file (in
+     * {@code java.io.tmpdir}), paged by the operating system.
+     */
+    MAPPED
+  }
+
   /**
-   * Distance matrix (<b>modifiable</b>).
+   * Number of entries per segment, as power of two (must be at most 27, as
+   * 2^28 doubles would be 2 GiB, more than a single mapped buffer can hold).
    */
-  public final double[] matrix;
+  protected static final int SEGMENT_SHIFT = 27;
+
+  /**
+   * Largest size that fits into a single Java array.
+   */
+  private static final int MAX_ARRAY_SIZE = 0x10000;
 
   /**
    * Mapping from positions to cluster numbers
@@ -58,27 +97,83 @@ public class ClusterDistanceMatrix {
    *
    * @param size Size
    */
-  public ClusterDistanceMatrix(int size) {
+  protected ClusterDistanceMatrix(int size) {
     this.size = size;
-    if(size > 0x10000) {
-      throw new AbortException("This implementation does not scale to data sets larger than " + //
-          0x10000 // = 65535
-          + " instances (~16 GB RAM), at which point the Java maximum array size is reached.");
-    }
-    matrix = new double[triangleSize(size)];
     clustermap = MathUtil.sequence(0, size);
   }
 
+  /**
+   * Allocate an in-memory double precision matrix.
+   *
+   * @param size Size
+   * @return Matrix
+   */
+  public static ClusterDistanceMatrix create(int size) {
+    return create(size, Storage.DOUBLE);
+  }
+
+  /**
+   * Allocate a matrix.
+   *
+   * @param size Size
+   * @param storage Storage layout
+   * @return Matrix
+   */
+  public static ClusterDistanceMatrix create(int size, Storage storage) {
+    return create(size, storage, MAX_ARRAY_SIZE, SEGMENT_SHIFT);
+  }
+
+  /**
+   * Allocate a matrix, with custom segmentation (for testing the segmented
+   * storage without allocating gigabytes).
+   *
+   * @param size Size
+   * @param storage Storage layout
+   * @param maxArraySize Largest size to store in a single array
+   * @param shift Number of entries per segment, as power of two
+   * @return Matrix
+   */
+  static ClusterDistanceMatrix create(int size, Storage storage, int maxArraySize, int shift) {
+    assert shift > 0 && shift <= SEGMENT_SHIFT;
+    switch(storage){
+    case FLOAT:
+      return new FloatMatrix(size, shift);
+    case MAPPED:
+      return new MappedMatrix(size, shift);
+    case DOUBLE:
+    default:
+      return size <= maxArraySize ? new DoubleMatrix(size) : new SegmentedDoubleMatrix(size, shift);
+    }
+  }
+
   /**
    * Compute the size of a complete x by x triangle (minus diagonal)
    *
    * @param x Offset
    * @return Size of complete triangle
    */
-  public static int triangleSize(int x) {
-    return (x * (x - 1)) >>> 1;
+  public static long triangleSize(int x) {
+    return ((long) x * (x - 1)) >>> 1;
   }
 
+  /**
+   * Get the value at a linearized position.
+   *
+   * @param pos Position
+   * @return Value
+   */
+  public abstract double get(long pos);
+
+  /**
+   * Set the value at a linearized position.
+   * <p>
+   * Writes to different positions may be performed concurrently.
+   *
+   * @param pos Position
+   * @param v Value
+   */
+  public abstract void set(long pos, double v);
+
   /**
    * Get a value from the (upper triangular) distance matrix.
    * <p>
@@ -90,6 +185,211 @@ public class ClusterDistanceMatrix {
    * @return Distance
    */
   public double get(int x, int y) {
-    return x == y ? 0 : x < y ? matrix[triangleSize(y) + x] : matrix[triangleSize(x) + y];
+    return x == y ? 0 : x < y ? get(triangleSize(y) + x) : get(triangleSize(x) + y);
+  }
+
+  /**
+   * Matrix in a single double array, for up to 65536 objects.
+   *
+   * @author Erich Schubert
+   */
+  private static class DoubleMatrix extends ClusterDistanceMatrix {
+    /**
+     * Distance matrix.
+     */
+    private final double[] matrix;
+
+    /**
+     * Constructor.
+     *
+     * @param size Size
+     */
+    private DoubleMatrix(int size) {
+      super(size);
+      matrix = new double[(int) triangleSize(size)];
+    }
+
+    @Override
+    public double get(long pos) {
+      return matrix[(int) pos];
+    }
+
+    @Override
+    public void set(long pos, double v) {
+      matrix[(int) pos] = v;
+    }
+  }
+
+  /**
+   * Matrix in multiple double arrays.
+   *
+   * @author Erich Schubert
+   */
+  private static class SegmentedDoubleMatrix extends ClusterDistanceMatrix {
+    /**
+     * Distance matrix segments.
+     */
+    private final double[][] segments;
+
+    /**
+     * Number of entries per segment, as power of two.
+     */
+    private final int shift;
+
+    /**
+     * Mask for the position within a segment.
+     */
+    private final long mask;
+
+    /**
+     * Constructor.
+     *
+     * @param size Size
+     * @param shift Number of entries per segment, as power of two
+     */
+    private SegmentedDoubleMatrix(int size, int shift) {
+      super(size);
+      this.shift = shift;
+      this.mask = (1L << shift) - 1;
+      final long len = triangleSize(size);
+      segments = new double[(int) ((len + mask) >>> shift)][];
+      for(int i = 0; i < segments.length; i++) {
+        segments[i] = new double[(int) Math.min(len - ((long) i << shift), 1L << shift)];
+      }
+    }
+
+    @Override
+    public double get(long pos) {
+      return segments[(int) (pos >>> shift)][(int) (pos & mask)];
+    }
+
+    @Override
+    public void set(long pos, double v) {
+      segments[(int) (pos >>> shift)][(int) (pos & mask)] = v;
+    }
+  }
+
+  /**
+   * Matrix in multiple float arrays.
+   *
+   * @author Erich Schubert
+   */
+  private static class FloatMatrix extends ClusterDistanceMatrix {
+    /**
+     * Distance matrix segments.
+     */
+    private final float[][] segments;
+
+    /**
+     * Number of entries per segment, as power of two.
+     */
+    private final int shift;
+
+    /**
+     * Mask for the position within a segment.
+     */
+    private final long mask;
+
+    /**
+     * Constructor.
+     *
+     * @param size Size
+     * @param shift Number of entries per segment, as power of two
+     */
+    private FloatMatrix(int size, int shift) {
+      super(size);
+      this.shift = shift;
+      this.mask = (1L << shift) - 1;
+      final long len = triangleSize(size);
+      segments = new float[(int) ((len + mask) >>> shift)][];
+      for(int i = 0; i < segments.length; i++) {
+        segments[i] = new float[(int) Math.min(len - ((long) i << shift), 1L << shift)];
+      }
+    }
+
+    @Override
+    public double get(long pos) {
+      return segments[(int) (pos >>> shift)][(int) (pos & mask)];
+    }
+
+    @Override
+    public void set(long pos, double v) {
+      segments[(int) (pos >>> shift)][(int) (pos & mask)] = (float) v;
+    }
+  }
+
+  /**
+   * Matrix in a memory-mapped temporary file. The file is removed as soon as
+   * it has been mapped (where the operating system allows), and the mapping
+   * is released when the matrix is garbage collected.
+   *
+   * @author Erich Schubert
+   */
+  private static class MappedMatrix extends ClusterDistanceMatrix {
+    /**
+     * Mapped segments.
+     */
+    private final DoubleBuffer[] segments;
+
+    /**
+     * Number of entries per segment, as power of two.
+     */
+    private final int shift;
+
+    /**
+     * Mask for the position within a segment.
+     */
+    private final long mask;
+
+    /**
+     * Constructor.
+     *
+     * @param size Size
+     * @param shift Number of entries per segment, as power of two
+     */
+    private MappedMatrix(int size, int shift) {
+      super(size);
+      this.shift = shift;
+      this.mask = (1L << shift) - 1;
+      final long len = triangleSize(size);
+      segments = new DoubleBuffer[(int) ((len + mask) >>> shift)];
+      Path file = null;
+      try {
+        file = Files.createTempFile("elki-hac-", ".matrix");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+            FileChannel channel = raf.getChannel()) {
+          raf.setLength(len * Double.BYTES);
+          for(int i = 0; i < segments.length; i++) {
+            final long start = (long) i << shift;
+            final long seglen = Math.min(len - start, 1L << shift);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * Double.BYTES, seglen * Double.BYTES) //
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+          }
+        }
+      }
+      catch(IOException e) {
+        throw new AbortException("Could not create a memory-mapped distance matrix: " + e.getMessage(), e);
+      }
+      finally {
+        if(file != null) {
+          try {
+            Files.deleteIfExists(file);
+          }
+          catch(IOException e) {
+            file.toFile().deleteOnExit();
+          }
+        }
+      }
+    }
+
+    @Override
+    public double get(long pos) {
+      return segments[(int) (pos >>> shift)].get((int) (pos & mask));
+    }
+
+    @Override
+    public void set(long pos, double v) {
+      segments[(int) (pos >>> shift)].put((int) (pos & mask), v);
+    }
   }
 }
@@ -82,6 +82,11 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
    */
   protected Variant variant;
 
+  /**
+   * Storage layout of the distance matrix.
+   */
+  protected ClusterDistanceMatrix.Storage storage;
+
   /**
    * Variants of the HACAM method.
    *
@@ -105,8 +110,20 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
    * @param variant Variant to use
    */
   public HACAM(Distance<? super O> distance, Variant variant) {
+    this(distance, variant, ClusterDistanceMatrix.Storage.DOUBLE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function to use
+   * @param variant Variant to use
+   * @param storage Storage layout of the distance matrix
+   */
+  public HACAM(Distance<? super O> distance, Variant variant, ClusterDistanceMatrix.Storage storage) {
     this.distance = distance;
     this.variant = variant;
+    this.storage = storage;
   }
 
   /**
@@ -118,8 +135,8 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
   public ClusterPrototypeMergeHistory run(Relation<O> relation) {
     DistanceQuery<O> dq = new QueryBuilder<>(relation, distance).precomputed().distanceQuery();
     final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
-    ArrayModifiableDBIDs prots = DBIDUtil.newArray(ClusterDistanceMatrix.triangleSize(ids.size()));
-    ClusterDistanceMatrix mat = MiniMax.initializeMatrices(ids, prots, dq);
+    ArrayModifiableDBIDs prots = MiniMax.newPrototypeStorage(ids.size());
+    ClusterDistanceMatrix mat = MiniMax.initializeMatrices(ids, prots, dq, storage);
     return new Instance(variant).run(ids, mat, new ClusterMergeHistoryBuilder(ids, dq.getDistance().isSquared()), dq, prots.iter());
   }
 
@@ -199,7 +216,7 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
       // Anderberg optimization
       this.bestd = new double[size];
       this.besti = new int[size];
-      initializeNNCache(mat.matrix, bestd, besti);
+      initializeNNCache(mat, bestd, besti);
 
       // Repeat until everything merged into 1 cluster
       FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("HACAM clustering", size - 1, LOG) : null;
@@ -253,8 +270,7 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
     protected void merge(int x, int y) {
       assert x >= 0 && y >= 0;
       assert y < x; // We could swap otherwise, but this shouldn't arise.
-      final double[] distances = mat.matrix;
-      final int offset = ClusterDistanceMatrix.triangleSize(x) + y;
+      final long offset = ClusterDistanceMatrix.triangleSize(x) + y;
       ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
       // Keep y
       if(cy == null) {
@@ -270,21 +286,21 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
       }
       clusters.put(y, cy);
       if(tds != null) { // min-sum-increase variant
-        tds[y] = distances[offset] + tds[x] + tds[y];
+        tds[y] = mat.get(offset) + tds[x] + tds[y];
       }
 
       // parent of x is set to y
       final int xx = mat.clustermap[x], yy = mat.clustermap[y];
       final int sizex = builder.getSize(xx), sizey = builder.getSize(yy);
       // Since y < x, prefer keeping y, dropping x.
-      int zz = builder.strictAdd(xx, distances[offset], yy, prots.seek(offset));
+      int zz = builder.strictAdd(xx, mat.get(offset), yy, prots.seek((int) offset));
       assert builder.getSize(zz) == sizex + sizey;
       mat.clustermap[y] = zz;
       mat.clustermap[x] = -1; // Deactivate removed cluster
       besti[x] = -1; // Deactivate x in cache
       updateMatrices(x, y);
       if(besti[y] == x) {
-        findBest(distances, bestd, besti, y);
+        findBest(mat, bestd, besti, y);
       }
     }
 
@@ -296,18 +312,17 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
      * @param y second cluster to merge, with {@code y < x}
      */
     private void updateMatrices(int x, int y) {
-      final double[] distances = mat.matrix;
       // Update entries (at (a,b) with a > b) in the matrix where a = y or b = y
       // Update entries at (y,b) with b < y
       int a = y, b = 0;
-      final int yoffset = ClusterDistanceMatrix.triangleSize(y);
+      final long yoffset = ClusterDistanceMatrix.triangleSize(y);
       for(; b < a; b++) {
         // Skip entry if already merged
         if(mat.clustermap[b] < 0) {
           continue;
         }
         updateEntry(a, b);
-        updateCache(distances, bestd, besti, x, y, b, distances[yoffset + b]);
+        updateCache(mat, bestd, besti, x, y, b, mat.get(yoffset + b));
       }
       // Update entries at (a,y) with a > y
       a = y + 1;
@@ -318,7 +333,7 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
           continue;
         }
         updateEntry(a, b);
-        updateCache(distances, bestd, besti, x, y, a, distances[ClusterDistanceMatrix.triangleSize(a) + y]);
+        updateCache(mat, bestd, besti, x, y, a, mat.get(ClusterDistanceMatrix.triangleSize(a) + y));
       }
     }
 
@@ -330,7 +345,6 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
      */
     protected void updateEntry(int x, int y) {
       assert y < x;
-      final double[] distances = mat.matrix;
       ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
 
       DBIDVar prototype = DBIDUtil.newVar(ix.seek(x)); // Default prototype
@@ -356,9 +370,9 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
         minMaxDist -= tds[x] + tds[y];
       }
 
-      final int offset = ClusterDistanceMatrix.triangleSize(x) + y;
-      distances[offset] = minMaxDist;
-      prots.seek(offset).setDBID(prototype);
+      final long offset = ClusterDistanceMatrix.triangleSize(x) + y;
+      mat.set(offset, minMaxDist);
+      prots.seek((int) offset).setDBID(prototype);
     }
 
     /**
@@ -480,17 +494,24 @@ public class HACAM<O> implements HierarchicalClusteringAlgorithm {
      */
     protected Variant variant;
 
+    /**
+     * Storage layout of the distance matrix.
+     */
+    protected ClusterDistanceMatrix.Storage storage;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Distance<O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
           .grab(config, x -> distance = x);
       new EnumParameter<Variant>(VARIANT_ID, Variant.class, Variant.MINIMUM_SUM_INCREASE) //
           .grab(config, x -> variant = x);
+      new EnumParameter<ClusterDistanceMatrix.Storage>(AGNES.Par.MATRIX_ID, ClusterDistanceMatrix.Storage.class, ClusterDistanceMatrix.Storage.DOUBLE) //
+          .grab(config, x -> storage = x);
     }
 
     @Override
     public HACAM<O> make() {
-      return new HACAM<>(distance, variant);
+      return new HACAM<>(distance, variant, storage);
     }
   }
 }
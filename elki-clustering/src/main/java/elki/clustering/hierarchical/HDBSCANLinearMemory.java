@@ -20,10 +20,14 @@
  */
 package elki.clustering.hierarchical;
 
+import java.util.Arrays;
+
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
+import elki.database.datastore.DoubleDataStore;
 import elki.database.datastore.WritableDoubleDataStore;
 import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDRef;
 import elki.database.ids.DBIDUtil;
 import elki.database.query.QueryBuilder;
@@ -33,12 +37,19 @@ import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.math.MathUtil;
 import elki.math.geometry.PrimsMinimumSpanningTree;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.datastructures.heap.DoubleLongHeap;
 import elki.utilities.datastructures.heap.DoubleLongMinHeap;
+import elki.utilities.datastructures.unionfind.ConcurrentUnionFindDBIDs;
+import elki.utilities.datastructures.unionfind.UnionFindUtil;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Reference;
 import elki.utilities.documentation.Title;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * Linear memory implementation of HDBSCAN clustering.
@@ -59,6 +70,17 @@ import elki.utilities.documentation.Title;
  * discussed as Step 4, which is provided in a separate step. For this reason,
  * we also do <em>not include self-edges</em>.
  * <p>
+ * Optionally, the core distances and the inner loop of Prim's algorithm are
+ * processed with multiple threads. The resulting spanning tree is identical
+ * to the sequential one.
+ * <p>
+ * Alternatively, the spanning tree can be built with Borůvka's algorithm,
+ * which adds the cheapest outgoing edge of every component in each round, and
+ * hence needs only O(log n) rounds of parallel work instead of n. The
+ * components are maintained with a {@link ConcurrentUnionFindDBIDs}. Because
+ * ties are broken differently, the tree may differ from Prim's, but it has the
+ * same weights.
+ * <p>
  * Reference:
  * <p>
  * R. J. G. B. Campello, D. Moulavi, J. Sander<br>
@@ -85,6 +107,11 @@ public class HDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements Hierar
    */
   private static final Logging LOG = Logging.getLogger(HDBSCANLinearMemory.class);
 
+  /**
+   * Use Borůvka's algorithm for the spanning tree.
+   */
+  protected boolean boruvka;
+
   /**
    * Constructor.
    *
@@ -95,6 +122,30 @@ public class HDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements Hierar
     super(distance, minPts);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param minPts Minimum number of points for coredists
+   * @param parallel Use multiple threads
+   */
+  public HDBSCANLinearMemory(Distance<? super O> distance, int minPts, boolean parallel) {
+    this(distance, minPts, parallel, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param minPts Minimum number of points for coredists
+   * @param parallel Use multiple threads
+   * @param boruvka Use Borůvka's algorithm for the spanning tree
+   */
+  public HDBSCANLinearMemory(Distance<? super O> distance, int minPts, boolean parallel, boolean boruvka) {
+    super(distance, minPts, parallel);
+    this.boruvka = boruvka;
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(distance.getInputTypeRestriction());
@@ -115,21 +166,186 @@ public class HDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements Hierar
 
     // 1. Compute the core distances
     // minPts + 1: ignore query point.
-    final WritableDoubleDataStore coredists = computeCoreDists(ids, knnQ, minPts);
+    final WritableDoubleDataStore coredists = parallel ? //
+        computeCoreDists(ids, () -> qb.kNNByDBID(minPts), minPts) : //
+        computeCoreDists(ids, knnQ, minPts);
 
     final int numedges = ids.size() - 1;
     DoubleLongHeap heap = new DoubleLongMinHeap(numedges);
     // 2. Build spanning tree.
     FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Computing minimum spanning tree (n-1 edges)", numedges, LOG) : null;
-    PrimsMinimumSpanningTree.processDense(ids, //
-        new HDBSCANAdapter(ids, coredists, distQ), //
-        new HeapMSTCollector(heap, mprog, LOG));
+    HeapMSTCollector collector = new HeapMSTCollector(heap, mprog, LOG);
+    if(boruvka) {
+      boruvka(ids, coredists, distQ, collector, useParallel(ids.size()));
+    }
+    else if(useParallel(ids.size())) {
+      parallelPrim(ids, coredists, distQ, collector);
+    }
+    else {
+      PrimsMinimumSpanningTree.processDense(ids, //
+          new HDBSCANAdapter(ids, coredists, distQ), collector);
+    }
     LOG.ensureCompleted(mprog);
     return convertToMergeList(ids, heap, //
         new ClusterMergeHistoryBuilder(ids, distQ.getDistance().isSquared())) //
             .complete(coredists);
   }
 
+  /**
+   * Prim's algorithm on the mutual reachability graph, with the update of
+   * the candidate edges processed in parallel blocks. The block results are
+   * combined in order, to choose the same edges as
+   * {@link PrimsMinimumSpanningTree#processDense}.
+   *
+   * @param ids Object ids
+   * @param coredists Core distances
+   * @param distQ Distance query
+   * @param collector Edge collector
+   */
+  private static void parallelPrim(ArrayDBIDs ids, DoubleDataStore coredists, DistanceQuery<?> distQ, HeapMSTCollector collector) {
+    final int n = ids.size();
+    // Best distance and best previous node for each node
+    final double[] best = new double[n];
+    Arrays.fill(best, Double.POSITIVE_INFINITY);
+    final int[] src = new int[n];
+    // Nodes already handled
+    final byte[] connected = new byte[n];
+    final int[] bounds = ParallelExecutor.blocks(0, n, PARALLEL_MIN_BLOCK);
+    final int[] bestj = new int[bounds.length - 1];
+    // We always start at node 0
+    int current = 0;
+    connected[current] = 1;
+    best[current] = 0;
+    for(int i = n - 2; i >= 0; i--) {
+      final int cur = current;
+      ParallelExecutor.run(bounds, (start, end) -> {
+        DBIDArrayIter p = ids.iter().seek(cur), q = ids.iter();
+        final double coreP = coredists.doubleValue(p);
+        int newbesti = -1;
+        double newbestd = Double.POSITIVE_INFINITY;
+        for(int j = start; j < end; j++) {
+          if(connected[j] == 1) {
+            continue;
+          }
+          q.seek(j);
+          final double dist = MathUtil.max(coreP, coredists.doubleValue(q), distQ.distance(p, q));
+          if(dist < best[j]) {
+            best[j] = dist;
+            src[j] = cur;
+          }
+          if(best[j] < newbestd || newbesti == -1) {
+            newbestd = best[j];
+            newbesti = j;
+          }
+        }
+        bestj[Arrays.binarySearch(bounds, start)] = newbesti;
+      });
+      // Combine in block order, to choose the same as the sequential scan:
+      int newbesti = -1;
+      for(int j : bestj) {
+        if(j >= 0 && (newbesti == -1 || best[j] < best[newbesti])) {
+          newbesti = j;
+        }
+      }
+      assert newbesti >= 0;
+      connected[newbesti] = 1;
+      collector.addEdge(best[newbesti], src[newbesti], newbesti);
+      current = newbesti;
+    }
+  }
+
+  /**
+   * Borůvka's algorithm on the mutual reachability graph. In every round, each
+   * component is joined with its nearest other component.
+   * <p>
+   * The best outgoing edge of each object is kept across rounds: as the set
+   * of other objects only shrinks, it remains the best edge unless its target
+   * joined the object's component. Hence only the first round computes all
+   * distances. Ties are broken by the object offsets, to never close a cycle.
+   *
+   * @param ids Object ids
+   * @param coredists Core distances
+   * @param distQ Distance query
+   * @param collector Edge collector
+   * @param parallel Process the objects in parallel blocks
+   */
+  private static void boruvka(ArrayDBIDs ids, DoubleDataStore coredists, DistanceQuery<?> distQ, HeapMSTCollector collector, boolean parallel) {
+    final int n = ids.size();
+    final ConcurrentUnionFindDBIDs uf = UnionFindUtil.makeConcurrent(DBIDUtil.makeUnmodifiable(ids));
+    // Component (root offset) of each object in the current round
+    final int[] comp = new int[n];
+    // Best outgoing edge of each object, -1 if not yet known
+    final double[] bestd = new double[n];
+    final int[] bestj = new int[n];
+    Arrays.fill(bestj, -1);
+    // Object with the best outgoing edge, for each component root
+    final int[] cbest = new int[n];
+    final int[] bounds = parallel ? ParallelExecutor.blocks(0, n, PARALLEL_MIN_BLOCK) : new int[] { 0, n };
+    for(int edges = 0; edges < n - 1;) {
+      ParallelExecutor.run(bounds, (start, end) -> {
+        for(int i = start; i < end; i++) {
+          comp[i] = uf.find(i);
+        }
+      });
+      ParallelExecutor.run(bounds, (start, end) -> {
+        DBIDArrayIter p = ids.iter(), q = ids.iter();
+        for(int i = start; i < end; i++) {
+          final int c = comp[i];
+          if(bestj[i] >= 0 && comp[bestj[i]] != c) {
+            continue; // Still the best edge leaving the component.
+          }
+          final double coreP = coredists.doubleValue(p.seek(i));
+          double bd = Double.POSITIVE_INFINITY;
+          int bj = -1;
+          for(int j = 0; j < n; j++) {
+            if(comp[j] == c) {
+              continue;
+            }
+            final double dist = MathUtil.max(coreP, coredists.doubleValue(q.seek(j)), distQ.distance(p, q));
+            if(dist < bd || bj < 0) {
+              bd = dist;
+              bj = j;
+            }
+          }
+          bestd[i] = bd;
+          bestj[i] = bj;
+        }
+      });
+      // Cheapest edge of each component, ordered by weight, then offsets:
+      Arrays.fill(cbest, -1);
+      for(int i = 0; i < n; i++) {
+        final int c = comp[i], o = cbest[c];
+        if(o < 0 || bestd[i] < bestd[o] || (bestd[i] == bestd[o] && //
+            compareEdge(i, bestj[i], o, bestj[o]) < 0)) {
+          cbest[c] = i;
+        }
+      }
+      for(int c = 0; c < n; c++) {
+        final int i = cbest[c];
+        // Both components may have chosen the same edge:
+        if(i >= 0 && !uf.isConnected(i, bestj[i])) {
+          uf.union(i, bestj[i]);
+          collector.addEdge(bestd[i], i, bestj[i]);
+          edges++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Order edges of equal weight by their smaller, then their larger offset.
+   *
+   * @param i1 First edge, first end
+   * @param j1 First edge, second end
+   * @param i2 Second edge, first end
+   * @param j2 Second edge, second end
+   * @return Comparison result
+   */
+  private static int compareEdge(int i1, int j1, int i2, int j2) {
+    final int c = Integer.compare(Math.min(i1, j1), Math.min(i2, j2));
+    return c != 0 ? c : Integer.compare(Math.max(i1, j1), Math.max(i2, j2));
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -145,9 +361,26 @@ public class HDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements Hierar
    * @param <O> Object type
    */
   public static class Par<O> extends AbstractHDBSCAN.Par<O> {
+    /**
+     * Flag to use Borůvka's algorithm for the spanning tree.
+     */
+    public static final OptionID BORUVKA_ID = new OptionID("hdbscan.boruvka", "Use Boruvka's algorithm for the spanning tree, which needs only O(log n) rounds of parallel work.");
+
+    /**
+     * Use Borůvka's algorithm.
+     */
+    protected boolean boruvka;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new Flag(BORUVKA_ID) //
+          .grab(config, x -> boruvka = x);
+    }
+
     @Override
     public HDBSCANLinearMemory<O> make() {
-      return new HDBSCANLinearMemory<>(distance, minPts);
+      return new HDBSCANLinearMemory<>(distance, minPts, parallel, boruvka);
     }
   }
 }
@@ -184,7 +184,6 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
      * @return x, for shrinking the working set.
      */
     protected int findMerge() {
-      final double[] distances = mat.matrix;
       double mindist = Double.POSITIVE_INFINITY;
       int x = -1, y = -1;
       for(int dx = 0; dx < end; dx++) {
@@ -192,7 +191,7 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
         if(mat.clustermap[dx] < 0) {
           continue;
         }
-        final int xoffset = ClusterDistanceMatrix.triangleSize(dx);
+        final long xoffset = ClusterDistanceMatrix.triangleSize(dx);
 
         for(int dy = 0; dy < dx; dy++) {
           // Skip if object is already linked
@@ -200,7 +199,7 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
             continue;
           }
 
-          double dist = distances[xoffset + dy];
+          double dist = mat.get(xoffset + dy);
           if(dist < mindist) {
             mindist = dist;
             x = dx;
@@ -221,8 +220,7 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
     protected void merge(int x, int y) {
       assert x >= 0 && y >= 0;
       assert y < x; // We could swap otherwise, but this shouldn't arise.
-      final double[] distances = mat.matrix;
-      final int offset = ClusterDistanceMatrix.triangleSize(x) + y;
+      final long offset = ClusterDistanceMatrix.triangleSize(x) + y;
       ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
       // Keep y
       if(cy == null) {
@@ -243,7 +241,7 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
       // parent of x is set to y
       final int xx = mat.clustermap[x], yy = mat.clustermap[y];
       final int sizex = builder.getSize(xx), sizey = builder.getSize(yy);
-      int zz = builder.strictAdd(xx, distances[offset], yy, mj);
+      int zz = builder.strictAdd(xx, mat.get(offset), yy, mj);
       assert builder.getSize(zz) == sizex + sizey;
       mat.clustermap[y] = zz;
       mat.clustermap[x] = -1; // deactivate
@@ -293,8 +291,7 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
      */
     protected void updateMatrix(int x, int y) {
       // Update distance matrix. Note: y < x
-      final int ybase = ClusterDistanceMatrix.triangleSize(y);
-      double[] scratch = mat.matrix;
+      final long ybase = ClusterDistanceMatrix.triangleSize(y);
 
       // Write to (y, j), with j < y
       int j = 0;
@@ -304,16 +301,16 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
           continue;
         }
         assert j < y; // Otherwise, ybase + j is the wrong position!
-        scratch[ybase + j] = dq.distance(mi, mj.seek(j));
+        mat.set(ybase + j, dq.distance(mi, mj.seek(j)));
       }
       j++; // Skip y
       // Write to (j, y), with y < j < x
-      int jbase = ClusterDistanceMatrix.triangleSize(j);
+      long jbase = ClusterDistanceMatrix.triangleSize(j);
       for(; j < x; jbase += j++) {
         if(mat.clustermap[j] < 0) {
           continue;
         }
-        scratch[jbase + y] = dq.distance(mi, mj.seek(j));
+        mat.set(jbase + y, dq.distance(mi, mj.seek(j)));
       }
       jbase += j++; // Skip x
       // Write to (j, y), with y < x < j
@@ -321,7 +318,7 @@ public class MedoidLinkage<O> implements HierarchicalClusteringAlgorithm {
         if(mat.clustermap[j] < 0) {
           continue;
         }
-        scratch[jbase + y] = dq.distance(mi, mj.seek(j));
+        mat.set(jbase + y, dq.distance(mi, mj.seek(j)));
       }
     }
   }
@@ -32,8 +32,10 @@ import elki.distance.minkowski.EuclideanDistance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
@@ -80,14 +82,30 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
    */
   protected Distance<? super O> distance;
 
+  /**
+   * Storage layout of the distance matrix.
+   */
+  protected ClusterDistanceMatrix.Storage storage;
+
   /**
    * Constructor.
    *
    * @param distance Distance function to use.
    */
   public MiniMax(Distance<? super O> distance) {
+    this(distance, ClusterDistanceMatrix.Storage.DOUBLE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function to use.
+   * @param storage Storage layout of the distance matrix
+   */
+  public MiniMax(Distance<? super O> distance, ClusterDistanceMatrix.Storage storage) {
     super();
     this.distance = distance;
+    this.storage = storage;
   }
 
   @Override
@@ -104,11 +122,28 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
   public ClusterPrototypeMergeHistory run(Relation<O> relation) {
     DistanceQuery<O> dq = new QueryBuilder<>(relation, distance).precomputed().distanceQuery();
     final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
-    ArrayModifiableDBIDs prots = DBIDUtil.newArray(ClusterDistanceMatrix.triangleSize(ids.size()));
-    ClusterDistanceMatrix mat = initializeMatrices(ids, prots, dq);
+    ArrayModifiableDBIDs prots = newPrototypeStorage(ids.size());
+    ClusterDistanceMatrix mat = initializeMatrices(ids, prots, dq, storage);
     return new Instance().run(ids, mat, new ClusterMergeHistoryBuilder(ids, dq.getDistance().isSquared()), dq, prots.iter());
   }
 
+  /**
+   * Allocate the prototype storage, one prototype for every pair.
+   * <p>
+   * The prototypes are stored in a single array, which limits these methods to
+   * 65536 objects, independent of the matrix storage.
+   *
+   * @param size Number of objects
+   * @return Prototype storage
+   */
+  protected static ArrayModifiableDBIDs newPrototypeStorage(int size) {
+    final long len = ClusterDistanceMatrix.triangleSize(size);
+    if(len > Integer.MAX_VALUE) {
+      throw new AbortException("Prototype-based linkages do not scale to data sets larger than 65536 instances.");
+    }
+    return DBIDUtil.newArray((int) len);
+  }
+
   /**
    * Initializes the inter-cluster distance matrix of possible merges
    * 
@@ -118,15 +153,27 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
    * @return mat Cluster distance matrix
    */
   protected static <O> ClusterDistanceMatrix initializeMatrices(ArrayDBIDs ids, ArrayModifiableDBIDs prots, DistanceQuery<O> dq) {
-    ClusterDistanceMatrix mat = new ClusterDistanceMatrix(ids.size());
+    return initializeMatrices(ids, prots, dq, ClusterDistanceMatrix.Storage.DOUBLE);
+  }
+
+  /**
+   * Initializes the inter-cluster distance matrix of possible merges
+   * 
+   * @param ids Object ids
+   * @param prots Prototype storage
+   * @param dq The distance query
+   * @param storage Storage layout of the distance matrix
+   * @return mat Cluster distance matrix
+   */
+  protected static <O> ClusterDistanceMatrix initializeMatrices(ArrayDBIDs ids, ArrayModifiableDBIDs prots, DistanceQuery<O> dq, ClusterDistanceMatrix.Storage storage) {
+    ClusterDistanceMatrix mat = ClusterDistanceMatrix.create(ids.size(), storage);
     final DBIDArrayIter ix = ids.iter(), iy = ids.iter();
-    final double[] distances = mat.matrix;
-    int pos = 0;
+    long pos = 0;
     for(ix.seek(1); ix.valid(); ix.advance()) {
       final int x = ix.getOffset();
       assert pos == ClusterDistanceMatrix.triangleSize(x);
       for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
-        distances[pos++] = dq.distance(ix, iy);
+        mat.set(pos++, dq.distance(ix, iy));
         prots.add(iy);
       }
     }
@@ -197,7 +244,6 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
      * @return x, for shrinking the working set.
      */
     protected int findMerge() {
-      final double[] distances = mat.matrix;
       double mindist = Double.POSITIVE_INFINITY;
       int x = -1, y = -1;
 
@@ -206,7 +252,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
         if(mat.clustermap[dx] < 0) {
           continue;
         }
-        final int xoffset = ClusterDistanceMatrix.triangleSize(dx);
+        final long xoffset = ClusterDistanceMatrix.triangleSize(dx);
 
         for(int dy = 0; dy < dx; dy++) {
           // Skip if object is already linked
@@ -214,7 +260,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
             continue;
           }
 
-          double dist = distances[xoffset + dy];
+          double dist = mat.get(xoffset + dy);
           if(dist < mindist) {
             mindist = dist;
             x = dx;
@@ -236,8 +282,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
     protected void merge(int x, int y) {
       assert x >= 0 && y >= 0;
       assert y < x;
-      final double[] distances = mat.matrix;
-      final int offset = ClusterDistanceMatrix.triangleSize(x) + y;
+      final long offset = ClusterDistanceMatrix.triangleSize(x) + y;
       ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
       // Keep y
       if(cy == null) {
@@ -256,7 +301,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
       // parent of x is set to y
       final int xx = mat.clustermap[x], yy = mat.clustermap[y];
       final int sizex = builder.getSize(xx), sizey = builder.getSize(yy);
-      int zz = builder.strictAdd(xx, distances[offset], yy, protiter.seek(offset));
+      int zz = builder.strictAdd(xx, mat.get(offset), yy, protiter.seek((int) offset));
       assert builder.getSize(zz) == sizex + sizey;
       mat.clustermap[y] = zz;
       mat.clustermap[x] = -1; // Deactivate removed cluster.
@@ -294,7 +339,6 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
      */
     protected void updateEntry(int x, int y) {
       assert y < x;
-      final double[] distances = mat.matrix;
       ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
 
       DBIDVar prototype = DBIDUtil.newVar(ix.seek(x)); // Default prototype
@@ -314,9 +358,9 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
         prototype.set(ix);
       }
 
-      final int offset = ClusterDistanceMatrix.triangleSize(x) + y;
-      distances[offset] = minMaxDist;
-      protiter.seek(offset).setDBID(prototype);
+      final long offset = ClusterDistanceMatrix.triangleSize(x) + y;
+      mat.set(offset, minMaxDist);
+      protiter.seek((int) offset).setDBID(prototype);
     }
 
     /**
@@ -426,15 +470,22 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
      */
     protected Distance<? super O> distance;
 
+    /**
+     * Storage layout of the distance matrix.
+     */
+    protected ClusterDistanceMatrix.Storage storage;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
           .grab(config, x -> distance = x);
+      new EnumParameter<ClusterDistanceMatrix.Storage>(AGNES.Par.MATRIX_ID, ClusterDistanceMatrix.Storage.class, ClusterDistanceMatrix.Storage.DOUBLE) //
+          .grab(config, x -> storage = x);
     }
 
     @Override
     public MiniMax<O> make() {
-      return new MiniMax<>(distance);
+      return new MiniMax<>(distance, storage);
     }
   }
 }
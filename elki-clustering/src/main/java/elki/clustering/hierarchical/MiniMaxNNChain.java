@@ -83,6 +83,16 @@ public class MiniMaxNNChain<O> extends MiniMax<O> {
     super(distance);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param storage Storage layout of the distance matrix
+   */
+  public MiniMaxNNChain(Distance<? super O> distance, ClusterDistanceMatrix.Storage storage) {
+    super(distance, storage);
+  }
+
   /**
    * Run the algorithm
    *
@@ -92,8 +102,8 @@ public class MiniMaxNNChain<O> extends MiniMax<O> {
   public ClusterPrototypeMergeHistory run(Relation<O> relation) {
     DistanceQuery<O> dq = new QueryBuilder<>(relation, distance).precomputed().distanceQuery();
     ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
-    ArrayModifiableDBIDs prots = DBIDUtil.newArray(ClusterDistanceMatrix.triangleSize(ids.size()));
-    ClusterDistanceMatrix mat = MiniMax.initializeMatrices(ids, prots, dq);
+    ArrayModifiableDBIDs prots = newPrototypeStorage(ids.size());
+    ClusterDistanceMatrix mat = MiniMax.initializeMatrices(ids, prots, dq, storage);
     ClusterMergeHistoryBuilder builder = new ClusterMergeHistoryBuilder(ids, distance.isSquared());
     return new Instance().run(ids, mat, builder, dq, prots.iter());
   }
@@ -126,7 +136,6 @@ public class MiniMaxNNChain<O> extends MiniMax<O> {
      */
     private void nnChainCore() {
       final int size = mat.size;
-      final double[] distances = mat.matrix;
       final int[] clustermap = mat.clustermap;
       // The maximum chain size = number of ids + 1, but usually much less
       IntegerArray chain = new IntegerArray(size << 1);
@@ -153,10 +162,10 @@ public class MiniMaxNNChain<O> extends MiniMax<O> {
         double minDist = mat.get(a, b);
         do {
           int c = b;
-          final int ta = ClusterDistanceMatrix.triangleSize(a);
+          final long ta = ClusterDistanceMatrix.triangleSize(a);
           for(int i = 0; i < a; i++) {
             if(i != b && clustermap[i] >= 0) {
-              double dist = distances[ta + i];
+              double dist = mat.get(ta + i);
               if(dist < minDist) {
                 minDist = dist;
                 c = i;
@@ -165,7 +174,7 @@ public class MiniMaxNNChain<O> extends MiniMax<O> {
           }
           for(int i = a + 1; i < end; i++) {
             if(i != b && clustermap[i] >= 0) {
-              double dist = distances[ClusterDistanceMatrix.triangleSize(i) + a];
+              double dist = mat.get(ClusterDistanceMatrix.triangleSize(i) + a);
               if(dist < minDist) {
                 minDist = dist;
                 c = i;
@@ -211,7 +220,7 @@ public class MiniMaxNNChain<O> extends MiniMax<O> {
   public static class Par<O> extends MiniMax.Par<O> {
     @Override
     public MiniMaxNNChain<O> make() {
-      return new MiniMaxNNChain<>(distance);
+      return new MiniMaxNNChain<>(distance, storage);
     }
   }
 }
@@ -20,6 +20,8 @@
  */
 package elki.clustering.hierarchical;
 
+import java.util.Arrays;
+
 import elki.clustering.hierarchical.linkage.Linkage;
 import elki.clustering.hierarchical.linkage.SingleLinkage;
 import elki.database.ids.ArrayDBIDs;
@@ -30,6 +32,8 @@ import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.datastructures.arraylike.IntegerArray;
 import elki.utilities.documentation.Reference;
 
@@ -76,6 +80,18 @@ public class NNChain<O> extends AGNES<O> {
     super(distance, linkage);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param linkage Linkage method
+   * @param storage Storage layout of the distance matrix
+   * @param parallel Use multiple threads
+   */
+  public NNChain(Distance<? super O> distance, Linkage linkage, ClusterDistanceMatrix.Storage storage, boolean parallel) {
+    super(distance, linkage, storage, parallel);
+  }
+
   @Override
   public ClusterMergeHistory run(Relation<O> relation) {
     if(SingleLinkage.class.isInstance(linkage)) {
@@ -83,8 +99,8 @@ public class NNChain<O> extends AGNES<O> {
     }
     DistanceQuery<O> dq = new QueryBuilder<>(relation, distance).distanceQuery();
     ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
-    ClusterDistanceMatrix mat = initializeDistanceMatrix(ids, dq, linkage);
-    return new Instance(linkage).run(mat, new ClusterMergeHistoryBuilder(ids, distance.isSquared()));
+    ClusterDistanceMatrix mat = initializeDistanceMatrix(ids, dq, linkage, storage, parallel);
+    return new Instance(linkage, parallel).run(mat, new ClusterMergeHistoryBuilder(ids, distance.isSquared()));
   }
 
   /**
@@ -102,6 +118,16 @@ public class NNChain<O> extends AGNES<O> {
       super(linkage);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param linkage Linkage
+     * @param parallel Use multiple threads for scans and matrix updates
+     */
+    public Instance(Linkage linkage, boolean parallel) {
+      super(linkage, parallel);
+    }
+
     @Override
     public ClusterMergeHistory run(ClusterDistanceMatrix mat, ClusterMergeHistoryBuilder builder) {
       this.mat = mat;
@@ -119,7 +145,6 @@ public class NNChain<O> extends AGNES<O> {
     private void nnChainCore() {
       final int size = mat.size;
       boolean warnedIrreducible = false;
-      final double[] distances = mat.matrix;
       final int[] clustermap = mat.clustermap;
       // The maximum chain size = number of ids + 1, but usually much less
       IntegerArray chain = new IntegerArray(size >> 2);
@@ -155,25 +180,9 @@ public class NNChain<O> extends AGNES<O> {
         // For ties, always prefer the second-last element b:
         double minDist = mat.get(a, b);
         do {
-          int c = b;
-          final int ta = ClusterDistanceMatrix.triangleSize(a);
-          for(int i = 0; i < a; i++) {
-            if(i != b && clustermap[i] >= 0) {
-              double dist = distances[ta + i];
-              if(dist < minDist) {
-                minDist = dist;
-                c = i;
-              }
-            }
-          }
-          for(int i = a + 1; i < end; i++) {
-            if(i != b && clustermap[i] >= 0) {
-              double dist = distances[ClusterDistanceMatrix.triangleSize(i) + a];
-              if(dist < minDist) {
-                minDist = dist;
-                c = i;
-              }
-            }
+          final int c = findNearest(a, b, minDist);
+          if(c != b) {
+            minDist = mat.get(a, c);
           }
           b = a;
           a = c;
@@ -197,6 +206,75 @@ public class NNChain<O> extends AGNES<O> {
       LOG.ensureCompleted(progress);
     }
 
+    /**
+     * Find the nearest neighbor of a, if closer than the current b.
+     *
+     * @param a Current object
+     * @param b Previous object, to prefer on ties
+     * @param minDist Distance of a and b
+     * @return Nearest neighbor of a
+     */
+    private int findNearest(int a, int b, double minDist) {
+      if(!parallel || end <= PARALLEL_MIN_BLOCK << 1 || ParallelCore.getCore().getParallelism() <= 1) {
+        final int c = findNearest(a, b, minDist, 0, end);
+        return c >= 0 ? c : b;
+      }
+      final int[] bounds = ParallelExecutor.blocks(0, end, PARALLEL_MIN_BLOCK);
+      final int[] best = new int[bounds.length - 1];
+      ParallelExecutor.run(bounds, (start, stop) -> {
+        best[Arrays.binarySearch(bounds, start)] = findNearest(a, b, minDist, start, stop);
+      });
+      // Combine in block order, to choose the same as the sequential scan:
+      int c = b;
+      double bestd = minDist;
+      for(int i : best) {
+        if(i >= 0) {
+          final double dist = mat.get(a, i);
+          if(dist < bestd) {
+            bestd = dist;
+            c = i;
+          }
+        }
+      }
+      return c;
+    }
+
+    /**
+     * Find the first nearest neighbor of a in the range [start;stop) that is
+     * closer than the given distance.
+     *
+     * @param a Current object
+     * @param b Previous object, to skip
+     * @param minDist Distance threshold
+     * @param start First object to check
+     * @param stop Stop index (exclusive)
+     * @return Nearest neighbor, or -1
+     */
+    private int findNearest(int a, int b, double minDist, int start, int stop) {
+      final int[] clustermap = mat.clustermap;
+      int c = -1;
+      final long ta = ClusterDistanceMatrix.triangleSize(a);
+      for(int i = start, e = Math.min(a, stop); i < e; i++) {
+        if(i != b && clustermap[i] >= 0) {
+          double dist = mat.get(ta + i);
+          if(dist < minDist) {
+            minDist = dist;
+            c = i;
+          }
+        }
+      }
+      for(int i = Math.max(a + 1, start); i < stop; i++) {
+        if(i != b && clustermap[i] >= 0) {
+          double dist = mat.get(ClusterDistanceMatrix.triangleSize(i) + a);
+          if(dist < minDist) {
+            minDist = dist;
+            c = i;
+          }
+        }
+      }
+      return c;
+    }
+
     /**
      * Find an unlinked object.
      *
@@ -228,7 +306,7 @@ public class NNChain<O> extends AGNES<O> {
   public static class Par<O> extends AGNES.Par<O> {
     @Override
     public NNChain<O> make() {
-      return new NNChain<>(distance, linkage);
+      return new NNChain<>(distance, linkage, storage, parallel);
     }
   }
 }
@@ -32,6 +32,7 @@ import elki.distance.Distance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.math.MathUtil;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.documentation.Reference;
 
 /**
@@ -52,6 +53,10 @@ import elki.utilities.documentation.Reference;
  * {@link elki.clustering.hierarchical.extraction.HDBSCANHierarchyExtraction}
  * . For this reason, we also do <em>not include self-edges</em>.
  * <p>
+ * Optionally, the core distances and the distances to the new object in each
+ * step are computed with multiple threads; the pointer representation itself
+ * is updated sequentially.
+ * <p>
  * Reference:
  * <p>
  * R. J. G. B. Campello, D. Moulavi, J. Sander<br>
@@ -84,6 +89,17 @@ public class SLINKHDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements H
     super(distance, minPts);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param minPts Minimum number of points for coredists
+   * @param parallel Use multiple threads
+   */
+  public SLINKHDBSCANLinearMemory(Distance<? super O> distance, int minPts, boolean parallel) {
+    super(distance, minPts, parallel);
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(distance.getInputTypeRestriction());
@@ -104,7 +120,9 @@ public class SLINKHDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements H
 
     // Compute the core distances
     // minPts + 1: ignore query point.
-    final WritableDoubleDataStore coredists = computeCoreDists(ids, knnQ, minPts);
+    final WritableDoubleDataStore coredists = parallel ? //
+        computeCoreDists(ids, () -> qb.kNNByDBID(minPts), minPts) : //
+        computeCoreDists(ids, knnQ, minPts);
 
     WritableDBIDDataStore pi = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
     WritableDoubleDataStore lambda = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, Double.POSITIVE_INFINITY);
@@ -113,7 +131,7 @@ public class SLINKHDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements H
 
     FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Running HDBSCAN*-SLINK", ids.size(), LOG) : null;
     // has to be an array for monotonicity reasons!
-    ModifiableDBIDs processedIDs = DBIDUtil.newArray(ids.size());
+    ArrayModifiableDBIDs processedIDs = DBIDUtil.newArray(ids.size());
 
     for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
       // Steps 1,3,4 are exactly as in SLINK
@@ -142,8 +160,17 @@ public class SLINKHDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements H
    * @param distQuery Distance query
    * @param m Data store
    */
-  private void step2(DBIDRef id, DBIDs processedIDs, DistanceQuery<? super O> distQuery, DoubleDataStore coredists, WritableDoubleDataStore m) {
+  private void step2(DBIDRef id, ArrayDBIDs processedIDs, DistanceQuery<? super O> distQuery, DoubleDataStore coredists, WritableDoubleDataStore m) {
     double coreP = coredists.doubleValue(id);
+    if(useParallel(processedIDs.size())) {
+      final DBID did = DBIDUtil.deref(id);
+      ParallelExecutor.run(ParallelExecutor.blocks(0, processedIDs.size(), PARALLEL_MIN_BLOCK), (start, end) -> {
+        for(DBIDArrayIter it = processedIDs.iter().seek(start); it.getOffset() < end; it.advance()) {
+          m.putDouble(it, MathUtil.max(coreP, coredists.doubleValue(it), distQuery.distance(did, it)));
+        }
+      });
+      return;
+    }
     for(DBIDIter it = processedIDs.iter(); it.valid(); it.advance()) {
       // M(i) = dist(i, n+1)
       m.putDouble(it, MathUtil.max(coreP, coredists.doubleValue(it), distQuery.distance(id, it)));
@@ -228,7 +255,7 @@ public class SLINKHDBSCANLinearMemory<O> extends AbstractHDBSCAN<O> implements H
   public static class Par<O> extends AbstractHDBSCAN.Par<O> {
     @Override
     public SLINKHDBSCANLinearMemory<O> make() {
-      return new SLINKHDBSCANLinearMemory<>(distance, minPts);
+      return new SLINKHDBSCANLinearMemory<>(distance, minPts, parallel);
     }
   }
 }
@@ -458,6 +458,15 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> im
       this.key = this.getClass().getName().replace("$Instance", "");
     }
 
+    /**
+     * Count a distance computation.
+     * <p>
+     * Parallel variants override this, as the counter is not thread-safe.
+     */
+    protected void countDistance() {
+      ++diststat;
+    }
+
     /**
      * Compute the squared distance (and count the distance computations).
      *
@@ -466,7 +475,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> im
      * @return Distance
      */
     protected double distance(NumberVector x, NumberVector y) {
-      ++diststat;
+      countDistance();
       return df.distance(x, y);
     }
 
@@ -478,7 +487,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> im
      * @return Distance
      */
     protected double distance(NumberVector x, double[] y) {
-      ++diststat;
+      countDistance();
       if(df.getClass() == SquaredEuclideanDistance.class) {
         if(y.length != x.getDimensionality()) {
           throw new IllegalArgumentException("Objects do not have the same dimensionality.");
@@ -501,7 +510,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> im
      * @return Distance
      */
     protected double distance(double[] x, double[] y) {
-      ++diststat;
+      countDistance();
       if(df.getClass() == SquaredEuclideanDistance.class) {
         if(y.length != x.length) {
           throw new IllegalArgumentException("Objects do not have the same dimensionality.");
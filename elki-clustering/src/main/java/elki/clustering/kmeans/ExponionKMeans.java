@@ -25,6 +25,7 @@ import elki.data.Clustering;
 import elki.data.NumberVector;
 import elki.data.model.KMeansModel;
 import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
 import elki.database.relation.Relation;
 import elki.distance.NumberVectorDistance;
 import elki.logging.Logging;
@@ -89,12 +90,12 @@ public class ExponionKMeans<V extends NumberVector> extends HamerlyKMeans<V> {
     /**
      * Cluster center distances.
      */
-    double[][] cdist;
+    protected double[][] cdist;
 
     /**
      * Sorted neighbors
      */
-    int[][] cnum;
+    protected int[][] cnum;
 
     /**
      * Constructor.
@@ -109,45 +110,6 @@ public class ExponionKMeans<V extends NumberVector> extends HamerlyKMeans<V> {
       cnum = new int[k][k - 1];
     }
 
-    @Override
-    protected int initialAssignToNearestCluster() {
-      assert k == means.length;
-      computeSquaredSeparation(cdist);
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        NumberVector fv = relation.get(it);
-        // Find closest center, and distance to two closest centers:
-        double min1 = distance(fv, means[0]);
-        double min2 = k > 1 ? distance(fv, means[1]) : min1;
-        int minIndex = 0;
-        if(min2 < min1) {
-          double tmp = min1;
-          min1 = min2;
-          min2 = tmp;
-          minIndex = 1;
-        }
-        for(int i = 2; i < k; i++) {
-          if(min2 > cdist[minIndex][i]) {
-            double dist = distance(fv, means[i]);
-            if(dist < min1) {
-              minIndex = i;
-              min2 = min1;
-              min1 = dist;
-            }
-            else if(dist < min2) {
-              min2 = dist;
-            }
-          }
-        }
-        // Assign to nearest cluster.
-        clusters.get(minIndex).add(it);
-        assignment.putInt(it, minIndex);
-        plusEquals(sums[minIndex], fv);
-        upper.putDouble(it, isSquared ? Math.sqrt(min1) : min1);
-        lower.putDouble(it, isSquared ? Math.sqrt(min2) : min2);
-      }
-      return relation.size();
-    }
-
     @Override
     protected int assignToNearestCluster() {
       recomputeSeperation(sep, cdist);
@@ -155,53 +117,59 @@ public class ExponionKMeans<V extends NumberVector> extends HamerlyKMeans<V> {
       int changed = 0;
       for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
         final int orig = assignment.intValue(it);
-        // Compute the current bound:
-        final double z = lower.doubleValue(it);
-        final double sa = sep[orig];
-        double u = upper.doubleValue(it);
-        if(u <= z || u <= sa) {
-          continue;
-        }
-        // Update the upper bound
-        NumberVector fv = relation.get(it);
-        double curd2 = distance(fv, means[orig]);
-        upper.putDouble(it, u = isSquared ? Math.sqrt(curd2) : curd2);
-        if(u <= z || u <= sa) {
-          continue;
-        }
-        double r = u + 0.5 * sa; // Our cdist are scaled 0.5
-        // Find closest center, and distance to two closest centers
-        double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
-        int cur = orig;
-        for(int i = 0; i < k - 1; i++) {
-          final int c = cnum[orig][i]; // Optimized ordering
-          if(cdist[orig][c] > r) {
-            break;
-          }
-          double dist = distance(fv, means[c]);
-          if(dist < min1) {
-            cur = c;
-            min2 = min1;
-            min1 = dist;
-          }
-          else if(dist < min2) {
-            min2 = dist;
-          }
-        }
-        // Object has to be reassigned.
+        final int cur = reassign(it, orig);
         if(cur != orig) {
-          clusters.get(cur).add(it);
-          clusters.get(orig).remove(it);
           assignment.putInt(it, cur);
-          plusMinusEquals(sums[cur], sums[orig], fv);
+          reassigned(it, orig, cur);
           ++changed;
-          upper.putDouble(it, min1 == curd2 ? u : isSquared ? Math.sqrt(min1) : min1);
         }
-        lower.putDouble(it, min2 == curd2 ? u : isSquared ? Math.sqrt(min2) : min2);
       }
       return changed;
     }
 
+    @Override
+    protected int reassign(DBIDRef it, int orig) {
+      // Compute the current bound:
+      final double z = lower.doubleValue(it);
+      final double sa = sep[orig];
+      double u = upper.doubleValue(it);
+      if(u <= z || u <= sa) {
+        return orig;
+      }
+      // Update the upper bound
+      NumberVector fv = relation.get(it);
+      double curd2 = distance(fv, means[orig]);
+      upper.putDouble(it, u = isSquared ? Math.sqrt(curd2) : curd2);
+      if(u <= z || u <= sa) {
+        return orig;
+      }
+      double r = u + 0.5 * sa; // Our cdist are scaled 0.5
+      // Find closest center, and distance to two closest centers
+      double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
+      int cur = orig;
+      for(int i = 0; i < k - 1; i++) {
+        final int c = cnum[orig][i]; // Optimized ordering
+        if(cdist[orig][c] > r) {
+          break;
+        }
+        double dist = distance(fv, means[c]);
+        if(dist < min1) {
+          cur = c;
+          min2 = min1;
+          min1 = dist;
+        }
+        else if(dist < min2) {
+          min2 = dist;
+        }
+      }
+      // Object has to be reassigned.
+      if(cur != orig) {
+        upper.putDouble(it, min1 == curd2 ? u : isSquared ? Math.sqrt(min1) : min1);
+      }
+      lower.putDouble(it, min2 == curd2 ? u : isSquared ? Math.sqrt(min2) : min2);
+      return cur;
+    }
+
     @Override
     protected Logging getLogger() {
       return LOG;
@@ -30,6 +30,7 @@ import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
 import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
 import elki.database.relation.Relation;
 import elki.distance.NumberVectorDistance;
 import elki.logging.Logging;
@@ -98,27 +99,27 @@ public class HamerlyKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
     /**
      * Sum aggregate for the new mean.
      */
-    double[][] sums;
+    protected double[][] sums;
 
     /**
      * Scratch space for new means.
      */
-    double[][] newmeans;
+    protected double[][] newmeans;
 
     /**
      * Upper bounds
      */
-    WritableDoubleDataStore upper;
+    protected WritableDoubleDataStore upper;
 
     /**
      * Lower bounds
      */
-    WritableDoubleDataStore lower;
+    protected WritableDoubleDataStore lower;
 
     /**
      * Separation of means / distance moved.
      */
-    double[] sep;
+    protected double[] sep;
 
     /**
      * Constructor.
@@ -159,70 +160,37 @@ public class HamerlyKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
       double[][] cdist = new double[k][k];
       computeSquaredSeparation(cdist);
       for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        NumberVector fv = relation.get(it);
-        // Find closest center, and distance to two closest centers:
-        double min1 = distance(fv, means[0]);
-        double min2 = k > 1 ? distance(fv, means[1]) : min1;
-        int minIndex = 0;
-        if(min2 < min1) {
-          double tmp = min1;
-          min1 = min2;
-          min2 = tmp;
-          minIndex = 1;
-        }
-        for(int i = 2; i < k; i++) {
-          if(min2 > cdist[minIndex][i]) {
-            double dist = distance(fv, means[i]);
-            if(dist < min1) {
-              minIndex = i;
-              min2 = min1;
-              min1 = dist;
-            }
-            else if(dist < min2) {
-              min2 = dist;
-            }
-          }
-        }
-        // Assign to nearest cluster.
-        clusters.get(minIndex).add(it);
+        final int minIndex = initialAssign(it, cdist);
         assignment.putInt(it, minIndex);
-        plusEquals(sums[minIndex], fv);
-        upper.putDouble(it, isSquared ? Math.sqrt(min1) : min1);
-        lower.putDouble(it, isSquared ? Math.sqrt(min2) : min2);
+        reassigned(it, -1, minIndex);
       }
       return relation.size();
     }
 
-    @Override
-    protected int assignToNearestCluster() {
-      recomputeSeperation(sep);
-      int changed = 0;
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        final int orig = assignment.intValue(it);
-        // Compute the current bound:
-        final double l = lower.doubleValue(it);
-        final double sa = sep[orig];
-        double u = upper.doubleValue(it);
-        if(u <= l || u <= sa) {
-          continue;
-        }
-        // Update the upper bound
-        NumberVector fv = relation.get(it);
-        double curd2 = distance(fv, means[orig]);
-        upper.putDouble(it, u = isSquared ? Math.sqrt(curd2) : curd2);
-        if(u <= l || u <= sa) {
-          continue;
-        }
-        // Find closest center, and distance to the second closest center
-        double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
-        int cur = orig;
-        for(int i = 0; i < k; i++) {
-          if(i == orig) {
-            continue;
-          }
+    /**
+     * Initial assignment of a single object, initializing its bounds.
+     *
+     * @param it Object
+     * @param cdist Squared separation of the means (scaled by 0.25)
+     * @return Cluster number
+     */
+    protected int initialAssign(DBIDRef it, double[][] cdist) {
+      NumberVector fv = relation.get(it);
+      // Find closest center, and distance to two closest centers:
+      double min1 = distance(fv, means[0]);
+      double min2 = k > 1 ? distance(fv, means[1]) : min1;
+      int minIndex = 0;
+      if(min2 < min1) {
+        double tmp = min1;
+        min1 = min2;
+        min2 = tmp;
+        minIndex = 1;
+      }
+      for(int i = 2; i < k; i++) {
+        if(min2 > cdist[minIndex][i]) {
           double dist = distance(fv, means[i]);
           if(dist < min1) {
-            cur = i;
+            minIndex = i;
             min2 = min1;
             min1 = dist;
           }
@@ -230,20 +198,93 @@ public class HamerlyKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
             min2 = dist;
           }
         }
-        // Object has to be reassigned.
+      }
+      upper.putDouble(it, isSquared ? Math.sqrt(min1) : min1);
+      lower.putDouble(it, isSquared ? Math.sqrt(min2) : min2);
+      return minIndex;
+    }
+
+    @Override
+    protected int assignToNearestCluster() {
+      recomputeSeperation(sep);
+      int changed = 0;
+      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+        final int orig = assignment.intValue(it);
+        final int cur = reassign(it, orig);
         if(cur != orig) {
-          clusters.get(cur).add(it);
-          clusters.get(orig).remove(it);
           assignment.putInt(it, cur);
-          plusMinusEquals(sums[cur], sums[orig], fv);
+          reassigned(it, orig, cur);
           ++changed;
-          upper.putDouble(it, min1 == curd2 ? u : isSquared ? Math.sqrt(min1) : min1);
         }
-        lower.putDouble(it, min2 == curd2 ? u : isSquared ? Math.sqrt(min2) : min2);
       }
       return changed;
     }
 
+    /**
+     * Reassign a single object, updating its bounds.
+     *
+     * @param it Object
+     * @param orig Current cluster
+     * @return New cluster
+     */
+    protected int reassign(DBIDRef it, int orig) {
+      // Compute the current bound:
+      final double l = lower.doubleValue(it);
+      final double sa = sep[orig];
+      double u = upper.doubleValue(it);
+      if(u <= l || u <= sa) {
+        return orig;
+      }
+      // Update the upper bound
+      NumberVector fv = relation.get(it);
+      double curd2 = distance(fv, means[orig]);
+      upper.putDouble(it, u = isSquared ? Math.sqrt(curd2) : curd2);
+      if(u <= l || u <= sa) {
+        return orig;
+      }
+      // Find closest center, and distance to the second closest center
+      double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
+      int cur = orig;
+      for(int i = 0; i < k; i++) {
+        if(i == orig) {
+          continue;
+        }
+        double dist = distance(fv, means[i]);
+        if(dist < min1) {
+          cur = i;
+          min2 = min1;
+          min1 = dist;
+        }
+        else if(dist < min2) {
+          min2 = dist;
+        }
+      }
+      // Object has to be reassigned.
+      if(cur != orig) {
+        upper.putDouble(it, min1 == curd2 ? u : isSquared ? Math.sqrt(min1) : min1);
+      }
+      lower.putDouble(it, min2 == curd2 ? u : isSquared ? Math.sqrt(min2) : min2);
+      return cur;
+    }
+
+    /**
+     * Update the cluster members and sums after an object was (re-)assigned.
+     *
+     * @param it Object
+     * @param from Previous cluster, -1 for the initial assignment
+     * @param to New cluster
+     */
+    protected void reassigned(DBIDRef it, int from, int to) {
+      NumberVector fv = relation.get(it);
+      clusters.get(to).add(it);
+      if(from < 0) {
+        plusEquals(sums[to], fv);
+        return;
+      }
+      clusters.get(from).remove(it);
+      plusMinusEquals(sums[to], sums[from], fv);
+    }
+
     /**
      * Recompute the separation of cluster means.
      * <p>
@@ -288,13 +329,38 @@ public class HamerlyKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
           delta2 = m;
         }
       }
+      updateBounds(move, most, delta, delta2);
+    }
+
+    /**
+     * Update the bounds of all objects.
+     *
+     * @param move Movement of centers
+     * @param most Cluster that moved the most
+     * @param delta Largest movement
+     * @param delta2 Second largest movement
+     */
+    protected void updateBounds(double[] move, int most, double delta, double delta2) {
       for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        final int a = assignment.intValue(it);
-        upper.increment(it, move[a]);
-        lower.increment(it, a == most ? -delta2 : -delta);
+        updateBounds(it, move, most, delta, delta2);
       }
     }
 
+    /**
+     * Update the bounds of a single object.
+     *
+     * @param it Object
+     * @param move Movement of centers
+     * @param most Cluster that moved the most
+     * @param delta Largest movement
+     * @param delta2 Second largest movement
+     */
+    protected void updateBounds(DBIDRef it, double[] move, int most, double delta, double delta2) {
+      final int a = assignment.intValue(it);
+      upper.increment(it, move[a]);
+      lower.increment(it, a == most ? -delta2 : -delta);
+    }
+
     @Override
     protected Logging getLogger() {
       return LOG;
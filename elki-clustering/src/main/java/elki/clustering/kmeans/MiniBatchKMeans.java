@@ -0,0 +1,362 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.MaterializedRelation;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.documentation.Reference;
+import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Mini-batch k-means, which updates the cluster centers using small random
+ * samples of the data with a per-center learning rate.
+ * <p>
+ * The relation is only scanned once at the end, to assign each object to the
+ * nearest center. For data that does not fit into memory,
+ * {@link #run(BundleStreamSource)} processes a stream in consecutive batches,
+ * without materializing a database; the initialization is then performed on
+ * the first batch of the stream.
+ * <p>
+ * Reference:
+ * <p>
+ * D. Sculley<br>
+ * Web-scale k-means clustering<br>
+ * Proc. 19th Int. Conf. on World Wide Web (WWW 2010)
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @navassoc - - - KMeansModel
+ *
+ * @param <V> vector type to use
+ */
+@Title("Mini-Batch k-Means")
+@Reference(authors = "D. Sculley", //
+    title = "Web-scale k-means clustering", //
+    booktitle = "Proc. 19th Int. Conf. on World Wide Web (WWW 2010)", //
+    url = "https://doi.org/10.1145/1772690.1772862", //
+    bibkey = "DBLP:conf/www/Sculley10")
+public class MiniBatchKMeans<V extends NumberVector> extends AbstractKMeans<V, KMeansModel> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(MiniBatchKMeans.class);
+
+  /**
+   * Batch size.
+   */
+  protected int batchsize;
+
+  /**
+   * Random generator for sampling batches.
+   */
+  protected RandomFactory random;
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Number of batches
+   * @param initializer Initialization method
+   * @param batchsize Batch size
+   * @param random Random generator for sampling batches
+   */
+  public MiniBatchKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, int batchsize, RandomFactory random) {
+    super(distance, k, maxiter, initializer);
+    this.batchsize = batchsize;
+    this.random = random;
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Relation<V> relation) {
+    Instance instance = new Instance(relation, distance, initialMeans(relation), batchsize, random.getSingleThreadedRandom());
+    instance.run(maxiter);
+    // Final assignment, also computes the variance sums:
+    instance.assignToNearestCluster();
+    return instance.buildResult();
+  }
+
+  /**
+   * Cluster a data stream, without materializing it in memory.
+   * <p>
+   * The first batch is used for initialization; every following batch of the
+   * stream is used for one mini-batch update. Every object is only used once,
+   * so the stream should be in random order.
+   *
+   * @param source Stream source, must contain a number vector column
+   * @return Cluster centers
+   */
+  public double[][] run(BundleStreamSource source) {
+    List<NumberVector> batch = new ArrayList<>(batchsize);
+    Instance instance = null;
+    int col = -1;
+    long seen = 0, batches = 0;
+    for(BundleStreamSource.Event ev = source.nextEvent(); ev != BundleStreamSource.Event.END_OF_STREAM; ev = source.nextEvent()) {
+      if(ev == BundleStreamSource.Event.META_CHANGED) {
+        col = findVectorColumn(source.getMeta());
+        continue;
+      }
+      if(col < 0) {
+        throw new AbortException("The stream does not contain a number vector column.");
+      }
+      batch.add((NumberVector) source.data(col));
+      ++seen;
+      if(batch.size() < batchsize) {
+        continue;
+      }
+      if(instance == null) {
+        instance = initializeFromBatch(batch, source.getMeta().get(col));
+      }
+      instance.updateBatch(batch);
+      ++batches;
+      batch.clear();
+    }
+    if(!batch.isEmpty()) {
+      if(instance == null) {
+        instance = initializeFromBatch(batch, source.getMeta().get(col));
+      }
+      instance.updateBatch(batch);
+      ++batches;
+    }
+    if(instance == null) {
+      throw new AbortException("The stream did not contain any objects.");
+    }
+    LOG.statistics(new LongStatistic(MiniBatchKMeans.class.getName() + ".objects", seen));
+    LOG.statistics(new LongStatistic(MiniBatchKMeans.class.getName() + ".batches", batches));
+    LOG.statistics(new LongStatistic(MiniBatchKMeans.class.getName() + ".distance-computations", instance.diststat));
+    return instance.means;
+  }
+
+  /**
+   * Find the first number vector column.
+   *
+   * @param meta Bundle metadata
+   * @return Column number, or -1
+   */
+  private static int findVectorColumn(BundleMeta meta) {
+    for(int i = 0; i < meta.size(); i++) {
+      if(TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(meta.get(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Initialize the cluster centers from the first batch of a stream.
+   *
+   * @param batch First batch
+   * @param type Vector type information
+   * @return Instance for further processing
+   */
+  @SuppressWarnings("unchecked")
+  private Instance initializeFromBatch(List<NumberVector> batch, SimpleTypeInformation<?> type) {
+    if(batch.size() < k) {
+      throw new AbortException("The first batch must contain at least k objects.");
+    }
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(batch.size());
+    WritableDataStore<NumberVector> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_DB, NumberVector.class);
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      store.put(it, batch.get(i++));
+    }
+    Relation<NumberVector> rel = new MaterializedRelation<>("Initial batch", (SimpleTypeInformation<NumberVector>) type, ids, store);
+    double[][] means = initializer.chooseInitialMeans(rel, k, distance);
+    return new Instance(rel, distance, means, batchsize, random.getSingleThreadedRandom());
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends AbstractKMeans.Instance {
+    /**
+     * Number of objects assigned to each center so far.
+     */
+    protected long[] counts;
+
+    /**
+     * Batch size.
+     */
+    protected int batchsize;
+
+    /**
+     * Random generator.
+     */
+    protected Random rnd;
+
+    /**
+     * Reusable buffer for the cached assignments of a batch.
+     */
+    private int[] cache;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     * @param batchsize Batch size
+     * @param rnd Random generator
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means, int batchsize, Random rnd) {
+      super(relation, df, means);
+      this.counts = new long[k];
+      this.batchsize = batchsize;
+      this.rnd = rnd;
+    }
+
+    @Override
+    protected int iterate(int iteration) {
+      List<NumberVector> batch = new ArrayList<>(batchsize);
+      for(DBIDIter it = DBIDUtil.randomSample(relation.getDBIDs(), Math.min(batchsize, relation.size()), rnd).iter(); it.valid(); it.advance()) {
+        batch.add(relation.get(it));
+      }
+      updateBatch(batch);
+      // There is no convergence criterion, we always run maxiter batches:
+      return batch.size();
+    }
+
+    /**
+     * Update the cluster centers with one batch. First, the nearest centers
+     * are determined for the entire batch, then the centers are moved towards
+     * each object, with a learning rate of 1/count.
+     *
+     * @param batch Batch of objects
+     */
+    protected void updateBatch(List<? extends NumberVector> batch) {
+      if(cache == null || cache.length < batch.size()) {
+        cache = new int[batch.size()];
+      }
+      for(int j = 0; j < batch.size(); j++) {
+        NumberVector fv = batch.get(j);
+        double mindist = distance(fv, means[0]);
+        int minIndex = 0;
+        for(int i = 1; i < k; i++) {
+          double dist = distance(fv, means[i]);
+          if(dist < mindist) {
+            minIndex = i;
+            mindist = dist;
+          }
+        }
+        cache[j] = minIndex;
+      }
+      for(int j = 0; j < batch.size(); j++) {
+        final int c = cache[j];
+        final NumberVector fv = batch.get(j);
+        final double[] mean = means[c];
+        final double eta = 1. / ++counts[c];
+        for(int d = 0; d < mean.length; d++) {
+          mean[d] += eta * (fv.doubleValue(d) - mean[d]);
+        }
+      }
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends AbstractKMeans.Par<V> {
+    /**
+     * Batch size.
+     */
+    public static final OptionID BATCHSIZE_ID = new OptionID("kmeans.minibatch.size", "Number of objects in each mini batch.");
+
+    /**
+     * Random seed for sampling the batches.
+     */
+    public static final OptionID SEED_ID = new OptionID("kmeans.minibatch.seed", "Random seed for sampling the mini batches.");
+
+    /**
+     * Batch size.
+     */
+    protected int batchsize;
+
+    /**
+     * Random generator for sampling batches.
+     */
+    protected RandomFactory random;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new IntParameter(BATCHSIZE_ID, 1000) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> batchsize = x);
+      new RandomParameter(SEED_ID).grab(config, x -> random = x);
+    }
+
+    @Override
+    protected void getParameterMaxIter(Parameterization config) {
+      // No convergence criterion, so we need a finite number of batches.
+      new IntParameter(MAXITER_ID, 100)//
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> maxiter = x);
+    }
+
+    @Override
+    public MiniBatchKMeans<V> make() {
+      return new MiniBatchKMeans<>(distance, k, maxiter, initializer, batchsize, random);
+    }
+  }
+}
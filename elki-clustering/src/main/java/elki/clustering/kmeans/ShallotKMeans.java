@@ -27,7 +27,7 @@ import elki.data.model.KMeansModel;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableIntegerDataStore;
-import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
 import elki.database.relation.Relation;
 import elki.distance.NumberVectorDistance;
 import elki.logging.Logging;
@@ -88,7 +88,7 @@ public class ShallotKMeans<V extends NumberVector> extends ExponionKMeans<V> {
     /**
      * Second nearest cluster.
      */
-    WritableIntegerDataStore second;
+    protected WritableIntegerDataStore second;
 
     /**
      * Constructor.
@@ -103,131 +103,112 @@ public class ShallotKMeans<V extends NumberVector> extends ExponionKMeans<V> {
     }
 
     @Override
-    protected int initialAssignToNearestCluster() {
-      assert k == means.length;
-      computeSquaredSeparation(cdist);
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        NumberVector fv = relation.get(it);
-        // Find closest center, and distance to two closest centers:
-        double min1 = distance(fv, means[0]);
-        double min2 = k > 1 ? distance(fv, means[1]) : min1;
-        int minIdx = 0, minId2 = 1;
-        if(min2 < min1) {
-          double tmp = min1;
-          min1 = min2;
-          min2 = tmp;
-          minIdx = 1;
-          minId2 = 0;
-        }
-        for(int j = 2; j < k; j++) {
-          if(min2 > cdist[minIdx][j]) {
-            double dist = distance(fv, means[j]);
-            if(dist < min1) {
-              minId2 = minIdx;
-              minIdx = j;
-              min2 = min1;
-              min1 = dist;
-            }
-            else if(dist < min2) {
-              minId2 = j;
-              min2 = dist;
-            }
+    protected int initialAssign(DBIDRef it, double[][] cdist) {
+      NumberVector fv = relation.get(it);
+      // Find closest center, and distance to two closest centers:
+      double min1 = distance(fv, means[0]);
+      double min2 = k > 1 ? distance(fv, means[1]) : min1;
+      int minIdx = 0, minId2 = 1;
+      if(min2 < min1) {
+        double tmp = min1;
+        min1 = min2;
+        min2 = tmp;
+        minIdx = 1;
+        minId2 = 0;
+      }
+      for(int j = 2; j < k; j++) {
+        if(min2 > cdist[minIdx][j]) {
+          double dist = distance(fv, means[j]);
+          if(dist < min1) {
+            minId2 = minIdx;
+            minIdx = j;
+            min2 = min1;
+            min1 = dist;
+          }
+          else if(dist < min2) {
+            minId2 = j;
+            min2 = dist;
           }
         }
-        // Assign to nearest cluster.
-        clusters.get(minIdx).add(it);
-        assignment.putInt(it, minIdx);
-        plusEquals(sums[minIdx], fv);
-        upper.putDouble(it, isSquared ? Math.sqrt(min1) : min1);
-        lower.putDouble(it, isSquared ? Math.sqrt(min2) : min2);
-        // Overall like Exponion, but also store second closest
-        second.putInt(it, minId2);
       }
-      return relation.size();
+      upper.putDouble(it, isSquared ? Math.sqrt(min1) : min1);
+      lower.putDouble(it, isSquared ? Math.sqrt(min2) : min2);
+      // Overall like Exponion, but also store second closest
+      second.putInt(it, minId2);
+      return minIdx;
     }
 
     @Override
-    protected int assignToNearestCluster() {
-      recomputeSeperation(sep, cdist);
-      nearestMeans(cdist, cnum);
-      int changed = 0;
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        final int orig = assignment.intValue(it);
-        // Compute the current bound:
-        final double z = lower.doubleValue(it);
-        final double sa = sep[orig];
-        double u = upper.doubleValue(it);
-        if(u <= z || u <= sa) {
-          continue;
-        }
-        // Update the upper bound
-        NumberVector fv = relation.get(it);
-        double curd2 = distance(fv, means[orig]);
-        upper.putDouble(it, u = isSquared ? Math.sqrt(curd2) : curd2);
-        if(u <= z || u <= sa) {
-          continue;
-        }
-        double r = u + 0.5 * sa; // Our cdist are scaled 0.5
-        if(cdist[orig][cnum[orig][0]] > r) {
-          continue;
+    protected int reassign(DBIDRef it, int orig) {
+      // Compute the current bound:
+      final double z = lower.doubleValue(it);
+      final double sa = sep[orig];
+      double u = upper.doubleValue(it);
+      if(u <= z || u <= sa) {
+        return orig;
+      }
+      // Update the upper bound
+      NumberVector fv = relation.get(it);
+      double curd2 = distance(fv, means[orig]);
+      upper.putDouble(it, u = isSquared ? Math.sqrt(curd2) : curd2);
+      if(u <= z || u <= sa) {
+        return orig;
+      }
+      double r = u + 0.5 * sa; // Our cdist are scaled 0.5
+      if(cdist[orig][cnum[orig][0]] > r) {
+        return orig;
+      }
+      // Shallot modification #1: try old second-nearest first:
+      int secn = second.intValue(it);
+      // Exact distance to previous second nearest
+      double secd2 = distance(fv, means[secn]);
+      int ref = orig; // closest center "z" in Borgelts paper
+      if(secd2 < curd2) {
+        // Previous second closest is closer, swap:
+        final double tmp = secd2;
+        secd2 = curd2;
+        curd2 = tmp;
+        ref = secn;
+        secn = orig;
+        // Update u
+        u = isSquared ? Math.sqrt(curd2) : curd2;
+      }
+      // Second Shallot improvement: r
+      double l = Math.min(u + sa, 2 * u + cdist[orig][cnum[orig][0]]);
+      r = 0.5 * (u + l); // Our cdist are scaled by 0.5
+      // Find closest center, and distance to two closest centers
+      double min1 = curd2, min2 = secd2;
+      int cur = ref, minId2 = secn;
+      for(int i = 0; i < k - 1; i++) {
+        int c = cnum[ref][i];
+        if(c == secn) {
+          continue; // Handled above
         }
-        // Shallot modification #1: try old second-nearest first:
-        int secn = second.intValue(it);
-        // Exact distance to previous second nearest
-        double secd2 = distance(fv, means[secn]);
-        int ref = orig; // closest center "z" in Borgelts paper
-        if(secd2 < curd2) {
-          // Previous second closest is closer, swap:
-          final double tmp = secd2;
-          secd2 = curd2;
-          curd2 = tmp;
-          ref = secn;
-          secn = orig;
-          // Update u
-          u = isSquared ? Math.sqrt(curd2) : curd2;
+        if(cdist[ref][c] > r) {
+          break;
         }
-        // Second Shallot improvement: r
-        double l = Math.min(u + sa, 2 * u + cdist[orig][cnum[orig][0]]);
-        r = 0.5 * (u + l); // Our cdist are scaled by 0.5
-        // Find closest center, and distance to two closest centers
-        double min1 = curd2, min2 = secd2;
-        int cur = ref, minId2 = secn;
-        for(int i = 0; i < k - 1; i++) {
-          int c = cnum[ref][i];
-          if(c == secn) {
-            continue; // Handled above
-          }
-          if(cdist[ref][c] > r) {
-            break;
-          }
-          double dist = distance(fv, means[c]);
-          if(dist < min1) {
-            minId2 = cur;
-            cur = c;
-            min2 = min1;
-            min1 = dist;
-            // Second Shallot improvement: r shrinking
-            if(min1 < l) {
-              r = 0.5 * (u + (l = min1));
-            }
-          }
-          else if(dist < min2) {
-            minId2 = c;
-            min2 = dist;
+        double dist = distance(fv, means[c]);
+        if(dist < min1) {
+          minId2 = cur;
+          cur = c;
+          min2 = min1;
+          min1 = dist;
+          // Second Shallot improvement: r shrinking
+          if(min1 < l) {
+            r = 0.5 * (u + (l = min1));
           }
         }
-        if(cur != orig) {
-          clusters.get(cur).add(it);
-          clusters.get(orig).remove(it);
-          assignment.putInt(it, cur);
-          second.putInt(it, minId2);
-          plusMinusEquals(sums[cur], sums[orig], fv);
-          ++changed;
-          upper.putDouble(it, min1 == curd2 ? u : isSquared ? Math.sqrt(min1) : min1);
+        else if(dist < min2) {
+          minId2 = c;
+          min2 = dist;
         }
-        lower.putDouble(it, min2 == curd2 ? u : isSquared ? Math.sqrt(min2) : min2);
       }
-      return changed;
+      if(cur != orig) {
+        second.putInt(it, minId2);
+        upper.putDouble(it, min1 == curd2 ? u : isSquared ? Math.sqrt(min1) : min1);
+      }
+      lower.putDouble(it, min2 == curd2 ? u : isSquared ? Math.sqrt(min2) : min2);
+      return cur;
     }
 
     @Override
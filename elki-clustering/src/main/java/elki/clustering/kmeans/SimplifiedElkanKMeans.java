@@ -29,6 +29,7 @@ import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
 import elki.database.datastore.WritableDoubleDataStore;
 import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
 import elki.database.relation.Relation;
 import elki.distance.NumberVectorDistance;
 import elki.logging.Logging;
@@ -101,27 +102,27 @@ public class SimplifiedElkanKMeans<V extends NumberVector> extends AbstractKMean
     /**
      * Sum aggregate for the new mean.
      */
-    double[][] sums;
+    protected double[][] sums;
 
     /**
      * Scratch space for new means.
      */
-    double[][] newmeans;
+    protected double[][] newmeans;
 
     /**
      * Upper bounds
      */
-    WritableDoubleDataStore upper;
+    protected WritableDoubleDataStore upper;
 
     /**
      * Lower bounds
      */
-    WritableDataStore<double[]> lower;
+    protected WritableDataStore<double[]> lower;
 
     /**
      * Cluster separation
      */
-    double[] sep;
+    protected double[] sep;
 
     /**
      * Constructor.
@@ -163,68 +164,106 @@ public class SimplifiedElkanKMeans<V extends NumberVector> extends AbstractKMean
     protected int initialAssignToNearestCluster() {
       assert k == means.length;
       for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        NumberVector fv = relation.get(it);
-        double[] l = lower.get(it);
-        // Check all (other) means:
-        double best = l[0] = sqrtdistance(fv, means[0]);
-        int minIndex = 0;
-        for(int j = 1; j < k; j++) {
-          double dist = l[j] = sqrtdistance(fv, means[j]);
-          if(dist < best) {
-            minIndex = j;
-            best = dist;
-          }
-        }
-        // Assign to nearest cluster.
-        clusters.get(minIndex).add(it);
+        final int minIndex = initialAssign(it);
         assignment.putInt(it, minIndex);
-        plusEquals(sums[minIndex], fv);
-        upper.putDouble(it, best);
+        reassigned(it, -1, minIndex);
       }
       return relation.size();
     }
 
+    /**
+     * Initial assignment of a single object, initializing its bounds.
+     *
+     * @param it Object
+     * @return Cluster number
+     */
+    protected int initialAssign(DBIDRef it) {
+      NumberVector fv = relation.get(it);
+      double[] l = lower.get(it);
+      // Check all (other) means:
+      double best = l[0] = sqrtdistance(fv, means[0]);
+      int minIndex = 0;
+      for(int j = 1; j < k; j++) {
+        double dist = l[j] = sqrtdistance(fv, means[j]);
+        if(dist < best) {
+          minIndex = j;
+          best = dist;
+        }
+      }
+      upper.putDouble(it, best);
+      return minIndex;
+    }
+
     @Override
     protected int assignToNearestCluster() {
       int changed = 0;
       for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
         final int orig = assignment.intValue(it);
-        double u = upper.doubleValue(it);
-        boolean recompute_u = true; // Elkan's r(x)
-        NumberVector fv = relation.get(it);
-        double[] l = lower.get(it);
-        // Check all (other) means:
-        int cur = orig;
-        for(int j = 0; j < k; j++) {
-          if(orig == j || u <= l[j]) {
-            continue; // Condition #3 i-iii not satisfied
-          }
-          if(recompute_u) { // Need to update bound? #3a
-            upper.putDouble(it, u = sqrtdistance(fv, means[cur]));
-            recompute_u = false; // Once only
-            if(u <= l[j]) { // #3b
-              continue;
-            }
-          }
-          double dist = l[j] = sqrtdistance(fv, means[j]);
-          if(dist < u) {
-            cur = j;
-            u = dist;
-          }
-        }
-        // Object has to be reassigned.
+        final int cur = reassign(it, orig);
         if(cur != orig) {
-          clusters.get(cur).add(it);
-          clusters.get(orig).remove(it);
           assignment.putInt(it, cur);
-          plusMinusEquals(sums[cur], sums[orig], fv);
+          reassigned(it, orig, cur);
           ++changed;
-          upper.putDouble(it, u); // Remember bound.
         }
       }
       return changed;
     }
 
+    /**
+     * Reassign a single object, updating its bounds.
+     *
+     * @param it Object
+     * @param orig Current cluster
+     * @return New cluster
+     */
+    protected int reassign(DBIDRef it, int orig) {
+      double u = upper.doubleValue(it);
+      boolean recompute_u = true; // Elkan's r(x)
+      NumberVector fv = relation.get(it);
+      double[] l = lower.get(it);
+      // Check all (other) means:
+      int cur = orig;
+      for(int j = 0; j < k; j++) {
+        if(orig == j || u <= l[j]) {
+          continue; // Condition #3 i-iii not satisfied
+        }
+        if(recompute_u) { // Need to update bound? #3a
+          upper.putDouble(it, u = sqrtdistance(fv, means[cur]));
+          recompute_u = false; // Once only
+          if(u <= l[j]) { // #3b
+            continue;
+          }
+        }
+        double dist = l[j] = sqrtdistance(fv, means[j]);
+        if(dist < u) {
+          cur = j;
+          u = dist;
+        }
+      }
+      if(cur != orig) {
+        upper.putDouble(it, u); // Remember bound.
+      }
+      return cur;
+    }
+
+    /**
+     * Update the cluster members and sums after an object was (re-)assigned.
+     *
+     * @param it Object
+     * @param from Previous cluster, -1 for the initial assignment
+     * @param to New cluster
+     */
+    protected void reassigned(DBIDRef it, int from, int to) {
+      NumberVector fv = relation.get(it);
+      clusters.get(to).add(it);
+      if(from < 0) {
+        plusEquals(sums[to], fv);
+        return;
+      }
+      clusters.get(from).remove(it);
+      plusMinusEquals(sums[to], sums[from], fv);
+    }
+
     /**
      * Update the bounds for k-means.
      *
@@ -232,11 +271,21 @@ public class SimplifiedElkanKMeans<V extends NumberVector> extends AbstractKMean
      */
     protected void updateBounds(double[] move) {
       for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        upper.increment(it, move[assignment.intValue(it)]);
-        VMath.minusEquals(lower.get(it), move);
+        updateBounds(it, move);
       }
     }
 
+    /**
+     * Update the bounds of a single object.
+     *
+     * @param it Object
+     * @param move Movement of centers
+     */
+    protected void updateBounds(DBIDRef it, double[] move) {
+      upper.increment(it, move[assignment.intValue(it)]);
+      VMath.minusEquals(lower.get(it), move);
+    }
+
     @Override
     protected Logging getLogger() {
       return LOG;
@@ -31,6 +31,7 @@ import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
 import elki.database.datastore.WritableDoubleDataStore;
 import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
 import elki.database.relation.Relation;
 import elki.distance.NumberVectorDistance;
 import elki.logging.Logging;
@@ -79,7 +80,7 @@ public class YinYangKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
   /**
    * Number of cluster center groups t
    */
-  private int t;
+  protected int t;
 
   /**
    * Constructor.
@@ -111,37 +112,37 @@ public class YinYangKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
     /**
      * Center list for each group
      */
-    int[][] groups;
+    protected int[][] groups;
 
     /**
      * Maximum distance moved within each group.
      */
-    double[] gdrift;
+    protected double[] gdrift;
 
     /**
      * Distance moved by each center.
      */
-    double[] cdrift;
+    protected double[] cdrift;
 
     /**
      * Current cluster sum.
      */
-    double[][] sums;
+    protected double[][] sums;
 
     /**
      * Group label of each mean
      */
-    int[] glabel = new int[k];
+    protected int[] glabel = new int[k];
 
     /**
      * Upper bound
      */
-    WritableDoubleDataStore upper;
+    protected WritableDoubleDataStore upper;
 
     /**
      * Lower bounds
      */
-    WritableDataStore<double[]> lower;
+    protected WritableDataStore<double[]> lower;
 
     /**
      * Constructor.
@@ -323,85 +324,114 @@ public class YinYangKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
      */
     @Override
     protected int assignToNearestCluster() {
-      final int t = gdrift.length;
+      double[] prevlb = new double[gdrift.length];
       int changed = 0;
-      double[] prevlb = new double[t];
-
       for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        NumberVector cur = relation.get(it);
-        int prev = assignment.intValue(it);
-        double[] lbs = lower.get(it);
-        System.arraycopy(lbs, 0, prevlb, 0, lbs.length);
-
-        // Update the upper bound
-        final double drift = cdrift[prev];
-        if(drift > 0) {
-          upper.increment(it, drift);
+        final int prev = assignment.intValue(it);
+        final int best = reassign(it, prev, prevlb);
+        if(prev != best) {
+          assignment.putInt(it, best);
+          reassigned(it, prev, best);
+          ++changed;
         }
+      }
+      return changed;
+    }
 
-        double minlb = Double.POSITIVE_INFINITY;
-        // Update lower bounds with the maximum distance moved within each group
-        for(int g = 0; g < t; g++) {
-          double lb = lbs[g] -= gdrift[g];
-          minlb = lb < minlb ? lb : minlb;
-        }
+    /**
+     * Reassign a single object, updating its bounds.
+     *
+     * @param it Object
+     * @param prev Current cluster
+     * @param prevlb Scratch buffer for the previous lower bounds
+     * @return New cluster
+     */
+    protected int reassign(DBIDRef it, int prev, double[] prevlb) {
+      final int t = gdrift.length;
+      NumberVector cur = relation.get(it);
+      double[] lbs = lower.get(it);
+      System.arraycopy(lbs, 0, prevlb, 0, lbs.length);
+
+      // Update the upper bound
+      final double drift = cdrift[prev];
+      if(drift > 0) {
+        upper.increment(it, drift);
+      }
 
-        // Global filter
-        double ub = upper.doubleValue(it);
-        if(minlb >= ub) {
-          continue;
-        }
+      double minlb = Double.POSITIVE_INFINITY;
+      // Update lower bounds with the maximum distance moved within each group
+      for(int g = 0; g < t; g++) {
+        double lb = lbs[g] -= gdrift[g];
+        minlb = lb < minlb ? lb : minlb;
+      }
+
+      // Global filter
+      double ub = upper.doubleValue(it);
+      if(minlb >= ub) {
+        return prev;
+      }
 
-        // tighten ub(x) and check again
-        upper.put(it, ub = sqrtdistance(cur, means[prev]));
-        // Global filter with ub tight
-        if(minlb >= ub) {
+      // tighten ub(x) and check again
+      upper.put(it, ub = sqrtdistance(cur, means[prev]));
+      // Global filter with ub tight
+      if(minlb >= ub) {
+        return prev;
+      }
+
+      int best = prev;
+      // distance to second closest:
+      for(int g = 0; g < t; ++g) {
+        double lb = lbs[g];
+        // Group filter
+        if(lb >= ub) {
           continue;
         }
-
-        int best = prev;
-        // distance to second closest:
-        for(int g = 0; g < t; ++g) {
-          double lb = lbs[g];
-          // Group filter
-          if(lb >= ub) {
+        double plb = prevlb[g];
+        double sc = Double.POSITIVE_INFINITY;
+        for(int i : groups[g]) {
+          if(i == prev) { // Already computed above
             continue;
           }
-          double plb = prevlb[g];
-          double sc = Double.POSITIVE_INFINITY;
-          for(int i : groups[g]) {
-            if(i == prev) { // Already computed above
-              continue;
-            }
-            // Local filter.
-            if(sc < plb - cdrift[i]) {
-              continue;
+          // Local filter.
+          if(sc < plb - cdrift[i]) {
+            continue;
+          }
+          double di = sqrtdistance(cur, means[i]);
+          if(di < sc) { // at least second closest
+            if(di < ub) { // closest
+              lb = sc = ub; // previous closest is now second
+              ub = di;
+              best = i;
             }
-            double di = sqrtdistance(cur, means[i]);
-            if(di < sc) { // at least second closest
-              if(di < ub) { // closest
-                lb = sc = ub; // previous closest is now second
-                ub = di;
-                best = i;
-              }
-              else {
-                sc = di;
-              }
+            else {
+              sc = di;
             }
           }
-          lbs[g] = sc;
         }
+        lbs[g] = sc;
+      }
+      if(prev != best) {
+        upper.put(it, ub);
+      }
+      return best;
+    }
 
-        if(prev != best) {
-          upper.put(it, ub);
-          clusters.get(assignment.intValue(it)).remove(it);
-          clusters.get(best).add(it);
-          plusMinusEquals(sums[best], sums[prev], cur);
-          assignment.put(it, best);
-          ++changed;
-        }
+    /**
+     * Update the cluster members and sums after an object was (re-)assigned.
+     *
+     * @param it Object
+     * @param from Previous cluster, -1 for the initial assignment
+     * @param to New cluster
+     */
+    protected void reassigned(DBIDRef it, int from, int to) {
+      NumberVector fv = relation.get(it);
+      clusters.get(to).add(it);
+      if(from < 0) {
+        plusEquals(sums[to], fv);
+        return;
       }
-      return changed;
+      clusters.get(from).remove(it);
+      plusMinusEquals(sums[to], sums[from], fv);
     }
 
     /**
@@ -409,59 +439,68 @@ public class YinYangKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
      * 
      * @return number of changes (i.e. relation size)
      */
-    private int initialAssignToNearestCluster() {
+    protected int initialAssignToNearestCluster() {
       assert k == means.length;
-      for(DBIDIter id = relation.iterDBIDs(); id.valid(); id.advance()) {
-        NumberVector point = relation.get(id);
-        double[] lower = this.lower.get(id);
-        double min = Double.POSITIVE_INFINITY;
-        int globalindex = 0;
-
-        for(int g = 0; g < groups.length; g++) {
-          final int[] group = groups[g];
-          if(group.length == 0) {
-            continue;
+      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+        final int best = initialAssign(it);
+        assignment.putInt(it, best);
+        reassigned(it, -1, best);
+      }
+      return relation.size();
+    }
+
+    /**
+     * Initial assignment of a single object, initializing its bounds.
+     *
+     * @param id Object
+     * @return Cluster number
+     */
+    protected int initialAssign(DBIDRef id) {
+      NumberVector point = relation.get(id);
+      double[] lower = this.lower.get(id);
+      double min = Double.POSITIVE_INFINITY;
+      int globalindex = 0;
+
+      for(int g = 0; g < groups.length; g++) {
+        final int[] group = groups[g];
+        if(group.length == 0) {
+          continue;
+        }
+        // First center in group
+        double min1 = distance(point, means[group[0]]);
+        double min2 = Double.POSITIVE_INFINITY;
+        int best = group[0];
+        // remaining centers in group
+        for(int c = 1; c < group.length; c++) {
+          int center = group[c];
+          double dist = distance(point, means[center]);
+          if(dist < min1) {
+            min2 = min1;
+            best = center;
+            min1 = dist;
           }
-          // First center in group
-          double min1 = distance(point, means[group[0]]);
-          double min2 = Double.POSITIVE_INFINITY;
-          int best = group[0];
-          // remaining centers in group
-          for(int c = 1; c < group.length; c++) {
-            int center = group[c];
-            double dist = distance(point, means[center]);
-            if(dist < min1) {
-              min2 = min1;
-              best = center;
-              min1 = dist;
-            }
-            else if(dist < min2) {
-              min2 = dist;
-            }
+          else if(dist < min2) {
+            min2 = dist;
           }
-          // For the triangle inequality, we need Euclidean not squared
-          min1 = isSquared ? Math.sqrt(min1) : min1;
-          min2 = min2 < Double.POSITIVE_INFINITY ? (isSquared ? Math.sqrt(min2) : min2) : min1;
+        }
+        // For the triangle inequality, we need Euclidean not squared
+        min1 = isSquared ? Math.sqrt(min1) : min1;
+        min2 = min2 < Double.POSITIVE_INFINITY ? (isSquared ? Math.sqrt(min2) : min2) : min1;
 
-          if(min1 < min) {
-            if(globalindex != -1) {
-              lower[glabel[globalindex]] = min;
-            }
-            min = min1;
-            globalindex = best;
-            lower[g] = min2;
-          }
-          else {
-            lower[g] = min1;
+        if(min1 < min) {
+          if(globalindex != -1) {
+            lower[glabel[globalindex]] = min;
           }
+          min = min1;
+          globalindex = best;
+          lower[g] = min2;
+        }
+        else {
+          lower[g] = min1;
         }
-        clusters.get(globalindex).add(id);
-        assignment.put(id, globalindex);
-        upper.put(id, min);
-        plusEquals(sums[globalindex], point);
       }
-
-      return relation.size();
+      upper.put(id, min);
+      return globalindex;
     }
 
     @Override
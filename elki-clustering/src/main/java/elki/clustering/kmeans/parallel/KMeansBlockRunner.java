@@ -0,0 +1,327 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.parallel.ParallelCore;
+import elki.utilities.exceptions.AbortException;
+
+/**
+ * Run the per-object loops of the bound-based k-means variants in parallel.
+ * <p>
+ * The data is split into blocks of consecutive objects, which are processed in
+ * parallel. The bounds of each object are only accessed by the thread
+ * processing it. Changes to the cluster assignment are recorded per block, and
+ * afterwards applied to the cluster sums in the original order, which makes
+ * the results identical to the sequential algorithms.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class KMeansBlockRunner {
+  /**
+   * Minimum number of objects per block.
+   */
+  private static final int MIN_BLOCKSIZE = 256;
+
+  /**
+   * Number of blocks per thread, for load balancing.
+   */
+  private static final int BLOCKS_PER_THREAD = 8;
+
+  /**
+   * Objects to process.
+   */
+  private final ArrayDBIDs ids;
+
+  /**
+   * Receiver of the distance computation counts.
+   */
+  private final LongConsumer diststat;
+
+  /**
+   * Distance computations of the worker threads.
+   */
+  private final LongAdder distances = new LongAdder();
+
+  /**
+   * Flag whether worker threads are active.
+   */
+  private boolean active = false;
+
+  /**
+   * Constructor.
+   *
+   * @param ids Objects to process
+   * @param diststat Receiver of the distance computation counts
+   */
+  public KMeansBlockRunner(DBIDs ids, LongConsumer diststat) {
+    this.ids = DBIDUtil.ensureArray(ids);
+    this.diststat = diststat;
+  }
+
+  /**
+   * Count a distance computation, if worker threads are active.
+   *
+   * @return {@code false} if the caller needs to count the computation
+   */
+  public boolean countDistance() {
+    if(active) {
+      distances.increment();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Process all objects.
+   *
+   * @param action Action for each object
+   */
+  public void forEach(Action action) {
+    runBlocks((start, end) -> {
+      for(DBIDArrayIter it = ids.iter().seek(start); it.getOffset() < end; it.advance()) {
+        action.process(it);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Initial assignment of all objects.
+   *
+   * @param assignment Assignment storage
+   * @param assign Initial assignment of a single object
+   * @param update Update of the cluster sums, in sequential order
+   * @return Number of objects assigned
+   */
+  public int initialAssign(WritableIntegerDataStore assignment, InitialAssign assign, Update update) {
+    runBlocks((start, end) -> {
+      for(DBIDArrayIter it = ids.iter().seek(start); it.getOffset() < end; it.advance()) {
+        assignment.putInt(it, assign.assign(it));
+      }
+      return null;
+    });
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      update.reassigned(it, -1, assignment.intValue(it));
+    }
+    return ids.size();
+  }
+
+  /**
+   * Reassign all objects.
+   *
+   * @param assignment Assignment storage
+   * @param reassign Reassignment of a single object
+   * @param update Update of the cluster sums, in sequential order
+   * @return Number of objects reassigned
+   */
+  public int reassign(WritableIntegerDataStore assignment, Reassign reassign, Update update) {
+    return reassign(assignment, () -> reassign, update);
+  }
+
+  /**
+   * Reassign all objects, with a separate reassignment function for each
+   * block, e.g., to use scratch buffers that are not shared across threads.
+   *
+   * @param assignment Assignment storage
+   * @param blockReassign Factory of the reassignment of a single object
+   * @param update Update of the cluster sums, in sequential order
+   * @return Number of objects reassigned
+   */
+  public int reassign(WritableIntegerDataStore assignment, Supplier<? extends Reassign> blockReassign, Update update) {
+    List<int[]> changes = runBlocks((start, end) -> {
+      final Reassign reassign = blockReassign.get();
+      int[] buf = new int[16];
+      int n = 1; // Position 0 stores the length.
+      for(DBIDArrayIter it = ids.iter().seek(start); it.getOffset() < end; it.advance()) {
+        final int orig = assignment.intValue(it);
+        final int cur = reassign.reassign(it, orig);
+        if(cur != orig) {
+          assignment.putInt(it, cur);
+          if(n + 2 > buf.length) {
+            buf = Arrays.copyOf(buf, buf.length << 1);
+          }
+          buf[n++] = it.getOffset();
+          buf[n++] = orig;
+        }
+      }
+      buf[0] = n;
+      return buf;
+    });
+    int changed = 0;
+    DBIDArrayIter it = ids.iter();
+    for(int[] buf : changes) {
+      for(int i = 1; i < buf[0]; i += 2) {
+        it.seek(buf[i]);
+        update.reassigned(it, buf[i + 1], assignment.intValue(it));
+        ++changed;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Process all blocks, and collect their results in order.
+   *
+   * @param block Block processing function
+   * @return Block results
+   */
+  private <T> List<T> runBlocks(Block<T> block) {
+    final int size = ids.size();
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      final int parallelism = core.getParallelism();
+      final int blocksize = Math.max(MIN_BLOCKSIZE, (size + parallelism * BLOCKS_PER_THREAD - 1) / (parallelism * BLOCKS_PER_THREAD));
+      List<T> results = new ArrayList<>((size + blocksize - 1) / blocksize);
+      if(parallelism <= 1 || size <= blocksize) {
+        for(int start = 0; start < size; start += blocksize) {
+          results.add(block.process(start, Math.min(start + blocksize, size)));
+        }
+        return results;
+      }
+      active = true;
+      List<Future<T>> futures = new ArrayList<>((size + blocksize - 1) / blocksize);
+      for(int start = 0; start < size; start += blocksize) {
+        final int s = start, e = Math.min(start + blocksize, size);
+        futures.add(core.submit(() -> block.process(s, e)));
+      }
+      for(Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AbortException("k-means was interrupted.", e);
+    }
+    catch(ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new AbortException("k-means failed.", e.getCause());
+    }
+    finally {
+      active = false;
+      diststat.accept(distances.sumThenReset());
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Processing of a block of objects.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> Result type
+   */
+  @FunctionalInterface
+  private interface Block<T> {
+    /**
+     * Process a block.
+     *
+     * @param start First offset
+     * @param end End offset (exclusive)
+     * @return Result
+     */
+    T process(int start, int end);
+  }
+
+  /**
+   * Action on a single object.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface Action {
+    /**
+     * Process an object.
+     *
+     * @param it Object
+     */
+    void process(DBIDRef it);
+  }
+
+  /**
+   * Initial assignment of a single object.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface InitialAssign {
+    /**
+     * Assign an object, and initialize its bounds.
+     *
+     * @param it Object
+     * @return Cluster number
+     */
+    int assign(DBIDRef it);
+  }
+
+  /**
+   * Reassignment of a single object.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface Reassign {
+    /**
+     * Reassign an object, and update its bounds.
+     *
+     * @param it Object
+     * @param orig Current cluster
+     * @return New cluster
+     */
+    int reassign(DBIDRef it, int orig);
+  }
+
+  /**
+   * Update of the cluster sums.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface Update {
+    /**
+     * Update the cluster members and sums after an object was reassigned.
+     *
+     * @param it Object
+     * @param from Previous cluster, -1 for the initial assignment
+     * @param to New cluster
+     */
+    void reassigned(DBIDRef it, int from, int to);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import elki.clustering.kmeans.ShallotKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+
+/**
+ * Parallel version of Shallot k-means.
+ * <p>
+ * The bounds of the objects are updated in parallel, while the cluster sums
+ * are updated in the same order as in {@link ShallotKMeans}, so the results
+ * are identical.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @has - - - KMeansBlockRunner
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelShallotKMeans<V extends NumberVector> extends ShallotKMeans<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelShallotKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelShallotKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distance, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Relation<V> relation) {
+    Instance instance = new Instance(relation, distance, initialMeans(relation));
+    instance.run(maxiter);
+    return instance.buildResult(varstat, relation);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends ShallotKMeans.Instance {
+    /**
+     * Parallel runner.
+     */
+    protected KMeansBlockRunner runner;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means) {
+      super(relation, df, means);
+      runner = new KMeansBlockRunner(relation.getDBIDs(), n -> diststat += n);
+    }
+
+    @Override
+    protected void countDistance() {
+      if(!runner.countDistance()) {
+        ++diststat;
+      }
+    }
+
+    @Override
+    protected int initialAssignToNearestCluster() {
+      assert k == means.length;
+      computeSquaredSeparation(cdist);
+      return runner.initialAssign(assignment, it -> initialAssign(it, cdist), this::reassigned);
+    }
+
+    @Override
+    protected int assignToNearestCluster() {
+      recomputeSeperation(sep, cdist);
+      nearestMeans(cdist, cnum);
+      return runner.reassign(assignment, this::reassign, this::reassigned);
+    }
+
+    @Override
+    protected void updateBounds(double[] move, int most, double delta, double delta2) {
+      runner.forEach(it -> updateBounds(it, move, most, delta, delta2));
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends ShallotKMeans.Par<V> {
+    @Override
+    public ParallelShallotKMeans<V> make() {
+      return new ParallelShallotKMeans<>(distance, k, maxiter, initializer, varstat);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import elki.clustering.kmeans.YinYangKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+
+/**
+ * Parallel version of Yin-Yang k-means.
+ * <p>
+ * The bounds of the objects are updated in parallel, while the cluster sums
+ * are updated in the same order as in {@link YinYangKMeans}, so the results
+ * are identical.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @has - - - KMeansBlockRunner
+ *
+ * @param <V> Vector type
+ */
+public class ParallelYinYangKMeans<V extends NumberVector> extends YinYangKMeans<V> {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelYinYangKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param k Number of clusters
+   * @param maxiter Maximum number of iterations
+   * @param initializer Initialization method
+   * @param t Number of cluster center groups for pruning
+   */
+  public ParallelYinYangKMeans(int k, int maxiter, KMeansInitialization initializer, int t) {
+    super(k, maxiter, initializer, t);
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Relation<V> rel) {
+    Instance instance = new Instance(rel, getDistance(), initialMeans(rel), t);
+    instance.run(maxiter);
+    return instance.buildResult();
+  }
+
+  /**
+   * Instance for a particular data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends YinYangKMeans.Instance {
+    /**
+     * Parallel runner.
+     */
+    protected KMeansBlockRunner runner;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation to process
+     * @param df Distance function
+     * @param means Initial means
+     * @param t Number of groups to use
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means, int t) {
+      super(relation, df, means, t);
+      runner = new KMeansBlockRunner(relation.getDBIDs(), n -> diststat += n);
+    }
+
+    @Override
+    protected void countDistance() {
+      if(!runner.countDistance()) {
+        ++diststat;
+      }
+    }
+
+    @Override
+    protected int initialAssignToNearestCluster() {
+      assert k == means.length;
+      return runner.initialAssign(assignment, this::initialAssign, this::reassigned);
+    }
+
+    @Override
+    protected int assignToNearestCluster() {
+      return runner.reassign(assignment, () -> {
+        // Scratch buffer for the previous lower bounds, per block.
+        final double[] prevlb = new double[gdrift.length];
+        return (it, prev) -> reassign(it, prev, prevlb);
+      }, this::reassigned);
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends YinYangKMeans.Par<V> {
+    @Override
+    public ParallelYinYangKMeans<V> make() {
+      return new ParallelYinYangKMeans<>(k, maxiter, initializer, t);
+    }
+  }
+}
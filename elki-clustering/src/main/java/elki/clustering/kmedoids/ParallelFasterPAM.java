@@ -0,0 +1,249 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmedoids;
+
+import elki.clustering.kmedoids.initialization.KMedoidsInitialization;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+import elki.distance.Distance;
+import elki.logging.Logging;
+import elki.logging.progress.IndefiniteProgress;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.LongStatistic;
+import elki.math.linearalgebra.VMath;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Parallel variant of {@link FasterPAM}.
+ * <p>
+ * The non-medoids are processed in batches of a fixed size. The swap gains of
+ * all candidates of a batch are computed in parallel against the current
+ * assignment (nearest and second nearest medoid), then the best improving swap
+ * of the batch is performed. With a batch size of 1, this is equivalent to
+ * FasterPAM. Because the batch size does not depend on the number of threads,
+ * the result is the same for every degree of parallelism.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @param <O> object datatype
+ */
+public class ParallelFasterPAM<O> extends FasterPAM<O> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelFasterPAM.class);
+
+  /**
+   * Key for statistics logging.
+   */
+  private static final String KEY = ParallelFasterPAM.class.getName();
+
+  /**
+   * Number of swap candidates evaluated together.
+   */
+  protected int batchsize;
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Function to generate the initial means
+   * @param batchsize Number of swap candidates evaluated together
+   */
+  public ParallelFasterPAM(Distance<? super O> distance, int k, int maxiter, KMedoidsInitialization<O> initializer, int batchsize) {
+    super(distance, k, maxiter, initializer);
+    this.batchsize = batchsize;
+  }
+
+  @Override
+  protected void run(DistanceQuery<O> distQ, DBIDs ids, ArrayModifiableDBIDs medoids, WritableIntegerDataStore assignment) {
+    new Instance(distQ, ids, assignment, batchsize).run(medoids, maxiter);
+  }
+
+  /**
+   * Instance for a single dataset.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends FasterPAM.Instance {
+    /**
+     * Candidates, as array.
+     */
+    protected ArrayDBIDs candidates;
+
+    /**
+     * Number of swap candidates evaluated together.
+     */
+    protected int batchsize;
+
+    /**
+     * Constructor.
+     *
+     * @param distQ Distance query
+     * @param ids IDs to process
+     * @param assignment Cluster assignment
+     * @param batchsize Number of swap candidates evaluated together
+     */
+    public Instance(DistanceQuery<?> distQ, DBIDs ids, WritableIntegerDataStore assignment, int batchsize) {
+      super(distQ, ids, assignment);
+      this.candidates = DBIDUtil.ensureArray(ids);
+      this.batchsize = batchsize;
+    }
+
+    @Override
+    protected double run(ArrayModifiableDBIDs medoids, int maxiter) {
+      final int k = medoids.size(), size = candidates.size();
+      double tc = assignToNearestCluster(medoids);
+      if(LOG.isStatistics()) {
+        LOG.statistics(new DoubleStatistic(KEY + ".iteration-" + 0 + ".cost", tc));
+      }
+
+      IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("PAM iteration", LOG) : null;
+      DBIDArrayIter m = medoids.iter(), h = candidates.iter();
+      final double[] pcost = new double[k];
+      // Best swap of each candidate in the batch:
+      final double[] bestcost = new double[batchsize];
+      final int[] bestmedoid = new int[batchsize];
+      int iteration = 0, swaps = 0;
+      // Number of candidates evaluated since the last swap:
+      int unchanged = 0;
+      while(iteration < maxiter || maxiter <= 0) {
+        ++iteration;
+        LOG.incrementProcessed(prog);
+        updatePriorCost(pcost);
+        int prevswaps = swaps;
+        for(int start = 0; start < size && unchanged < size; start += batchsize) {
+          final int len = Math.min(batchsize, size - start), offset = start;
+          ParallelExecutor.run(ParallelExecutor.blocks(0, len, 1), (s, e) -> {
+            evaluateSwaps(medoids, pcost, offset, s, e, bestcost, bestmedoid);
+          });
+          // Choose the best swap of the batch, the first on ties:
+          final int best = VMath.argmin(bestcost, 0, len);
+          if(!(bestcost[best] < -1e-12 * tc)) {
+            unchanged += len;
+            continue;
+          }
+          ++swaps;
+          unchanged = len - 1 - best; // Remainder of this batch
+          updateAssignment(medoids, m, h.seek(start + best), bestmedoid[best]);
+          updatePriorCost(pcost);
+          tc += bestcost[best];
+          assert tc >= 0;
+          if(LOG.isStatistics()) {
+            LOG.statistics(new DoubleStatistic(KEY + ".swap-" + swaps + ".cost", tc));
+          }
+        }
+        if(LOG.isStatistics()) {
+          LOG.statistics(new LongStatistic(KEY + ".iteration-" + iteration + ".swaps", swaps - prevswaps));
+        }
+        if(prevswaps == swaps) {
+          break; // Converged
+        }
+        if(LOG.isStatistics()) {
+          LOG.statistics(new DoubleStatistic(KEY + ".iteration-" + iteration + ".cost", tc));
+        }
+      }
+      LOG.setCompleted(prog);
+      if(LOG.isStatistics()) {
+        LOG.statistics(new LongStatistic(KEY + ".iterations", iteration));
+        LOG.statistics(new LongStatistic(KEY + ".swaps", swaps));
+        LOG.statistics(new DoubleStatistic(KEY + ".final-cost", tc));
+      }
+      // Cleanup
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        assignment.putInt(it, assignment.intValue(it) & 0x7FFF);
+      }
+      return tc;
+    }
+
+    /**
+     * Evaluate the swap candidates [start;end) of a batch. Only reads the
+     * current assignment, hence can run concurrently.
+     *
+     * @param medoids Current medoids
+     * @param pcost Medoid removal costs
+     * @param offset Offset of the batch
+     * @param start First candidate in the batch
+     * @param end End of the candidates (exclusive)
+     * @param bestcost Output: best swap cost of each candidate
+     * @param bestmedoid Output: best medoid to replace by each candidate
+     */
+    protected void evaluateSwaps(ArrayDBIDs medoids, double[] pcost, int offset, int start, int end, double[] bestcost, int[] bestmedoid) {
+      DBIDArrayIter m = medoids.iter(), h = candidates.iter();
+      final double[] cost = new double[pcost.length];
+      for(int i = start; i < end; i++) {
+        h.seek(offset + i);
+        if(DBIDUtil.equal(m.seek(assignment.intValue(h) & 0x7FFF), h)) {
+          bestcost[i] = Double.POSITIVE_INFINITY; // This is a medoid.
+          continue;
+        }
+        System.arraycopy(pcost, 0, cost, 0, pcost.length);
+        final double acc = computeReassignmentCost(h, cost);
+        final int min = VMath.argmin(cost);
+        bestcost[i] = cost[min] + acc;
+        bestmedoid[i] = min;
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<O> extends FasterPAM.Par<O> {
+    /**
+     * Number of swap candidates evaluated together.
+     */
+    public static final OptionID BATCHSIZE_ID = new OptionID("fasterpam.batchsize", "Number of swap candidates evaluated in parallel, of which only the best swap is performed.");
+
+    /**
+     * Number of swap candidates evaluated together.
+     */
+    protected int batchsize;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new IntParameter(BATCHSIZE_ID, 64) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> batchsize = x);
+    }
+
+    @Override
+    public ParallelFasterPAM<O> make() {
+      return new ParallelFasterPAM<>(distance, k, maxiter, initializer, batchsize);
+    }
+  }
+}
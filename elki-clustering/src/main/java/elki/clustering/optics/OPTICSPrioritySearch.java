@@ -0,0 +1,289 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.optics;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.DoubleDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.KNNList;
+import elki.database.ids.ModifiableDBIDs;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.math.MathUtil;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.KDistanceProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.Metadata;
+import elki.utilities.datastructures.heap.UpdatableHeap;
+import elki.utilities.documentation.Title;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
+
+/**
+ * The OPTICS algorithm for density-based hierarchical clustering, using
+ * incremental priority search instead of repeated range queries.
+ * <p>
+ * The core distance of each object is obtained with a kNN query, which is
+ * usually much cheaper than an epsilon range query when epsilon is large.
+ * Objects that are not core objects are never expanded. When a core object is
+ * expanded, the neighbors are enumerated with a {@link PrioritySearcher}
+ * limited to epsilon, and objects that were already processed are skipped
+ * before computing their distance. If the searcher provides an upper bound
+ * below the core distance, the exact distance is not needed at all.
+ * <p>
+ * Optionally, the core distances are precomputed in parallel blocks. The
+ * expansion itself remains sequential, and the resulting cluster order is the
+ * same as with {@link OPTICSHeap}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @navassoc - produces - ClusterOrder
+ * @has - - - OPTICSHeapEntry
+ *
+ * @param <O> the type of objects handled by the algorithm
+ */
+@Title("OPTICS: Density-Based Hierarchical Clustering (implementation using priority search)")
+public class OPTICSPrioritySearch<O> extends AbstractOPTICS<O> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(OPTICSPrioritySearch.class);
+
+  /**
+   * Precompute the core distances using multiple threads.
+   */
+  protected boolean parallel;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param epsilon Epsilon value
+   * @param minpts Minpts value
+   * @param parallel Precompute core distances using multiple threads
+   */
+  public OPTICSPrioritySearch(Distance<? super O> distance, double epsilon, int minpts, boolean parallel) {
+    super(distance, epsilon, minpts);
+    this.parallel = parallel;
+  }
+
+  @Override
+  public ClusterOrder run(Relation<O> relation) {
+    return new Instance(relation).run();
+  }
+
+  /**
+   * Instance for processing a single data set.
+   *
+   * @author Erich Schubert
+   */
+  private class Instance {
+    /**
+     * Holds a set of processed ids.
+     */
+    private ModifiableDBIDs processedIDs;
+
+    /**
+     * Heap of candidates.
+     */
+    UpdatableHeap<OPTICSHeapEntry> heap;
+
+    /**
+     * Output cluster order.
+     */
+    ClusterOrder clusterOrder;
+
+    /**
+     * IDs to process.
+     */
+    private DBIDs ids;
+
+    /**
+     * Progress for logging.
+     */
+    FiniteProgress progress;
+
+    /**
+     * Priority searcher for expanding objects.
+     */
+    PrioritySearcher<DBIDRef> searcher;
+
+    /**
+     * kNN query for the core distances, if not precomputed.
+     */
+    KNNSearcher<DBIDRef> knnQuery;
+
+    /**
+     * Precomputed core distances, may be {@code null}.
+     */
+    DoubleDataStore coredists;
+
+    /**
+     * Constructor for a single data set.
+     *
+     * @param relation Data relation
+     */
+    public Instance(Relation<O> relation) {
+      ids = relation.getDBIDs();
+      processedIDs = DBIDUtil.newHashSet(ids.size());
+      clusterOrder = new ClusterOrder(ids);
+      Metadata.of(clusterOrder).setLongName("OPTICS Clusterorder");
+      progress = LOG.isVerbose() ? new FiniteProgress("OPTICS", ids.size(), LOG) : null;
+      QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+      searcher = qb.priorityByDBID(epsilon);
+      if(parallel) {
+        coredists = computeCoreDists(ids, qb);
+      }
+      else {
+        knnQuery = qb.kNNByDBID(minpts);
+      }
+      heap = new UpdatableHeap<>();
+    }
+
+    /**
+     * Precompute the core distances in parallel.
+     *
+     * @param ids Objects
+     * @param qb Query builder
+     * @return Core distances
+     */
+    private DoubleDataStore computeCoreDists(DBIDs ids, QueryBuilder<O> qb) {
+      WritableDoubleDataStore store = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+      KNNProcessor knnm = new KNNProcessor(minpts, () -> qb.kNNByDBID(minpts));
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      knnm.connectKNNOutput(knnv);
+      KDistanceProcessor kdistm = new KDistanceProcessor(minpts);
+      SharedDouble kdistv = new SharedDouble();
+      kdistm.connectKNNInput(knnv);
+      kdistm.connectOutput(kdistv);
+      WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(store);
+      storem.connectInput(kdistv);
+      ParallelExecutor.run(ids, knnm, kdistm, storem);
+      return store;
+    }
+
+    /**
+     * Get the core distance of an object.
+     *
+     * @param id Object
+     * @return Core distance, may be larger than epsilon
+     */
+    private double coreDistance(DBIDRef id) {
+      if(coredists != null) {
+        return coredists.doubleValue(id);
+      }
+      KNNList knn = knnQuery.getKNN(id, minpts);
+      return knn.size() < minpts ? Double.POSITIVE_INFINITY : knn.getKNNDistance();
+    }
+
+    /**
+     * Process the data set.
+     *
+     * @return Cluster order result.
+     */
+    public ClusterOrder run() {
+      for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+        if(!processedIDs.contains(iditer)) {
+          assert (heap.isEmpty());
+          expandClusterOrder(iditer);
+        }
+      }
+      LOG.ensureCompleted(progress);
+      return clusterOrder;
+    }
+
+    /**
+     * OPTICS-function expandClusterOrder.
+     *
+     * @param objectID the currently processed object
+     */
+    protected void expandClusterOrder(DBIDRef objectID) {
+      heap.add(new OPTICSHeapEntry(DBIDUtil.deref(objectID), null, Double.POSITIVE_INFINITY));
+
+      while(!heap.isEmpty()) {
+        final OPTICSHeapEntry current = heap.poll();
+        clusterOrder.add(current.objectID, current.reachability, current.predecessorID);
+        processedIDs.add(current.objectID);
+
+        final double coreDistance = coreDistance(current.objectID);
+        if(coreDistance <= epsilon) {
+          for(PrioritySearcher<DBIDRef> it = searcher.search(current.objectID, epsilon); it.valid(); it.advance()) {
+            // Skip processed objects before computing distances:
+            if(processedIDs.contains(it) || it.getLowerBound() > epsilon) {
+              continue;
+            }
+            // Distance is only needed if it may exceed the core distance:
+            final double ub = it.getUpperBound();
+            final double dist = ub <= coreDistance ? ub : it.computeExactDistance();
+            if(dist <= epsilon) {
+              heap.add(new OPTICSHeapEntry(DBIDUtil.deref(it), current.objectID, MathUtil.max(dist, coreDistance)));
+            }
+          }
+        }
+        LOG.incrementProcessed(progress);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<O> extends AbstractOPTICS.Par<O> {
+    /**
+     * Flag to precompute the core distances using multiple threads.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("optics.parallel", "Precompute the core distances using multiple threads.");
+
+    /**
+     * Use multiple threads.
+     */
+    protected boolean parallel;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new Flag(PARALLEL_ID) //
+          .grab(config, x -> parallel = x);
+    }
+
+    @Override
+    public OPTICSPrioritySearch<O> make() {
+      return new OPTICSPrioritySearch<>(distance, epsilon, minpts, parallel);
+    }
+  }
+}
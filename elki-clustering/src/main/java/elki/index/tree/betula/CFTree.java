@@ -20,13 +20,20 @@
  */
 package elki.index.tree.betula;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import elki.data.NumberVector;
 import elki.database.ids.*;
 import elki.database.relation.Relation;
+import elki.index.SnapshotUtil;
 import elki.index.tree.betula.distance.*;
 import elki.index.tree.betula.features.AsClusterFeature;
 import elki.index.tree.betula.features.BIRCHCF;
@@ -38,9 +45,12 @@ import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
 import elki.math.MathUtil;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import elki.utilities.datastructures.iterator.Iter;
 import elki.utilities.documentation.Reference;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.io.FormatUtil;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
@@ -49,6 +59,8 @@ import elki.utilities.optionhandling.constraints.GreaterEqualConstraint;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.DoubleParameter;
 import elki.utilities.optionhandling.parameters.EnumParameter;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -436,6 +448,52 @@ public class CFTree<L extends ClusterFeature> {
     return split(node, newchild);
   }
 
+  /**
+   * Merge another tree into this tree, by inserting its leaf entries. The
+   * threshold is raised to the larger of both thresholds, and the tree is
+   * compacted as necessary.
+   * <p>
+   * The other tree must not be used afterwards, as its leaf entries are
+   * reused.
+   *
+   * @param other Other tree
+   */
+  public void merge(CFTree<L> other) {
+    diststat += other.diststat;
+    absstat += other.absstat;
+    rebuildstat += other.rebuildstat;
+    if(other.root == null) {
+      return;
+    }
+    thresholdsq = other.thresholdsq > thresholdsq ? other.thresholdsq : thresholdsq;
+    if(idmap != null) {
+      idmap.putAll(other.idmap);
+    }
+    if(root == null) {
+      root = other.root;
+      leaves = other.leaves;
+      return;
+    }
+    final int dim = root.getCF().getDimensionality();
+    for(LeafIterator<L> iter = other.leafIterator(); iter.valid(); iter.advance()) {
+      CFNode<L> sibling = insert(root, iter.get());
+      // Handle root overflow:
+      if(sibling != null) {
+        CFNode<L> newnode = new CFNode<>(factory.make(dim), capacity);
+        newnode.add(0, root);
+        newnode.add(1, sibling);
+        root = newnode;
+      }
+      if(leaves > maxleaves) {
+        if(LOG.isVerbose()) {
+          LOG.verbose("Compacting CF-tree.");
+        }
+        rebuildstat++;
+        rebuildTree();
+      }
+    }
+  }
+
   /**
    * Find the leaf of a cluster, to get the final cluster assignment.
    * <p>
@@ -805,6 +863,16 @@ public class CFTree<L extends ClusterFeature> {
 
   /**
    * CF-Tree Factory.
+   * <p>
+   * Optionally, one partial tree is built per thread, and the partial trees are
+   * merged by inserting their leaf entries; the resulting tree then depends on
+   * the number of threads.
+   * <p>
+   * Trees can also be stored in snapshot files, which hold all cluster features
+   * of the tree (weight, mean and deviations) and the leaf object offsets. They
+   * are keyed by a fingerprint of the data and the tree settings, so that
+   * later runs on the same data (e.g., a parameter sweep) restore the tree
+   * instead of building it again.
    *
    * @author Erich Schubert
    */
@@ -844,6 +912,26 @@ public class CFTree<L extends ClusterFeature> {
      */
     Threshold tCriterium;
 
+    /**
+     * Build partial trees in parallel, and merge them.
+     */
+    boolean parallel;
+
+    /**
+     * Directory to store tree snapshots in, may be {@code null}.
+     */
+    Path snapshots;
+
+    /**
+     * Minimum number of objects per thread.
+     */
+    private static final int PARALLEL_MIN_BLOCK = 256;
+
+    /**
+     * Version of the snapshot format, part of the key.
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+
     /**
      * Constructor.
      *
@@ -856,6 +944,24 @@ public class CFTree<L extends ClusterFeature> {
      * @param tCriterium threshold adjustment rule
      */
     public Factory(ClusterFeature.Factory<L> factory, CFDistance dist, CFDistance abs, double threshold, int branchingFactor, double maxleaves, Threshold tCriterium) {
+      this(factory, dist, abs, threshold, branchingFactor, maxleaves, tCriterium, false, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param factory Cluster feature factory
+     * @param dist Distance function to choose nearest
+     * @param abs Absorption criterion
+     * @param threshold Distance threshold
+     * @param branchingFactor Maximum branching factor
+     * @param maxleaves Maximum number of leaves
+     * @param tCriterium threshold adjustment rule
+     * @param parallel Build partial trees in parallel
+     * @param snapshots Directory to store tree snapshots in, may be
+     *        {@code null}
+     */
+    public Factory(ClusterFeature.Factory<L> factory, CFDistance dist, CFDistance abs, double threshold, int branchingFactor, double maxleaves, Threshold tCriterium, boolean parallel, Path snapshots) {
       this.factory = factory;
       this.dist = dist;
       this.abs = abs;
@@ -863,6 +969,8 @@ public class CFTree<L extends ClusterFeature> {
       this.branchingFactor = branchingFactor;
       this.maxleaves = maxleaves;
       this.tCriterium = tCriterium;
+      this.parallel = parallel;
+      this.snapshots = snapshots;
     }
 
     /**
@@ -870,17 +978,39 @@ public class CFTree<L extends ClusterFeature> {
      *
      * @param ids DBIDs to insert
      * @param relation Data relation
+     * @param storeIds Store object ids
      * @return New tree
      */
     public CFTree<L> newTree(DBIDs ids, Relation<? extends NumberVector> relation, boolean storeIds) {
       final String prefix = CFTree.class.getName();
-      Duration buildtime = LOG.newDuration(prefix + ".buildtime").begin();
       final int max = (int) (maxleaves <= 1 ? maxleaves * ids.size() : maxleaves);
-      CFTree<L> tree = new CFTree<>(factory, dist, abs, threshold, branchingFactor, tCriterium, max, storeIds);
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building tree", relation.size(), LOG) : null;
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        tree.insert(relation.get(it), it);
-        LOG.incrementProcessed(prog);
+      final boolean par = parallel && ParallelCore.getCore().getParallelism() > 1 && relation.size() >= PARALLEL_MIN_BLOCK << 1;
+      final ByteBufferSerializer<L> cfserializer = snapshots != null ? factory.getSerializer() : null;
+      if(snapshots != null && cfserializer == null) {
+        LOG.warning("The cluster features do not support snapshots.");
+      }
+      final Path file = cfserializer != null ? SnapshotUtil.snapshotFile(snapshots, prefix, snapshotKey(max, par, storeIds), relation) : null;
+      final TreeSerializer serializer = file != null ? new TreeSerializer(cfserializer, (DBIDRange) relation.getDBIDs(), max, storeIds) : null;
+      if(file != null) {
+        CFTree<L> tree = SnapshotUtil.readSnapshot(serializer, relation.size(), file);
+        if(tree != null) {
+          LOG.statistics(new LongStatistic(prefix + ".leaves", tree.leaves));
+          return tree;
+        }
+      }
+      Duration buildtime = LOG.newDuration(prefix + ".buildtime").begin();
+      CFTree<L> tree;
+      if(par) {
+        tree = buildParallel(relation, max, storeIds);
+      }
+      else {
+        tree = new CFTree<>(factory, dist, abs, threshold, branchingFactor, tCriterium, max, storeIds);
+        FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building tree", relation.size(), LOG) : null;
+        for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+          tree.insert(relation.get(it), it);
+          LOG.incrementProcessed(prog);
+        }
+        LOG.ensureCompleted(prog);
       }
       LOG.statistics(buildtime.end());
       LOG.statistics(new LongStatistic(prefix + ".rebuilds", tree.rebuildstat));
@@ -888,10 +1018,236 @@ public class CFTree<L extends ClusterFeature> {
       LOG.statistics(new LongStatistic(prefix + ".distance-calculations", tree.diststat));
       LOG.statistics(new LongStatistic(prefix + ".absorption-calculations", tree.absstat));
       LOG.statistics(new DoubleStatistic(prefix + ".threshold", Math.sqrt(tree.thresholdsq)));
-      LOG.ensureCompleted(prog);
+      if(file != null) {
+        SnapshotUtil.writeSnapshot(serializer, tree, relation.size(), file);
+      }
+      return tree;
+    }
+
+    /**
+     * Key of tree snapshots, describing all settings.
+     *
+     * @param max Maximum number of leaves
+     * @param par Build partial trees in parallel
+     * @param storeIds Store object ids
+     * @return Snapshot key
+     */
+    private String snapshotKey(int max, boolean par, boolean storeIds) {
+      return new StringBuilder(200).append(SNAPSHOT_VERSION) //
+          .append("\nfeatures=").append(factory.getClass().getName()) //
+          .append("\ndistance=").append(dist.getClass().getName()) //
+          .append("\nabsorption=").append(abs.getClass().getName()) //
+          .append("\nthreshold=").append(threshold) //
+          .append("\nheuristic=").append(tCriterium) //
+          .append("\nbranching=").append(branchingFactor) //
+          .append("\nmaxleaves=").append(max) //
+          // Partial trees depend on the number of threads:
+          .append("\nparallel=").append(par ? ParallelCore.getCore().getParallelism() : 0) //
+          .append("\nids=").append(storeIds).toString();
+    }
+
+    /**
+     * Build one partial tree per thread, on consecutive blocks of the data,
+     * then merge the partial trees in block order.
+     *
+     * @param relation Data relation
+     * @param max Maximum number of leaves
+     * @param storeIds Store object ids
+     * @return Merged tree
+     */
+    private CFTree<L> buildParallel(Relation<? extends NumberVector> relation, int max, boolean storeIds) {
+      final ArrayDBIDs aids = DBIDUtil.ensureArray(relation.getDBIDs());
+      final int[] bounds = ParallelExecutor.blocks(0, aids.size(), PARALLEL_MIN_BLOCK);
+      final List<CFTree<L>> trees = new ArrayList<>(Collections.nCopies(bounds.length - 1, null));
+      ParallelExecutor.run(bounds, (start, end) -> {
+        CFTree<L> tree = new CFTree<>(factory, dist, abs, threshold, branchingFactor, tCriterium, max, storeIds);
+        for(DBIDArrayIter it = aids.iter().seek(start); it.getOffset() < end; it.advance()) {
+          tree.insert(relation.get(it), it);
+        }
+        trees.set(Arrays.binarySearch(bounds, start), tree);
+      });
+      LOG.statistics(new LongStatistic(CFTree.class.getName() + ".partial-trees", trees.size()));
+      final CFTree<L> tree = trees.get(0);
+      for(int i = 1; i < trees.size(); i++) {
+        tree.merge(trees.get(i));
+      }
       return tree;
     }
 
+    /**
+     * Serializer for tree snapshots. All nodes are stored in depth-first order
+     * with their cluster features, such that the restored tree is identical;
+     * object ids are stored as offsets into the relation.
+     *
+     * @author Erich Schubert
+     */
+    private class TreeSerializer implements ByteBufferSerializer<CFTree<L>> {
+      /**
+       * Serializer for cluster features.
+       */
+      private final ByteBufferSerializer<L> cfserializer;
+
+      /**
+       * Object ids of the relation.
+       */
+      private final DBIDRange ids;
+
+      /**
+       * Maximum number of leaves.
+       */
+      private final int max;
+
+      /**
+       * Store object ids.
+       */
+      private final boolean storeIds;
+
+      /**
+       * Constructor.
+       *
+       * @param cfserializer Serializer for cluster features
+       * @param ids Object ids of the relation
+       * @param max Maximum number of leaves
+       * @param storeIds Store object ids
+       */
+      TreeSerializer(ByteBufferSerializer<L> cfserializer, DBIDRange ids, int max, boolean storeIds) {
+        this.cfserializer = cfserializer;
+        this.ids = ids;
+        this.max = max;
+        this.storeIds = storeIds;
+      }
+
+      @Override
+      public CFTree<L> fromByteBuffer(ByteBuffer buffer) throws IOException {
+        CFTree<L> tree = new CFTree<>(factory, dist, abs, threshold, branchingFactor, tCriterium, max, storeIds);
+        tree.thresholdsq = buffer.getDouble();
+        tree.leaves = buffer.getInt();
+        tree.rebuildstat = buffer.getInt();
+        tree.root = buffer.get() != 0 ? readNode(buffer, tree) : null;
+        return tree;
+      }
+
+      /**
+       * Read a node and its subtree.
+       *
+       * @param buffer Buffer
+       * @param tree Tree
+       * @return Node
+       * @throws IOException on invalid data
+       */
+      private CFNode<L> readNode(ByteBuffer buffer, CFTree<L> tree) throws IOException {
+        CFNode<L> node = new CFNode<>(cfserializer.fromByteBuffer(buffer), branchingFactor);
+        final int size = buffer.getInt();
+        if(size < 1 || size > branchingFactor) {
+          throw new IOException("Invalid node size: " + size);
+        }
+        final boolean leaf = buffer.get() != 0;
+        DBIDArrayIter iter = ids.iter();
+        for(int i = 0; i < size; i++) {
+          if(!leaf) {
+            node.setChild(i, readNode(buffer, tree));
+            continue;
+          }
+          L cf = cfserializer.fromByteBuffer(buffer);
+          if(storeIds) {
+            final int n = buffer.getInt();
+            ArrayModifiableDBIDs list = DBIDUtil.newArray(n);
+            for(int j = 0; j < n; j++) {
+              list.add(iter.seek(buffer.getInt()));
+            }
+            tree.idmap.put(cf, list);
+          }
+          node.setChild(i, cf);
+        }
+        return node;
+      }
+
+      @Override
+      public void toByteBuffer(ByteBuffer buffer, CFTree<L> tree) throws IOException {
+        buffer.putDouble(tree.thresholdsq).putInt(tree.leaves).putInt(tree.rebuildstat);
+        buffer.put((byte) (tree.root != null ? 1 : 0));
+        if(tree.root != null) {
+          writeNode(buffer, tree, tree.root);
+        }
+      }
+
+      /**
+       * Write a node and its subtree.
+       *
+       * @param buffer Buffer
+       * @param tree Tree
+       * @param node Node
+       * @throws IOException on serialization errors
+       */
+      @SuppressWarnings("unchecked")
+      private void writeNode(ByteBuffer buffer, CFTree<L> tree, CFNode<L> node) throws IOException {
+        cfserializer.toByteBuffer(buffer, node.getCF());
+        final int size = size(node);
+        final boolean leaf = !(node.getChild(0) instanceof CFNode);
+        buffer.putInt(size).put((byte) (leaf ? 1 : 0));
+        for(int i = 0; i < size; i++) {
+          if(!leaf) {
+            writeNode(buffer, tree, (CFNode<L>) node.getChild(i));
+            continue;
+          }
+          L cf = (L) node.getChild(i);
+          cfserializer.toByteBuffer(buffer, cf);
+          if(storeIds) {
+            DBIDs list = tree.idmap.get(cf);
+            buffer.putInt(list.size());
+            for(DBIDIter it = list.iter(); it.valid(); it.advance()) {
+              buffer.putInt(ids.getOffset(it));
+            }
+          }
+        }
+      }
+
+      @Override
+      public int getByteSize(CFTree<L> tree) throws IOException {
+        return SnapshotUtil.checkedByteSize(17 + (tree.root != null ? getByteSize(tree, tree.root) : 0));
+      }
+
+      /**
+       * Get the serialized size of a subtree.
+       *
+       * @param tree Tree
+       * @param node Node
+       * @return Size in bytes
+       * @throws IOException on serialization errors
+       */
+      @SuppressWarnings("unchecked")
+      private long getByteSize(CFTree<L> tree, CFNode<L> node) throws IOException {
+        long bytes = cfserializer.getByteSize(node.getCF()) + 5;
+        final boolean leaf = !(node.getChild(0) instanceof CFNode);
+        for(int i = 0, size = size(node); i < size; i++) {
+          if(!leaf) {
+            bytes += getByteSize(tree, (CFNode<L>) node.getChild(i));
+            continue;
+          }
+          L cf = (L) node.getChild(i);
+          bytes += cfserializer.getByteSize(cf);
+          if(storeIds) {
+            bytes += 4 + 4L * tree.idmap.get(cf).size();
+          }
+        }
+        return bytes;
+      }
+
+      /**
+       * Number of children of a node.
+       *
+       * @param node Node
+       * @return Number of children
+       */
+      private int size(CFNode<L> node) {
+        int size = 0;
+        while(size < node.capacity() && node.getChild(size) != null) {
+          size++;
+        }
+        return size;
+      }
+    }
+
     /**
      * Parameterization class for CFTrees.
      *
@@ -934,6 +1290,16 @@ public class CFTree<L extends ClusterFeature> {
        */
       public static final OptionID MAXLEAVES_ID = new OptionID("cftree.maxleaves", "Maximum number of leaves (if less than 1, the values is assumed to be relative)");
 
+      /**
+       * Build partial trees in parallel.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("cftree.parallel", "Build partial trees in parallel, and merge them.");
+
+      /**
+       * Directory for tree snapshots.
+       */
+      public static final OptionID SNAPSHOT_ID = new OptionID("cftree.snapshot", "Directory to store tree snapshots in, to restore the tree in later runs on the same data with the same settings.");
+
       /**
        * Cluster feature factory
        */
@@ -969,6 +1335,16 @@ public class CFTree<L extends ClusterFeature> {
        */
       Threshold tCriterium;
 
+      /**
+       * Build partial trees in parallel.
+       */
+      boolean parallel;
+
+      /**
+       * Directory for tree snapshots.
+       */
+      Path snapshots;
+
       @Override
       public void configure(Parameterization config) {
         new ObjectParameter<ClusterFeature.Factory<L>>(FEATURES_ID, ClusterFeature.Factory.class, VIIFeature.Factory.class) //
@@ -992,11 +1368,15 @@ public class CFTree<L extends ClusterFeature> {
             .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
             .setDefaultValue(0.05) //
             .grab(config, x -> maxleaves = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
+        new FileParameter(SNAPSHOT_ID, FileParameter.FileType.OUTPUT_FILE) //
+            .setOptional(true) //
+            .grab(config, x -> snapshots = Paths.get(x));
       }
 
       @Override
       public CFTree.Factory<L> make() {
-        return new CFTree.Factory<L>(factory, dist, abs, threshold, branchingFactor, maxleaves, tCriterium);
+        return new CFTree.Factory<L>(factory, dist, abs, threshold, branchingFactor, maxleaves, tCriterium, parallel, snapshots);
       }
     }
   }
@@ -20,11 +20,14 @@
  */
 package elki.index.tree.betula.features;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import elki.data.NumberVector;
 import elki.math.linearalgebra.VMath;
 import elki.utilities.Priority;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.optionhandling.Parameterizer;
 
 /**
@@ -189,6 +192,45 @@ public class BIRCHCF implements ClusterFeature {
     return VMath.times(ls, 1. / n);
   }
 
+  /**
+   * Serializer for snapshots, storing the weight, the linear sum, and the sum
+   * of squares.
+   *
+   * @author Erich Schubert
+   */
+  public static class Serializer implements ByteBufferSerializer<BIRCHCF> {
+    /**
+     * Static instance.
+     */
+    public static final Serializer STATIC = new Serializer();
+
+    @Override
+    public BIRCHCF fromByteBuffer(ByteBuffer buffer) {
+      final int dim = buffer.getInt();
+      BIRCHCF cf = new BIRCHCF(dim);
+      cf.n = buffer.getInt();
+      for(int i = 0; i < dim; i++) {
+        cf.ls[i] = buffer.getDouble();
+      }
+      cf.ss = buffer.getDouble();
+      return cf;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, BIRCHCF object) {
+      buffer.putInt(object.ls.length).putInt(object.n);
+      for(double v : object.ls) {
+        buffer.putDouble(v);
+      }
+      buffer.putDouble(object.ss);
+    }
+
+    @Override
+    public int getByteSize(BIRCHCF object) {
+      return 8 + ByteArrayUtil.SIZE_DOUBLE * (object.ls.length + 1);
+    }
+  }
+
   /**
    * Factory for making cluster features.
    * 
@@ -206,6 +248,11 @@ public class BIRCHCF implements ClusterFeature {
       return new BIRCHCF(dim);
     }
 
+    @Override
+    public Serializer getSerializer() {
+      return Serializer.STATIC;
+    }
+
     /**
      * Parameterization class.
      *
@@ -21,6 +21,7 @@
 package elki.index.tree.betula.features;
 
 import elki.data.NumberVector;
+import elki.utilities.io.ByteBufferSerializer;
 
 /**
  * Interface for basic ClusteringFeature functions
@@ -128,5 +129,14 @@ public interface ClusterFeature extends AsClusterFeature, NumberVector {
      * @return Clustering feature
      */
     F make(int dim);
+
+    /**
+     * Get a serializer for snapshots of cluster features.
+     *
+     * @return Serializer, or {@code null} if not supported
+     */
+    default ByteBufferSerializer<F> getSerializer() {
+      return null;
+    }
   }
 }
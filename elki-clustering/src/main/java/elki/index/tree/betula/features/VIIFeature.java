@@ -20,10 +20,13 @@
  */
 package elki.index.tree.betula.features;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import elki.data.NumberVector;
 import elki.utilities.Alias;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.optionhandling.Parameterizer;
 
 /**
@@ -163,6 +166,45 @@ public class VIIFeature implements ClusterFeature {
     return mean.clone();
   }
 
+  /**
+   * Serializer for snapshots, storing the weight, the mean, and the sum of
+   * squared deviations.
+   *
+   * @author Erich Schubert
+   */
+  public static class Serializer implements ByteBufferSerializer<VIIFeature> {
+    /**
+     * Static instance.
+     */
+    public static final Serializer STATIC = new Serializer();
+
+    @Override
+    public VIIFeature fromByteBuffer(ByteBuffer buffer) {
+      final int dim = buffer.getInt();
+      VIIFeature cf = new VIIFeature(dim);
+      cf.n = buffer.getInt();
+      for(int i = 0; i < dim; i++) {
+        cf.mean[i] = buffer.getDouble();
+      }
+      cf.ssd = buffer.getDouble();
+      return cf;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, VIIFeature object) {
+      buffer.putInt(object.mean.length).putInt(object.n);
+      for(double v : object.mean) {
+        buffer.putDouble(v);
+      }
+      buffer.putDouble(object.ssd);
+    }
+
+    @Override
+    public int getByteSize(VIIFeature object) {
+      return 8 + ByteArrayUtil.SIZE_DOUBLE * (object.mean.length + 1);
+    }
+  }
+
   /**
    * Factory for making cluster features.
    * 
@@ -180,6 +222,11 @@ public class VIIFeature implements ClusterFeature {
       return new VIIFeature(dim);
     }
 
+    @Override
+    public Serializer getSerializer() {
+      return Serializer.STATIC;
+    }
+
     /**
      * Parameterization class.
      *
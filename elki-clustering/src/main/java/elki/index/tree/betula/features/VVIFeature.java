@@ -20,10 +20,13 @@
  */
 package elki.index.tree.betula.features;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import elki.data.NumberVector;
 import elki.utilities.Alias;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.optionhandling.Parameterizer;
 
 /**
@@ -169,6 +172,49 @@ public class VVIFeature implements ClusterFeature {
     return mean.clone();
   }
 
+  /**
+   * Serializer for snapshots, storing the weight, the mean, and the sums of
+   * squared deviations.
+   *
+   * @author Erich Schubert
+   */
+  public static class Serializer implements ByteBufferSerializer<VVIFeature> {
+    /**
+     * Static instance.
+     */
+    public static final Serializer STATIC = new Serializer();
+
+    @Override
+    public VVIFeature fromByteBuffer(ByteBuffer buffer) {
+      final int dim = buffer.getInt();
+      VVIFeature cf = new VVIFeature(dim);
+      cf.n = buffer.getInt();
+      for(int i = 0; i < dim; i++) {
+        cf.mean[i] = buffer.getDouble();
+      }
+      for(int i = 0; i < dim; i++) {
+        cf.ssd[i] = buffer.getDouble();
+      }
+      return cf;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, VVIFeature object) {
+      buffer.putInt(object.mean.length).putInt(object.n);
+      for(double v : object.mean) {
+        buffer.putDouble(v);
+      }
+      for(double v : object.ssd) {
+        buffer.putDouble(v);
+      }
+    }
+
+    @Override
+    public int getByteSize(VVIFeature object) {
+      return 8 + ByteArrayUtil.SIZE_DOUBLE * (object.mean.length << 1);
+    }
+  }
+
   /**
    * Factory for making cluster features.
    * 
@@ -186,6 +232,11 @@ public class VVIFeature implements ClusterFeature {
       return new VVIFeature(dim);
     }
 
+    @Override
+    public Serializer getSerializer() {
+      return Serializer.STATIC;
+    }
+
     /**
      * Parameterization class.
      *
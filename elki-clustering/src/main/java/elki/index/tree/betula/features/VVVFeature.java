@@ -20,10 +20,13 @@
  */
 package elki.index.tree.betula.features;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import elki.data.NumberVector;
 import elki.utilities.Alias;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.optionhandling.Parameterizer;
 
 /**
@@ -194,6 +197,53 @@ public class VVVFeature implements ClusterFeature {
     return mean.clone();
   }
 
+  /**
+   * Serializer for snapshots, storing the weight, the mean, and the matrix of
+   * squared deviations.
+   *
+   * @author Erich Schubert
+   */
+  public static class Serializer implements ByteBufferSerializer<VVVFeature> {
+    /**
+     * Static instance.
+     */
+    public static final Serializer STATIC = new Serializer();
+
+    @Override
+    public VVVFeature fromByteBuffer(ByteBuffer buffer) {
+      final int dim = buffer.getInt();
+      VVVFeature cf = new VVVFeature(dim);
+      cf.n = buffer.getInt();
+      for(int i = 0; i < dim; i++) {
+        cf.mean[i] = buffer.getDouble();
+      }
+      for(int i = 0; i < dim; i++) {
+        for(int j = 0; j < dim; j++) {
+          cf.ssd[i][j] = buffer.getDouble();
+        }
+      }
+      return cf;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, VVVFeature object) {
+      buffer.putInt(object.mean.length).putInt(object.n);
+      for(double v : object.mean) {
+        buffer.putDouble(v);
+      }
+      for(double[] row : object.ssd) {
+        for(double v : row) {
+          buffer.putDouble(v);
+        }
+      }
+    }
+
+    @Override
+    public int getByteSize(VVVFeature object) {
+      return 8 + ByteArrayUtil.SIZE_DOUBLE * object.mean.length * (object.mean.length + 1);
+    }
+  }
+
   /**
    * Factory for making cluster features.
    * 
@@ -211,6 +261,11 @@ public class VVVFeature implements ClusterFeature {
       return new VVVFeature(dim);
     }
 
+    @Override
+    public Serializer getSerializer() {
+      return Serializer.STATIC;
+    }
+
     /**
      * Parameterization class.
      *
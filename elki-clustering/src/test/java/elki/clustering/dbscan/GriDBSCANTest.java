@@ -20,6 +20,7 @@
  */
 package elki.clustering.dbscan;
 
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
@@ -27,6 +28,7 @@ import elki.data.Clustering;
 import elki.data.DoubleVector;
 import elki.data.model.Model;
 import elki.database.Database;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -36,6 +38,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class GriDBSCANTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   /**
    * Run DBSCAN with fixed parameters and compare the result to a golden
    * standard.
@@ -83,4 +91,27 @@ public class GriDBSCANTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, result, 0.954382);
     assertClusterSizes(result, new int[] { 11, 200, 203, 224 });
   }
+
+  /**
+   * Run GriDBSCAN in parallel, which must produce the identical result.
+   */
+  @Test
+  public void testGriDBSCANParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<Model> expected = new ELKIBuilder<GriDBSCAN<DoubleVector>>(GriDBSCAN.class) //
+        .with(DBSCAN.Par.EPSILON_ID, 11.5) //
+        .with(DBSCAN.Par.MINPTS_ID, 120) //
+        .with(GriDBSCAN.Par.GRID_ID, 25.) //
+        .build().autorun(db);
+    parallelism.set(4);
+    Clustering<Model> result = new ELKIBuilder<GriDBSCAN<DoubleVector>>(GriDBSCAN.class) //
+        .with(DBSCAN.Par.EPSILON_ID, 11.5) //
+        .with(DBSCAN.Par.MINPTS_ID, 120) //
+        .with(GriDBSCAN.Par.GRID_ID, 25.) //
+        .with(GriDBSCAN.Par.PARALLEL_ID) //
+        .build().autorun(db);
+    assertSameClustering(expected, result);
+    assertFMeasure(db, result, 0.954382);
+    assertClusterSizes(result, new int[] { 11, 200, 203, 224 });
+  }
 }
@@ -20,6 +20,7 @@
  */
 package elki.clustering.dbscan.parallel;
 
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
@@ -27,6 +28,7 @@ import elki.clustering.dbscan.DBSCAN;
 import elki.data.Clustering;
 import elki.data.model.Model;
 import elki.database.Database;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -39,6 +41,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class ParallelGeneralizedDBSCANTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   /**
    * Run Generalized DBSCAN with fixed parameters and compare the result to a
    * golden standard.
@@ -68,4 +76,19 @@ public class ParallelGeneralizedDBSCANTest extends AbstractClusterAlgorithmTest
     assertFMeasure(db, result, 0.954382);
     assertClusterSizes(result, new int[] { 11, 200, 203, 224 });
   }
+
+  /**
+   * Run Generalized DBSCAN with multiple threads.
+   */
+  @Test
+  public void testDBSCANMultithreaded() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    parallelism.set(4);
+    Clustering<Model> result = new ELKIBuilder<>(ParallelGeneralizedDBSCAN.class) //
+        .with(DBSCAN.Par.EPSILON_ID, 11.5) //
+        .with(DBSCAN.Par.MINPTS_ID, 120) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.954382);
+    assertClusterSizes(result, new int[] { 11, 200, 203, 224 });
+  }
 }
@@ -0,0 +1,69 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.em.models;
+
+import org.junit.Rule;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.em.EM;
+import elki.clustering.kmeans.KMeans;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.database.Database;
+import elki.parallel.ParallelismRule;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Shared code for testing the EM cluster models.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public abstract class AbstractEMModelTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
+  /**
+   * Run EM with parallel E steps on the hierarchical data set, with multiple
+   * threads. The results are expected to match the sequential version.
+   *
+   * @param factory Model factory class
+   * @param k Number of clusters
+   * @param seed Random seed
+   * @param fmeasure Expected F-measure of the sequential version
+   * @param sizes Expected cluster sizes of the sequential version
+   */
+  protected void assertParallelMLE(Class<? extends EMClusterModelFactory<?, ?>> factory, int k, int seed, double fmeasure, int[] sizes) {
+    parallelism.set(4);
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    Clustering<?> result = new ELKIBuilder<EM<DoubleVector, ?>>(EM.class) //
+        .with(KMeans.SEED_ID, seed) //
+        .with(EM.Par.K_ID, k) //
+        .with(EM.Par.MODEL_ID, factory) //
+        .with(EM.Par.PARALLEL_ID) //
+        .build().autorun(db);
+    assertFMeasure(db, result, fmeasure);
+    assertClusterSizes(result, sizes);
+  }
+}
@@ -22,7 +22,6 @@ package elki.clustering.em.models;
 
 import org.junit.Test;
 
-import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.em.EM;
 import elki.clustering.kmeans.KMeans;
 import elki.data.Clustering;
@@ -35,7 +34,7 @@ import elki.utilities.ELKIBuilder;
  *
  * @author Erich Schubert
  */
-public class DiagonalGaussianModelTest extends AbstractClusterAlgorithmTest {
+public class DiagonalGaussianModelTest extends AbstractEMModelTest {
   @Test
   public void testHierarchicalMLE() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -48,6 +47,11 @@ public class DiagonalGaussianModelTest extends AbstractClusterAlgorithmTest {
     assertClusterSizes(result, new int[] { 7, 91, 99, 200, 313 });
   }
 
+  @Test
+  public void testHierarchicalMLEParallel() {
+    assertParallelMLE(DiagonalGaussianModelFactory.class, 5, 3, 0.9681384, new int[] { 7, 91, 99, 200, 313 });
+  }
+
   @Test
   public void testHierarchicalMAP() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -22,7 +22,6 @@ package elki.clustering.em.models;
 
 import org.junit.Test;
 
-import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.em.EM;
 import elki.clustering.kmeans.KMeans;
 import elki.data.Clustering;
@@ -37,7 +36,7 @@ import elki.utilities.ELKIBuilder;
  * @author Erich Schubert
  * @since 0.7.5
  */
-public class MultivariateGaussianModelTest extends AbstractClusterAlgorithmTest {
+public class MultivariateGaussianModelTest extends AbstractEMModelTest {
   @Test
   public void testHierarchicalMLE() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -50,6 +49,11 @@ public class MultivariateGaussianModelTest extends AbstractClusterAlgorithmTest
     assertClusterSizes(result, new int[] { 5, 13, 93, 98, 200, 301 });
   }
 
+  @Test
+  public void testHierarchicalMLEParallel() {
+    assertParallelMLE(MultivariateGaussianModelFactory.class, 6, 4, 0.941968, new int[] { 5, 13, 93, 98, 200, 301 });
+  }
+
   @Test
   public void testHierarchicalMAP() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
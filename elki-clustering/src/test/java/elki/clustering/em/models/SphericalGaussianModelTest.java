@@ -22,7 +22,6 @@ package elki.clustering.em.models;
 
 import org.junit.Test;
 
-import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.em.EM;
 import elki.clustering.kmeans.KMeans;
 import elki.data.Clustering;
@@ -35,7 +34,7 @@ import elki.utilities.ELKIBuilder;
  *
  * @author Erich Schubert
  */
-public class SphericalGaussianModelTest extends AbstractClusterAlgorithmTest {
+public class SphericalGaussianModelTest extends AbstractEMModelTest {
   @Test
   public void testHierarchicalMLE() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -48,6 +47,11 @@ public class SphericalGaussianModelTest extends AbstractClusterAlgorithmTest {
     assertClusterSizes(result, new int[] { 8, 95, 198, 409 });
   }
 
+  @Test
+  public void testHierarchicalMLEParallel() {
+    assertParallelMLE(SphericalGaussianModelFactory.class, 4, 1, 0.811247176, new int[] { 8, 95, 198, 409 });
+  }
+
   @Test
   public void testHierarchicalMAP() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -22,7 +22,6 @@ package elki.clustering.em.models;
 
 import org.junit.Test;
 
-import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.em.EM;
 import elki.clustering.kmeans.KMeans;
 import elki.data.Clustering;
@@ -35,7 +34,7 @@ import elki.utilities.ELKIBuilder;
  *
  * @author Erich Schubert
  */
-public class TextbookMultivariateGaussianModelTest extends AbstractClusterAlgorithmTest {
+public class TextbookMultivariateGaussianModelTest extends AbstractEMModelTest {
   @Test
   public void testHierarchicalMLE() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -48,6 +47,11 @@ public class TextbookMultivariateGaussianModelTest extends AbstractClusterAlgori
     assertClusterSizes(result, new int[] { 5, 13, 91, 100, 200, 301 });
   }
 
+  @Test
+  public void testHierarchicalMLEParallel() {
+    assertParallelMLE(TextbookMultivariateGaussianModelFactory.class, 6, 3, 0.942254, new int[] { 5, 13, 91, 100, 200, 301 });
+  }
+
   @Test
   public void testHierarchicalMAP() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -20,6 +20,11 @@
  */
 package elki.clustering.hierarchical;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.Algorithm;
@@ -28,6 +33,9 @@ import elki.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
 import elki.clustering.hierarchical.linkage.*;
 import elki.data.Clustering;
 import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -37,6 +45,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.0
  */
 public class AGNESTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   @Test
   public void testSingleLink() {
     Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
@@ -145,4 +159,43 @@ public class AGNESTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.9277466);
     assertClusterSizes(clustering, new int[] { 196, 200, 242 });
   }
+
+  @Test
+  public void testParallel() {
+    assertParallelIdentical(parallelism, AGNES.class, GroupAverageLinkage.class, 2100);
+  }
+
+  /**
+   * Compare the parallel to the sequential variant, on random data large
+   * enough to use multiple threads.
+   *
+   * @param parallelism Parallelism rule of the test
+   * @param cls Algorithm class
+   * @param linkage Linkage
+   * @param n Data set size
+   */
+  protected static void assertParallelIdentical(ParallelismRule parallelism, Class<? extends HierarchicalClusteringAlgorithm> cls, Class<? extends Linkage> linkage, int n) {
+    Random rnd = new Random(0L);
+    double[][] data = new double[n][2];
+    for(double[] row : data) {
+      row[0] = rnd.nextDouble();
+      row[1] = rnd.nextDouble();
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    ClusterMergeHistory expected = new ELKIBuilder<>(cls) //
+        .with(AGNES.Par.LINKAGE_ID, linkage) //
+        .build().autorun(db);
+    parallelism.set(4);
+    ClusterMergeHistory result = new ELKIBuilder<>(cls) //
+        .with(AGNES.Par.LINKAGE_ID, linkage) //
+        .with(AGNES.Par.PARALLEL_ID) //
+        .build().autorun(db);
+    assertEquals("Number of merges", expected.numMerges(), result.numMerges());
+    for(int i = 0; i < expected.numMerges(); i++) {
+      assertEquals("Merge " + i, expected.getMergeA(i), result.getMergeA(i));
+      assertEquals("Merge " + i, expected.getMergeB(i), result.getMergeB(i));
+      assertEquals("Height " + i, expected.getMergeHeight(i), result.getMergeHeight(i), 0.);
+    }
+  }
 }
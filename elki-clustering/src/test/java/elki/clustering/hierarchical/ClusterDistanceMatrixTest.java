@@ -0,0 +1,95 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.hierarchical;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test the storage layouts of the cluster distance matrix.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class ClusterDistanceMatrixTest {
+  @Test
+  public void testSegmentedDouble() {
+    assertStorage(ClusterDistanceMatrix.Storage.DOUBLE);
+  }
+
+  @Test
+  public void testSegmentedFloat() {
+    assertStorage(ClusterDistanceMatrix.Storage.FLOAT);
+  }
+
+  @Test
+  public void testSegmentedMapped() {
+    assertStorage(ClusterDistanceMatrix.Storage.MAPPED);
+  }
+
+  /**
+   * Positions beyond 65536 objects exceed the integer range.
+   */
+  @Test
+  public void testLargePositions() {
+    final int size = 70000;
+    ClusterDistanceMatrix mat = new ClusterDistanceMatrix(size) {
+      @Override
+      public double get(long pos) {
+        return pos;
+      }
+
+      @Override
+      public void set(long pos, double v) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    long expect = ClusterDistanceMatrix.triangleSize(65536) + 65535;
+    assertTrue("Position should exceed the integer range.", expect > Integer.MAX_VALUE);
+    assertEquals(expect, mat.get(65536, 65535), 0.);
+    assertEquals(expect, mat.get(65535, 65536), 0.);
+    assertEquals(ClusterDistanceMatrix.triangleSize(size) - 1, mat.get(size - 1, size - 2), 0.);
+  }
+
+  /**
+   * Fill a matrix with small segments, and verify all values.
+   *
+   * @param storage Storage layout
+   */
+  private static void assertStorage(ClusterDistanceMatrix.Storage storage) {
+    final int size = 300;
+    // 64 entries per segment, and no single array:
+    ClusterDistanceMatrix mat = ClusterDistanceMatrix.create(size, storage, 16, 6);
+    for(long p = 0, e = ClusterDistanceMatrix.triangleSize(size); p < e; p++) {
+      mat.set(p, p + .5);
+    }
+    for(int x = 0; x < size; x++) {
+      assertEquals(0., mat.get(x, x), 0.);
+      for(int y = 0; y < x; y++) {
+        final double expect = ClusterDistanceMatrix.triangleSize(x) + y + .5;
+        assertEquals(expect, mat.get(x, y), 0.);
+        assertEquals(expect, mat.get(y, x), 0.);
+      }
+    }
+  }
+}
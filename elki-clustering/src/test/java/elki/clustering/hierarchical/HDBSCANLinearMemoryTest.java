@@ -20,6 +20,11 @@
  */
 package elki.clustering.hierarchical;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.Algorithm;
@@ -30,6 +35,7 @@ import elki.database.Database;
 import elki.database.StaticArrayDatabase;
 import elki.datasource.ArrayAdapterDatabaseConnection;
 import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -39,6 +45,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class HDBSCANLinearMemoryTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   // TODO: add more data sets.
 
   /**
@@ -78,4 +90,83 @@ public class HDBSCANLinearMemoryTest extends AbstractClusterAlgorithmTest {
         .with(HDBSCANLinearMemory.Par.MIN_PTS_ID, 20) //
         .build().autorun(db);
   }
+
+  /**
+   * Compare the parallel to the sequential variant.
+   */
+  @Test
+  public void testHDBSCANParallel() {
+    assertParallelIdentical(parallelism, HDBSCANLinearMemory.class, 3000);
+  }
+
+  /**
+   * Compare Borůvka's spanning tree to Prim's. Ties may be resolved
+   * differently, but the merge heights must agree.
+   */
+  @Test
+  public void testHDBSCANBoruvka() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[3000][2];
+    for(double[] row : data) {
+      row[0] = rnd.nextDouble();
+      row[1] = rnd.nextDouble();
+    }
+    Database rdb = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    rdb.initialize();
+    ClusterMergeHistory expected = new ELKIBuilder<>(HDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Par.MIN_PTS_ID, 10) //
+        .build().autorun(rdb);
+    parallelism.set(4);
+    ClusterMergeHistory result = new ELKIBuilder<>(HDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Par.MIN_PTS_ID, 10) //
+        .with(HDBSCANLinearMemory.Par.PARALLEL_ID) //
+        .with(HDBSCANLinearMemory.Par.BORUVKA_ID) //
+        .build().autorun(rdb);
+    assertEquals("Number of merges", expected.numMerges(), result.numMerges());
+    for(int i = 0; i < expected.numMerges(); i++) {
+      assertEquals("Height " + i, expected.getMergeHeight(i), result.getMergeHeight(i), 0.);
+    }
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+        .with(Algorithm.Utils.ALGORITHM_ID, HDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Par.MIN_PTS_ID, 20) //
+        .with(HDBSCANLinearMemory.Par.BORUVKA_ID) //
+        .build().autorun(db);
+    assertFMeasure(db, clustering, 0.686953412);
+    assertClusterSizes(clustering, new int[] { 1, 200, 437 });
+  }
+
+  /**
+   * Compare the parallel to the sequential variant, on random data large
+   * enough to use multiple threads.
+   *
+   * @param parallelism Parallelism rule of the test
+   * @param cls Algorithm class
+   * @param n Data set size
+   */
+  protected static void assertParallelIdentical(ParallelismRule parallelism, Class<? extends HierarchicalClusteringAlgorithm> cls, int n) {
+    Random rnd = new Random(0L);
+    double[][] data = new double[n][2];
+    for(double[] row : data) {
+      row[0] = rnd.nextDouble();
+      row[1] = rnd.nextDouble();
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    ClusterMergeHistory expected = new ELKIBuilder<>(cls) //
+        .with(AbstractHDBSCAN.Par.MIN_PTS_ID, 10) //
+        .build().autorun(db);
+    parallelism.set(4);
+    ClusterMergeHistory result = new ELKIBuilder<>(cls) //
+        .with(AbstractHDBSCAN.Par.MIN_PTS_ID, 10) //
+        .with(AbstractHDBSCAN.Par.PARALLEL_ID) //
+        .build().autorun(db);
+    assertEquals("Number of merges", expected.numMerges(), result.numMerges());
+    for(int i = 0; i < expected.numMerges(); i++) {
+      assertEquals("Merge " + i, expected.getMergeA(i), result.getMergeA(i));
+      assertEquals("Merge " + i, expected.getMergeB(i), result.getMergeB(i));
+      assertEquals("Height " + i, expected.getMergeHeight(i), result.getMergeHeight(i), 0.);
+    }
+  }
 }
@@ -20,6 +20,7 @@
  */
 package elki.clustering.hierarchical;
 
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.Algorithm;
@@ -28,6 +29,7 @@ import elki.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
 import elki.clustering.hierarchical.linkage.*;
 import elki.data.Clustering;
 import elki.database.Database;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -37,6 +39,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class NNChainTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   // TODO: add more data sets.
   @Test
   public void testSingleLink() {
@@ -146,4 +154,22 @@ public class NNChainTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.9381678);
     assertClusterSizes(clustering, new int[] { 200, 217, 221 });
   }
+
+  @Test
+  public void testParallel() {
+    AGNESTest.assertParallelIdentical(parallelism, NNChain.class, WardLinkage.class, 3000);
+  }
+
+  @Test
+  public void testWardMapped() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+        .with(Algorithm.Utils.ALGORITHM_ID, NNChain.class) //
+        .with(AGNES.Par.LINKAGE_ID, WardLinkage.class) //
+        .with(AGNES.Par.MATRIX_ID, ClusterDistanceMatrix.Storage.MAPPED) //
+        .build().autorun(db);
+    assertFMeasure(db, clustering, 0.93866265);
+    assertClusterSizes(clustering, new int[] { 200, 211, 227 });
+  }
 }
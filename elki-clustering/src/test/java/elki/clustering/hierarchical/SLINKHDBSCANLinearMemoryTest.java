@@ -20,6 +20,7 @@
  */
 package elki.clustering.hierarchical;
 
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.Algorithm;
@@ -27,6 +28,7 @@ import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
 import elki.data.Clustering;
 import elki.database.Database;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -36,6 +38,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class SLINKHDBSCANLinearMemoryTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   // TODO: add more data sets.
 
   /**
@@ -53,4 +61,12 @@ public class SLINKHDBSCANLinearMemoryTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.686953412);
     assertClusterSizes(clustering, new int[] { 1, 200, 437 });
   }
+
+  /**
+   * Compare the parallel to the sequential variant.
+   */
+  @Test
+  public void testHDBSCANParallel() {
+    HDBSCANLinearMemoryTest.assertParallelIdentical(parallelism, SLINKHDBSCANLinearMemory.class, 3000);
+  }
 }
@@ -20,15 +20,32 @@
  */
 package elki.clustering.kmeans;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.kmeans.initialization.betula.AbstractCFKMeansInitialization;
 import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
 import elki.database.Database;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
 import elki.index.tree.betula.CFTree;
 import elki.index.tree.betula.distance.CentroidEuclideanDistance;
+import elki.index.tree.betula.features.BIRCHCF;
+import elki.index.tree.betula.features.ClusterFeature;
 import elki.index.tree.betula.features.VIIFeature;
+import elki.index.tree.betula.features.VVIFeature;
+import elki.index.tree.betula.features.VVVFeature;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -37,6 +54,18 @@ import elki.utilities.ELKIBuilder;
  * @author Erich Schubert
  */
 public class BetulaLloydKMeansTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
+  /**
+   * Temporary folder for the snapshot files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Test
   public void testFull() {
     Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
@@ -96,4 +125,66 @@ public class BetulaLloydKMeansTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.85034);
     assertClusterSizes(clustering, new int[] { 87, 113, 217, 221 });
   }
+
+  @Test
+  public void testParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    parallelism.set(4);
+    Clustering<?> clustering = new ELKIBuilder<>(BetulaLloydKMeans.class) //
+        .with(CFTree.Factory.Par.FEATURES_ID, VIIFeature.Factory.class)//
+        .with(CFTree.Factory.Par.ABSORPTION_ID, CentroidEuclideanDistance.class)//
+        .with(CFTree.Factory.Par.MAXLEAVES_ID, 50) //
+        .with(CFTree.Factory.Par.PARALLEL_ID) //
+        .with(BetulaLloydKMeans.Par.STORE_IDS_ID) //
+        .with(AbstractKMeans.K_ID, 5) //
+        .with(AbstractCFKMeansInitialization.Par.SEED_ID, 0) //
+        .build().autorun(db);
+    assertFMeasure(db, clustering, 0.784136);
+    assertClusterSizes(clustering, new int[] { 83, 117, 200, 200, 400 });
+  }
+
+  @Test
+  public void testSnapshot() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    // First build the tree and write the snapshot, then restore it:
+    for(int i = 0; i < 2; i++) {
+      Clustering<?> clustering = new ELKIBuilder<>(BetulaLloydKMeans.class) //
+          .with(CFTree.Factory.Par.FEATURES_ID, VIIFeature.Factory.class)//
+          .with(CFTree.Factory.Par.ABSORPTION_ID, CentroidEuclideanDistance.class)//
+          .with(CFTree.Factory.Par.MAXLEAVES_ID, 50) //
+          .with(CFTree.Factory.Par.SNAPSHOT_ID, folder.getRoot()) //
+          .with(BetulaLloydKMeans.Par.IGNORE_WEIGHT_ID) //
+          .with(BetulaLloydKMeans.Par.STORE_IDS_ID) //
+          .with(AbstractKMeans.K_ID, 4) //
+          .with(AbstractCFKMeansInitialization.Par.SEED_ID, 0) //
+          .build().autorun(db);
+      assertFMeasure(db, clustering, 0.85034);
+      assertClusterSizes(clustering, new int[] { 87, 113, 217, 221 });
+    }
+    assertEquals("Expected one snapshot.", 1, folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testSnapshotFeatures() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    for(Class<?> cls : Arrays.asList(VIIFeature.Factory.class, VVIFeature.Factory.class, VVVFeature.Factory.class, BIRCHCF.Factory.class)) {
+      CFTree.Factory<?> factory = new ELKIBuilder<>(CFTree.Factory.class) //
+          .with(CFTree.Factory.Par.FEATURES_ID, cls) //
+          .with(CFTree.Factory.Par.MAXLEAVES_ID, 50) //
+          .with(CFTree.Factory.Par.SNAPSHOT_ID, folder.getRoot()) //
+          .build();
+      CFTree<?> built = factory.newTree(rel.getDBIDs(), rel, true);
+      CFTree<?> restored = factory.newTree(rel.getDBIDs(), rel, true);
+      assertNotSame("Tree was not restored.", built, restored);
+      assertEquals("Number of leaves", built.numLeaves(), restored.numLeaves());
+      for(CFTree.LeafIterator<?> a = built.leafIterator(), b = restored.leafIterator(); a.valid(); a.advance(), b.advance()) {
+        ClusterFeature ca = a.get(), cb = b.get();
+        assertEquals("Weight", ca.getWeight(), cb.getWeight());
+        assertArrayEquals("Mean", ca.toArray(), cb.toArray(), 0.);
+        assertEquals("Variance", ca.variance(), cb.variance(), 0.);
+        assertEquals("Object ids", ca.getWeight(), DBIDUtil.intersectionSize(built.getDBIDs(ca), restored.getDBIDs(cb)));
+      }
+    }
+  }
 }
@@ -0,0 +1,155 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.kmeans.initialization.KMeansPlusPlus;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.model.ClusterModel;
+import elki.data.model.KMeansModel;
+import elki.data.model.Model;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.ModifiableDBIDs;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.bundle.StreamFromBundle;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Performs a full mini-batch k-means run, and compares the result with a
+ * clustering derived from the data set labels.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class MiniBatchKMeansTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Run mini-batch k-means with fixed parameters and compare the result to a
+   * golden standard.
+   */
+  @Test
+  public void testMiniBatchKMeans() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Clustering<?> result = new ELKIBuilder<MiniBatchKMeans<DoubleVector>>(MiniBatchKMeans.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 7) //
+        .with(MiniBatchKMeans.Par.SEED_ID, 1) //
+        .with(MiniBatchKMeans.Par.BATCHSIZE_ID, 100) //
+        .with(KMeans.MAXITER_ID, 20) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.998005);
+    assertClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
+  }
+
+  /**
+   * Two runs with the same seeds must sample the same batches.
+   */
+  @Test
+  public void testMiniBatchKMeansSeeded() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    List<? extends Cluster<KMeansModel>> first = runSeeded(db).getAllClusters();
+    List<? extends Cluster<KMeansModel>> second = runSeeded(db).getAllClusters();
+    assertEquals("Number of clusters", first.size(), second.size());
+    for(int i = 0; i < first.size(); i++) {
+      assertArrayEquals("Means differ", first.get(i).getModel().getMean(), second.get(i).getModel().getMean(), 0.);
+    }
+  }
+
+  /**
+   * Run mini-batch k-means with fixed seeds.
+   *
+   * @param db Database
+   * @return Clustering
+   */
+  private static Clustering<KMeansModel> runSeeded(Database db) {
+    return new ELKIBuilder<MiniBatchKMeans<DoubleVector>>(MiniBatchKMeans.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 7) //
+        .with(MiniBatchKMeans.Par.SEED_ID, 3) //
+        .with(MiniBatchKMeans.Par.BATCHSIZE_ID, 20) //
+        .with(KMeans.MAXITER_ID, 5) //
+        .build().autorun(db);
+  }
+
+  /**
+   * Cluster a shuffled stream of the data, then assign the objects to the
+   * resulting centers.
+   */
+  @Test
+  public void testMiniBatchKMeansStream() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    List<NumberVector> data = new ArrayList<>(rel.size());
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      data.add(rel.get(it));
+    }
+    Collections.shuffle(data, new Random(0L));
+    double[][] means = new ELKIBuilder<MiniBatchKMeans<DoubleVector>>(MiniBatchKMeans.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 7) //
+        .with(MiniBatchKMeans.Par.SEED_ID, 1) //
+        .with(KMeans.INIT_ID, KMeansPlusPlus.class) //
+        .with(MiniBatchKMeans.Par.BATCHSIZE_ID, 100) //
+        .build().run(new StreamFromBundle(MultipleObjectsBundle.makeSimple(rel.getDataTypeInformation(), data)));
+    assertEquals("Number of centers", 5, means.length);
+    // Assign to the nearest centers:
+    List<ModifiableDBIDs> clusters = new ArrayList<>();
+    for(int i = 0; i < means.length; i++) {
+      clusters.add(DBIDUtil.newArray());
+    }
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      NumberVector v = rel.get(it);
+      int best = 0;
+      double bestd = Double.POSITIVE_INFINITY;
+      for(int i = 0; i < means.length; i++) {
+        double d = SquaredEuclideanDistance.STATIC.distance(v, DoubleVector.wrap(means[i]));
+        if(d < bestd) {
+          bestd = d;
+          best = i;
+        }
+      }
+      clusters.get(best).add(it);
+    }
+    Clustering<Model> result = new Clustering<>();
+    for(ModifiableDBIDs ids : clusters) {
+      result.addToplevelCluster(new Cluster<>(ids, ClusterModel.CLUSTER));
+    }
+    assertFMeasure(db, result, 0.998005);
+    assertClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
+  }
+}
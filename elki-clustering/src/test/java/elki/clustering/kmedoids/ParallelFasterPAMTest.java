@@ -0,0 +1,82 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmedoids;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.kmeans.KMeans;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.model.MedoidModel;
+import elki.database.Database;
+import elki.parallel.ParallelismRule;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Performs a full parallel FasterPAM run, and compares the result with a
+ * clustering derived from the data set labels.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class ParallelFasterPAMTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
+  @Test
+  public void testKMedoidsPAM() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    parallelism.set(4);
+    Clustering<MedoidModel> result = new ELKIBuilder<ParallelFasterPAM<DoubleVector>>(ParallelFasterPAM.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 0) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.998005);
+    assertClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
+    // Independent of the number of threads:
+    parallelism.set(1);
+    Clustering<MedoidModel> single = new ELKIBuilder<ParallelFasterPAM<DoubleVector>>(ParallelFasterPAM.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 0) //
+        .build().autorun(db);
+    assertSameClustering(single, result);
+  }
+
+  @Test
+  public void testBatchSizeOne() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Clustering<MedoidModel> expected = new ELKIBuilder<FasterPAM<DoubleVector>>(FasterPAM.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 1) //
+        .build().autorun(db);
+    Clustering<MedoidModel> result = new ELKIBuilder<ParallelFasterPAM<DoubleVector>>(ParallelFasterPAM.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 1) //
+        .with(ParallelFasterPAM.Par.BATCHSIZE_ID, 1) //
+        .build().autorun(db);
+    assertSameClustering(expected, result);
+  }
+}
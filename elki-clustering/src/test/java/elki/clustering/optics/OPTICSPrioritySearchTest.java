@@ -0,0 +1,102 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.optics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.data.Clustering;
+import elki.database.Database;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDVar;
+import elki.parallel.ParallelismRule;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Performs a full OPTICS run using priority search, and compares the result
+ * with a clustering derived from the data set labels.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class OPTICSPrioritySearchTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
+  @Test
+  public void testOPTICS() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    Clustering<?> clustering = new ELKIBuilder<>(OPTICSXi.class) //
+        .with(OPTICSPrioritySearch.Par.MINPTS_ID, 20) //
+        .with(OPTICSPrioritySearch.Par.EPSILON_ID, 0.15) //
+        .with(OPTICSXi.Par.XI_ID, 0.05) //
+        .with(OPTICSXi.Par.XIALG_ID, OPTICSPrioritySearch.class) //
+        .build().autorun(db);
+    assertFMeasure(db, clustering, 0.893865);
+    assertClusterSizes(clustering, new int[] { 8, 35, 72, 115, 209, 271 });
+  }
+
+  @Test
+  public void testSameClusterOrder() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    ClusterOrder expected = new ELKIBuilder<>(OPTICSHeap.class) //
+        .with(OPTICSHeap.Par.MINPTS_ID, 20) //
+        .with(OPTICSHeap.Par.EPSILON_ID, 0.15) //
+        .build().autorun(db);
+    assertSameClusterOrder(expected, new ELKIBuilder<>(OPTICSPrioritySearch.class) //
+        .with(OPTICSPrioritySearch.Par.MINPTS_ID, 20) //
+        .with(OPTICSPrioritySearch.Par.EPSILON_ID, 0.15) //
+        .build().autorun(db));
+    parallelism.set(4);
+    assertSameClusterOrder(expected, new ELKIBuilder<>(OPTICSPrioritySearch.class) //
+        .with(OPTICSPrioritySearch.Par.MINPTS_ID, 20) //
+        .with(OPTICSPrioritySearch.Par.EPSILON_ID, 0.15) //
+        .with(OPTICSPrioritySearch.Par.PARALLEL_ID) //
+        .build().autorun(db));
+  }
+
+  /**
+   * Compare two cluster orders.
+   *
+   * @param expected Expected order
+   * @param result Result order
+   */
+  private static void assertSameClusterOrder(ClusterOrder expected, ClusterOrder result) {
+    assertEquals("Size", expected.size(), result.size());
+    DBIDVar p1 = DBIDUtil.newVar(), p2 = DBIDUtil.newVar();
+    for(DBIDArrayIter i1 = expected.iter(), i2 = result.iter(); i1.valid(); i1.advance(), i2.advance()) {
+      assertTrue("Order differs at " + i1.getOffset(), DBIDUtil.equal(i1, i2));
+      assertEquals("Reachability", expected.getReachability(i1), result.getReachability(i2), 0.);
+      expected.getPredecessor(i1, p1);
+      result.getPredecessor(i2, p2);
+      assertEquals("Predecessor", p1.isSet(), p2.isSet());
+      assertTrue("Predecessor", !p1.isSet() || DBIDUtil.equal(p1, p2));
+    }
+  }
+}
@@ -20,6 +20,7 @@
  */
 package elki.clustering;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
@@ -29,8 +30,10 @@ import elki.algorithm.AbstractSimpleAlgorithmTest;
 import elki.clustering.trivial.ByLabelClustering;
 import elki.data.Cluster;
 import elki.data.Clustering;
+import elki.data.model.MeanModel;
 import elki.data.model.Model;
 import elki.database.Database;
+import elki.database.ids.DBIDUtil;
 import elki.evaluation.clustering.ClusterContingencyTable;
 import elki.logging.Logging;
 import elki.utilities.io.FormatUtil;
@@ -95,4 +98,23 @@ public abstract class AbstractClusterAlgorithmTest extends AbstractSimpleAlgorit
       assertEquals("Cluster size does not match at position " + i + " in " + FormatUtil.format(sizes), expected[i], sizes[i]);
     }
   }
+
+  /**
+   * Validate that two clusterings are identical, including the exact means.
+   *
+   * @param expected Expected clustering
+   * @param clustering Clustering to test
+   */
+  protected void assertSameClustering(Clustering<?> expected, Clustering<?> clustering) {
+    List<? extends Cluster<?>> ec = expected.getAllClusters(), cc = clustering.getAllClusters();
+    assertEquals("Number of clusters does not match.", ec.size(), cc.size());
+    for(int i = 0; i < ec.size(); i++) {
+      Cluster<?> e = ec.get(i), c = cc.get(i);
+      assertEquals("Cluster size does not match at position " + i, e.size(), c.size());
+      assertEquals("Cluster members do not match at position " + i, e.size(), DBIDUtil.intersectionSize(e.getIDs(), c.getIDs()));
+      if(e.getModel() instanceof MeanModel) {
+        assertArrayEquals("Cluster mean does not match at position " + i, ((MeanModel) e.getModel()).getMean(), ((MeanModel) c.getModel()).getMean(), 0.);
+      }
+    }
+  }
 }
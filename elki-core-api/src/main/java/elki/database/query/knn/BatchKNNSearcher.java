@@ -0,0 +1,69 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.query.knn;
+
+import java.util.function.BiConsumer;
+
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDs;
+import elki.database.ids.KNNList;
+
+/**
+ * kNN searcher that can answer many queries at once (all-kNN or kNN-join).
+ * <p>
+ * Indexes can implement this to share work across queries, e.g., with
+ * dual-tree or block-nested traversal. The default implementation simply
+ * loops over the queries.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @navhas - create - KNNList
+ */
+@FunctionalInterface
+public interface BatchKNNSearcher extends KNNSearcher<DBIDRef> {
+  /**
+   * Get the k nearest neighbors for each of the query objects.
+   * <p>
+   * Results are passed to the consumer in no particular order. The reference
+   * passed to the consumer may be an iterator, and must not be retained.
+   *
+   * @param queries Query objects
+   * @param k Number of neighbors requested
+   * @param out Consumer for the results
+   */
+  default void getKNNBatch(DBIDs queries, int k, BiConsumer<? super DBIDRef, ? super KNNList> out) {
+    for(DBIDIter iter = queries.iter(); iter.valid(); iter.advance()) {
+      out.accept(iter, getKNN(iter, k));
+    }
+  }
+
+  /**
+   * Wrap a kNN searcher, using a loop over the queries.
+   *
+   * @param knnq kNN searcher
+   * @return Batch searcher, or {@code null}
+   */
+  static BatchKNNSearcher wrap(KNNSearcher<DBIDRef> knnq) {
+    return knnq == null ? null : knnq instanceof BatchKNNSearcher ? (BatchKNNSearcher) knnq : knnq::getKNN;
+  }
+}
@@ -20,6 +20,10 @@
  */
 package elki.database.relation;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
 
 import elki.data.FeatureVector;
@@ -33,6 +37,7 @@ import elki.database.ids.ArrayDBIDs;
 import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDRef;
+import elki.utilities.io.ByteBufferSerializer;
 
 /**
  * Utility functions for handling database relation.
@@ -194,6 +199,39 @@ public final class RelationUtil {
     return (Relation<V>) database;
   }
 
+  /**
+   * Add the contents of a relation (in iteration order) to a message digest,
+   * using the serializer of the data type if available, and the string
+   * representation of the objects otherwise.
+   *
+   * @param relation Relation
+   * @param md Message digest
+   * @param <O> Object type
+   * @throws IOException on serialization errors
+   */
+  public static <O> void digest(Relation<O> relation, MessageDigest md) throws IOException {
+    ByteBufferSerializer<? super O> serializer = relation.getDataTypeInformation().getSerializer();
+    ByteBuffer buf = ByteBuffer.allocate(4096);
+    buf.putInt(relation.size());
+    buf.flip();
+    md.update(buf);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      final O obj = relation.get(it);
+      if(serializer == null) {
+        md.update(String.valueOf(obj).getBytes(StandardCharsets.UTF_8));
+        continue;
+      }
+      final int size = serializer.getByteSize(obj);
+      if(size > buf.capacity()) {
+        buf = ByteBuffer.allocate(Math.max(size, buf.capacity() << 1));
+      }
+      buf.clear();
+      serializer.toByteBuffer(buf, obj);
+      buf.flip();
+      md.update(buf);
+    }
+  }
+
   /**
    * Iterator class that retrieves the given objects from the database.
    *
@@ -21,6 +21,7 @@
 package elki.datasource.bundle;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
@@ -35,7 +36,8 @@ import elki.utilities.io.ByteBufferSerializer;
 /**
  * Read an ELKI bundle file into a data stream.
  * <p>
- * TODO: resize buffer when necessary?
+ * When reading from a file channel, the file is mapped in windows of at most
+ * 1 GB, so files larger than 2 GB can be read, too.
  * 
  * @author Erich Schubert
  * @since 0.5.5
@@ -49,6 +51,11 @@ public class BundleReader implements BundleStreamSource {
    */
   public static final int MAGIC = BundleWriter.MAGIC;
 
+  /**
+   * Maximum size of a mapped window.
+   */
+  private static final long WINDOW = 1L << 30;
+
   /**
    * The stream buffer.
    */
@@ -64,6 +71,11 @@ public class BundleReader implements BundleStreamSource {
    */
   FileChannel input = null;
 
+  /**
+   * File offset of the current window.
+   */
+  long base = 0;
+
   /**
    * Serializers to use.
    */
@@ -114,12 +126,36 @@ public class BundleReader implements BundleStreamSource {
    */
   void openBuffer() {
     if(buffer == null) {
-      try {
-        buffer = input.map(MapMode.READ_ONLY, 0, input.size());
-      }
-      catch(IOException e) {
-        throw new AbortException("Cannot map input bundle.", e);
-      }
+      mapWindow(0);
+    }
+  }
+
+  /**
+   * Map a window of the input file.
+   *
+   * @param start File offset to start at
+   */
+  void mapWindow(long start) {
+    try {
+      base = start;
+      buffer = input.map(MapMode.READ_ONLY, start, Math.min(input.size() - start, WINDOW));
+    }
+    catch(IOException e) {
+      throw new AbortException("Cannot map input bundle.", e);
+    }
+  }
+
+  /**
+   * Test if there is unmapped data after the current window.
+   *
+   * @return {@code true} if the window can be advanced
+   */
+  boolean canAdvance() {
+    try {
+      return input != null && base + buffer.limit() < input.size();
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error", e);
     }
   }
 
@@ -139,7 +175,7 @@ public class BundleReader implements BundleStreamSource {
     for(int i = 0; i < nummeta; i++) {
       try {
         @SuppressWarnings("unchecked")
-        SimpleTypeInformation<? extends Object> type = (SimpleTypeInformation<? extends Object>) TypeInformationSerializer.STATIC.fromByteBuffer(buffer);
+        SimpleTypeInformation<? extends Object> type = mapType((SimpleTypeInformation<? extends Object>) TypeInformationSerializer.STATIC.fromByteBuffer(buffer));
         sers[i] = type.getSerializer();
         if(i == 0 && DBID.class.isAssignableFrom(type.getRestrictionClass())) {
           hasids = true;
@@ -157,14 +193,37 @@ public class BundleReader implements BundleStreamSource {
     }
   }
 
+  /**
+   * Choose the type (and thus the serializer) to use for a column.
+   * <p>
+   * This can be overridden to read objects differently than they were
+   * written, e.g., as views into the mapped buffer instead of copies.
+   *
+   * @param type Type stored in the file
+   * @return Type to use
+   */
+  protected SimpleTypeInformation<? extends Object> mapType(SimpleTypeInformation<? extends Object> type) {
+    return type;
+  }
+
   /**
    * Read an object.
    */
   void readObject() {
+    final int start = buffer.position();
     for(int i = 0; i < sers.length; ++i) {
       try {
         data[i] = sers[i].fromByteBuffer(buffer);
       }
+      catch(BufferUnderflowException e) {
+        // Object crosses the end of the mapped window.
+        if(start == 0 || !canAdvance()) {
+          throw new AbortException("Truncated bundle file, or object larger than the mapping window.", e);
+        }
+        mapWindow(base + start);
+        readObject();
+        return;
+      }
       catch(UnsupportedOperationException e) {
         throw new AbortException("Deserialization failed.", e);
       }
@@ -181,8 +240,11 @@ public class BundleReader implements BundleStreamSource {
       return Event.META_CHANGED;
     }
     if(buffer != null && buffer.remaining() == 0) {
-      buffer = null;
-      return Event.END_OF_STREAM;
+      if(!canAdvance()) {
+        buffer = null;
+        return Event.END_OF_STREAM;
+      }
+      mapWindow(base + buffer.position());
     }
     readObject();
     return Event.NEXT_OBJECT;
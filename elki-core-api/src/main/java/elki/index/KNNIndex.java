@@ -22,8 +22,9 @@ package elki.index;
 
 import elki.database.ids.DBIDRef;
 import elki.database.query.distance.DistanceQuery;
-import elki.database.query.knn.WrappedKNNDBIDByLookup;
+import elki.database.query.knn.BatchKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.WrappedKNNDBIDByLookup;
 
 /**
  * Index with support for kNN queries.
@@ -62,4 +63,20 @@ public interface KNNIndex<O> extends Index {
   default KNNSearcher<DBIDRef> kNNByDBID(DistanceQuery<O> distanceQuery, int maxk, int flags) {
     return WrappedKNNDBIDByLookup.wrap(distanceQuery.getRelation(), kNNByObject(distanceQuery, maxk, flags));
   }
+
+  /**
+   * Get a batch kNN query object, for computing the kNN of many objects at
+   * once, e.g., using a dual-tree traversal.
+   * <p>
+   * This function MAY return null, when the given distance is not supported,
+   * or the index does not have a batch strategy.
+   * 
+   * @param distanceQuery Distance query
+   * @param maxk Maximum value of k
+   * @param flags Hints for the optimizer
+   * @return Batch kNN query object or {@code null}
+   */
+  default BatchKNNSearcher kNNBatch(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    return null;
+  }
 }
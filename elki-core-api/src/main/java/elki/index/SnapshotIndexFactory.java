@@ -0,0 +1,52 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index;
+
+import elki.database.relation.Relation;
+import elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Index factory whose indexes can be stored in a binary snapshot after
+ * construction, and be restored instead of being rebuilt.
+ * <p>
+ * The serializer is bound to a relation, and stores object references as
+ * offsets into the relation's (static) DBID range. An index restored from a
+ * snapshot is fully built, and calling {@link Index#initialize()} on it again
+ * must not rebuild it.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @param <V> Input object type
+ * @param <I> Index type
+ */
+public interface SnapshotIndexFactory<V, I extends Index> extends IndexFactory<V> {
+  @Override
+  I instantiate(Relation<V> relation);
+
+  /**
+   * Get a serializer for snapshots of indexes on the given relation.
+   *
+   * @param relation Relation to index
+   * @return Serializer, or {@code null} if snapshots are not supported
+   */
+  ByteBufferSerializer<I> getSnapshotSerializer(Relation<V> relation);
+}
@@ -0,0 +1,203 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import elki.database.ids.DBIDRange;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.logging.Logging;
+import elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Utility functions for binary snapshots of data structures built on a
+ * relation, to restore them in later runs on the same data instead of
+ * building them again.
+ * <p>
+ * Snapshot files are named by a fingerprint of the data (in relation order)
+ * and a key describing all settings. They are written to a temporary file
+ * first, and then moved, so that concurrent runs never see partial files.
+ * <p>
+ * Snapshots should store objects as offsets into the relation, and hence
+ * require a static database with a DBID range.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public final class SnapshotUtil {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(SnapshotUtil.class);
+
+  /**
+   * Suffix of snapshot files.
+   */
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+  /**
+   * Random magic number.
+   */
+  public static final int MAGIC = 0x5e1f0a7d;
+
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private SnapshotUtil() {
+    // Do not instantiate
+  }
+
+  /**
+   * Get the snapshot file name for the current data and settings.
+   *
+   * @param directory Directory to store the snapshots in
+   * @param prefix File name prefix, e.g., the class name
+   * @param key Settings key, must include a format version and all settings
+   * @param relation Relation
+   * @return Snapshot file, or {@code null} if snapshots cannot be used
+   */
+  public static Path snapshotFile(Path directory, String prefix, String key, Relation<?> relation) {
+    if(!(relation.getDBIDs() instanceof DBIDRange)) {
+      LOG.warning("Snapshots require a static database, not using snapshots.");
+      return null;
+    }
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(key.getBytes(StandardCharsets.UTF_8));
+      RelationUtil.digest(relation, md);
+      byte[] digest = md.digest();
+      StringBuilder name = new StringBuilder(100).append(prefix).append('.');
+      for(int i = 0; i < 8; i++) {
+        name.append(Character.forDigit((digest[i] >>> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+      }
+      Files.createDirectories(directory);
+      return directory.resolve(name.append(SNAPSHOT_SUFFIX).toString());
+    }
+    catch(IOException | NoSuchAlgorithmException | UnsupportedOperationException e) {
+      LOG.warning("Cannot fingerprint the data, not using snapshots: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Read a snapshot file, if it exists.
+   *
+   * @param serializer Serializer
+   * @param size Relation size
+   * @param file Snapshot file name
+   * @param <T> Object type
+   * @return Restored object, or {@code null} if not available
+   */
+  public static <T> T readSnapshot(ByteBufferSerializer<T> serializer, int size, Path file) {
+    if(!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      LOG.verbose("Reading snapshot from " + file);
+      // Mapped buffers remain valid after closing the channel.
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if(buffer.getInt() != MAGIC || buffer.getInt() != size) {
+        throw new IOException("Not a snapshot of this relation.");
+      }
+      return serializer.fromByteBuffer(buffer);
+    }
+    catch(IOException | RuntimeException e) {
+      // Corrupt files may also cause buffer underflows etc.
+      LOG.warning("Cannot read snapshot " + file + ", rebuilding: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Write the snapshot file. The data is written to a temporary file first,
+   * and then moved, so that concurrent readers never see partial files.
+   * <p>
+   * The file is memory mapped for writing, so the object is not copied on the
+   * heap. Snapshots larger than 2 GB are not supported, and skipped with a
+   * warning.
+   *
+   * @param serializer Serializer
+   * @param object Object to write
+   * @param size Relation size
+   * @param file Snapshot file name
+   * @param <T> Object type
+   */
+  public static <T> void writeSnapshot(ByteBufferSerializer<T> serializer, T object, int size, Path file) {
+    Path tmp = null;
+    try {
+      final int bytes = checkedByteSize(8L + serializer.getByteSize(object));
+      tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        buffer.putInt(MAGIC).putInt(size);
+        serializer.toByteBuffer(buffer, object);
+      }
+      try {
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch(IOException e) {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmp = null;
+      LOG.verbose("Wrote snapshot " + file);
+    }
+    catch(IOException | RuntimeException e) {
+      // Inconsistent serializers may also cause buffer overflows etc.
+      LOG.warning("Cannot write snapshot " + file + ": " + e.getMessage());
+    }
+    finally {
+      if(tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        }
+        catch(IOException e) {
+          // Ignore.
+        }
+      }
+    }
+  }
+
+  /**
+   * Check that a serialized size, computed as long to avoid integer overflow,
+   * fits into a single byte buffer.
+   *
+   * @param bytes Size in bytes
+   * @return Size in bytes
+   * @throws IOException if the size exceeds the maximum buffer size
+   */
+  public static int checkedByteSize(long bytes) throws IOException {
+    if(bytes < 0 || bytes > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot too large: " + bytes + " bytes.");
+    }
+    return (int) bytes;
+  }
+}
@@ -69,6 +69,12 @@ public interface DataStoreFactory {
    */
   int HINT_DB = 0x1E;
 
+  /**
+   * Pack vector data into contiguous arrays where supported, returning
+   * lightweight views instead of the original objects.
+   */
+  int HINT_PACKED = 0x20;
+
   /**
    * Make a new storage, to associate the given ids with an object of class
    * dataclass.
@@ -20,13 +20,21 @@
  */
 package elki.parallel;
 
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+import elki.logging.LoggingUtil;
 
 /**
- * Core for parallel processing in ELKI, based on {@link ThreadPoolExecutor}.
+ * Core for parallel processing in ELKI, based on a work-stealing
+ * {@link ForkJoinPool}.
  * <p>
- * TODO: make configurable how many threads are used.
- * 
+ * The number of threads defaults to the number of available processors, and
+ * can be changed using the system property {@code elki.parallelism} or via
+ * {@link #setParallelism(int)}.
+ *
  * @author Erich Schubert
  * @since 0.7.0
  */
@@ -36,15 +44,20 @@ public class ParallelCore {
    */
   public static final int ALL_PROCESSORS = Runtime.getRuntime().availableProcessors();
 
+  /**
+   * Default parallelism, from the system property {@code elki.parallelism}.
+   */
+  private static final int DEFAULT_PARALLELISM = getDefaultParallelism();
+
   /**
    * Static core
    */
-  private static final ParallelCore STATIC = new ParallelCore(ALL_PROCESSORS);
+  private static final ParallelCore STATIC = new ParallelCore(DEFAULT_PARALLELISM);
 
   /**
    * Executor service.
    */
-  private volatile ThreadPoolExecutor executor;
+  private volatile ForkJoinPool executor;
 
   /**
    * Number of connected submitters.
@@ -58,15 +71,41 @@ public class ParallelCore {
 
   /**
    * Constructor.
+   *
+   * @param processors Number of processors to use
    */
   protected ParallelCore(int processors) {
     super();
-    this.processors = processors;
+    this.processors = processors > 0 ? processors : DEFAULT_PARALLELISM;
+  }
+
+  /**
+   * Get the default parallelism, from the system property
+   * {@code elki.parallelism} if set to a positive integer.
+   *
+   * @return Number of threads to use
+   */
+  private static int getDefaultParallelism() {
+    String spar = System.getProperty("elki.parallelism");
+    if(spar == null) {
+      return ALL_PROCESSORS;
+    }
+    try {
+      final int par = Integer.parseInt(spar.trim());
+      if(par > 0) {
+        return par;
+      }
+    }
+    catch(NumberFormatException e) {
+      // Warn below.
+    }
+    LoggingUtil.warning("Ignoring invalid value of elki.parallelism: " + spar);
+    return ALL_PROCESSORS;
   }
 
   /**
    * Get the static core object.
-   * 
+   *
    * @return Core
    */
   public static ParallelCore getCore() {
@@ -75,35 +114,64 @@ public class ParallelCore {
 
   /**
    * Get desired level of parallelism
-   * 
+   *
    * @return Number of threads to run in parallel
    */
   public int getParallelism() {
-    return executor != null ? executor.getMaximumPoolSize() : processors;
+    return processors;
+  }
+
+  /**
+   * Set the desired level of parallelism.
+   * <p>
+   * This only affects jobs started after the currently running jobs have
+   * completed.
+   *
+   * @param processors Number of threads to run in parallel, {@code 0} to
+   *        restore the default (the {@code elki.parallelism} system property,
+   *        or all available processors).
+   */
+  public synchronized void setParallelism(int processors) {
+    if(processors < 0) {
+      throw new IllegalArgumentException("Parallelism must not be negative.");
+    }
+    this.processors = processors > 0 ? processors : DEFAULT_PARALLELISM;
+    if(connected == 0 && executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
   }
 
   /**
    * Submit a task to the executor core.
-   * 
+   *
    * @param task Submitted task
-   * 
+   *
    * @return Future to observe completion
    */
   public <T> Future<T> submit(Callable<T> task) {
     return executor.submit(task);
   }
 
+  /**
+   * Run a fork-join task on the executor core, and wait for its completion.
+   *
+   * @param task Task to run
+   * @return Task result
+   */
+  public <T> T invoke(ForkJoinTask<T> task) {
+    return executor.invoke(task);
+  }
+
   /**
    * Connect to the executor.
    */
   public synchronized void connect() {
-    if(executor == null) {
-      executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-      executor.allowCoreThreadTimeOut(true);
-    }
-    if(++connected == 1) {
-      executor.allowCoreThreadTimeOut(false);
-      executor.setCorePoolSize(executor.getMaximumPoolSize());
+    if(++connected == 1 && (executor == null || executor.getParallelism() != processors)) {
+      if(executor != null) {
+        executor.shutdown();
+      }
+      executor = new ForkJoinPool(processors);
     }
   }
 
@@ -111,9 +179,7 @@ public class ParallelCore {
    * Disconnect to the executor.
    */
   public synchronized void disconnect() {
-    if(--connected == 0) {
-      executor.allowCoreThreadTimeOut(true);
-      executor.setCorePoolSize(0);
-    }
+    // Idle worker threads of the pool will time out automatically.
+    --connected;
   }
 }
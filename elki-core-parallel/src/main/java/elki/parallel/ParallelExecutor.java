@@ -20,12 +20,10 @@
  */
 package elki.parallel;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import elki.database.ids.ArrayDBIDs;
 import elki.database.ids.DBIDArrayIter;
@@ -37,16 +35,40 @@ import elki.parallel.variables.SharedVariable.Instance;
 
 /**
  * Class to run processors in parallel, on all available cores.
- *
+ * <p>
+ * The array of IDs is recursively split into ranges, which are processed by a
+ * work-stealing fork-join pool. Ranges are only split further while there is
+ * demand for work by other threads, so that a slow region of the data does not
+ * stall the remaining workers. Each worker thread instantiates the processors
+ * (and shared variables) only once, and reuses them for all ranges it
+ * processes.
+ * <p>
  * TODO: add progress
  *
  * @author Erich Schubert
  * @since 0.7.0
  *
- * @has - - - BlockArrayRunner
+ * @has - - - RangeTask
+ * @has - - - BlockAction
+ * @has - - - WorkerRunner
  * @assoc - - - ParallelCore
  */
 public final class ParallelExecutor {
+  /**
+   * Minimum number of objects per range, to limit the task overhead.
+   */
+  private static final int MIN_BLOCKSIZE = 16;
+
+  /**
+   * Number of ranges per thread before splitting becomes demand-driven.
+   */
+  private static final int RANGES_PER_THREAD = 4;
+
+  /**
+   * Number of surplus tasks in the local queue, at which we stop splitting.
+   */
+  private static final int SURPLUS_TASKS = 2;
+
   /**
    * Private constructor. Static methods only.
    */
@@ -64,31 +86,84 @@ public final class ParallelExecutor {
     ParallelCore core = ParallelCore.getCore();
     core.connect();
     try {
-      // TODO: try different strategies anyway!
       ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
       final int size = aids.size();
-      int numparts = core.getParallelism();
-      // TODO: are there better heuristics for choosing this?
-      numparts = (size > numparts * numparts * 16) ? numparts * Math.max(1, numparts - 1) : numparts;
-
-      final int blocksize = (size + (numparts - 1)) / numparts;
-      List<Future<ArrayDBIDs>> parts = new ArrayList<>(numparts);
-      for(int i = 0; i < numparts; i++) {
-        final int start = i * blocksize;
-        final int end = Math.min(start + blocksize, size);
-        Callable<ArrayDBIDs> run = new BlockArrayRunner(aids, start, end, procs);
-        parts.add(core.submit(run));
+      // Ranges at least this large are always split:
+      final int maxblock = Math.max(MIN_BLOCKSIZE, size / (core.getParallelism() * RANGES_PER_THREAD));
+      ConcurrentHashMap<Thread, WorkerRunner> workers = new ConcurrentHashMap<>();
+      core.invoke(new RangeTask(aids, 0, size, maxblock, procs, workers));
+      for(WorkerRunner worker : workers.values()) {
+        worker.cleanup();
       }
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Split an integer range into blocks of roughly equal size, for
+   * {@link #run(int[], BlockTask)}. At most one block per thread is produced,
+   * and blocks are at least of size {@code minblock} (except if the range is
+   * smaller).
+   *
+   * @param start Start of the range (inclusive)
+   * @param end End of the range (exclusive)
+   * @param minblock Minimum block size
+   * @return Block boundaries, of length number of blocks + 1
+   */
+  public static int[] blocks(int start, int end, int minblock) {
+    final int size = Math.max(end - start, 0);
+    final int nb = Math.max(1, Math.min(ParallelCore.getCore().getParallelism(), size / Math.max(minblock, 1)));
+    int[] bounds = new int[nb + 1];
+    for(int i = 0; i < nb; i++) {
+      bounds[i] = start + (int) ((long) size * i / nb);
+    }
+    bounds[nb] = start + size;
+    return bounds;
+  }
 
-      for(Future<ArrayDBIDs> fut : parts) {
-        fut.get();
+  /**
+   * Process blocks of an integer range in parallel. Block {@code i} covers
+   * {@code [bounds[i], bounds[i+1])}; the blocks must not interfere with
+   * each other. Returns when all blocks have been processed; exceptions are
+   * rethrown in the calling thread.
+   *
+   * @param bounds Block boundaries, ascending
+   * @param task Task to process a block
+   */
+  public static void run(int[] bounds, BlockTask task) {
+    final int nb = bounds.length - 1;
+    if(nb <= 1) {
+      if(nb == 1) {
+        task.process(bounds[0], bounds[1]);
       }
+      return;
     }
-    catch(ExecutionException e) {
-      throw new RuntimeException("Processor execution failed.", e);
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      core.invoke(new BlockAction(bounds, 0, nb, task));
     }
-    catch(InterruptedException e) {
-      throw new RuntimeException("Parallel execution interrupted.");
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Run a fork/join computation, such as a recursive divide-and-conquer
+   * construction that uses {@link ForkJoinTask#fork()} for independent
+   * subproblems.
+   *
+   * @param task Task to run
+   * @param <T> Result type
+   * @return Result of the task
+   */
+  public static <T> T invoke(ForkJoinTask<T> task) {
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      return core.invoke(task);
     }
     finally {
       core.disconnect();
@@ -96,13 +171,87 @@ public final class ParallelExecutor {
   }
 
   /**
-   * Run for an array part, without step size.
+   * Task processing a block of an integer range.
    *
    * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface BlockTask {
+    /**
+     * Process the block.
+     *
+     * @param start Start (inclusive)
+     * @param end End (exclusive)
+     */
+    void process(int start, int end);
+  }
+
+  /**
+   * Recursive task processing a sequence of blocks.
    *
-   * @assoc - - - Processor
+   * @author Erich Schubert
    */
-  protected static class BlockArrayRunner implements Callable<ArrayDBIDs>, Executor {
+  protected static class BlockAction extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Block boundaries.
+     */
+    private int[] bounds;
+
+    /**
+     * First and last (exclusive) block to process.
+     */
+    private int lo, hi;
+
+    /**
+     * Task to run.
+     */
+    private BlockTask task;
+
+    /**
+     * Constructor.
+     *
+     * @param bounds Block boundaries
+     * @param lo First block
+     * @param hi Last block (exclusive)
+     * @param task Task to run
+     */
+    protected BlockAction(int[] bounds, int lo, int hi, BlockTask task) {
+      super();
+      this.bounds = bounds;
+      this.lo = lo;
+      this.hi = hi;
+      this.task = task;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo == 1) {
+        task.process(bounds[lo], bounds[hi]);
+        return;
+      }
+      final int mid = (lo + hi) >>> 1;
+      invokeAll(new BlockAction(bounds, lo, mid, task), new BlockAction(bounds, mid, hi, task));
+    }
+  }
+
+  /**
+   * Recursive task processing a range of an array.
+   *
+   * @author Erich Schubert
+   *
+   * @assoc - - - WorkerRunner
+   */
+  protected static class RangeTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
     /**
      * Array IDs to process
      */
@@ -118,15 +267,25 @@ public final class ParallelExecutor {
      */
     private int end;
 
+    /**
+     * Ranges larger than this are always split
+     */
+    private int maxblock;
+
     /**
      * The processor masters that own the instances.
      */
     private Processor[] procs;
 
     /**
-     * Variables map.
+     * Per-thread workers.
      */
-    private HashMap<SharedVariable<?>, SharedVariable.Instance<?>> variables = new HashMap<>();
+    private ConcurrentHashMap<Thread, WorkerRunner> workers;
+
+    /**
+     * Next forked task, for joining.
+     */
+    private RangeTask next;
 
     /**
      * Constructor.
@@ -134,31 +293,103 @@ public final class ParallelExecutor {
      * @param ids IDs to process
      * @param start Starting position
      * @param end End position
+     * @param maxblock Ranges larger than this are always split
      * @param procs Processors to run
+     * @param workers Per-thread workers
      */
-    protected BlockArrayRunner(ArrayDBIDs ids, int start, int end, Processor[] procs) {
+    protected RangeTask(ArrayDBIDs ids, int start, int end, int maxblock, Processor[] procs, ConcurrentHashMap<Thread, WorkerRunner> workers) {
       super();
       this.ids = ids;
       this.start = start;
       this.end = end;
+      this.maxblock = maxblock;
       this.procs = procs;
+      this.workers = workers;
     }
 
     @Override
-    public ArrayDBIDs call() {
-      Processor.Instance[] instances = new Processor.Instance[procs.length];
-      for(int i = 0; i < procs.length; i++) {
-        instances[i] = procs[i].instantiate(this);
+    protected void compute() {
+      // Split off the upper halves, while large or while other threads idle:
+      RangeTask forked = null;
+      while(end - start > (MIN_BLOCKSIZE << 1) && //
+          (end - start > maxblock || getSurplusQueuedTaskCount() <= SURPLUS_TASKS)) {
+        final int mid = (start + end) >>> 1;
+        RangeTask right = new RangeTask(ids, mid, end, maxblock, procs, workers);
+        right.next = forked;
+        (forked = right).fork();
+        end = mid;
+      }
+      workers.computeIfAbsent(Thread.currentThread(), t -> new WorkerRunner(procs)).process(ids, start, end);
+      // Join the forked tasks, most recent first (or run them if not stolen)
+      for(; forked != null; forked = forked.next) {
+        forked.join();
+      }
+    }
+  }
+
+  /**
+   * Worker holding the processor instances of one thread.
+   *
+   * @author Erich Schubert
+   *
+   * @assoc - - - Processor
+   */
+  protected static class WorkerRunner implements Executor {
+    /**
+     * The processor masters that own the instances.
+     */
+    private Processor[] procs;
+
+    /**
+     * Processor instances.
+     */
+    private Processor.Instance[] instances;
+
+    /**
+     * Variables map.
+     */
+    private HashMap<SharedVariable<?>, SharedVariable.Instance<?>> variables = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param procs Processors to run
+     */
+    protected WorkerRunner(Processor[] procs) {
+      super();
+      this.procs = procs;
+    }
+
+    /**
+     * Process a range of the array.
+     *
+     * @param ids IDs to process
+     * @param start Starting position
+     * @param end End position
+     */
+    protected void process(ArrayDBIDs ids, int start, int end) {
+      if(instances == null) {
+        instances = new Processor.Instance[procs.length];
+        for(int i = 0; i < procs.length; i++) {
+          instances[i] = procs[i].instantiate(this);
+        }
       }
       for(DBIDArrayIter iter = ids.iter().seek(start); iter.valid() && iter.getOffset() < end; iter.advance()) {
         for(int i = 0; i < instances.length; i++) {
           instances[i].map(iter);
         }
       }
-      for(int i = 0; i < instances.length; i++) {
-        procs[i].cleanup(instances[i]);
+    }
+
+    /**
+     * Invoke the cleanup of all processor instances.
+     */
+    protected void cleanup() {
+      if(instances != null) {
+        for(int i = 0; i < instances.length; i++) {
+          procs[i].cleanup(instances[i]);
+        }
       }
-      return ids;
     }
 
     @Override
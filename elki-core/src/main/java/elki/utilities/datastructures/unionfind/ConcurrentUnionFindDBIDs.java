@@ -0,0 +1,206 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.utilities.datastructures.unionfind;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.*;
+import elki.utilities.documentation.Reference;
+
+/**
+ * Lock-free union-find algorithm for {@link StaticDBIDs}, which can be used
+ * concurrently by multiple threads, e.g., from
+ * {@link elki.parallel.ParallelExecutor} processors.
+ * <p>
+ * To instantiate, use {@link UnionFindUtil#makeConcurrent}. For
+ * {@link DBIDRange}s, no additional index is needed.
+ * <p>
+ * The parent pointers are modified with compare-and-set operations only.
+ * Components are linked by index, the root with the larger offset is attached
+ * to the root with the smaller offset. Hence the root of every component is
+ * its element with the smallest offset, independent of the order of the union
+ * operations. Find operations use path splitting.
+ * <p>
+ * Reference:
+ * <p>
+ * R. J. Anderson, H. Woll<br>
+ * Wait-free parallel algorithms for the union-find problem<br>
+ * Proc. 23rd Annual ACM Symposium on Theory of Computing (STOC 1991)
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@Reference(authors = "R. J. Anderson, H. Woll", //
+    title = "Wait-free parallel algorithms for the union-find problem", //
+    booktitle = "Proc. 23rd Annual ACM Symposium on Theory of Computing (STOC 1991)", //
+    url = "https://doi.org/10.1145/103418.103458", //
+    bibkey = "DBLP:conf/stoc/AndersonW91")
+public class ConcurrentUnionFindDBIDs implements UnionFind {
+  /**
+   * Object IDs.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Index, to map DBID to offset; {@code null} for ranges.
+   */
+  private WritableIntegerDataStore index;
+
+  /**
+   * Parent element, always at most the element itself.
+   */
+  private AtomicIntegerArray parent;
+
+  /**
+   * Constructor (package private, use {@link UnionFindUtil#makeConcurrent}).
+   *
+   * @param ids IDs to use
+   */
+  ConcurrentUnionFindDBIDs(StaticDBIDs ids) {
+    this.ids = DBIDUtil.ensureArray(ids);
+    if(!(ids instanceof DBIDRange)) {
+      index = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+      int j = 0;
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        index.put(iter, j++);
+      }
+    }
+    parent = new AtomicIntegerArray(ids.size());
+    for(int i = 0; i < parent.length(); i++) {
+      parent.lazySet(i, i);
+    }
+  }
+
+  /**
+   * Get the offset of an element.
+   *
+   * @param element Element
+   * @return Offset
+   */
+  public int offset(DBIDRef element) {
+    return index == null ? ((DBIDRange) ids).getOffset(element) : index.intValue(element);
+  }
+
+  @Override
+  public int find(DBIDRef element) {
+    return find(offset(element));
+  }
+
+  /**
+   * Find the component ID of an element, by offset.
+   *
+   * @param cur Element offset
+   * @return Component id (offset of the root)
+   */
+  public int find(int cur) {
+    assert (cur >= 0 && cur < parent.length());
+    int p = parent.get(cur);
+    while(cur != p) {
+      final int gp = parent.get(p);
+      if(gp != p) {
+        // Path splitting; may fail if another thread was faster.
+        parent.compareAndSet(cur, p, gp);
+      }
+      cur = p;
+      p = gp;
+    }
+    return cur;
+  }
+
+  @Override
+  public int union(DBIDRef first, DBIDRef second) {
+    return union(offset(first), offset(second));
+  }
+
+  /**
+   * Join the components of two elements, by offset.
+   *
+   * @param first First element offset
+   * @param second Second element offset
+   * @return Component id (offset of the new root)
+   */
+  public int union(int first, int second) {
+    while(true) {
+      int a = find(first), b = find(second);
+      if(a == b) {
+        return a;
+      }
+      if(a > b) {
+        final int tmp = a;
+        a = b;
+        b = tmp;
+      }
+      // Attach the larger root, unless it has been linked concurrently:
+      if(parent.compareAndSet(b, b, a)) {
+        return a;
+      }
+    }
+  }
+
+  @Override
+  public boolean isConnected(DBIDRef first, DBIDRef second) {
+    return isConnected(offset(first), offset(second));
+  }
+
+  /**
+   * Test if two components are connected, by offset.
+   *
+   * @param first First element offset
+   * @param second Second element offset
+   * @return {@code true} if they are in the same component.
+   */
+  public boolean isConnected(int first, int second) {
+    while(true) {
+      final int a = find(first), b = find(second);
+      if(a == b) {
+        return true;
+      }
+      // Only if a is still a root, the answer is valid.
+      if(parent.get(a) == a) {
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public DBIDs getRoots() {
+    ArrayModifiableDBIDs roots = DBIDUtil.newArray();
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      // roots or one element in component
+      if(parent.get(iter.getOffset()) == iter.getOffset()) {
+        roots.add(iter);
+      }
+    }
+    return roots;
+  }
+
+  /**
+   * Number of elements.
+   *
+   * @return Size
+   */
+  public int size() {
+    return parent.length();
+  }
+}
@@ -49,4 +49,14 @@ public final class UnionFindUtil {
     }
     return new WeightedQuickUnionStaticDBIDs(ids);
   }
+
+  /**
+   * Make a new instance that can be used concurrently by multiple threads.
+   *
+   * @param ids ID set
+   * @return Concurrent union find algorithm
+   */
+  public static ConcurrentUnionFindDBIDs makeConcurrent(StaticDBIDs ids) {
+    return new ConcurrentUnionFindDBIDs(ids);
+  }
 }
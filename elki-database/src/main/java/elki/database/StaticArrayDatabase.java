@@ -22,16 +22,21 @@ package elki.database;
 
 import java.util.Collection;
 
+import elki.data.NumberVector;
 import elki.data.type.SimpleTypeInformation;
+import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
 import elki.database.ids.ArrayStaticDBIDs;
 import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.DBIDs;
 import elki.database.relation.DBIDView;
 import elki.database.relation.MaterializedRelation;
+import elki.database.relation.PackedVectorRelation;
 import elki.database.relation.Relation;
 import elki.datasource.DatabaseConnection;
 import elki.datasource.FileBasedDatabaseConnection;
@@ -42,7 +47,9 @@ import elki.logging.Logging;
 import elki.logging.statistics.Duration;
 import elki.result.Metadata;
 import elki.utilities.documentation.Description;
+import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.ObjectListParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -81,6 +88,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    */
   protected DatabaseConnection databaseConnection;
 
+  /**
+   * Storage hints, see {@link DataStoreFactory}.
+   */
+  protected int hints;
+
   /**
    * Constructor.
    *
@@ -88,10 +100,22 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @param indexFactories Indexes to add
    */
   public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories) {
+    this(databaseConnection, indexFactories, DataStoreFactory.HINT_DB);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param hints Storage hints, e.g., {@link DataStoreFactory#HINT_PACKED}
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories, int hints) {
     super();
     this.databaseConnection = databaseConnection;
     this.ids = null;
     this.idrep = null;
+    this.hints = hints;
 
     // Add indexes.
     if(indexFactories != null) {
@@ -147,14 +171,9 @@ public class StaticArrayDatabase extends AbstractDatabase {
 
     int numrel = bundle.metaLength();
     for(int i = 0; i < numrel; i++) {
-      SimpleTypeInformation<?> meta = bundle.meta(i);
+      Relation<?> relation = makeRelation(bundle, i, it);
       @SuppressWarnings("unchecked")
-      SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
-      WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
-      for(it.seek(0); it.valid(); it.advance()) {
-        store.put(it, bundle.data(it.getOffset(), i));
-      }
-      Relation<?> relation = new MaterializedRelation<>(null, ometa, ids, store);
+      SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) relation.getDataTypeInformation();
       relations.add(relation);
       Metadata.hierarchyOf(this).addChild(relation);
 
@@ -180,6 +199,36 @@ public class StaticArrayDatabase extends AbstractDatabase {
     eventManager.fireObjectsInserted(ids);
   }
 
+  /**
+   * Materialize a single column of the bundle.
+   *
+   * @param bundle Bundle
+   * @param i Column number
+   * @param it Iterator over the DBIDs
+   * @return Relation
+   */
+  private Relation<?> makeRelation(MultipleObjectsBundle bundle, int i, DBIDArrayIter it) {
+    SimpleTypeInformation<?> meta = bundle.meta(i);
+    if((hints & DataStoreFactory.HINT_PACKED) != 0 && ids instanceof DBIDRange //
+        && TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(meta) //
+        && ((VectorFieldTypeInformation<?>) meta).getFactory() != null) {
+      @SuppressWarnings("unchecked")
+      VectorFieldTypeInformation<? extends NumberVector> vmeta = (VectorFieldTypeInformation<? extends NumberVector>) meta;
+      PackedVectorRelation relation = new PackedVectorRelation(null, vmeta, (DBIDRange) ids);
+      for(it.seek(0); it.valid(); it.advance()) {
+        relation.set(it, (NumberVector) bundle.data(it.getOffset(), i));
+      }
+      return relation;
+    }
+    @SuppressWarnings("unchecked")
+    SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
+    WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, hints, ometa.getRestrictionClass());
+    for(it.seek(0); it.valid(); it.advance()) {
+      store.put(it, bundle.data(it.getOffset(), i));
+    }
+    return new MaterializedRelation<>(null, ometa, ids, store);
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -191,6 +240,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @author Erich Schubert
    */
   public static class Par extends AbstractDatabase.Par {
+    /**
+     * Option to pack vector data into contiguous arrays.
+     */
+    public static final OptionID PACKED_ID = new OptionID("db.packed", "Store numerical vector fields packed in a single array, to reduce memory usage. Algorithms then see generic number vectors.");
+
     /**
      * Holds the database connection to get the initial data from.
      */
@@ -201,6 +255,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
      */
     private Collection<? extends IndexFactory<?>> indexFactories;
 
+    /**
+     * Storage hints.
+     */
+    protected int hints = DataStoreFactory.HINT_DB;
+
     @Override
     public void configure(Parameterization config) {
       super.configure(config);
@@ -211,11 +270,12 @@ public class StaticArrayDatabase extends AbstractDatabase {
       new ObjectListParameter<IndexFactory<?>>(INDEX_ID, IndexFactory.class) //
           .setOptional(true) //
           .grab(config, x -> indexFactories = x);
+      new Flag(PACKED_ID).grab(config, x -> hints = x ? DataStoreFactory.HINT_DB | DataStoreFactory.HINT_PACKED : DataStoreFactory.HINT_DB);
     }
 
     @Override
     public StaticArrayDatabase make() {
-      return new StaticArrayDatabase(databaseConnection, indexFactories);
+      return new StaticArrayDatabase(databaseConnection, indexFactories, hints);
     }
   }
 }
@@ -426,6 +426,43 @@ public class QueryBuilder<O> {
     return new LinearScanKNNByDBID<>(distanceQuery);
   }
 
+  /**
+   * Build a batch k-nearest-neighbors query, for computing the kNN of many
+   * objects at once.
+   *
+   * @return batch knn query
+   */
+  public BatchKNNSearcher kNNBatch() {
+    return kNNBatch(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Build a batch k-nearest-neighbors query, for computing the kNN of many
+   * objects at once.
+   * <p>
+   * Indexes with a batch strategy are preferred; otherwise the regular kNN
+   * query is used for each object.
+   *
+   * @param maxk Maximum k that will be used later.
+   * @return batch knn query
+   */
+  public BatchKNNSearcher kNNBatch(int maxk) {
+    int precompute = flags & FLAG_PRECOMPUTE;
+    flags ^= precompute; // Mask
+    DistanceQuery<O> distanceQuery = distanceQuery();
+    flags ^= precompute; // Restore
+    for(It<KNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(KNNIndex.class); it.valid(); it.advance()) {
+      BatchKNNSearcher q = it.get().kNNBatch(distanceQuery, maxk, flags);
+      logUsing(it.get(), "batch kNN", q != null);
+      if(q != null) {
+        return q;
+      }
+    }
+    KNNSearcher<DBIDRef> q = kNNByDBID(maxk);
+    // Prefer the symmetric block scan over a linear scan per object.
+    return q instanceof LinearScanQuery ? new LinearScanBatchKNN<>(distanceQuery) : BatchKNNSearcher.wrap(q);
+  }
+
   /**
    * Build a range query; if possible also give a maximum query radius.
    *
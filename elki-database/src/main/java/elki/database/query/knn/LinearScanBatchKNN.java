@@ -0,0 +1,101 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.query.knn;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+
+/**
+ * Batch kNN by a blocked linear scan.
+ * <p>
+ * When the kNN of all objects are requested and the distance is symmetric, each
+ * distance is computed only once and used for both objects. The data is
+ * processed in blocks to improve cache locality.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @param <O> Object type
+ */
+public class LinearScanBatchKNN<O> extends LinearScanKNNByDBID<O> implements BatchKNNSearcher {
+  /**
+   * Block size.
+   */
+  private static final int BLOCKSIZE = 256;
+
+  /**
+   * Hold the distance function to be used.
+   */
+  private final DistanceQuery<O> distanceQuery;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceQuery Distance function to use
+   */
+  public LinearScanBatchKNN(DistanceQuery<O> distanceQuery) {
+    super(distanceQuery);
+    this.distanceQuery = distanceQuery;
+  }
+
+  @Override
+  public void getKNNBatch(DBIDs queries, int k, BiConsumer<? super DBIDRef, ? super KNNList> out) {
+    final DistanceQuery<O> dq = distanceQuery;
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(dq.getRelation().getDBIDs());
+    if(queries.size() != ids.size() || !dq.getDistance().isSymmetric()) {
+      BatchKNNSearcher.super.getKNNBatch(queries, k, out);
+      return;
+    }
+    final int size = ids.size();
+    KNNHeap[] heaps = new KNNHeap[size];
+    double[] max = new double[size];
+    Arrays.fill(max, Double.POSITIVE_INFINITY);
+    DBIDArrayIter ii = ids.iter(), ij = ids.iter();
+    for(int bi = 0; bi < size; bi += BLOCKSIZE) {
+      final int ei = Math.min(bi + BLOCKSIZE, size);
+      for(int bj = bi; bj < size; bj += BLOCKSIZE) {
+        final int ej = Math.min(bj + BLOCKSIZE, size);
+        for(int i = bi; i < ei; i++) {
+          ii.seek(i);
+          final KNNHeap hi = heaps[i] != null ? heaps[i] : (heaps[i] = DBIDUtil.newHeap(k));
+          for(int j = bj == bi ? i : bj; j < ej; j++) {
+            final double dist = dq.distance(ii, ij.seek(j));
+            if(dist <= max[i]) {
+              max[i] = hi.insert(dist, ij);
+            }
+            if(j != i && dist <= max[j]) {
+              final KNNHeap hj = heaps[j] != null ? heaps[j] : (heaps[j] = DBIDUtil.newHeap(k));
+              max[j] = hj.insert(dist, ii);
+            }
+          }
+        }
+      }
+      // All pairs of this block have been seen now:
+      for(int i = bi; i < ei; i++) {
+        out.accept(ii.seek(i), heaps[i].toKNNList());
+        heaps[i] = null;
+      }
+    }
+  }
+}
@@ -23,6 +23,7 @@ package elki.database.query.knn;
 import elki.data.NumberVector;
 import elki.database.ids.*;
 import elki.database.query.distance.PrimitiveDistanceQuery;
+import elki.database.relation.PackedVectorRelation;
 import elki.database.relation.Relation;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
@@ -45,6 +46,11 @@ import elki.distance.minkowski.SquaredEuclideanDistance;
  * @param <O> relation object type
  */
 public class LinearScanEuclideanKNNByObject<O extends NumberVector> extends LinearScanPrimitiveKNNByObject<O> {
+  /**
+   * Number of candidates to process at once on packed storage.
+   */
+  private static final int BLOCKSIZE = 256;
+
   /**
    * Constructor.
    *
@@ -57,6 +63,9 @@ public class LinearScanEuclideanKNNByObject<O extends NumberVector> extends Line
 
   @Override
   public KNNList getKNN(O obj, int k) {
+    if(relation instanceof PackedVectorRelation) {
+      return getKNN((PackedVectorRelation) relation, obj.toArray(), k);
+    }
     final SquaredEuclideanDistance squared = SquaredEuclideanDistance.STATIC;
     final Relation<? extends O> relation = this.relation;
     final KNNHeap heap = DBIDUtil.newHeap(k);
@@ -67,4 +76,50 @@ public class LinearScanEuclideanKNNByObject<O extends NumberVector> extends Line
     }
     return heap.toKNNListSqrt();
   }
+
+  /**
+   * Scan packed storage directly, without materializing vector views.
+   * <p>
+   * Candidates are processed in blocks: cheap lower bounds are computed from
+   * precomputed norms and dot products, and only candidates that may enter the
+   * heap are refined with the exact distance.
+   *
+   * @param relation Packed relation
+   * @param obj Query vector
+   * @param k Number of neighbors
+   * @return kNN list
+   */
+  private static KNNList getKNN(PackedVectorRelation relation, double[] obj, int k) {
+    final KNNHeap heap = DBIDUtil.newHeap(k);
+    final DBIDArrayIter iter = relation.getDBIDs().iter();
+    final int size = relation.size();
+    final double qn = squaredNorm(obj);
+    final double[] lbs = new double[Math.min(BLOCKSIZE, size)];
+    double max = Double.POSITIVE_INFINITY;
+    for(int start = 0; start < size; start += BLOCKSIZE) {
+      final int end = Math.min(start + BLOCKSIZE, size);
+      relation.squaredEuclideanLowerBounds(start, end, obj, qn, lbs);
+      for(int i = start; i < end; i++) {
+        if(lbs[i - start] <= max) {
+          final double dist = relation.squaredEuclidean(i, obj);
+          max = dist <= max ? heap.insert(dist, iter.seek(i)) : max;
+        }
+      }
+    }
+    return heap.toKNNListSqrt();
+  }
+
+  /**
+   * Squared Euclidean norm of a vector.
+   *
+   * @param v Vector
+   * @return Squared norm
+   */
+  private static double squaredNorm(double[] v) {
+    double agg = 0.;
+    for(double x : v) {
+      agg += x * x;
+    }
+    return agg;
+  }
 }
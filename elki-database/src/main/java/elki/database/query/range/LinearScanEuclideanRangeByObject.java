@@ -21,10 +21,12 @@
 package elki.database.query.range;
 
 import elki.data.NumberVector;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.ModifiableDoubleDBIDList;
 import elki.database.query.LinearScanQuery;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.PackedVectorRelation;
 import elki.database.relation.Relation;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 
@@ -39,6 +41,11 @@ import elki.distance.minkowski.SquaredEuclideanDistance;
  * @param <O> relation object type
  */
 public class LinearScanEuclideanRangeByObject<O extends NumberVector> implements RangeSearcher<O>, LinearScanQuery {
+  /**
+   * Number of candidates to process at once on packed storage.
+   */
+  private static final int BLOCKSIZE = 256;
+
   /**
    * Relation to scan.
    */
@@ -60,6 +67,32 @@ public class LinearScanEuclideanRangeByObject<O extends NumberVector> implements
     final SquaredEuclideanDistance squared = SquaredEuclideanDistance.STATIC;
     float frange = Math.nextUp((float) range);
     final double sqrange = frange * frange;
+    if(relation instanceof PackedVectorRelation) {
+      // Scan packed storage directly, without materializing vector views.
+      final PackedVectorRelation packed = (PackedVectorRelation) relation;
+      // Candidates are pruned blockwise with cheap lower bounds first.
+      final double[] q = obj.toArray();
+      final DBIDArrayIter iter = packed.getDBIDs().iter();
+      final int size = packed.size();
+      double qn = 0.;
+      for(double x : q) {
+        qn += x * x;
+      }
+      final double[] lbs = new double[Math.min(BLOCKSIZE, size)];
+      for(int start = 0; start < size; start += BLOCKSIZE) {
+        final int end = Math.min(start + BLOCKSIZE, size);
+        packed.squaredEuclideanLowerBounds(start, end, q, qn, lbs);
+        for(int i = start; i < end; i++) {
+          if(lbs[i - start] <= sqrange) {
+            final double sqdistance = packed.squaredEuclidean(i, q);
+            if(sqdistance <= sqrange) {
+              result.add(Math.sqrt(sqdistance), iter.seek(i));
+            }
+          }
+        }
+      }
+      return result;
+    }
     for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
       final double sqdistance = squared.distance(obj, relation.get(iter));
       if(sqdistance <= sqrange) {
@@ -0,0 +1,499 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.relation;
+
+import elki.data.FloatVector;
+import elki.data.NumberVector;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDRef;
+import elki.utilities.datastructures.arraylike.ArrayAdapter;
+import elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Static relation of fixed-dimensional vectors, packed row by row into a single
+ * {@code double[]} (or {@code float[]} for {@link FloatVector} input).
+ * <p>
+ * This avoids the per-object overhead of individual vector objects and keeps
+ * the data contiguous in memory, which benefits linear scans. {@link #get}
+ * returns lightweight views into the shared array, which are only valid as
+ * long as the relation is; new vectors are produced with the original vector
+ * factory. Because the views are not instances of the original vector class,
+ * the relation is typed as {@link NumberVector}.
+ * <p>
+ * The total number of values is limited by the maximum Java array size.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @has - - - DoubleView
+ * @has - - - FloatView
+ */
+public class PackedVectorRelation implements Relation<NumberVector> {
+  /**
+   * Type information.
+   */
+  private final VectorFieldTypeInformation<NumberVector> type;
+
+  /**
+   * The DBIDs this is defined for.
+   */
+  private final DBIDRange ids;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Data storage, double precision, or {@code null}.
+   */
+  private final double[] data;
+
+  /**
+   * Data storage, single precision, or {@code null}.
+   */
+  private final float[] fdata;
+
+  /**
+   * Squared norms of the stored vectors, computed on demand.
+   */
+  private volatile double[] norms;
+
+  /**
+   * The relation name.
+   */
+  private String name;
+
+  /**
+   * Constructor.
+   *
+   * @param name Name
+   * @param vtype Type information of the input vectors
+   * @param ids IDs
+   */
+  public PackedVectorRelation(String name, VectorFieldTypeInformation<? extends NumberVector> vtype, DBIDRange ids) {
+    super();
+    this.name = name;
+    this.ids = ids;
+    this.dim = vtype.getDimensionality();
+    final long size = ids.size() * (long) dim;
+    if(size > Integer.MAX_VALUE - 8) {
+      throw new AbortException("Data set too large for packed storage: " + size + " values.");
+    }
+    if(FloatVector.class.equals(vtype.getRestrictionClass())) {
+      this.data = null;
+      this.fdata = new float[(int) size];
+    }
+    else {
+      this.data = new double[(int) size];
+      this.fdata = null;
+    }
+    this.type = new VectorFieldTypeInformation<>(new ViewFactory((NumberVector.Factory<?>) vtype.getFactory()), dim, getLabels(vtype), null);
+  }
+
+  /**
+   * Get the column labels of a type.
+   *
+   * @param vtype Vector type
+   * @return Labels, or {@code null}
+   */
+  private static String[] getLabels(VectorFieldTypeInformation<?> vtype) {
+    if(vtype.getLabel(0) == null) {
+      return null;
+    }
+    String[] labels = new String[vtype.getDimensionality()];
+    for(int i = 0; i < labels.length; i++) {
+      labels[i] = vtype.getLabel(i);
+    }
+    return labels;
+  }
+
+  /**
+   * Store a vector.
+   *
+   * @param id Object id
+   * @param vec Vector
+   */
+  public void set(DBIDRef id, NumberVector vec) {
+    assert vec.getDimensionality() == dim : "Dimensionality mismatch.";
+    final int off = ids.getOffset(id) * dim;
+    norms = null;
+    if(data != null) {
+      for(int d = 0; d < dim; d++) {
+        data[off + d] = vec.doubleValue(d);
+      }
+    }
+    else {
+      for(int d = 0; d < dim; d++) {
+        fdata[off + d] = vec.floatValue(d);
+      }
+    }
+  }
+
+  @Override
+  public NumberVector get(DBIDRef id) {
+    final int off = ids.getOffset(id) * dim;
+    return data != null ? new DoubleView(data, off, dim) : new FloatView(fdata, off, dim);
+  }
+
+  /**
+   * Squared Euclidean distance of a stored vector to a query vector, computed
+   * directly on the packed storage.
+   *
+   * @param offset Object offset in the DBID range
+   * @param q Query vector
+   * @return Squared Euclidean distance
+   */
+  public double squaredEuclidean(int offset, double[] q) {
+    assert q.length == dim : "Dimensionality mismatch.";
+    final int off = offset * dim;
+    double agg = 0.;
+    if(data != null) {
+      for(int d = 0; d < dim; d++) {
+        final double v = data[off + d] - q[d];
+        agg += v * v;
+      }
+    }
+    else {
+      for(int d = 0; d < dim; d++) {
+        final double v = fdata[off + d] - q[d];
+        agg += v * v;
+      }
+    }
+    return agg;
+  }
+
+  /**
+   * Get the squared Euclidean norms of all stored vectors, indexed by offset.
+   * <p>
+   * These are computed on first use, and must not be modified.
+   *
+   * @return Squared norms
+   */
+  public double[] squaredNorms() {
+    double[] n = norms;
+    if(n == null) {
+      n = new double[ids.size()];
+      for(int i = 0, off = 0; i < n.length; i++, off += dim) {
+        double agg = 0.;
+        if(data != null) {
+          for(int d = 0; d < dim; d++) {
+            final double v = data[off + d];
+            agg += v * v;
+          }
+        }
+        else {
+          for(int d = 0; d < dim; d++) {
+            final double v = fdata[off + d];
+            agg += v * v;
+          }
+        }
+        n[i] = agg;
+      }
+      norms = n;
+    }
+    return n;
+  }
+
+  /**
+   * Lower bounds of the squared Euclidean distances of a block of stored
+   * vectors to a query vector.
+   * <p>
+   * The distances are computed as \(\|x\|^2+\|q\|^2-2\langle x,q\rangle\)
+   * with precomputed norms, evaluating the dot products of four stored vectors at a
+   * time with independent accumulators. Because of cancellation, this is not
+   * exact; the maximum rounding error is subtracted, so the results are safe to
+   * use for pruning, and candidates must be refined with
+   * {@link #squaredEuclidean}.
+   *
+   * @param start First offset (inclusive)
+   * @param end Last offset (exclusive)
+   * @param q Query vector
+   * @param qn Squared norm of the query vector
+   * @param out Output array, at least {@code end - start} long
+   */
+  public void squaredEuclideanLowerBounds(int start, int end, double[] q, double qn, double[] out) {
+    assert q.length == dim : "Dimensionality mismatch.";
+    final double[] n = squaredNorms();
+    // Bound on the rounding error of the norms and dot products, relative to
+    // the sum of squared norms (with some safety margin):
+    final double tol = (2 * dim + 4) * 0x1p-52;
+    int i = start;
+    for(; i + 4 <= end; i += 4) {
+      final int o0 = i * dim, o1 = o0 + dim, o2 = o1 + dim, o3 = o2 + dim;
+      double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+      if(data != null) {
+        for(int d = 0; d < dim; d++) {
+          final double v = q[d];
+          s0 += data[o0 + d] * v;
+          s1 += data[o1 + d] * v;
+          s2 += data[o2 + d] * v;
+          s3 += data[o3 + d] * v;
+        }
+      }
+      else {
+        for(int d = 0; d < dim; d++) {
+          final double v = q[d];
+          s0 += fdata[o0 + d] * v;
+          s1 += fdata[o1 + d] * v;
+          s2 += fdata[o2 + d] * v;
+          s3 += fdata[o3 + d] * v;
+        }
+      }
+      final int j = i - start;
+      out[j] = lowerBound(n[i], qn, s0, tol);
+      out[j + 1] = lowerBound(n[i + 1], qn, s1, tol);
+      out[j + 2] = lowerBound(n[i + 2], qn, s2, tol);
+      out[j + 3] = lowerBound(n[i + 3], qn, s3, tol);
+    }
+    for(; i < end; i++) {
+      final int off = i * dim;
+      double s = 0.;
+      if(data != null) {
+        for(int d = 0; d < dim; d++) {
+          s += data[off + d] * q[d];
+        }
+      }
+      else {
+        for(int d = 0; d < dim; d++) {
+          s += fdata[off + d] * q[d];
+        }
+      }
+      out[i - start] = lowerBound(n[i], qn, s, tol);
+    }
+  }
+
+  /**
+   * Lower bound of a squared distance computed from norms and a dot product.
+   *
+   * @param xn Squared norm of the first vector
+   * @param qn Squared norm of the second vector
+   * @param dot Dot product
+   * @param tol Relative error tolerance
+   * @return Lower bound
+   */
+  private static double lowerBound(double xn, double qn, double dot, double tol) {
+    final double sum = xn + qn;
+    final double lb = sum - 2 * dot - tol * sum;
+    return lb > 0. ? lb : 0.;
+  }
+
+  @Override
+  public SimpleTypeInformation<NumberVector> getDataTypeInformation() {
+    return type;
+  }
+
+  @Override
+  public DBIDRange getDBIDs() {
+    return ids;
+  }
+
+  @Override
+  public DBIDIter iterDBIDs() {
+    return ids.iter();
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  @Override
+  public String getLongName() {
+    return name != null ? name : type.toString();
+  }
+
+  /**
+   * View of a vector stored in a shared double array.
+   *
+   * @author Erich Schubert
+   */
+  private static class DoubleView implements NumberVector {
+    /**
+     * Shared storage.
+     */
+    private final double[] data;
+
+    /**
+     * Offset and dimensionality.
+     */
+    private final int off, dim;
+
+    /**
+     * Constructor.
+     *
+     * @param data Shared storage
+     * @param off Offset
+     * @param dim Dimensionality
+     */
+    DoubleView(double[] data, int off, int dim) {
+      this.data = data;
+      this.off = off;
+      this.dim = dim;
+    }
+
+    @Override
+    public int getDimensionality() {
+      return dim;
+    }
+
+    @Override
+    public double doubleValue(int dimension) {
+      return data[off + dimension];
+    }
+
+    @Override
+    public long longValue(int dimension) {
+      return (long) data[off + dimension];
+    }
+
+    @Override
+    public double[] toArray() {
+      double[] ret = new double[dim];
+      System.arraycopy(data, off, ret, 0, dim);
+      return ret;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder(dim * 8);
+      for(int i = 0; i < dim; i++) {
+        buf.append(i > 0 ? ATTRIBUTE_SEPARATOR : "").append(data[off + i]);
+      }
+      return buf.toString();
+    }
+  }
+
+  /**
+   * View of a vector stored in a shared float array.
+   *
+   * @author Erich Schubert
+   */
+  private static class FloatView implements NumberVector {
+    /**
+     * Shared storage.
+     */
+    private final float[] data;
+
+    /**
+     * Offset and dimensionality.
+     */
+    private final int off, dim;
+
+    /**
+     * Constructor.
+     *
+     * @param data Shared storage
+     * @param off Offset
+     * @param dim Dimensionality
+     */
+    FloatView(float[] data, int off, int dim) {
+      this.data = data;
+      this.off = off;
+      this.dim = dim;
+    }
+
+    @Override
+    public int getDimensionality() {
+      return dim;
+    }
+
+    @Override
+    public double doubleValue(int dimension) {
+      return data[off + dimension];
+    }
+
+    @Override
+    public float floatValue(int dimension) {
+      return data[off + dimension];
+    }
+
+    @Override
+    public long longValue(int dimension) {
+      return (long) data[off + dimension];
+    }
+
+    @Override
+    public double[] toArray() {
+      double[] ret = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        ret[i] = data[off + i];
+      }
+      return ret;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder(dim * 8);
+      for(int i = 0; i < dim; i++) {
+        buf.append(i > 0 ? ATTRIBUTE_SEPARATOR : "").append(data[off + i]);
+      }
+      return buf.toString();
+    }
+  }
+
+  /**
+   * Factory exposing the views as plain number vectors, while new vectors are
+   * created by the original factory.
+   *
+   * @author Erich Schubert
+   */
+  private static class ViewFactory implements NumberVector.Factory<NumberVector> {
+    /**
+     * Factory of the input vectors.
+     */
+    private final NumberVector.Factory<?> inner;
+
+    /**
+     * Constructor.
+     *
+     * @param inner Factory of the input vectors
+     */
+    ViewFactory(NumberVector.Factory<?> inner) {
+      this.inner = inner;
+    }
+
+    @Override
+    public <A> NumberVector newFeatureVector(A array, ArrayAdapter<? extends Number, A> adapter) {
+      return inner.newFeatureVector(array, adapter);
+    }
+
+    @Override
+    public <A> NumberVector newNumberVector(A array, NumberArrayAdapter<?, ? super A> adapter) {
+      return inner.newNumberVector(array, adapter);
+    }
+
+    @Override
+    public ByteBufferSerializer<NumberVector> getDefaultSerializer() {
+      return null; // Not supported.
+    }
+
+    @Override
+    public Class<? super NumberVector> getRestrictionClass() {
+      return NumberVector.class;
+    }
+  }
+}
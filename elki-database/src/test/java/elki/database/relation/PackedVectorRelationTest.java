@@ -0,0 +1,126 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.relation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.ids.ModifiableDoubleDBIDList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.LinearScanEuclideanKNNByObject;
+import elki.database.query.range.RangeSearcher;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+
+/**
+ * Unit test for packed vector storage.
+ *
+ * @author Erich Schubert
+ */
+public class PackedVectorRelationTest {
+  @Test
+  public void testPacked() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[1000][];
+    for(int i = 0; i < data.length; i++) {
+      data[i] = new double[] { rnd.nextDouble(), rnd.nextDouble(), rnd.nextInt(10) };
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null, DataStoreFactory.HINT_DB | DataStoreFactory.HINT_PACKED);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    assertTrue("Relation not packed.", rel instanceof PackedVectorRelation);
+    assertEquals(3, RelationUtil.dimensionality(rel));
+
+    int i = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), i++) {
+      NumberVector v = rel.get(it);
+      for(int d = 0; d < 3; d++) {
+        assertEquals("Value mismatch.", data[i][d], v.doubleValue(d), 0.);
+      }
+    }
+
+    KNNSearcher<NumberVector> knnq = new QueryBuilder<>(rel, EuclideanDistance.STATIC).kNNByObject();
+    assertTrue("Unexpected query: " + knnq.getClass(), knnq instanceof LinearScanEuclideanKNNByObject);
+    RangeSearcher<NumberVector> rangeq = new QueryBuilder<>(rel, EuclideanDistance.STATIC).rangeByObject();
+    NumberVector q = rel.get(rel.iterDBIDs());
+    KNNList knn = knnq.getKNN(q, 10);
+    assertEquals(10, knn.size());
+    assertEquals("Query point not first.", 0., knn.iter().doubleValue(), 0.);
+    ModifiableDoubleDBIDList range = rangeq.getRange(q, knn.getKNNDistance(), DBIDUtil.newDistanceDBIDList());
+    assertTrue("Range query incomplete.", range.size() >= 10);
+    for(DoubleDBIDListIter it = knn.iter(); it.valid(); it.advance()) {
+      assertEquals("Distance mismatch.", EuclideanDistance.STATIC.distance(q, rel.get(it)), it.doubleValue(), 1e-15);
+    }
+  }
+
+  @Test
+  public void testLowerBounds() {
+    Random rnd = new Random(0L);
+    final int dim = 50;
+    double[][] data = new double[1003][dim];
+    for(int i = 0; i < data.length; i++) {
+      for(int d = 0; d < dim; d++) {
+        // Large offset, to provoke cancellation
+        data[i][d] = 1000. + rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null, DataStoreFactory.HINT_DB | DataStoreFactory.HINT_PACKED);
+    db.initialize();
+    Relation<NumberVector> vrel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    PackedVectorRelation rel = (PackedVectorRelation) vrel;
+    double[] q = data[17], lbs = new double[data.length];
+    double qn = 0.;
+    for(double v : q) {
+      qn += v * v;
+    }
+    rel.squaredEuclideanLowerBounds(0, data.length, q, qn, lbs);
+    for(int i = 0; i < data.length; i++) {
+      final double exact = rel.squaredEuclidean(i, q);
+      assertTrue("Not a lower bound at " + i + ": " + lbs[i] + " > " + exact, lbs[i] <= exact);
+      assertEquals("Bound too loose at " + i, exact, lbs[i], 1e-6 * qn);
+    }
+    // Compare the kNN to unpacked storage:
+    Database db2 = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db2.initialize();
+    Relation<NumberVector> rel2 = db2.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    NumberVector qv = rel.get(rel.getDBIDs().iter().seek(17));
+    KNNList knn = new QueryBuilder<>(rel, EuclideanDistance.STATIC).kNNByObject().getKNN(qv, 20);
+    KNNList knn2 = new QueryBuilder<>(rel2, EuclideanDistance.STATIC).kNNByObject().getKNN(qv, 20);
+    assertEquals(knn2.size(), knn.size());
+    for(DoubleDBIDListIter a = knn.iter(), b = knn2.iter(); a.valid(); a.advance(), b.advance()) {
+      assertEquals("Distance mismatch.", b.doubleValue(), a.doubleValue(), 0.);
+    }
+  }
+}
@@ -38,15 +38,15 @@ import elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-
 /**
  * Locality Sensitive Hashing.
  *
@@ -79,6 +79,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    */
   int numberOfBuckets;
 
+  /**
+   * Number of buckets to probe in each table.
+   */
+  int probes;
+
+  /**
+   * Build the hash tables in parallel.
+   */
+  boolean parallel;
+
   /**
    * Constructor.
    *
@@ -87,10 +97,25 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    * @param numberOfBuckets Number of buckets to use.
    */
   public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets) {
+    this(family, l, numberOfBuckets, 1, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of buckets to probe in each table (multi-probe LSH)
+   * @param parallel Build the hash tables in parallel
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes, boolean parallel) {
     super();
     this.family = family;
     this.l = l;
     this.numberOfBuckets = numberOfBuckets;
+    this.probes = probes;
+    this.parallel = parallel;
   }
 
   @Override
@@ -117,9 +142,20 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
 
     /**
-     * The actual table
+     * Indexed objects; buckets store offsets into this array.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Bucket boundaries of each table, of length {@code numberOfBuckets + 1}.
      */
-    ArrayList<Int2ObjectOpenHashMap<DBIDs>> hashtables;
+    int[][] offsets;
+
+    /**
+     * Bucket contents of each table: offsets into {@link #ids}, sorted by
+     * bucket, and ascending within each bucket.
+     */
+    int[][] members;
 
     /**
      * Number of buckets to use.
@@ -131,6 +167,7 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      *
      * @param relation Relation to index.
      * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
      */
     public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets) {
       super(relation);
@@ -141,57 +178,68 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     @Override
     public void initialize() {
       final int numhash = hashfunctions.size();
-      hashtables = new ArrayList<>(numhash);
-      for(int i = 0; i < numhash; i++) {
-        hashtables.add(new Int2ObjectOpenHashMap<DBIDs>(numberOfBuckets));
-      }
-
-      // TODO: We assume all hash functions have the same dimensionality.
-      double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", relation.size(), LOG) : null;
-      int expect = Math.max(2, (int) Math.ceil(relation.size() / (double) numberOfBuckets));
-      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-        V obj = relation.get(iter);
-        for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      offsets = new int[numhash][];
+      members = new int[numhash][];
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH tables", numhash, LOG) : null;
+      // Projections are not thread safe, so we parallelize over tables only.
+      ParallelExecutor.run(parallel ? ParallelExecutor.blocks(0, numhash, 1) : new int[] { 0, numhash }, (start, end) -> {
+        final int n = ids.size();
+        // TODO: We assume all hash functions have the same dimensionality.
+        double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+        int[] buckets = new int[n];
+        for(int i = start; i < end; i++) {
           final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur == null) {
-            table.put(bucket, DBIDUtil.deref(iter));
+          int[] offs = new int[numberOfBuckets + 1];
+          int j = 0;
+          for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), j++) {
+            // Reduce the (unbounded) hash code to the hash table size
+            final int bucket = buckets[j] = bucket(hashfunc.hashObject(relation.get(iter), buf));
+            ++offs[bucket];
           }
-          else if(cur.size() > 1) {
-            ((ModifiableDBIDs) cur).add(iter);
+          // Counting sort into a compact layout:
+          for(int b = 1; b < numberOfBuckets; b++) {
+            offs[b] += offs[b - 1];
           }
-          else {
-            ModifiableDBIDs newbuck = DBIDUtil.newArray(expect);
-            newbuck.addDBIDs(cur);
-            newbuck.add(iter);
-            table.put(bucket, newbuck);
+          offs[numberOfBuckets] = n;
+          int[] memb = new int[n];
+          for(j = n - 1; j >= 0; j--) {
+            memb[--offs[buckets[j]]] = j;
           }
+          offsets[i] = offs;
+          members[i] = memb;
+          LOG.incrementProcessed(progress);
         }
-        LOG.incrementProcessed(progress);
-      }
+      });
       LOG.ensureCompleted(progress);
       if(LOG.isStatistics()) {
         int min = Integer.MAX_VALUE, max = 0;
         for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          for(DBIDs set : table.values()) {
-            final int size = set.size();
-            min = size < min ? size : min;
-            max = size > max ? size : max;
+          final int[] offs = offsets[i];
+          for(int b = 0; b < numberOfBuckets; b++) {
+            final int size = offs[b + 1] - offs[b];
+            if(size > 0) {
+              min = size < min ? size : min;
+              max = size > max ? size : max;
+            }
           }
         }
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.min", min));
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.max", max));
-        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", hashtables.size()));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", numhash));
       }
     }
 
+    /**
+     * Reduce a hash code to the hash table size.
+     *
+     * @param hash Hash code
+     * @return Bucket number
+     */
+    private int bucket(int hash) {
+      return Math.floorMod(hash, numberOfBuckets);
+    }
+
     @Override
     public Logging getLogger() {
       return LOG;
@@ -212,28 +260,33 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     }
 
     /**
-     * Get the candidates: points which have at least one hash bucket in common.
+     * Get the candidates: points which have at least one hash bucket in common,
+     * including the additional buckets probed (multi-probe LSH).
      * 
      * @param obj Query object
      * @return Candidates
      */
     protected DBIDs getCandidates(V obj) {
       ModifiableDBIDs candidates = null;
-      final int numhash = hashtables.size();
+      final int numhash = hashfunctions.size();
       double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+      int[] hashes = new int[probes];
+      DBIDArrayIter it = ids.iter();
       for(int i = 0; i < numhash; i++) {
-        final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-        // Get the initial (unbounded) hash code:
-        int hash = hashfunc.hashObject(obj, buf);
-        // Reduce to hash table size
-        int bucket = hash % numberOfBuckets;
-        DBIDs cur = table.get(bucket);
-        if(cur != null) {
+        final int[] offs = offsets[i], memb = members[i];
+        final int np = hashfunctions.get(i).hashProbes(obj, buf, hashes);
+        for(int p = 0; p < np; p++) {
+          final int bucket = bucket(hashes[p]);
+          final int begin = offs[bucket], end = offs[bucket + 1];
+          if(begin == end) {
+            continue;
+          }
           if(candidates == null) {
-            candidates = DBIDUtil.newHashSet(cur.size() * numhash);
+            candidates = DBIDUtil.newHashSet((end - begin) * numhash);
+          }
+          for(int k = begin; k < end; k++) {
+            candidates.add(it.seek(memb[k]));
           }
-          candidates.addDBIDs(cur);
         }
       }
       return (candidates == null) ? DBIDUtil.EMPTYDBIDS : candidates;
@@ -320,6 +373,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     public static final OptionID BUCKETS_ID = new OptionID("lsh.buckets", "Number of hash buckets to use.");
 
+    /**
+     * Number of buckets to probe in each table.
+     */
+    public static final OptionID PROBES_ID = new OptionID("lsh.probes", "Number of hash buckets to probe in each table (multi-probe LSH).");
+
+    /**
+     * Build the hash tables in parallel.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("lsh.parallel", "Build the hash tables with multiple threads.");
+
     /**
      * LSH hash function family to use.
      */
@@ -335,6 +398,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     int numberOfBuckets;
 
+    /**
+     * Number of buckets to probe in each table.
+     */
+    int probes;
+
+    /**
+     * Build the hash tables in parallel.
+     */
+    boolean parallel;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<LocalitySensitiveHashFunctionFamily<? super V>>(FAMILY_ID, LocalitySensitiveHashFunctionFamily.class) //
@@ -346,11 +419,15 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
           .setDefaultValue(7919) // Primes work best, apparently.
           .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
           .grab(config, x -> numberOfBuckets = x);
+      new IntParameter(PROBES_ID, 1) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> probes = x);
+      new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
     }
 
     @Override
     public InMemoryLSHIndex<V> make() {
-      return new InMemoryLSHIndex<>(family, l, numberOfBuckets);
+      return new InMemoryLSHIndex<>(family, l, numberOfBuckets, probes, parallel);
     }
   }
 }
@@ -81,6 +81,23 @@ public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHas
     return hashValue;
   }
 
+  @Override
+  public int hashProbes(NumberVector obj, double[] buf, int[] probes) {
+    final int hash = probes[0] = hashObject(obj, buf);
+    // Flipping bits of projections close to the hyperplane first.
+    double[] scores = new double[Math.min(buf.length, 32)];
+    for(int i = 0; i < scores.length; i++) {
+      scores[i] = buf[i] * buf[i];
+    }
+    return PerturbationSequence.generate(scores, false, (set, size) -> {
+      int h = hash;
+      for(int j = 0; j < size; j++) {
+        h ^= 1 << set[j];
+      }
+      return h;
+    }, probes, 1);
+  }
+
   @Override
   public int getNumberOfProjections() {
     return projection.getOutputDimensionality();
@@ -46,6 +46,23 @@ public interface LocalitySensitiveHashFunction<V> {
    */
   int hashObject(V obj, double[] buf);
 
+  /**
+   * Compute the hash values of the buckets to probe for an object (multi-probe
+   * LSH). The first value is the hash value of the object itself, followed by
+   * the hash values of nearby buckets, most promising first.
+   * <p>
+   * The default implementation only probes the object's own bucket.
+   *
+   * @param obj Object to hash
+   * @param buf Buffer, sized according to the number of projections.
+   * @param probes Output array; its length is the maximum number of probes
+   * @return Number of probes generated
+   */
+  default int hashProbes(V obj, double[] buf, int[] probes) {
+    probes[0] = hashObject(obj, buf);
+    return 1;
+  }
+
   /**
    * Get the number of projections performed.
    *
@@ -118,6 +118,32 @@ public class MultipleProjectionsLocalitySensitiveHashFunction implements Localit
     return fastModPrime(t1sum);
   }
 
+  @Override
+  public int hashProbes(NumberVector vec, double[] buf, int[] probes) {
+    projection.project(vec, buf);
+    final int num = shift.length;
+    // Perturbation 2i moves projection i down, 2i+1 moves it up one bin.
+    double[] scores = new double[num << 1];
+    long t1sum = 0L;
+    for(int i = 0; i < num; i++) {
+      final double v = (buf[i] + shift[i]) * iwidth, a = Math.floor(v);
+      final double f = v - a;
+      scores[i << 1] = f * f;
+      scores[(i << 1) + 1] = (1 - f) * (1 - f);
+      t1sum += (randoms1[i] & MASK32) * (int) a; // unsigned math!
+    }
+    probes[0] = fastModPrime(t1sum);
+    final long base = t1sum;
+    return PerturbationSequence.generate(scores, true, (set, size) -> {
+      long sum = base;
+      for(int j = 0; j < size; j++) {
+        final long r = randoms1[set[j] >>> 1] & MASK32;
+        sum += (set[j] & 1) == 0 ? -r : r;
+      }
+      return fastModPrime(sum);
+    }, probes, 1);
+  }
+
   /**
    * Fast modulo operation for the largest unsigned integer prime.
    *
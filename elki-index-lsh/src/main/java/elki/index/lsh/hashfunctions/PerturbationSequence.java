@@ -0,0 +1,152 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.lsh.hashfunctions;
+
+import java.util.Arrays;
+
+import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
+import elki.utilities.documentation.Reference;
+
+/**
+ * Query-directed probing sequence for multi-probe LSH.
+ * <p>
+ * Each hash function offers a number of elementary perturbations (for example
+ * moving one projection to the neighboring bin), with a score that is lower
+ * for perturbations more likely to lead to neighbors. Perturbation sets are
+ * generated in order of increasing total score, using the shift and expand
+ * operations on a heap.
+ * <p>
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br>
+ * Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity
+ * Search<br>
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+    title = "Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity Search", //
+    booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)", //
+    url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf", //
+    bibkey = "DBLP:conf/vldb/LvJWCL07")
+public final class PerturbationSequence {
+  /**
+   * Private constructor. Static methods only.
+   */
+  private PerturbationSequence() {
+    // Do not use.
+  }
+
+  /**
+   * Hash value of a perturbed query.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface Hasher {
+    /**
+     * Compute the hash value after applying a set of perturbations.
+     *
+     * @param set Perturbations to apply
+     * @param size Number of perturbations in the set
+     * @return Hash value
+     */
+    int hash(int[] set, int size);
+  }
+
+  /**
+   * Generate the hash values of perturbed queries, in order of increasing
+   * score of the perturbation sets.
+   *
+   * @param scores Scores of the elementary perturbations, lower is better;
+   *        will be sorted
+   * @param paired If true, perturbations {@code 2i} and {@code 2i+1} modify
+   *        the same projection, and are not combined
+   * @param hasher Hash function for perturbation sets
+   * @param probes Output array
+   * @param start First position in the output array to fill
+   * @return Position after the last value filled
+   */
+  public static int generate(double[] scores, boolean paired, Hasher hasher, int[] probes, int start) {
+    final int n = scores.length;
+    if(n == 0 || start >= probes.length) {
+      return start;
+    }
+    int[] order = new int[n];
+    for(int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    DoubleIntegerArrayQuickSort.sort(scores, order, n);
+    // Sets contain positions in the sorted order, ascending.
+    DoubleObjectMinHeap<int[]> heap = new DoubleObjectMinHeap<>();
+    heap.add(scores[0], new int[] { 0 });
+    int[] buf = new int[Math.min(n, 32)];
+    int pos = start;
+    while(pos < probes.length && !heap.isEmpty()) {
+      final double score = heap.peekKey();
+      final int[] set = heap.peekValue();
+      heap.poll();
+      final int len = set.length, last = set[len - 1];
+      if(last + 1 < n) {
+        int[] shifted = set.clone();
+        shifted[len - 1] = last + 1;
+        heap.add(score - scores[last] + scores[last + 1], shifted);
+        int[] expanded = Arrays.copyOf(set, len + 1);
+        expanded[len] = last + 1;
+        heap.add(score + scores[last + 1], expanded);
+      }
+      if(buf.length < len) {
+        buf = new int[len];
+      }
+      if(translate(set, order, paired, buf)) {
+        probes[pos++] = hasher.hash(buf, len);
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Translate a set of sorted positions into perturbations, and check that no
+   * projection is perturbed twice.
+   *
+   * @param set Set of positions in the sorted order
+   * @param order Perturbations in sorted order
+   * @param paired Whether perturbations are paired
+   * @param buf Output buffer
+   * @return {@code true} if the set is valid
+   */
+  private static boolean translate(int[] set, int[] order, boolean paired, int[] buf) {
+    for(int i = 0; i < set.length; i++) {
+      final int p = buf[i] = order[set[i]];
+      if(paired) {
+        for(int j = 0; j < i; j++) {
+          if((buf[j] >>> 1) == (p >>> 1)) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+}
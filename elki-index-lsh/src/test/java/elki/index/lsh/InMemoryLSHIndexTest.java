@@ -0,0 +1,146 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.lsh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.AbstractDatabaseConnection;
+import elki.datasource.filter.FixedDBIDsFilter;
+import elki.distance.CosineDistance;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.lsh.hashfamilies.CosineHashFunctionFamily;
+import elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import elki.parallel.ParallelismRule;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the {@link InMemoryLSHIndex}, with multi-probe queries.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class InMemoryLSHIndexTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
+  @Test
+  public void testMultiProbe() {
+    double single = cosineRecall(1, 1, false), multi = cosineRecall(1, 8, false);
+    assertTrue("Multi-probe did not improve recall: " + single + " " + multi, multi > single);
+    assertTrue("Recall too low: " + multi, multi > 0.99);
+  }
+
+  @Test
+  public void testMultiProbeEuclidean() {
+    double single = euclideanRecall(1), multi = euclideanRecall(8);
+    assertTrue("Multi-probe did not improve recall: " + single + " " + multi, multi > single);
+    assertTrue("Recall too low: " + multi, multi > 0.9);
+  }
+
+  @Test
+  public void testParallel() {
+    double serial = cosineRecall(8, 8, false);
+    parallelism.set(4);
+    assertEquals("Parallel build differs.", serial, cosineRecall(8, 8, true), 0.);
+  }
+
+  /**
+   * Recall of a cosine LSH index.
+   *
+   * @param l Number of hash tables
+   * @param probes Number of buckets to probe
+   * @param parallel Build the tables in parallel
+   * @return Recall
+   */
+  private static double cosineRecall(int l, int probes, boolean parallel) {
+    return recall(new ELKIBuilder<>(InMemoryLSHIndex.class) //
+        .with(InMemoryLSHIndex.Par.FAMILY_ID, CosineHashFunctionFamily.class) //
+        .with(CosineHashFunctionFamily.Par.RANDOM_ID, 0L) //
+        .with(CosineHashFunctionFamily.Par.NUMPROJ_ID, 16) //
+        .with(InMemoryLSHIndex.Par.L_ID, l) //
+        .with(InMemoryLSHIndex.Par.PROBES_ID, probes) //
+        .with(InMemoryLSHIndex.Par.PARALLEL_ID, parallel) //
+        .build(), CosineDistance.STATIC);
+  }
+
+  /**
+   * Recall of a Euclidean LSH index with a single table.
+   *
+   * @param probes Number of buckets to probe
+   * @return Recall
+   */
+  private static double euclideanRecall(int probes) {
+    return recall(new ELKIBuilder<>(InMemoryLSHIndex.class) //
+        .with(InMemoryLSHIndex.Par.FAMILY_ID, EuclideanHashFunctionFamily.class) //
+        .with(EuclideanHashFunctionFamily.Par.RANDOM_ID, 0L) //
+        .with(EuclideanHashFunctionFamily.Par.WIDTH_ID, 4.) //
+        .with(EuclideanHashFunctionFamily.Par.NUMPROJ_ID, 4) //
+        .with(InMemoryLSHIndex.Par.L_ID, 1) //
+        .with(InMemoryLSHIndex.Par.PROBES_ID, probes) //
+        .build(), EuclideanDistance.STATIC);
+  }
+
+  /**
+   * Compare the kNN of every object to a linear scan.
+   *
+   * @param factory Index factory
+   * @param distance Distance function
+   * @return Recall
+   */
+  private static double recall(InMemoryLSHIndex<?> factory, Distance<? super DoubleVector> distance) {
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0)) //
+        .addParameter(StaticArrayDatabase.Par.INDEX_ID, factory);
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/outlier-axis-subspaces-6d.ascii", 1345, inputparams);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    final int k = 10;
+    KNNSearcher<DoubleVector> knnq = new QueryBuilder<>(relation, distance).cheapOnly().kNNByObject(k);
+    assertTrue(knnq instanceof InMemoryLSHIndex.Instance.LSHKNNQuery);
+    KNNSearcher<DBIDRef> exact = new QueryBuilder<>(relation, distance).linearOnly().kNNByDBID(k);
+    int hits = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList approx = knnq.getKNN(relation.get(it), k);
+      double kdist = exact.getKNN(it, k).getKNNDistance();
+      for(DoubleDBIDListIter r = approx.iter(); r.valid(); r.advance()) {
+        hits += r.doubleValue() <= kdist ? 1 : 0;
+      }
+    }
+    return hits / (double) (k * relation.size());
+  }
+}
@@ -21,6 +21,7 @@
 package elki.index.lsh.hashfamilies;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 import org.junit.Test;
 
@@ -54,6 +55,21 @@ public class CosineHashFunctionFamilyTest extends AbstractSimpleAlgorithmTest {
     assertEquals(1, hashFunction.hashObject(DoubleVector.wrap(new double[] { 1, 1, 1, 1, 3 })));
   }
 
+  @Test
+  public void testHashProbes() {
+    LocalitySensitiveHashFunction<? super NumberVector> hashFunction = createCosineHashFunction(4);
+    DoubleVector vec = DoubleVector.wrap(new double[] { 1, 2, 3, 4, 5 });
+    int[] probes = new int[20];
+    // 4 bits allow for 16 different buckets only.
+    assertEquals(16, hashFunction.hashProbes(vec, new double[4], probes));
+    assertEquals(hashFunction.hashObject(vec), probes[0]);
+    for(int i = 0; i < 16; i++) {
+      for(int j = 0; j < i; j++) {
+        assertNotEquals("Bucket probed twice.", probes[j], probes[i]);
+      }
+    }
+  }
+
   private LocalitySensitiveHashFunction<? super NumberVector> createCosineHashFunction(int numberOfProjections) {
     return new ELKIBuilder<CosineHashFunctionFamily>(CosineHashFunctionFamily.class) //
         .with(CosineHashFunctionFamily.Par.RANDOM_ID, 4L) //
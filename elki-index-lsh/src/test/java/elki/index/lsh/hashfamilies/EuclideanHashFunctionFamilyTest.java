@@ -0,0 +1,62 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.lsh.hashfamilies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.MaterializedRelation;
+import elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the p-stable Euclidean hash functions.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class EuclideanHashFunctionFamilyTest {
+  @Test
+  public void testHashProbes() {
+    LocalitySensitiveHashFunction<? super NumberVector> hashFunction = new ELKIBuilder<>(EuclideanHashFunctionFamily.class) //
+        .with(EuclideanHashFunctionFamily.Par.RANDOM_ID, 4L) //
+        .with(EuclideanHashFunctionFamily.Par.WIDTH_ID, 2.) //
+        .with(EuclideanHashFunctionFamily.Par.NUMPROJ_ID, 3) //
+        .build().generateHashFunctions( //
+            new MaterializedRelation<>(null, VectorFieldTypeInformation.typeRequest(NumberVector.class, 5, 5), DBIDUtil.EMPTYDBIDS), //
+            1).get(0);
+    DoubleVector vec = DoubleVector.wrap(new double[] { 1, 2, 3, 4, 5 });
+    int[] probes = new int[10];
+    assertEquals(10, hashFunction.hashProbes(vec, new double[3], probes));
+    assertEquals("First probe is not the home bucket.", hashFunction.hashObject(vec), probes[0]);
+    for(int i = 0; i < probes.length; i++) {
+      for(int j = 0; j < i; j++) {
+        assertNotEquals("Bucket probed twice.", probes[j], probes[i]);
+      }
+    }
+  }
+}
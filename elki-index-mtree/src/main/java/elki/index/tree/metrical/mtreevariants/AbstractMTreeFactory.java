@@ -31,6 +31,8 @@ import elki.index.tree.metrical.mtreevariants.strategies.split.MTreeSplit;
 import elki.persistent.PageFileFactory;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameterization.TrackedParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -100,12 +102,22 @@ public abstract class AbstractMTreeFactory<O, N extends AbstractMTreeNode<O, N,
     public void configure(Parameterization config) {
       super.configure(config);
       settings = makeSettings();
+      // Track the tree parameters, to fingerprint persistent trees.
+      TrackParameters track = new TrackParameters(config);
       new ObjectParameter<Distance<O>>(DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
-          .grab(config, x -> settings.distanceFunction = x);
+          .grab(track, x -> settings.distanceFunction = x);
       new ObjectParameter<MTreeSplit<E, N>>(SPLIT_STRATEGY_ID, MTreeSplit.class, MLBDistSplit.class) //
-          .grab(config, x -> settings.splitStrategy = x);
+          .grab(track, x -> settings.splitStrategy = x);
       new ObjectParameter<MTreeInsert<E, N>>(INSERT_STRATEGY_ID, MTreeInsert.class, MinimumEnlargementInsert.class) //
-          .grab(config, x -> settings.insertStrategy = x);
+          .grab(track, x -> settings.insertStrategy = x);
+      StringBuilder buf = new StringBuilder(200);
+      for(TrackedParameter p : track.getAllParameters()) {
+        if(p.getParameter().isDefined()) {
+          buf.append(p.getParameter().getOptionID().getName()).append('=') //
+              .append(p.getParameter().getValueAsString()).append('\n');
+        }
+      }
+      settings.key = buf.toString();
     }
 
     protected abstract S makeSettings();
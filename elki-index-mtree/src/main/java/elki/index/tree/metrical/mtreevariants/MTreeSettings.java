@@ -49,4 +49,20 @@ public class MTreeSettings<O, N extends AbstractMTreeNode<O, N, E>, E extends MT
    * Insertion strategy.
    */
   protected MTreeInsert<E, N> insertStrategy;
+
+  /**
+   * Description of all tree settings, including the distance parameters, for
+   * the fingerprint of persistent trees. May be {@code null}.
+   */
+  protected String key;
+
+  /**
+   * Describe the tree settings, for fingerprinting persistent trees.
+   *
+   * @return Settings description
+   */
+  public String getKey() {
+    return key != null ? key : distanceFunction.getClass().getName() + "\n" //
+        + splitStrategy.getClass().getName() + "\n" + insertStrategy.getClass().getName();
+  }
 }
@@ -150,7 +150,16 @@ public class MTreeIndex<O> extends MTree<O> implements RangeIndex<O>, KNNIndex<O
   @Override
   public void initialize() {
     super.initialize();
+    if(initialized) {
+      return; // Reopened from a persistent page file.
+    }
     insertAll(relation.getDBIDs());
+    flush();
+  }
+
+  @Override
+  protected long computeFingerprint() {
+    return fingerprint(relation, getClass().getName() + "\n" + settings.getKey());
   }
 
   @Override
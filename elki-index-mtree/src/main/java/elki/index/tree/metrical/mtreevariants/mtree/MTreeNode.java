@@ -20,8 +20,14 @@
  */
 package elki.index.tree.metrical.mtreevariants.mtree;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 import elki.index.tree.metrical.mtreevariants.AbstractMTreeNode;
+import elki.index.tree.metrical.mtreevariants.MTreeDirectoryEntry;
 import elki.index.tree.metrical.mtreevariants.MTreeEntry;
+import elki.index.tree.metrical.mtreevariants.MTreeLeafEntry;
 
 /**
  * Represents a node in an M-Tree.
@@ -53,4 +59,40 @@ public class MTreeNode<O> extends AbstractMTreeNode<O, MTreeNode<O>, MTreeEntry>
   public MTreeNode(int capacity, boolean isLeaf) {
     super(capacity, isLeaf);
   }
-}
\ No newline at end of file
+
+  /**
+   * Writes the node header and the entries of this node to the specified
+   * stream.
+   *
+   * @param out the stream to write the object to
+   * @throws IOException Includes any I/O exceptions that may occur
+   */
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    super.writeExternal(out);
+    out.writeInt(entries.length);
+    for(int i = 0; i < numEntries; i++) {
+      ((MTreeEntry) entries[i]).writeExternal(out);
+    }
+  }
+
+  /**
+   * Reads the node header and the entries of this node from the specified
+   * stream.
+   *
+   * @param in the stream to read data from in order to restore the object
+   * @throws IOException if I/O errors occur
+   * @throws ClassNotFoundException If the class for an object being restored
+   *         cannot be found.
+   */
+  @Override
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    super.readExternal(in);
+    entries = new Object[in.readInt()];
+    for(int i = 0; i < numEntries; i++) {
+      MTreeEntry e = isLeaf() ? new MTreeLeafEntry() : new MTreeDirectoryEntry();
+      e.readExternal(in);
+      entries[i] = e;
+    }
+  }
+}
@@ -20,16 +20,33 @@
  */
 package elki.index.tree.metrical.mtreevariants.mtree;
 
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import org.junit.Test;
 
+import elki.algorithm.AbstractSimpleAlgorithmTest;
 import elki.data.DoubleVector;
+import elki.database.StaticArrayDatabase;
+import elki.datasource.AbstractDatabaseConnection;
+import elki.datasource.filter.FixedDBIDsFilter;
 import elki.index.AbstractIndexStructureTest;
+import elki.index.PagedIndexFactory;
 import elki.index.tree.metrical.mtreevariants.query.MTreeKNNByDBID;
 import elki.index.tree.metrical.mtreevariants.query.MTreeKNNByObject;
 import elki.index.tree.metrical.mtreevariants.query.MTreeRangeByDBID;
 import elki.index.tree.metrical.mtreevariants.query.MTreeRangeByObject;
+import elki.index.tree.metrical.mtreevariants.strategies.split.AbstractMTreeSplit;
+import elki.index.tree.metrical.mtreevariants.strategies.split.distribution.BalancedDistribution;
 import elki.persistent.AbstractPageFileFactory;
+import elki.persistent.BufferedPageFileFactory;
+import elki.persistent.PersistentPageFileFactory;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
  * Unit test for the M-tree.
@@ -48,4 +65,45 @@ public class MTreeTest extends AbstractIndexStructureTest {
     assertExactEuclidean(factory, MTreeKNNByObject.class, MTreeRangeByObject.class);
     assertSinglePoint(factory, MTreeKNNByDBID.class, MTreeRangeByDBID.class);
   }
+
+  /**
+   * Test {@link MTree} using a small LRU buffer on top of a disk-based page
+   * file, and reopening the tree from disk.
+   *
+   * @throws IOException on errors
+   */
+  @Test
+  public void testPersistent() throws IOException {
+    Path file = Files.createTempFile("ELKIUnitTest", null);
+    try {
+      MTreeFactory<DoubleVector> factory = new ELKIBuilder<>(MTreeFactory.class) //
+          .with(PagedIndexFactory.Par.PAGEFILE_ID, BufferedPageFileFactory.class) //
+          .with(BufferedPageFileFactory.Par.PAGEFILE_ID, PersistentPageFileFactory.class) //
+          .with(BufferedPageFileFactory.Par.BUFFER_SIZE_ID, 3000) //
+          .with(BufferedPageFileFactory.Par.POLICY_ID, BufferedPageFileFactory.Policy.LRU) //
+          .with(PersistentPageFileFactory.Par.FILE_ID, file) //
+          .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300).build();
+      assertExactEuclidean(factory, MTreeKNNByObject.class, MTreeRangeByObject.class);
+      // Second run reopens the existing file:
+      assertExactEuclidean(factory, MTreeKNNByObject.class, MTreeRangeByObject.class);
+      // Different nested settings must not reuse the file:
+      MTreeFactory<DoubleVector> other = new ELKIBuilder<>(MTreeFactory.class) //
+          .with(AbstractMTreeSplit.Par.DISTRIBUTOR_ID, BalancedDistribution.class) //
+          .with(PagedIndexFactory.Par.PAGEFILE_ID, PersistentPageFileFactory.class) //
+          .with(PersistentPageFileFactory.Par.FILE_ID, file) //
+          .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300).build();
+      try {
+        AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/hierarchical-3d2d1d.csv", 600, new ListParameterization() //
+            .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0)) //
+            .addParameter(StaticArrayDatabase.Par.INDEX_ID, other));
+        fail("Page file was reused with different settings.");
+      }
+      catch(AbortException e) {
+        // Expected.
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
 }
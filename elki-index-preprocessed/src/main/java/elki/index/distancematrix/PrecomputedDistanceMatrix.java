@@ -53,6 +53,9 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * in memory, requiring 8 * (n-1) * (n-2) bytes. Since Java has a size limit of
  * arrays of 31 bits (signed integer), we can store at most \(2^{16}\) objects
  * (precisely, 65536 objects) in a single array, which needs about 16 GB of RAM.
+ * <p>
+ * Subclasses may store the matrix elsewhere (e.g., in memory-mapped files) by
+ * overriding {@link #get} and {@link #getRow}; all offsets are {@code long}.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -87,7 +90,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
   /**
    * DBID range.
    */
-  private DBIDRange ids;
+  protected final DBIDRange ids;
 
   /**
    * Constructor.
@@ -114,7 +117,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     }
     DistanceQuery<O> distanceQuery = distance.instantiate(refrelation.get());
 
-    final int msize = triangleSize(ids.size());
+    final int msize = (int) triangleSize(ids.size());
     matrix = new double[msize];
     DBIDArrayIter ix = ids.iter(), iy = ids.iter();
 
@@ -140,8 +143,8 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param x Offset
    * @return Size of complete triangle
    */
-  protected static int triangleSize(int x) {
-    return (x * (x - 1)) >>> 1;
+  protected static long triangleSize(int x) {
+    return ((long) x * (x - 1)) >>> 1;
   }
 
   /**
@@ -151,10 +154,32 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param y Y parameter
    * @return Array offset
    */
-  private int getOffset(int x, int y) {
+  protected static long getOffset(int x, int y) {
     return (y < x) ? (triangleSize(x) + y) : (triangleSize(y) + x);
   }
 
+  /**
+   * Get a single matrix entry.
+   *
+   * @param pos Matrix offset, see {@link #getOffset}
+   * @return Distance value
+   */
+  protected double get(long pos) {
+    return matrix[(int) pos];
+  }
+
+  /**
+   * Copy a contiguous run of matrix entries.
+   *
+   * @param pos Matrix offset, see {@link #getOffset}
+   * @param dst Destination array
+   * @param off Destination offset
+   * @param len Number of values to copy
+   */
+  protected void getRow(long pos, double[] dst, int off, int len) {
+    System.arraycopy(matrix, (int) pos, dst, off, len);
+  }
+
   @Override
   public void logStatistics() {
     if(matrix != null) {
@@ -206,7 +231,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     @Override
     public double distance(DBIDRef id1, DBIDRef id2) {
       final int x = ids.getOffset(id1), y = ids.getOffset(id2);
-      return (x != y) ? matrix[getOffset(x, y)] : 0.;
+      return (x != y) ? get(getOffset(x, y)) : 0.;
     }
 
     @Override
@@ -236,9 +261,9 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       result.add(0., id);
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++, pos++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -247,7 +272,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1, size = ids.size(); y < size; pos += y++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -274,16 +299,16 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       double max = Double.POSITIVE_INFINITY;
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++, pos++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         max = dist <= max ? heap.insert(dist, it.seek(y)) : max;
       }
       assert (pos == triangleSize(x + 1));
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1, size = ids.size(); y < size; pos += y++) {
-        final double dist = matrix[pos];
+        final double dist = get(pos);
         max = dist <= max ? heap.insert(dist, it.seek(y)) : max;
       }
       return heap.toKNNList();
@@ -336,7 +361,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       off = 0;
       threshold = Double.POSITIVE_INFINITY;
       int x = ids.getOffset(query);
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       // Initialize ids:
       idx[0] = x;
       for(int y = 0; y < x; y++) {
@@ -347,10 +372,10 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       }
       // Initialize distances:
       dists[0] = 0;
-      System.arraycopy(matrix, pos, dists, 1, x);
+      getRow(pos, dists, 1, x);
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1, size = dists.length; y < size; pos += y++) {
-        dists[y] = matrix[pos];
+        dists[y] = get(pos);
       }
       sorted = 1;
       return this;
@@ -158,7 +158,7 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> implements KNNIndex<
   @Override
   public void initialize() {
     if(storage != null) {
-      throw new UnsupportedOperationException("Preprocessor already ran.");
+      return; // Already preprocessed, or restored from a snapshot.
     }
     if(distanceQuery.getRelation().size() > 0) {
       preprocess();
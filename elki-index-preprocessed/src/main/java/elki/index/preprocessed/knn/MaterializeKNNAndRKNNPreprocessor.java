@@ -35,6 +35,7 @@ import elki.logging.progress.FiniteProgress;
 import elki.logging.progress.StepProgress;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Title;
+import elki.utilities.io.ByteBufferSerializer;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors and the reverse k
@@ -321,6 +322,16 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
       return new MaterializeKNNAndRKNNPreprocessor<>(relation, distance, k);
     }
 
+    /**
+     * Snapshots do not include the reverse neighbors.
+     *
+     * @return {@code null}
+     */
+    @Override
+    public ByteBufferSerializer<MaterializeKNNPreprocessor<O>> getSnapshotSerializer(Relation<O> relation) {
+      return null;
+    }
+
     /**
      * Parameterization class.
      *
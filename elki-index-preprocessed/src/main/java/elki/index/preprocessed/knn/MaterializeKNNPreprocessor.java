@@ -20,16 +20,21 @@
  */
 package elki.index.preprocessed.knn;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import javax.swing.event.EventListenerList;
 
 import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
-import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.BatchKNNSearcher;
 import elki.database.query.knn.PreprocessorKNNQuery;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DynamicIndex;
+import elki.index.SnapshotIndexFactory;
+import elki.index.SnapshotUtil;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.progress.StepProgress;
@@ -37,6 +42,8 @@ import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Title;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors (and their
@@ -64,7 +71,7 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   /**
    * KNNSearcher instance to use.
    */
-  protected final KNNSearcher<DBIDRef> knnQuery;
+  protected final BatchKNNSearcher knnQuery;
 
   /**
    * Holds the listener.
@@ -80,7 +87,7 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k) {
     super(relation, distance, k);
-    this.knnQuery = new QueryBuilder<>(distanceQuery).noCache().kNNByDBID(k);
+    this.knnQuery = new QueryBuilder<>(distanceQuery).noCache().kNNBatch(k);
     assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
   }
 
@@ -95,7 +102,7 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   public MaterializeKNNPreprocessor(Relation<O> relation, DistanceQuery<O> distanceQuery, int k, boolean noopt) {
     super(relation, distanceQuery, k);
     QueryBuilder<O> qb = new QueryBuilder<>(distanceQuery).noCache();
-    this.knnQuery = (noopt ? qb.cheapOnly() : qb).kNNByDBID(k);
+    this.knnQuery = (noopt ? qb.cheapOnly() : qb).kNNBatch(k);
     assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
   }
 
@@ -114,22 +121,10 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
     Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
-    // Try bulk
-    final boolean ismetric = getDistanceQuery().getDistance().isMetric();
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      if(ismetric && storage.get(iter) != null) {
-        log.incrementProcessed(progress);
-        continue; // Previously computed (duplicate point?)
-      }
-      KNNList knn = knnQuery.getKNN(iter, k);
-      storage.put(iter, knn);
-      if(ismetric) {
-        for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
-          storage.put(it, knn); // Reuse
-        }
-      }
+    knnQuery.getKNNBatch(ids, k, (id, knn) -> {
+      storage.put(id, knn);
       log.incrementProcessed(progress);
-    }
+    });
     log.ensureCompleted(progress);
     if(duration != null) {
       log.statistics(duration.end());
@@ -339,6 +334,94 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     return LOG;
   }
 
+  /**
+   * Serialize the materialized neighbors into a snapshot, storing objects as
+   * offsets into the relation.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  private static class SnapshotSerializer<O> implements ByteBufferSerializer<MaterializeKNNPreprocessor<O>> {
+    /**
+     * Factory for the restored preprocessor.
+     */
+    private final Factory<O> factory;
+
+    /**
+     * Relation indexed.
+     */
+    private final Relation<O> relation;
+
+    /**
+     * DBIDs of the relation.
+     */
+    private final DBIDRange ids;
+
+    /**
+     * Constructor.
+     *
+     * @param factory Factory for the restored preprocessor
+     * @param relation Relation indexed
+     */
+    SnapshotSerializer(Factory<O> factory, Relation<O> relation) {
+      this.factory = factory;
+      this.relation = relation;
+      this.ids = DBIDUtil.assertRange(relation.getDBIDs());
+    }
+
+    @Override
+    public MaterializeKNNPreprocessor<O> fromByteBuffer(ByteBuffer buffer) throws IOException {
+      MaterializeKNNPreprocessor<O> preproc = factory.instantiate(relation);
+      if(buffer.get() == 0) {
+        return preproc;
+      }
+      preproc.createStorage();
+      DBIDArrayIter it = ids.iter();
+      for(DBIDArrayIter id = ids.iter(); id.valid(); id.advance()) {
+        final int size = ByteArrayUtil.readUnsignedVarint(buffer);
+        KNNHeap heap = DBIDUtil.newHeap(preproc.k);
+        for(int i = 0; i < size; i++) {
+          heap.insert(buffer.getDouble(), it.seek(ByteArrayUtil.readUnsignedVarint(buffer)));
+        }
+        preproc.storage.put(id, heap.toKNNList());
+      }
+      return preproc;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, MaterializeKNNPreprocessor<O> preproc) throws IOException {
+      buffer.put((byte) (preproc.storage != null ? 1 : 0));
+      if(preproc.storage == null) {
+        return;
+      }
+      for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
+        KNNList knn = preproc.storage.get(id);
+        ByteArrayUtil.writeUnsignedVarint(buffer, knn.size());
+        for(DoubleDBIDListIter it = knn.iter(); it.valid(); it.advance()) {
+          buffer.putDouble(it.doubleValue());
+          ByteArrayUtil.writeUnsignedVarint(buffer, ids.getOffset(it));
+        }
+      }
+    }
+
+    @Override
+    public int getByteSize(MaterializeKNNPreprocessor<O> preproc) throws IOException {
+      long size = 1;
+      if(preproc.storage == null) {
+        return 1;
+      }
+      for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
+        KNNList knn = preproc.storage.get(id);
+        size += ByteArrayUtil.getUnsignedVarintSize(knn.size());
+        for(DoubleDBIDListIter it = knn.iter(); it.valid(); it.advance()) {
+          size += 8 + ByteArrayUtil.getUnsignedVarintSize(ids.getOffset(it));
+        }
+      }
+      return SnapshotUtil.checkedByteSize(size);
+    }
+  }
+
   /**
    * The parameterizable factory.
    *
@@ -350,7 +433,7 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    *
    * @param <O> The object type
    */
-  public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+  public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> implements SnapshotIndexFactory<O, MaterializeKNNPreprocessor<O>> {
     /**
      * Index factory.
      *
@@ -367,6 +450,11 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
       return instance;
     }
 
+    @Override
+    public ByteBufferSerializer<MaterializeKNNPreprocessor<O>> getSnapshotSerializer(Relation<O> relation) {
+      return new SnapshotSerializer<>(this, relation);
+    }
+
     /**
      * Parameterization class.
      *
@@ -20,10 +20,10 @@
  */
 package elki.index.preprocessed.knn;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import elki.database.datastore.DataStoreFactory;
-import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
@@ -34,7 +34,9 @@ import elki.logging.Logging;
 import elki.logging.progress.IndefiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
@@ -56,6 +58,11 @@ import elki.utilities.random.RandomFactory;
  * measures<br>
  * Proc. 20th Int. Conf. on World Wide Web (WWW'11)
  * <p>
+ * The neighbor heaps and join candidates are kept in primitive arrays. With
+ * the parallel option, the sampling and the local joins are performed for
+ * blocks of objects in multiple threads, and the heaps are updated under
+ * striped locks; the result then depends on the thread scheduling.
+ * <p>
  * TODO: collect and log some query statistics.
  *
  * @author Evelyn Kirner
@@ -74,6 +81,16 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    */
   private static final Logging LOG = Logging.getLogger(NNDescent.class);
 
+  /**
+   * Minimum number of objects per thread.
+   */
+  private static final int PARALLEL_MIN_BLOCK = 128;
+
+  /**
+   * Number of lock stripes, must be a power of two.
+   */
+  private static final int LOCK_STRIPES = 1 << 10;
+
   /**
    * Log prefix.
    */
@@ -105,9 +122,9 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
   private boolean noInitialNeighbors;
 
   /**
-   * store for neighbors
+   * Use multiple threads
    */
-  private WritableDataStore<KNNHeap> store;
+  private boolean parallel;
 
   /**
    * Constructor.
@@ -122,126 +139,100 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    * @param iterations Maximum number of iterations
    */
   public NNDescent(Relation<O> relation, Distance<? super O> distance, int k, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+    this(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param distance distance function
+   * @param k k
+   * @param rnd Random generator
+   * @param delta Delta threshold
+   * @param rho Rho threshold
+   * @param noInitialNeighbors Do not use initial neighbors
+   * @param iterations Maximum number of iterations
+   * @param parallel Use multiple threads
+   */
+  public NNDescent(Relation<O> relation, Distance<? super O> distance, int k, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations, boolean parallel) {
     super(relation, distance, k);
     this.rnd = rnd;
     this.delta = delta;
     this.rho = rho;
     this.noInitialNeighbors = noInitialNeighbors;
     this.iterations = iterations;
+    this.parallel = parallel;
   }
 
   @Override
   protected void preprocess() {
-    final DBIDs ids = relation.getDBIDs();
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
     final long starttime = System.currentTimeMillis();
     IndefiniteProgress progress = LOG.isVerbose() ? new IndefiniteProgress("KNNGraph iteration", LOG) : null;
 
     // to add query point itself in the end, internally (k-1) is used
     final int internal_k = k - 1;
-
-    // kNN store
-    store = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNHeap.class);
-    // store for new reverse neighbors
-    WritableDataStore<HashSetModifiableDBIDs> newReverseNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
-    // store for new reverse neighbors
-    WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
-    // Sample of new forward neighbors.
-    WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
-    // data structures for new and sampled new neighbors
-    WritableDataStore<HashSetModifiableDBIDs> flag = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
-
-    // Initialize data structures:
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      store.put(iditer, DBIDUtil.newHeap(internal_k));
-      newReverseNeighbors.put(iditer, DBIDUtil.newHashSet(internal_k));
-      oldReverseNeighbors.put(iditer, DBIDUtil.newHashSet(internal_k));
-    }
-
     // this variable is the sampling size
     final int items = (int) Math.ceil(rho * internal_k);
 
-    long counter_all = 0;
-
-    Random rand = rnd.getSingleThreadedRandom();
+    final Graph graph = new Graph(ids, internal_k, items << 1);
+    final int[] bounds = parallel ? ParallelExecutor.blocks(0, size, PARALLEL_MIN_BLOCK) : new int[] { 0, size };
+    final int numblocks = bounds.length - 1;
+    final long[] seeds = new long[numblocks];
+    final long[] counters = new long[numblocks], updates = new long[numblocks];
+    final Random rand = rnd.getSingleThreadedRandom();
 
+    long counter_all = 0;
     // initialize neighbors (depends on -setInitialNeighbors option)
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      // initialize sampled NN
-      ModifiableDBIDs sampleNew = DBIDUtil.randomSampleExcept(ids, iditer, items, rand);
-      sampleNewNeighbors.put(iditer, DBIDUtil.newHashSet(sampleNew));
-      // initialize RNN
-      ModifiableDBIDs sampleRev = DBIDUtil.randomSampleExcept(ids, iditer, items, rand);
-      newReverseNeighbors.put(iditer, DBIDUtil.newHashSet(sampleRev));
-      // initialize new neighbors
-      flag.put(iditer, DBIDUtil.newHashSet());
-      // initialize store
-      if(!noInitialNeighbors) {
-        HashSetModifiableDBIDs flags = flag.get(iditer);
-        for(DBIDIter siter = sampleNew.iter(); siter.valid(); siter.advance()) {
-          if(add(iditer, siter, distanceQuery.distance(iditer, siter))) {
-            flags.add(siter);
-          }
-        }
-        counter_all += sampleNew.size();
-      }
+    if(!noInitialNeighbors && internal_k > 0) {
+      nextSeeds(rand, seeds);
+      ParallelExecutor.run(bounds, (start, end) -> {
+        final int b = Arrays.binarySearch(bounds, start);
+        counters[b] = graph.initialize(start, end, items, new Random(seeds[b]));
+      });
+      counter_all += sum(counters);
     }
 
-    final int size = relation.size();
     double rate = 0.0;
     int iter = 0;
-
-    for(; iter < iterations; iter++) {
-      long counter = 0;
-
-      // iterate through dataset
-      for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-        // determine new and old neighbors
-        HashSetModifiableDBIDs newNeighbors = flag.get(iditer);
-        HashSetModifiableDBIDs oldNeighbors = DBIDUtil.newHashSet();
-        KNNHeap heap = store.get(iditer);
-        for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
-          if(!newNeighbors.contains(heapiter)) {
-            oldNeighbors.add(heapiter);
-          }
-        }
-
-        // Sampling
-        HashSetModifiableDBIDs sampleNew = sampleNewNeighbors.get(iditer);
-
-        HashSetModifiableDBIDs newRev = newReverseNeighbors.get(iditer);
-        newRev.removeDBIDs(sampleNew);
-        boundSize(newRev, items);
-
-        HashSetModifiableDBIDs oldRev = oldReverseNeighbors.get(iditer);
-        oldRev.removeDBIDs(oldNeighbors);
-        boundSize(oldRev, items);
-        counter += processNewNeighbors(flag, sampleNew, oldNeighbors, newRev, oldRev);
+    for(; iter < iterations && internal_k > 0; iter++) {
+      // Sample new and old neighbors, forward and reverse
+      graph.clearCandidates();
+      nextSeeds(rand, seeds);
+      final boolean random = iter == 0 && noInitialNeighbors;
+      ParallelExecutor.run(bounds, (start, end) -> {
+        final int b = Arrays.binarySearch(bounds, start);
+        updates[b] = graph.sampleCandidates(start, end, items, random, new Random(seeds[b]));
+      });
+      // t is the number of new neighbors found by the previous join
+      final long t = sum(updates);
+      rate = (double) t / (double) (internal_k * size);
+      if(LOG.isStatistics()) {
+        LOG.statistics(new DoubleStatistic(prefix + ".update-rate", rate));
       }
+      // Stop before joining, if the previous join brought too few updates
+      if(!random && rate < delta) {
+        LOG.verbose("KNNGraph terminated because update rate got smaller than delta.");
+        break;
+      }
+
+      // Local join of the candidates
+      ParallelExecutor.run(bounds, (start, end) -> {
+        final int b = Arrays.binarySearch(bounds, start);
+        counters[b] = graph.localJoin(start, end);
+      });
+      final long counter = sum(counters);
       counter_all += counter;
       if(LOG.isStatistics()) {
         LOG.statistics(new DoubleStatistic(prefix + ".scan-rate", counter_all * .5 / (size * (size - 1L))));
       }
 
-      // t is the number of new neighbors
-      int t = sampleNew(ids, sampleNewNeighbors, flag, items);
-
-      // calculate old and new reverse neighbors
-      clearAll(ids, newReverseNeighbors);
-      clearAll(ids, oldReverseNeighbors);
-      reverse(sampleNewNeighbors, newReverseNeighbors, oldReverseNeighbors);
-
-      rate = (double) t / (double) (internal_k * size);
-      if(LOG.isStatistics()) {
-        LOG.statistics(new DoubleStatistic(prefix + ".update-rate", rate));
-      }
       if(counter < delta * internal_k * size) {
         LOG.verbose("KNNGraph terminated because we performaned delta*k*size distance computations.");
         break;
       }
-      if(rate < delta) {
-        LOG.verbose("KNNGraph terminated because update rate got smaller than delta.");
-        break;
-      }
       LOG.incrementProcessed(progress);
     }
     if(LOG.isVerbose() && iter == iterations) {
@@ -250,13 +241,14 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     LOG.setCompleted(progress);
     // convert store to storage
     storage = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_DB, KNNList.class);
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+    DBIDArrayIter nbr = ids.iter();
+    for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
       KNNHeap tempHeap = DBIDUtil.newHeap(k);
       // Add query point and convert heap to list:
-      KNNHeap heap = store.get(iditer);
       tempHeap.insert(0, iditer);
-      for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
-        tempHeap.insert(heapiter.doubleValue(), heapiter);
+      final int i = iditer.getOffset();
+      for(int p = i * internal_k, e = p + graph.hsize[i]; p < e; p++) {
+        tempHeap.insert(graph.hdist[p], nbr.seek(graph.hidx[p]));
       }
       storage.put(iditer, tempHeap.toKNNList());
     }
@@ -267,191 +259,402 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
   }
 
   /**
-   * Clear (but reuse) all sets in the given storage.
-   * 
-   * @param ids Ids to process
-   * @param sets Sets to clear
+   * Draw new random seeds, one for each block.
+   *
+   * @param rand Random generator
+   * @param seeds Output array
    */
-  private void clearAll(DBIDs ids, WritableDataStore<HashSetModifiableDBIDs> sets) {
-    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
-      sets.get(it).clear();
+  private static void nextSeeds(Random rand, long[] seeds) {
+    for(int i = 0; i < seeds.length; i++) {
+      seeds[i] = rand.nextLong();
     }
   }
 
   /**
-   * Bound the size of a set by random sampling.
-   * 
-   * @param set Set to process
-   * @param items Maximum size
+   * Sum of an array.
+   *
+   * @param values Values
+   * @return Sum
    */
-  private void boundSize(HashSetModifiableDBIDs set, int items) {
-    if(set.size() > items) {
-      DBIDs sample = DBIDUtil.randomSample(set, items, rnd);
-      set.clear().addDBIDs(sample);
+  private static long sum(long[] values) {
+    long sum = 0;
+    for(long v : values) {
+      sum += v;
     }
+    return sum;
   }
 
   /**
-   * Process new neighbors.
-   * 
-   * This is a complex join, because we do not need to join old neighbors with
-   * old neighbors, and we have forward- and reverse neighbors each.
+   * Approximate kNN graph, stored in primitive arrays indexed by the offsets
+   * of the objects.
+   * <p>
+   * Each object has a bounded max-heap of neighbors, with a flag for
+   * neighbors not yet used in a local join, and bounded lists of new and old
+   * join candidates (forward and reverse neighbors). The heaps and candidate
+   * lists are modified under striped locks, so that blocks of objects can be
+   * processed by multiple threads.
    *
-   * @param flag Flags to mark new neighbors.
-   * @param newFwd New forward neighbors
-   * @param oldFwd Old forward neighbors
-   * @param newRev New reverse neighbors
-   * @param oldRev Old reverse neighbors
-   * @return Number of new neighbors
+   * @author Erich Schubert
    */
-  private int processNewNeighbors(WritableDataStore<HashSetModifiableDBIDs> flag, HashSetModifiableDBIDs newFwd, HashSetModifiableDBIDs oldFwd, HashSetModifiableDBIDs newRev, HashSetModifiableDBIDs oldRev) {
-    int counter = 0;
-    // nn_new
-    if(!newFwd.isEmpty()) {
-      for(DBIDIter sniter = newFwd.iter(); sniter.valid(); sniter.advance()) {
-        // nn_new X nn_new
-        for(DBIDIter niter2 = newFwd.iter(); niter2.valid(); niter2.advance()) {
-          if(DBIDUtil.compare(sniter, niter2) < 0) { // Only x < y.
-            addpair(flag, sniter, niter2);
-            counter++;
-          }
-        }
-        // nn_new X nn_old
-        for(DBIDMIter niter2 = oldFwd.iter(); niter2.valid(); niter2.advance()) {
-          if(DBIDUtil.equal(sniter, niter2)) {
-            continue;
+  private class Graph {
+    /**
+     * Object ids.
+     */
+    final ArrayDBIDs ids;
+
+    /**
+     * Heap size (k - 1, the object itself is added at the end).
+     */
+    final int kk;
+
+    /**
+     * Maximum number of candidates.
+     */
+    final int maxcand;
+
+    /**
+     * Neighbor distances, kk per object, in max-heap order.
+     */
+    final double[] hdist;
+
+    /**
+     * Neighbor offsets, kk per object.
+     */
+    final int[] hidx;
+
+    /**
+     * Flag for neighbors that were not yet joined.
+     */
+    final boolean[] hnew;
+
+    /**
+     * Number of neighbors of each object.
+     */
+    final int[] hsize;
+
+    /**
+     * Join candidates, maxcand per object.
+     */
+    final int[] newcand, oldcand;
+
+    /**
+     * Number of join candidates of each object.
+     */
+    final int[] newsize, oldsize;
+
+    /**
+     * Number of candidates offered to each object, for reservoir sampling.
+     */
+    final int[] newseen, oldseen;
+
+    /**
+     * Striped locks.
+     */
+    final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * Constructor.
+     *
+     * @param ids Object ids
+     * @param kk Number of neighbors
+     * @param maxcand Maximum number of join candidates
+     */
+    Graph(ArrayDBIDs ids, int kk, int maxcand) {
+      final int size = ids.size();
+      if((long) size * Math.max(kk, maxcand) > Integer.MAX_VALUE) {
+        throw new AbortException("Too many objects for NN-Descent with k=" + (kk + 1) + ": " + size);
+      }
+      this.ids = ids;
+      this.kk = kk;
+      this.maxcand = maxcand;
+      hdist = new double[size * kk];
+      hidx = new int[size * kk];
+      hnew = new boolean[size * kk];
+      hsize = new int[size];
+      newcand = new int[size * maxcand];
+      oldcand = new int[size * maxcand];
+      newsize = new int[size];
+      oldsize = new int[size];
+      newseen = new int[size];
+      oldseen = new int[size];
+      for(int i = 0; i < LOCK_STRIPES; i++) {
+        locks[i] = new Object();
+      }
+    }
+
+    /**
+     * Initialize the neighbors of a block of objects with random objects.
+     *
+     * @param start First object
+     * @param end End of the block (exclusive)
+     * @param items Number of neighbors to sample
+     * @param rand Random generator
+     * @return Number of distance computations
+     */
+    long initialize(int start, int end, int items, Random rand) {
+      final int size = ids.size(), n = Math.min(Math.min(items, kk), size - 1);
+      DBIDArrayIter a = ids.iter(), b = ids.iter();
+      long counter = 0;
+      for(int i = start; i < end; i++) {
+        a.seek(i);
+        while(hsize[i] < n) {
+          final int j = rand.nextInt(size);
+          if(j != i && !contains(i, j)) {
+            insert(i, distanceQuery.distance(a, b.seek(j)), j);
+            ++counter;
           }
-          addpair(flag, sniter, niter2);
-          counter++;
         }
       }
+      return counter;
+    }
+
+    /**
+     * Clear the join candidates of all objects.
+     */
+    void clearCandidates() {
+      Arrays.fill(newsize, 0);
+      Arrays.fill(oldsize, 0);
+      Arrays.fill(newseen, 0);
+      Arrays.fill(oldseen, 0);
     }
-    // rnn_new
-    if(!newRev.isEmpty()) {
-      for(DBIDIter nriter = newRev.iter(); nriter.valid(); nriter.advance()) {
-        // rnn_new X rnn_new
-        for(DBIDIter niter2 = newRev.iter(); niter2.valid(); niter2.advance()) {
-          if(DBIDUtil.compare(nriter, niter2) < 0) { // Only x < y
-            addpair(flag, nriter, niter2);
-            counter++;
+
+    /**
+     * Sample the join candidates of a block of objects: a sample of the new
+     * neighbors (which are then marked as old), and all old neighbors, each
+     * as forward and as reverse neighbors.
+     *
+     * @param start First object
+     * @param end End of the block (exclusive)
+     * @param items Maximum number of new neighbors to sample
+     * @param random Use random objects (no initial neighbors)
+     * @param rand Random generator
+     * @return Number of new neighbors sampled
+     */
+    long sampleCandidates(int start, int end, int items, boolean random, Random rand) {
+      final int size = ids.size();
+      final int[] buf = new int[Math.max(kk, items)];
+      long t = 0;
+      for(int i = start; i < end; i++) {
+        if(random) {
+          // Floyd's algorithm for a sample of distinct objects except i:
+          final int n = Math.min(items, size - 1);
+          for(int c = 0, m = size - 1 - n; c < n; c++, m++) {
+            int j = rand.nextInt(m + 1);
+            for(int p = 0; p < c; p++) {
+              if(buf[p] == j) {
+                j = m;
+                break;
+              }
+            }
+            buf[c] = j;
+            j = j < i ? j : j + 1;
+            addCandidate(newcand, newsize, newseen, i, j, rand);
+            addCandidate(newcand, newsize, newseen, j, i, rand);
           }
+          continue;
         }
-        // rnn_new X rnn_old
-        for(DBIDIter niter2 = oldRev.iter(); niter2.valid(); niter2.advance()) {
-          if(DBIDUtil.equal(nriter, niter2)) {
-            continue;
+        final int base = i * kk, n = hsize[i];
+        int numnew = 0;
+        for(int j = 0; j < n; j++) {
+          if(hnew[base + j]) {
+            buf[numnew++] = base + j;
           }
-          addpair(flag, nriter, niter2);
-          counter++;
+          else {
+            addCandidate(oldcand, oldsize, oldseen, i, hidx[base + j], rand);
+            addCandidate(oldcand, oldsize, oldseen, hidx[base + j], i, rand);
+          }
+        }
+        // Partial Fisher-Yates shuffle to sample the new neighbors:
+        final int sample = Math.min(numnew, items);
+        for(int j = 0; j < sample; j++) {
+          final int r = j + rand.nextInt(numnew - j), p = buf[r];
+          buf[r] = buf[j];
+          hnew[p] = false;
+          addCandidate(newcand, newsize, newseen, i, hidx[p], rand);
+          addCandidate(newcand, newsize, newseen, hidx[p], i, rand);
         }
+        t += sample;
       }
+      return t;
     }
 
-    // nn_new
-    if(!newFwd.isEmpty()) {
-      for(DBIDIter sniter2 = newFwd.iter(); sniter2.valid(); sniter2.advance()) {
-        // nn_new X rnn_old
-        for(DBIDIter niter2 = oldRev.iter(); niter2.valid(); niter2.advance()) {
-          if(!DBIDUtil.equal(sniter2, niter2)) {
-            addpair(flag, sniter2, niter2);
-            counter++;
+    /**
+     * Add a join candidate, using reservoir sampling if the candidate list is
+     * full.
+     *
+     * @param cand Candidate lists
+     * @param csize Candidate list sizes
+     * @param seen Number of candidates offered
+     * @param i Object
+     * @param j Candidate
+     * @param rand Random generator
+     * @return {@code true} if the candidate was not yet known
+     */
+    private boolean addCandidate(int[] cand, int[] csize, int[] seen, int i, int j, Random rand) {
+      final int base = i * maxcand;
+      synchronized(locks[i & (LOCK_STRIPES - 1)]) {
+        final int n = csize[i];
+        for(int p = base, e = base + n; p < e; p++) {
+          if(cand[p] == j) {
+            return false;
           }
         }
-        // nn_new X rnn_new
-        for(DBIDIter niter2 = newRev.iter(); niter2.valid(); niter2.advance()) {
-          if(DBIDUtil.compare(sniter2, niter2) < 0) {
-            addpair(flag, sniter2, niter2);
-            counter++;
+        final int s = seen[i]++;
+        if(n < maxcand) {
+          cand[base + n] = j;
+          csize[i] = n + 1;
+        }
+        else {
+          final int r = rand.nextInt(s + 1);
+          if(r < maxcand) {
+            cand[base + r] = j;
           }
         }
+        return true;
       }
     }
-    // nn_old
-    if(!newRev.isEmpty() && !oldFwd.isEmpty()) {
-      for(DBIDIter niter = oldFwd.iter(); niter.valid(); niter.advance()) {
-        // nn_old X rnn_new
-        for(DBIDIter niter2 = newRev.iter(); niter2.valid(); niter2.advance()) {
-          if(DBIDUtil.equal(niter, niter2)) {
-            continue;
+
+    /**
+     * Local join of the candidates of a block of objects: new candidates are
+     * joined with new and old candidates.
+     *
+     * @param start First object
+     * @param end End of the block (exclusive)
+     * @return Number of distance computations
+     */
+    long localJoin(int start, int end) {
+      DBIDArrayIter a = ids.iter(), b = ids.iter();
+      long counter = 0;
+      for(int i = start; i < end; i++) {
+        final int base = i * maxcand, nend = base + newsize[i], oend = base + oldsize[i];
+        for(int p = base; p < nend; p++) {
+          final int x = newcand[p];
+          a.seek(x);
+          // new X new
+          for(int q = p + 1; q < nend; q++) {
+            final int y = newcand[q];
+            if(x != y) {
+              addPair(x, y, distanceQuery.distance(a, b.seek(y)));
+              counter++;
+            }
+          }
+          // new X old
+          for(int q = base; q < oend; q++) {
+            final int y = oldcand[q];
+            if(x != y) {
+              addPair(x, y, distanceQuery.distance(a, b.seek(y)));
+              counter++;
+            }
           }
-          addpair(flag, niter, niter2);
-          counter++;
         }
       }
+      return counter;
     }
-    return counter;
-  }
 
-  /**
-   * Add cand to cur's heap neighbors with distance
-   *
-   * @param cur Current object
-   * @param cand Neighbor candidate
-   * @param distance Distance
-   * @return {@code true} if it was a new neighbor.
-   */
-  private boolean add(DBIDRef cur, DBIDRef cand, double distance) {
-    KNNHeap neighbors = store.get(cur);
-    if(neighbors.contains(cand)) {
-      return false;
+    /**
+     * Add a pair of objects as neighbors of each other.
+     *
+     * @param x First object
+     * @param y Second object
+     * @param d Distance
+     */
+    private void addPair(int x, int y, double d) {
+      insert(x, d, y);
+      insert(y, d, x);
     }
-    double newKDistance = neighbors.insert(distance, cand);
-    return (distance <= newKDistance);
-  }
 
-  private void addpair(WritableDataStore<HashSetModifiableDBIDs> newNeighbors, DBIDRef o1, DBIDRef o2) {
-    final double distance = distanceQuery.distance(o1, o2);
-    if(add(o1, o2, distance)) {
-      newNeighbors.get(o1).add(o2);
-    }
-    if(add(o2, o1, distance)) {
-      newNeighbors.get(o2).add(o1);
+    /**
+     * Test if an object is a neighbor.
+     *
+     * @param i Object
+     * @param j Candidate neighbor
+     * @return {@code true} if contained
+     */
+    private boolean contains(int i, int j) {
+      for(int p = i * kk, e = p + hsize[i]; p < e; p++) {
+        if(hidx[p] == j) {
+          return true;
+        }
+      }
+      return false;
     }
-  }
 
-  /**
-   * samples newNeighbors for every object
-   *
-   * @param ids All ids
-   * @param sampleNewNeighbors Output of sampled new neighbors
-   * @param newNeighborHash - new neighbors for every object
-   * @param items Number of items to collect
-   * @return Number of new neighbors
-   */
-  private int sampleNew(DBIDs ids, WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors, WritableDataStore<HashSetModifiableDBIDs> newNeighborHash, int items) {
-    int t = 0;
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      KNNHeap realNeighbors = store.get(iditer);
-      HashSetModifiableDBIDs newNeighbors = newNeighborHash.get(iditer);
-      HashSetModifiableDBIDs realNewNeighbors = sampleNewNeighbors.get(iditer).clear(); // Reuse
-      for(DoubleDBIDIter heapiter = realNeighbors.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
-        if(newNeighbors.contains(heapiter)) {
-          realNewNeighbors.add(heapiter);
-          t++;
+    /**
+     * Insert a neighbor into the heap of an object, flagged as new.
+     *
+     * @param i Object
+     * @param d Distance
+     * @param j Neighbor
+     * @return {@code true} if the neighbor was added
+     */
+    private boolean insert(int i, double d, int j) {
+      final int base = i * kk;
+      synchronized(locks[i & (LOCK_STRIPES - 1)]) {
+        final int n = hsize[i];
+        if(n == kk && d >= hdist[base]) {
+          return false;
         }
+        if(contains(i, j)) {
+          return false;
+        }
+        if(n < kk) { // Heap up
+          int pos = n;
+          while(pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if(hdist[base + parent] >= d) {
+              break;
+            }
+            move(base + parent, base + pos);
+            pos = parent;
+          }
+          set(base + pos, d, j);
+          hsize[i] = n + 1;
+          return true;
+        }
+        // Replace the top, heap down
+        int pos = 0;
+        while(true) {
+          int c = (pos << 1) + 1;
+          if(c >= kk) {
+            break;
+          }
+          if(c + 1 < kk && hdist[base + c + 1] > hdist[base + c]) {
+            c++;
+          }
+          if(hdist[base + c] <= d) {
+            break;
+          }
+          move(base + c, base + pos);
+          pos = c;
+        }
+        set(base + pos, d, j);
+        return true;
       }
-      boundSize(realNewNeighbors, items);
+    }
 
-      newNeighbors.removeDBIDs(realNewNeighbors);
-      newNeighborHash.put(iditer, newNeighbors);
+    /**
+     * Move a heap entry.
+     *
+     * @param from Source position
+     * @param to Target position
+     */
+    private void move(int from, int to) {
+      hdist[to] = hdist[from];
+      hidx[to] = hidx[from];
+      hnew[to] = hnew[from];
     }
-    return t;
-  }
 
-  /**
-   * calculates new and old neighbors for database
-   * 
-   * @param sampleNewHash new neighbors for every object
-   * @param newReverseNeighbors new reverse neighbors
-   * @param oldReverseNeighbors old reverse neighbors
-   */
-  private void reverse(WritableDataStore<HashSetModifiableDBIDs> sampleNewHash, WritableDataStore<HashSetModifiableDBIDs> newReverseNeighbors, WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors) {
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      KNNHeap heap = store.get(iditer);
-      HashSetDBIDs newNeighbors = sampleNewHash.get(iditer);
-      for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
-        (newNeighbors.contains(heapiter) ? newReverseNeighbors : oldReverseNeighbors).get(heapiter).add(iditer);
-      }
+    /**
+     * Set a heap entry, flagged as new.
+     *
+     * @param pos Position
+     * @param d Distance
+     * @param j Neighbor
+     */
+    private void set(int pos, double d, int j) {
+      hdist[pos] = d;
+      hidx[pos] = j;
+      hnew[pos] = true;
     }
   }
 
@@ -499,6 +702,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
      */
     private final int iterations;
 
+    /**
+     * Use multiple threads
+     */
+    private final boolean parallel;
+
     /**
      * Constructor.
      *
@@ -511,17 +719,34 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
      * @param iterations Maximum number of iterations
      */
     public Factory(int k, Distance<? super O> distance, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+      this(k, distance, rnd, delta, rho, noInitialNeighbors, iterations, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param k K
+     * @param distance distance function
+     * @param rnd Random generator
+     * @param delta Delta threshold
+     * @param rho Rho threshold
+     * @param noInitialNeighbors Do not use initial neighbors
+     * @param iterations Maximum number of iterations
+     * @param parallel Use multiple threads
+     */
+    public Factory(int k, Distance<? super O> distance, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations, boolean parallel) {
       super(k, distance);
       this.rnd = rnd;
       this.delta = delta;
       this.rho = rho;
       this.noInitialNeighbors = noInitialNeighbors;
       this.iterations = iterations;
+      this.parallel = parallel;
     }
 
     @Override
     public NNDescent<O> instantiate(Relation<O> relation) {
-      return new NNDescent<>(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations);
+      return new NNDescent<>(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations, parallel);
     }
 
     /**
@@ -559,6 +784,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
        */
       public static final OptionID ITER_ID = new OptionID("knngraph.maxiter", "maximum number of iterations");
 
+      /**
+       * Use multiple threads.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("knngraph.parallel", "Use multiple threads for the sampling and the local joins.");
+
       /**
        * Random generator
        */
@@ -584,6 +814,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
        */
       private int iterations;
 
+      /**
+       * Use multiple threads
+       */
+      private boolean parallel;
+
       @Override
       public void configure(Parameterization config) {
         super.configure(config);
@@ -598,11 +833,12 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
         new IntParameter(ITER_ID, 100) //
             .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
             .grab(config, x -> iterations = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
       }
 
       @Override
       public NNDescent.Factory<O> make() {
-        return new NNDescent.Factory<>(k, distance, rnd, delta, rho, noInitialNeighbors, iterations);
+        return new NNDescent.Factory<>(k, distance, rnd, delta, rho, noInitialNeighbors, iterations, parallel);
       }
     }
   }
@@ -22,16 +22,20 @@ package elki.index.preprocessed.knn;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 import org.junit.Test;
 
+import elki.algorithm.AbstractSimpleAlgorithmTest;
 import elki.data.DoubleVector;
 import elki.data.NumberVector;
 import elki.data.VectorUtil;
 import elki.data.type.TypeUtil;
+import elki.database.Database;
 import elki.database.HashmapDatabase;
 import elki.database.UpdatableDatabase;
 import elki.database.ids.*;
@@ -46,6 +50,7 @@ import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.result.Metadata;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.io.ByteBufferSerializer;
 
 /**
  * Test case to validate the dynamic updates of materialized kNN preprocessors.
@@ -121,6 +126,30 @@ public class MaterializedKNNPreprocessorTest {
     testKNNQueries(relation, lin_knn_query, preproc_knn_query, k);
   }
 
+  @Test
+  public void testSnapshot() throws IOException {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> distanceQuery = new QueryBuilder<>(relation, EuclideanDistance.STATIC).distanceQuery();
+
+    MaterializeKNNPreprocessor.Factory<DoubleVector> factory = //
+        new ELKIBuilder<MaterializeKNNPreprocessor.Factory<DoubleVector>>(MaterializeKNNPreprocessor.Factory.class) //
+            .with(MaterializeKNNPreprocessor.Factory.DISTANCE_FUNCTION_ID, distanceQuery.getDistance()) //
+            .with(MaterializeKNNPreprocessor.Factory.K_ID, k) //
+            .build();
+    MaterializeKNNPreprocessor<DoubleVector> preproc = factory.instantiate(relation);
+    preproc.initialize();
+    // Store and restore the preprocessor:
+    ByteBufferSerializer<MaterializeKNNPreprocessor<DoubleVector>> serializer = factory.getSnapshotSerializer(relation);
+    ByteBuffer buffer = ByteBuffer.allocate(serializer.getByteSize(preproc));
+    serializer.toByteBuffer(buffer, preproc);
+    assertFalse("Size estimate not exact.", buffer.hasRemaining());
+    buffer.flip();
+    MaterializeKNNPreprocessor<DoubleVector> restored = serializer.fromByteBuffer(buffer);
+    restored.initialize(); // Must not recompute.
+    testKNNQueries(relation, new LinearScanKNNByDBID<>(distanceQuery), restored.kNNByDBID(distanceQuery, k, 0), k);
+  }
+
   public static void testKNNQueries(Relation<DoubleVector> rep, KNNSearcher<DBIDRef> lin_knn_query, KNNSearcher<DBIDRef> preproc_knn_query, int k) {
     assertNotEquals("Preprocessor knn query class incorrect.", lin_knn_query.getClass(), preproc_knn_query.getClass());
     for(DBIDIter iter = rep.iterDBIDs(); iter.valid(); iter.advance()) {
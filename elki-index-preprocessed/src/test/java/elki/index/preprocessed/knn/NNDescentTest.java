@@ -20,22 +20,30 @@
  */
 package elki.index.preprocessed.knn;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Random;
+
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.algorithm.AbstractSimpleAlgorithmTest;
 import elki.data.DoubleVector;
 import elki.data.type.TypeUtil;
 import elki.database.Database;
-import elki.database.ids.DBIDRef;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.knn.LinearScanKNNByDBID;
 import elki.database.query.knn.LinearScanKNNByObject;
 import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
 import elki.distance.minkowski.EuclideanDistance;
+import elki.parallel.ParallelismRule;
 import elki.result.Metadata;
 import elki.utilities.ELKIBuilder;
 
@@ -46,6 +54,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class NNDescentTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   // the following values depend on the data set used!
   static String dataset = "elki/testdata/unittests/3clusters-and-noise-2d.csv";
 
@@ -84,8 +98,80 @@ public class NNDescentTest {
     assertFalse("Preprocessor knn query class incorrect.", preproc_knn_query instanceof LinearScanKNNByObject);
 
     // test queries
-    MaterializedKNNPreprocessorTest.testKNNQueries(relation, lin_knn_query, preproc_knn_query, k, 37);
+    MaterializedKNNPreprocessorTest.testKNNQueries(relation, lin_knn_query, preproc_knn_query, k, 0);
     // also test partial queries, forward only
-    MaterializedKNNPreprocessorTest.testKNNQueries(relation, lin_knn_query, preproc_knn_query, k / 2, 10);
+    MaterializedKNNPreprocessorTest.testKNNQueries(relation, lin_knn_query, preproc_knn_query, k / 2, 0);
+  }
+
+  @Test
+  public void testParallel() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> distanceQuery = new QueryBuilder<>(relation, EuclideanDistance.STATIC).distanceQuery();
+    KNNSearcher<DBIDRef> lin_knn_query = new LinearScanKNNByDBID<>(distanceQuery);
+
+    parallelism.set(4);
+    NNDescent<DoubleVector> preproc = new ELKIBuilder<NNDescent.Factory<DoubleVector>>(NNDescent.Factory.class) //
+        .with(NNDescent.Factory.DISTANCE_FUNCTION_ID, distanceQuery.getDistance()) //
+        .with(NNDescent.Factory.K_ID, k) //
+        .with(NNDescent.Factory.Par.SEED_ID, 1) //
+        .with(NNDescent.Factory.Par.DELTA_ID, 0.1) //
+        .with(NNDescent.Factory.Par.RHO_ID, 0.5) //
+        .with(NNDescent.Factory.Par.PARALLEL_ID) //
+        .build().instantiate(relation);
+    preproc.initialize();
+    KNNSearcher<DBIDRef> preproc_knn_query = preproc.kNNByDBID(distanceQuery, k, 0);
+    // The result depends on the thread scheduling, only check the recall:
+    int hits = 0;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList pre_knn = preproc_knn_query.getKNN(iter, k);
+      assertEquals("kNN size does not agree.", k, pre_knn.size());
+      double kdist = lin_knn_query.getKNN(iter, k).getKNNDistance();
+      for(DoubleDBIDListIter it = pre_knn.iter(); it.valid(); it.advance()) {
+        hits += it.doubleValue() <= kdist ? 1 : 0;
+      }
+    }
+    assertTrue("Recall too low: " + hits, hits >= 0.99 * k * shoulds);
+  }
+
+  /**
+   * Regression test: random initialization with k close to the data set
+   * size used to loop forever.
+   */
+  @Test(timeout = 20000)
+  public void testNoInitialNeighborsLargeK() {
+    assertSmallData(10, 10);
+    assertSmallData(100, 60);
+  }
+
+  /**
+   * Run NN-Descent with random initialization on a small random data set.
+   *
+   * @param n Data set size
+   * @param k Number of neighbors
+   */
+  private void assertSmallData(int n, int k) {
+    Random r = new Random(seed);
+    double[][] data = new double[n][2];
+    for(double[] row : data) {
+      row[0] = r.nextDouble();
+      row[1] = r.nextDouble();
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    NNDescent<DoubleVector> preproc = new ELKIBuilder<NNDescent.Factory<DoubleVector>>(NNDescent.Factory.class) //
+        .with(NNDescent.Factory.DISTANCE_FUNCTION_ID, EuclideanDistance.STATIC) //
+        .with(NNDescent.Factory.K_ID, k) //
+        .with(NNDescent.Factory.Par.SEED_ID, 1) //
+        .with(NNDescent.Factory.Par.RHO_ID, 1.) //
+        .with(NNDescent.Factory.Par.INITIAL_ID) //
+        .build().instantiate(relation);
+    preproc.initialize();
+    DistanceQuery<DoubleVector> distanceQuery = new QueryBuilder<>(relation, EuclideanDistance.STATIC).distanceQuery();
+    KNNSearcher<DBIDRef> preproc_knn_query = preproc.kNNByDBID(distanceQuery, k, 0);
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      assertEquals("kNN size does not agree.", k, preproc_knn_query.getKNN(iter, k).size());
+    }
   }
 }
@@ -222,6 +222,11 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
     super.initializeFromFile(header, file);
     // compute height
     this.height = computeHeight();
+    // The root MBR is not stored in the file.
+    N root = getNode(getRootID());
+    if(root != null && getRootEntry() instanceof SpatialDirectoryEntry) {
+      ((SpatialDirectoryEntry) getRootEntry()).setMBR(root.computeMBR());
+    }
 
     if(getLogger().isDebugging()) {
       getLogger().debugFine(new StringBuilder(100).append(getClass()) //
@@ -73,6 +73,7 @@ public abstract class FlatRStarTree extends AbstractRStarTree<FlatRStarTreeNode,
     for(int i = 1; i < nextPageID; i++) {
       root.addEntry(createNewDirectoryEntry(getNode(i)));
     }
+    ((SpatialDirectoryEntry) getRootEntry()).setMBR(root.computeMBR());
 
     if(LOG.isDebugging()) {
       LOG.debugFine("root: " + root + " with " + nextPageID + " leafNodes.");
@@ -0,0 +1,180 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.tree.spatial.rstarvariants.query;
+
+import java.util.function.BiConsumer;
+
+import elki.data.ModifiableHyperBoundingBox;
+import elki.data.spatial.SpatialComparable;
+import elki.database.ids.*;
+import elki.database.query.knn.BatchKNNSearcher;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.distance.SpatialPrimitiveDistance;
+import elki.index.tree.spatial.SpatialDirectoryEntry;
+import elki.index.tree.spatial.SpatialPointLeafEntry;
+import elki.index.tree.spatial.rstarvariants.AbstractRStarTree;
+import elki.index.tree.spatial.rstarvariants.AbstractRStarTreeNode;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+
+/**
+ * Batch kNN query for a spatial index.
+ * <p>
+ * For an all-kNN self-join, the entries of each leaf are used as a block of
+ * queries. The tree is searched best-first once per block, using the minimum
+ * distance of each page to the bounding box of the block, and the largest
+ * current kNN distance within the block for pruning.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @assoc - - - AbstractRStarTree
+ * @assoc - - - SpatialPrimitiveDistance
+ *
+ * @param <O> Object type
+ */
+public class RStarTreeBatchKNNSearcher<O extends SpatialComparable> implements BatchKNNSearcher {
+  /**
+   * The index to use
+   */
+  protected final AbstractRStarTree<?, ?, ?> tree;
+
+  /**
+   * Spatial primitive distance function.
+   */
+  protected final SpatialPrimitiveDistance<? super O> distance;
+
+  /**
+   * Relation we query.
+   */
+  protected Relation<? extends O> relation;
+
+  /**
+   * Searcher for single queries.
+   */
+  protected KNNSearcher<O> single;
+
+  /**
+   * Constructor.
+   *
+   * @param tree Index to use
+   * @param relation Data relation to query
+   * @param distance Distance function
+   * @param single Searcher for single queries
+   */
+  public RStarTreeBatchKNNSearcher(AbstractRStarTree<?, ?, ?> tree, Relation<? extends O> relation, SpatialPrimitiveDistance<? super O> distance, KNNSearcher<O> single) {
+    super();
+    this.tree = tree;
+    this.relation = relation;
+    this.distance = distance;
+    this.single = single;
+  }
+
+  @Override
+  public KNNList getKNN(DBIDRef id, int k) {
+    return single.getKNN(relation.get(id), k);
+  }
+
+  @Override
+  public void getKNNBatch(DBIDs queries, int k, BiConsumer<? super DBIDRef, ? super KNNList> out) {
+    if(queries.size() != relation.size() || queries.isEmpty()) { // Not a self-join
+      BatchKNNSearcher.super.getKNNBatch(queries, k, out);
+      return;
+    }
+    batchNode(tree.getRootID(), k, out, new DoubleIntegerMinHeap());
+  }
+
+  /**
+   * Process all leaves as query blocks.
+   *
+   * @param nodeID Current node
+   * @param k Number of neighbors
+   * @param out Output consumer
+   * @param pq Priority queue (reused)
+   */
+  private void batchNode(int nodeID, int k, BiConsumer<? super DBIDRef, ? super KNNList> out, DoubleIntegerMinHeap pq) {
+    AbstractRStarTreeNode<?, ?> node = tree.getNode(nodeID);
+    if(!node.isLeaf()) {
+      for(int i = 0; i < node.getNumEntries(); i++) {
+        batchNode(((SpatialDirectoryEntry) node.getEntry(i)).getPageID(), k, out, pq);
+      }
+      return;
+    }
+    final int size = node.getNumEntries();
+    SpatialPointLeafEntry[] queries = new SpatialPointLeafEntry[size];
+    ModifiableHyperBoundingBox mbr = null;
+    for(int i = 0; i < size; i++) {
+      queries[i] = (SpatialPointLeafEntry) node.getEntry(i);
+      if(mbr == null) {
+        mbr = new ModifiableHyperBoundingBox(queries[i]);
+      }
+      else {
+        mbr.extend(queries[i]);
+      }
+    }
+    KNNHeap[] heaps = new KNNHeap[size];
+    double[] kdist = new double[size];
+    for(int i = 0; i < size; i++) {
+      tree.statistics.countKNNQuery();
+      heaps[i] = DBIDUtil.newHeap(k);
+      kdist[i] = Double.POSITIVE_INFINITY;
+    }
+    // Best-first search for the entire block:
+    double maxdist = Double.POSITIVE_INFINITY;
+    pq.clear();
+    pq.add(0., tree.getRootID());
+    while(!pq.isEmpty()) {
+      if(pq.peekKey() > maxdist) {
+        break;
+      }
+      final AbstractRStarTreeNode<?, ?> cur = tree.getNode(pq.peekValue());
+      pq.poll(); // Remove from heap.
+      if(cur.isLeaf()) {
+        for(int j = 0; j < cur.getNumEntries(); j++) {
+          final SpatialPointLeafEntry cand = (SpatialPointLeafEntry) cur.getEntry(j);
+          for(int i = 0; i < size; i++) {
+            final double dist = distance.minDist(queries[i], cand);
+            tree.statistics.countDistanceCalculation();
+            if(dist <= kdist[i]) {
+              kdist[i] = heaps[i].insert(dist, cand.getDBID());
+            }
+          }
+        }
+        maxdist = 0.;
+        for(double d : kdist) {
+          maxdist = d > maxdist ? d : maxdist;
+        }
+        continue;
+      }
+      for(int j = 0; j < cur.getNumEntries(); j++) {
+        final SpatialDirectoryEntry entry = (SpatialDirectoryEntry) cur.getEntry(j);
+        final double dist = distance.minDist(entry, mbr);
+        tree.statistics.countDistanceCalculation();
+        if(dist <= maxdist) {
+          pq.add(dist, entry.getPageID());
+        }
+      }
+    }
+    for(int i = 0; i < size; i++) {
+      out.accept(queries[i].getDBID(), heaps[i].toKNNList());
+    }
+  }
+}
@@ -24,6 +24,7 @@ import elki.data.NumberVector;
 import elki.data.spatial.SpatialComparable;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.distance.SpatialDistanceQuery;
+import elki.database.query.knn.BatchKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
@@ -94,6 +95,19 @@ public final class RStarTreeUtil {
     return new RStarTreeKNNSearcher<>(tree, distanceQuery.getRelation(), df);
   }
 
+  /**
+   * Get an RTree batch knn query.
+   * 
+   * @param <O> Object type
+   * @param tree Tree to query
+   * @param distanceQuery distance query
+   * @param hints Optimizer hints
+   * @return Query object
+   */
+  public static <O extends SpatialComparable> BatchKNNSearcher getBatchKNNQuery(AbstractRStarTree<?, ?, ?> tree, SpatialDistanceQuery<O> distanceQuery, Object... hints) {
+    return new RStarTreeBatchKNNSearcher<>(tree, distanceQuery.getRelation(), distanceQuery.getDistance(), getKNNQuery(tree, distanceQuery, hints));
+  }
+
   /**
    * Get an RTree priority searcher.
    * 
@@ -31,6 +31,7 @@ import elki.database.ids.DBIDs;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.query.distance.SpatialDistanceQuery;
+import elki.database.query.knn.BatchKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
@@ -88,7 +89,16 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
   @Override
   public void initialize() {
     super.initialize();
+    if(initialized) {
+      return; // Reopened from a persistent page file.
+    }
     insertAll(relation.getDBIDs()); // Will check for actual bulk load!
+    flush();
+  }
+
+  @Override
+  protected long computeFingerprint() {
+    return fingerprint(relation, getClass().getName());
   }
 
   /**
@@ -162,6 +172,13 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
         RStarTreeUtil.getKNNQuery(this, (SpatialDistanceQuery<O>) distanceQuery, maxk, flags) : null;
   }
 
+  @Override
+  public BatchKNNSearcher kNNBatch(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    // Can we support this distance function - spatial distances only!
+    return distanceQuery.getRelation() == relation && distanceQuery instanceof SpatialDistanceQuery ? //
+        RStarTreeUtil.getBatchKNNQuery(this, (SpatialDistanceQuery<O>) distanceQuery, maxk, flags) : null;
+  }
+
   @Override
   public RangeSearcher<O> rangeByObject(DistanceQuery<O> distanceQuery, double maxradius, int flags) {
     // Can we support this distance function - spatial distances only!
@@ -20,7 +20,13 @@
  */
 package elki.index.tree.spatial.rstarvariants.rstar;
 
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.junit.Test;
 
@@ -30,16 +36,23 @@ import elki.database.Database;
 import elki.database.StaticArrayDatabase;
 import elki.database.query.knn.WrappedKNNDBIDByLookup;
 import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.datasource.AbstractDatabaseConnection;
+import elki.datasource.filter.FixedDBIDsFilter;
 import elki.index.AbstractIndexStructureTest;
+import elki.index.PagedIndexFactory;
 import elki.index.tree.spatial.rstarvariants.AbstractRStarTreeFactory;
 import elki.index.tree.spatial.rstarvariants.query.EuclideanRStarTreeDistancePrioritySearcher;
+import elki.index.tree.spatial.rstarvariants.query.RStarTreeBatchKNNSearcher;
 import elki.index.tree.spatial.rstarvariants.query.RStarTreeKNNSearcher;
 import elki.index.tree.spatial.rstarvariants.query.RStarTreeRangeSearcher;
 import elki.index.tree.spatial.rstarvariants.strategies.insert.ApproximativeLeastOverlapInsertionStrategy;
 import elki.persistent.AbstractPageFileFactory;
+import elki.persistent.BufferedPageFileFactory;
+import elki.persistent.PersistentPageFileFactory;
 import elki.result.Metadata;
 import elki.utilities.ELKIBuilder;
 import elki.utilities.datastructures.iterator.It;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -59,6 +72,7 @@ public class RStarTreeTest extends AbstractIndexStructureTest {
         .build();
     assertExactEuclidean(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, EuclideanRStarTreeDistancePrioritySearcher.class);
+    assertBatchKNNEuclidean(factory, RStarTreeBatchKNNSearcher.class);
     assertExactCosine(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
   }
@@ -77,10 +91,57 @@ public class RStarTreeTest extends AbstractIndexStructureTest {
         .build();
     assertExactEuclidean(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, EuclideanRStarTreeDistancePrioritySearcher.class);
+    assertBatchKNNEuclidean(factory, RStarTreeBatchKNNSearcher.class);
     assertExactCosine(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
   }
 
+  /**
+   * Test {@link RStarTree} using a small buffer on top of a disk-based page
+   * file, and reopening the tree from disk.
+   *
+   * @throws IOException on errors
+   */
+  @Test
+  public void testRStarTreePersistent() throws IOException {
+    Path file = Files.createTempFile("ELKIUnitTest", null);
+    try {
+      RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+          .with(PagedIndexFactory.Par.PAGEFILE_ID, BufferedPageFileFactory.class) //
+          .with(BufferedPageFileFactory.Par.PAGEFILE_ID, PersistentPageFileFactory.class) //
+          .with(BufferedPageFileFactory.Par.BUFFER_SIZE_ID, 3000) //
+          .with(BufferedPageFileFactory.Par.POLICY_ID, BufferedPageFileFactory.Policy.CLOCK) //
+          .with(PersistentPageFileFactory.Par.FILE_ID, file) //
+          .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+          .build();
+      assertExactEuclidean(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
+      // Second run reopens the existing file:
+      assertExactEuclidean(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
+      // The reopened tree must be fully usable:
+      ListParameterization inputparams = new ListParameterization() //
+          .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0)) //
+          .addParameter(StaticArrayDatabase.Par.INDEX_ID, factory);
+      Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/hierarchical-3d2d1d.csv", 600, inputparams);
+      It<RStarTreeIndex<?>> it = Metadata.hierarchyOf(db).iterDescendants().filter(RStarTreeIndex.class);
+      assertTrue("No R*-tree found?", it.valid());
+      it.get().getNode(it.get().getRootID()).integrityCheck(it.get());
+      assertNotNull(it.get().toString());
+      // Different object ids must not reuse the file:
+      try {
+        AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/hierarchical-3d2d1d.csv", 600, new ListParameterization() //
+            .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(1000)) //
+            .addParameter(StaticArrayDatabase.Par.INDEX_ID, factory));
+        fail("Stale page file was reused.");
+      }
+      catch(AbortException e) {
+        // Expected.
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+
   /**
    * Trigger some additional integrity checks on the tree.
    */
@@ -0,0 +1,967 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.hnsw;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import elki.data.type.TypeInformation;
+import elki.database.ids.*;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.index.DistancePriorityIndex;
+import elki.index.IndexFactory;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Hierarchical Navigable Small World (HNSW) graph for approximate nearest
+ * neighbor search.
+ * <p>
+ * Every object is assigned a random maximum level (with exponentially
+ * decreasing probability), and is linked to approximately nearest neighbors
+ * found by a best-first search on each level up to this level. Queries
+ * descend greedily through the upper levels, then perform a best-first
+ * search on the bottom level, which contains all objects. The size of the
+ * candidate set ({@code efConstruction}, {@code efSearch}) trades quality for
+ * run time.
+ * <p>
+ * The index only computes distances between objects, so it can be used with
+ * any distance function. It is, however, an approximate index: it will not be
+ * used if exact results are requested, and recall will usually be worse for
+ * non-metric distances.
+ * <p>
+ * The graph can be built with multiple threads; then the neighbor lists are
+ * modified under a per-object lock, and the result depends on the thread
+ * scheduling.
+ * <p>
+ * Reference:
+ * <p>
+ * Yu. A. Malkov, D. A. Yashunin<br>
+ * Efficient and Robust Approximate Nearest Neighbor Search Using Hierarchical
+ * Navigable Small World Graphs<br>
+ * IEEE Trans. Pattern Anal. Mach. Intell. 42(4)
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "Yu. A. Malkov, D. A. Yashunin", //
+    title = "Efficient and Robust Approximate Nearest Neighbor Search Using Hierarchical Navigable Small World Graphs", //
+    booktitle = "IEEE Trans. Pattern Anal. Mach. Intell. 42(4)", //
+    url = "https://doi.org/10.1109/TPAMI.2018.2889473", //
+    bibkey = "DBLP:journals/pami/MalkovY20")
+public class HNSW<O> implements DistancePriorityIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(HNSW.class);
+
+  /**
+   * Minimum number of objects per thread for parallel construction.
+   */
+  private static final int PARALLEL_MIN_BLOCK = 256;
+
+  /**
+   * Relation indexed.
+   */
+  Relation<O> relation;
+
+  /**
+   * Distance function
+   */
+  Distance<? super O> distance;
+
+  /**
+   * Distance query, bound to the relation
+   */
+  DistanceQuery<? super O> distq;
+
+  /**
+   * Number of neighbors per object and level (twice on the bottom level).
+   */
+  int m;
+
+  /**
+   * Candidate set size during construction.
+   */
+  int efConstruction;
+
+  /**
+   * Candidate set size during search.
+   */
+  int efSearch;
+
+  /**
+   * Random generator for the levels.
+   */
+  RandomFactory rng;
+
+  /**
+   * Build the graph with multiple threads.
+   */
+  boolean parallel;
+
+  /**
+   * Indexed object ids, the graph uses offsets into this array.
+   */
+  ArrayDBIDs ids;
+
+  /**
+   * Neighbor lists, {@code links[i][l]} for object i on level l. The first
+   * entry of each list is the number of neighbors.
+   */
+  int[][][] links;
+
+  /**
+   * Entry point of the search, an object of maximum level.
+   */
+  int entry = -1;
+
+  /**
+   * Maximum level.
+   */
+  int maxLevel = -1;
+
+  /**
+   * Number of distance computations.
+   */
+  long distComputations = 0L;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param distance Distance function
+   * @param m Number of neighbors per level
+   * @param efConstruction Candidate set size during construction
+   * @param efSearch Candidate set size during search
+   * @param rng Random generator
+   * @param parallel Build the graph with multiple threads
+   */
+  public HNSW(Relation<O> relation, Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory rng, boolean parallel) {
+    this.relation = relation;
+    this.distance = distance;
+    this.distq = distance.instantiate(relation);
+    this.m = m;
+    this.efConstruction = Math.max(efConstruction, m);
+    this.efSearch = efSearch;
+    this.rng = rng;
+    this.parallel = parallel;
+  }
+
+  @Override
+  public void initialize() {
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    links = new int[size][][];
+    if(size == 0) {
+      return;
+    }
+    // Draw the levels, with probability decreasing by a factor of m
+    final Random rand = rng.getSingleThreadedRandom();
+    final double mL = 1. / Math.log(m);
+    for(int i = 0; i < size; i++) {
+      final int level = (int) (-Math.log(1. - rand.nextDouble()) * mL);
+      final int[][] l = links[i] = new int[level + 1][];
+      l[0] = new int[(m << 1) + 1];
+      for(int j = 1; j <= level; j++) {
+        l[j] = new int[m + 1];
+      }
+    }
+    entry = 0;
+    maxLevel = links[0].length - 1;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building HNSW graph", size, LOG) : null;
+    LOG.incrementProcessed(prog);
+    if(parallel && size - 1 >= 2 * PARALLEL_MIN_BLOCK) {
+      final int[] bounds = ParallelExecutor.blocks(1, size, PARALLEL_MIN_BLOCK);
+      final long[] counts = new long[bounds.length - 1];
+      ParallelExecutor.run(bounds, (start, end) -> {
+        Inserter ins = new Inserter();
+        for(int i = start; i < end; i++) {
+          ins.insert(i);
+          LOG.incrementProcessed(prog);
+        }
+        counts[Arrays.binarySearch(bounds, start)] = ins.distcount;
+      });
+      for(long c : counts) {
+        distComputations += c;
+      }
+    }
+    else {
+      Inserter ins = new Inserter();
+      for(int i = 1; i < size; i++) {
+        ins.insert(i);
+        LOG.incrementProcessed(prog);
+      }
+      distComputations += ins.distcount;
+    }
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Graph construction state of a single thread.
+   *
+   * @author Erich Schubert
+   */
+  private class Inserter {
+    /**
+     * Visited markers, see {@link #stamp}.
+     */
+    int[] visited = new int[ids.size()];
+
+    /**
+     * Current search marker.
+     */
+    int stamp = 0;
+
+    /**
+     * Candidates to expand.
+     */
+    DoubleIntegerMinHeap candidates = new DoubleIntegerMinHeap();
+
+    /**
+     * Best results found.
+     */
+    DoubleIntegerMaxHeap results = new DoubleIntegerMaxHeap();
+
+    /**
+     * Heap for sorting neighbor lists.
+     */
+    DoubleIntegerMinHeap sorter = new DoubleIntegerMinHeap();
+
+    /**
+     * Iterators for computing distances.
+     */
+    DBIDArrayIter i1 = ids.iter(), i2 = ids.iter();
+
+    /**
+     * Copy of a neighbor list.
+     */
+    int[] nbuf = new int[m << 1];
+
+    /**
+     * Current search results, sorted by distance, also the entry points for
+     * the next level.
+     */
+    int[] found = new int[efConstruction];
+
+    /**
+     * Distances of the current search results.
+     */
+    double[] foundd = new double[efConstruction];
+
+    /**
+     * Number of current search results.
+     */
+    int numfound;
+
+    /**
+     * Selected neighbors.
+     */
+    int[] sel = new int[m];
+
+    /**
+     * Distances to the selected neighbors.
+     */
+    double[] seld = new double[m];
+
+    /**
+     * Buffers for shrinking neighbor lists.
+     */
+    int[] tmpi = new int[(m << 1) + 1], tmpsel = new int[(m << 1) + 1];
+
+    /**
+     * Buffers for shrinking neighbor lists.
+     */
+    double[] tmpd = new double[(m << 1) + 1], tmpseld = new double[(m << 1) + 1];
+
+    /**
+     * Number of distance computations.
+     */
+    long distcount;
+
+    /**
+     * Insert a single object into the graph.
+     *
+     * @param q Object offset
+     */
+    void insert(int q) {
+      final int lq = links[q].length - 1;
+      int ep, top;
+      synchronized(HNSW.this) {
+        ep = entry;
+        top = maxLevel;
+      }
+      double dep = distance(q, ep);
+      // Greedy descent on the upper levels:
+      for(int l = top; l > lq; l--) {
+        for(boolean changed = true; changed;) {
+          changed = false;
+          final int cnt = copyNeighbors(ep, l);
+          for(int j = 0; j < cnt; j++) {
+            final double d = distance(q, nbuf[j]);
+            if(d < dep) {
+              dep = d;
+              ep = nbuf[j];
+              changed = true;
+            }
+          }
+        }
+      }
+      found[0] = ep;
+      foundd[0] = dep;
+      numfound = 1;
+      for(int l = Math.min(top, lq); l >= 0; l--) {
+        searchLevel(q, l);
+        final int c = selectNeighbors(found, foundd, numfound, m, sel, seld);
+        final int cap = l == 0 ? m << 1 : m;
+        for(int j = 0; j < c; j++) {
+          connect(q, sel[j], seld[j], l, cap);
+          connect(sel[j], q, seld[j], l, cap);
+        }
+      }
+      if(lq > top) {
+        synchronized(HNSW.this) {
+          if(lq > maxLevel) {
+            maxLevel = lq;
+            entry = q;
+          }
+        }
+      }
+    }
+
+    /**
+     * Best-first search on one level, starting from the current results.
+     *
+     * @param q Query object offset
+     * @param l Level
+     */
+    private void searchLevel(int q, int l) {
+      if(++stamp == Integer.MAX_VALUE) {
+        Arrays.fill(visited, 0);
+        stamp = 1;
+      }
+      visited[q] = stamp;
+      candidates.clear();
+      results.clear();
+      for(int j = 0; j < numfound; j++) {
+        visited[found[j]] = stamp;
+        candidates.add(foundd[j], found[j]);
+        results.add(foundd[j], found[j], efConstruction);
+      }
+      while(!candidates.isEmpty()) {
+        if(candidates.peekKey() > results.peekKey() && results.size() >= efConstruction) {
+          break;
+        }
+        final int cnt = copyNeighbors(candidates.peekValue(), l);
+        candidates.poll();
+        for(int j = 0; j < cnt; j++) {
+          final int e = nbuf[j];
+          if(visited[e] == stamp) {
+            continue;
+          }
+          visited[e] = stamp;
+          final double d = distance(q, e);
+          if(results.size() < efConstruction || d < results.peekKey()) {
+            candidates.add(d, e);
+            results.add(d, e, efConstruction);
+          }
+        }
+      }
+      // Extract results in ascending order:
+      numfound = results.size();
+      for(int j = numfound - 1; j >= 0; j--) {
+        found[j] = results.peekValue();
+        foundd[j] = results.peekKey();
+        results.poll();
+      }
+    }
+
+    /**
+     * Select neighbors with the heuristic of Malkov and Yashunin: a candidate
+     * is only kept if it is closer to the query than to all neighbors selected
+     * before, which favors neighbors in different directions.
+     *
+     * @param cand Candidates, sorted by distance
+     * @param candd Candidate distances
+     * @param num Number of candidates
+     * @param max Maximum number of neighbors
+     * @param out Output buffer for neighbors
+     * @param outd Output buffer for distances
+     * @return Number of neighbors selected
+     */
+    private int selectNeighbors(int[] cand, double[] candd, int num, int max, int[] out, double[] outd) {
+      int c = 0;
+      candidates: for(int j = 0; j < num && c < max; j++) {
+        final int e = cand[j];
+        final double de = candd[j];
+        for(int r = 0; r < c; r++) {
+          if(distance(e, out[r]) < de) {
+            continue candidates;
+          }
+        }
+        out[c] = e;
+        outd[c++] = de;
+      }
+      return c;
+    }
+
+    /**
+     * Add a neighbor to the neighbor list of an object, and shrink the list
+     * if necessary.
+     *
+     * @param node Object to modify
+     * @param nb New neighbor
+     * @param dist Distance of node and neighbor
+     * @param l Level
+     * @param cap Maximum number of neighbors
+     */
+    private void connect(int node, int nb, double dist, int l, int cap) {
+      final int[][] lnks = links[node];
+      synchronized(lnks) {
+        final int[] lst = lnks[l];
+        final int cnt = lst[0];
+        for(int j = 1; j <= cnt; j++) {
+          if(lst[j] == nb) {
+            return;
+          }
+        }
+        if(cnt < cap) {
+          lst[cnt + 1] = nb;
+          lst[0] = cnt + 1;
+          return;
+        }
+        // Shrink the neighbor list using the heuristic:
+        sorter.clear();
+        sorter.add(dist, nb);
+        for(int j = 1; j <= cnt; j++) {
+          sorter.add(distance(node, lst[j]), lst[j]);
+        }
+        for(int j = 0; !sorter.isEmpty(); j++) {
+          tmpi[j] = sorter.peekValue();
+          tmpd[j] = sorter.peekKey();
+          sorter.poll();
+        }
+        final int c = selectNeighbors(tmpi, tmpd, cnt + 1, cap, tmpsel, tmpseld);
+        System.arraycopy(tmpsel, 0, lst, 1, c);
+        lst[0] = c;
+      }
+    }
+
+    /**
+     * Copy the neighbors of an object into {@link #nbuf}.
+     *
+     * @param node Object
+     * @param l Level
+     * @return Number of neighbors
+     */
+    private int copyNeighbors(int node, int l) {
+      final int[][] lnks = links[node];
+      synchronized(lnks) {
+        final int[] lst = lnks[l];
+        System.arraycopy(lst, 1, nbuf, 0, lst[0]);
+        return lst[0];
+      }
+    }
+
+    /**
+     * Compute the distance of two indexed objects.
+     *
+     * @param a First offset
+     * @param b Second offset
+     * @return Distance
+     */
+    private double distance(int a, int b) {
+      ++distcount;
+      return distq.distance(i1.seek(a), i2.seek(b));
+    }
+  }
+
+  @Override
+  public KNNSearcher<DBIDRef> kNNByDBID(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    return priorityByDBID(distanceQuery, Double.POSITIVE_INFINITY, flags);
+  }
+
+  @Override
+  public RangeSearcher<DBIDRef> rangeByDBID(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return priorityByDBID(distanceQuery, maxrange, flags);
+  }
+
+  @Override
+  public PrioritySearcher<O> priorityByObject(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return (flags & (QueryBuilder.FLAG_EXACT_ONLY | QueryBuilder.FLAG_PRECOMPUTE)) == 0 && // approximate
+        distanceQuery.getRelation() == relation && this.distance.equals(distanceQuery.getDistance()) ? //
+            new HNSWPriorityObjectSearcher() : null;
+  }
+
+  @Override
+  public PrioritySearcher<DBIDRef> priorityByDBID(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return (flags & (QueryBuilder.FLAG_EXACT_ONLY | QueryBuilder.FLAG_PRECOMPUTE)) == 0 && // approximate
+        distanceQuery.getRelation() == relation && this.distance.equals(distanceQuery.getDistance()) ? //
+            new HNSWPriorityDBIDSearcher() : null;
+  }
+
+  /**
+   * Priority search on the HNSW graph.
+   * <p>
+   * After the greedy descent, the bottom level is explored best-first. A
+   * neighbor is added to the queue if it is within the current threshold, or
+   * if it is among the {@code ef} best objects seen so far. The search stops
+   * when the next candidate is neither, so results are approximate and only
+   * approximately in ascending order.
+   *
+   * @author Erich Schubert
+   *
+   * @param <Q> query type
+   */
+  public abstract class HNSWPrioritySearcher<Q> implements PrioritySearcher<Q> {
+    /**
+     * Visited markers, see {@link #stamp}.
+     */
+    private int[] visited = new int[ids.size()];
+
+    /**
+     * Current search marker.
+     */
+    private int stamp = 0;
+
+    /**
+     * Candidates to expand.
+     */
+    private DoubleIntegerMinHeap candidates = new DoubleIntegerMinHeap();
+
+    /**
+     * Best objects seen.
+     */
+    private DoubleIntegerMaxHeap results = new DoubleIntegerMaxHeap();
+
+    /**
+     * Iterator for distance computations.
+     */
+    private DBIDArrayIter iter = ids.iter();
+
+    /**
+     * Iterator of the current object.
+     */
+    private DBIDArrayIter cur = ids.iter();
+
+    /**
+     * Current object, -1 if the search is exhausted.
+     */
+    private int current = -1;
+
+    /**
+     * Distance to the current object.
+     */
+    private double curdist;
+
+    /**
+     * Stopping threshold.
+     */
+    private double threshold;
+
+    /**
+     * Candidate set size.
+     */
+    private int ef = efSearch;
+
+    /**
+     * Start the search.
+     */
+    protected void doSearch() {
+      threshold = Double.POSITIVE_INFINITY;
+      candidates.clear();
+      results.clear();
+      current = -1;
+      if(entry < 0) {
+        return;
+      }
+      if(++stamp == Integer.MAX_VALUE) {
+        Arrays.fill(visited, 0);
+        stamp = 1;
+      }
+      int ep = entry;
+      double dep = queryDistance(ep);
+      // Greedy descent on the upper levels:
+      for(int l = maxLevel; l > 0; l--) {
+        for(boolean changed = true; changed;) {
+          changed = false;
+          final int[] lst = links[ep][l];
+          for(int j = 1, cnt = lst[0]; j <= cnt; j++) {
+            final double d = queryDistance(lst[j]);
+            if(d < dep) {
+              dep = d;
+              ep = lst[j];
+              changed = true;
+            }
+          }
+        }
+      }
+      visited[ep] = stamp;
+      candidates.add(dep, ep);
+      results.add(dep, ep, ef);
+      advance();
+    }
+
+    @Override
+    public KNNList getKNN(Q obj, int k) {
+      ef = Math.max(efSearch, k);
+      try {
+        return PrioritySearcher.super.getKNN(obj, k);
+      }
+      finally {
+        ef = efSearch;
+      }
+    }
+
+    @Override
+    public PrioritySearcher<Q> advance() {
+      if(candidates.isEmpty()) {
+        current = -1;
+        return this;
+      }
+      final double d = candidates.peekKey();
+      if(d > threshold && results.size() >= ef && d > results.peekKey()) {
+        candidates.clear();
+        current = -1;
+        return this;
+      }
+      current = candidates.peekValue();
+      curdist = d;
+      candidates.poll();
+      cur.seek(current);
+      final int[] lst = links[current][0];
+      for(int j = 1, cnt = lst[0]; j <= cnt; j++) {
+        final int e = lst[j];
+        if(visited[e] == stamp) {
+          continue;
+        }
+        visited[e] = stamp;
+        final double de = queryDistance(e);
+        if(de <= threshold || results.size() < ef || de < results.peekKey()) {
+          candidates.add(de, e);
+          results.add(de, e, ef);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Compute the distance to an indexed object.
+     *
+     * @param i Object offset
+     * @return Distance
+     */
+    private double queryDistance(int i) {
+      ++distComputations;
+      return queryDistance(iter.seek(i));
+    }
+
+    /**
+     * Compute the distance to a candidate object.
+     *
+     * @param p Object
+     * @return Distance
+     */
+    protected abstract double queryDistance(DBIDRef p);
+
+    @Override
+    public int internalGetIndex() {
+      return cur.internalGetIndex();
+    }
+
+    @Override
+    public boolean valid() {
+      return current >= 0;
+    }
+
+    @Override
+    public PrioritySearcher<Q> decreaseCutoff(double threshold) {
+      assert threshold <= this.threshold : "Thresholds must only decrease.";
+      this.threshold = threshold;
+      return this;
+    }
+
+    @Override
+    public double computeExactDistance() {
+      return curdist;
+    }
+
+    @Override
+    public double getApproximateDistance() {
+      return curdist;
+    }
+
+    @Override
+    public double getApproximateAccuracy() {
+      return 0;
+    }
+
+    @Override
+    public double getLowerBound() {
+      return curdist;
+    }
+
+    @Override
+    public double getUpperBound() {
+      return curdist;
+    }
+
+    @Override
+    public double allLowerBound() {
+      return 0; // No guarantees
+    }
+  }
+
+  /**
+   * Priority search by object.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWPriorityObjectSearcher extends HNSWPrioritySearcher<O> {
+    /**
+     * Current query object
+     */
+    private O query;
+
+    @Override
+    public PrioritySearcher<O> search(O query) {
+      this.query = query;
+      doSearch();
+      return this;
+    }
+
+    @Override
+    protected double queryDistance(DBIDRef p) {
+      return distq.distance(query, p);
+    }
+  }
+
+  /**
+   * Priority search by DBID.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWPriorityDBIDSearcher extends HNSWPrioritySearcher<DBIDRef> {
+    /**
+     * Current query object
+     */
+    private DBIDRef query;
+
+    @Override
+    public PrioritySearcher<DBIDRef> search(DBIDRef query) {
+      this.query = query;
+      doSearch();
+      return this;
+    }
+
+    @Override
+    protected double queryDistance(DBIDRef p) {
+      return distq.distance(query, p);
+    }
+  }
+
+  @Override
+  public void logStatistics() {
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations));
+  }
+
+  /**
+   * Index factory for HNSW.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Distance function
+     */
+    Distance<? super O> distance;
+
+    /**
+     * Number of neighbors per level
+     */
+    int m;
+
+    /**
+     * Candidate set size during construction
+     */
+    int efConstruction;
+
+    /**
+     * Candidate set size during search
+     */
+    int efSearch;
+
+    /**
+     * Random generator
+     */
+    RandomFactory rng;
+
+    /**
+     * Build the graph with multiple threads
+     */
+    boolean parallel;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param m Number of neighbors per level
+     * @param efConstruction Candidate set size during construction
+     * @param efSearch Candidate set size during search
+     * @param rng Random generator
+     * @param parallel Build the graph with multiple threads
+     */
+    public Factory(Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory rng, boolean parallel) {
+      this.distance = distance;
+      this.m = m;
+      this.efConstruction = efConstruction;
+      this.efSearch = efSearch;
+      this.rng = rng;
+      this.parallel = parallel;
+    }
+
+    @Override
+    public HNSW<O> instantiate(Relation<O> relation) {
+      return new HNSW<>(relation, distance, m, efConstruction, efSearch, rng, parallel);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @param <O> object type
+     */
+    public static class Par<O> implements Parameterizer {
+      /**
+       * Distance function to use in the index
+       */
+      public static final OptionID DISTANCE_FUNCTION_ID = new OptionID("hnsw.distance", "Distance function to determine the distance between objects.");
+
+      /**
+       * Number of neighbors per level.
+       */
+      public static final OptionID M_ID = new OptionID("hnsw.m", "Number of neighbors per object on each level (twice as many on the bottom level).");
+
+      /**
+       * Candidate set size during construction.
+       */
+      public static final OptionID EF_CONSTRUCTION_ID = new OptionID("hnsw.efconstruction", "Number of candidates to keep when building the graph.");
+
+      /**
+       * Candidate set size during search.
+       */
+      public static final OptionID EF_SEARCH_ID = new OptionID("hnsw.efsearch", "Number of candidates to keep when searching (at least k).");
+
+      /**
+       * Random generator to use
+       */
+      public static final OptionID SEED_ID = new OptionID("hnsw.seed", "Random generator seed to use.");
+
+      /**
+       * Build the graph with multiple threads.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("hnsw.parallel", "Build the graph with multiple threads.");
+
+      /**
+       * Distance function
+       */
+      Distance<? super O> distance;
+
+      /**
+       * Number of neighbors per level
+       */
+      int m;
+
+      /**
+       * Candidate set size during construction
+       */
+      int efConstruction;
+
+      /**
+       * Candidate set size during search
+       */
+      int efSearch;
+
+      /**
+       * Random generator
+       */
+      RandomFactory rng;
+
+      /**
+       * Build the graph with multiple threads
+       */
+      boolean parallel;
+
+      @Override
+      public void configure(Parameterization config) {
+        new ObjectParameter<Distance<? super O>>(DISTANCE_FUNCTION_ID, Distance.class) //
+            .grab(config, x -> distance = x);
+        new IntParameter(M_ID, 16) //
+            .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+            .grab(config, x -> m = x);
+        new IntParameter(EF_CONSTRUCTION_ID, 200) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> efConstruction = x);
+        new IntParameter(EF_SEARCH_ID, 50) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> efSearch = x);
+        new RandomParameter(SEED_ID) //
+            .grab(config, x -> rng = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
+      }
+
+      @Override
+      public Factory<O> make() {
+        return new Factory<>(distance, m, efConstruction, efSearch, rng, parallel);
+      }
+    }
+  }
+}
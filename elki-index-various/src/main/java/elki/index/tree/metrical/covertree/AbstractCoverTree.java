@@ -35,6 +35,7 @@ import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -91,6 +92,16 @@ public abstract class AbstractCoverTree<O> implements Index {
    */
   protected int truncate = 10;
 
+  /**
+   * Build independent subtrees with multiple threads.
+   */
+  protected boolean parallel = false;
+
+  /**
+   * Minimum number of elements in a subtree to build it in a separate task.
+   */
+  protected static final int PARALLEL_MIN_SIZE = 256;
+
   /**
    * Constructor.
    *
@@ -100,6 +111,19 @@ public abstract class AbstractCoverTree<O> implements Index {
    * @param truncate Truncate branches with less than this number of instances
    */
   public AbstractCoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate) {
+    this(relation, distance, expansion, truncate, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances
+   * @param parallel Build independent subtrees with multiple threads
+   */
+  public AbstractCoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
     super();
     this.relation = relation;
     this.distance = distance;
@@ -108,6 +132,7 @@ public abstract class AbstractCoverTree<O> implements Index {
     this.expansion = expansion;
     this.invLogExpansion = 1. / FastMath.log(expansion);
     this.scaleBottom = (int) Math.ceil(FastMath.log(Double.MIN_NORMAL) * invLogExpansion);
+    this.parallel = parallel;
   }
 
   /**
@@ -249,6 +274,11 @@ public abstract class AbstractCoverTree<O> implements Index {
      */
     protected int truncate;
 
+    /**
+     * Build independent subtrees with multiple threads.
+     */
+    protected boolean parallel;
+
     /**
      * Constructor.
      *
@@ -257,10 +287,23 @@ public abstract class AbstractCoverTree<O> implements Index {
      * @param truncate Truncate branches with less than this number of instances
      */
     public Factory(Distance<? super O> distance, double expansion, int truncate) {
+      this(distance, expansion, truncate, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of instances
+     * @param parallel Build independent subtrees with multiple threads
+     */
+    public Factory(Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
       super();
       this.distance = distance;
       this.expansion = expansion;
       this.truncate = truncate;
+      this.parallel = parallel;
     }
 
     @Override
@@ -291,6 +334,11 @@ public abstract class AbstractCoverTree<O> implements Index {
        */
       public static final OptionID EXPANSION_ID = new OptionID("covertree.expansionrate", "Expansion rate of the tree (Default: 1.3).");
 
+      /**
+       * Build independent subtrees with multiple threads.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("covertree.parallel", "Build independent subtrees with multiple threads.");
+
       /**
        * Holds the instance of the trees distance function.
        */
@@ -306,6 +354,11 @@ public abstract class AbstractCoverTree<O> implements Index {
        */
       protected double expansion = 1.3;
 
+      /**
+       * Build independent subtrees with multiple threads.
+       */
+      protected boolean parallel;
+
       @Override
       public void configure(Parameterization config) {
         new ObjectParameter<Distance<O>>(DISTANCE_FUNCTION_ID, Distance.class) //
@@ -321,6 +374,7 @@ public abstract class AbstractCoverTree<O> implements Index {
         new DoubleParameter(EXPANSION_ID, 1.3)//
             .addConstraint(CommonConstraints.GREATER_THAN_ONE_DOUBLE) //
             .grab(config, x -> expansion = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
       }
     }
   }
@@ -20,26 +20,36 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
 
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.BatchKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DistancePriorityIndex;
+import elki.index.SnapshotIndexFactory;
+import elki.index.SnapshotUtil;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
 import elki.math.MathUtil;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Priority;
 import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 import elki.utilities.documentation.Reference;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 
 /**
  * Cover tree data structure (in-memory). This is a <i>metrical</i> data
@@ -71,6 +81,7 @@ import elki.utilities.documentation.Reference;
  *
  * @has - - - CoverTreeRangeSearcher
  * @has - - - CoverTreeKNNSearcher
+ * @has - - - CoverTreeBatchKNNSearcher
  */
 @Reference(authors = "A. Beygelzimer, S. Kakade, J. Langford", //
     title = "Cover trees for nearest neighbor", //
@@ -101,6 +112,19 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     super(relation, distance, expansion, truncate);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param relation data relation
+   * @param distance distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances
+   * @param parallel Build independent subtrees with multiple threads
+   */
+  public CoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
+    super(relation, distance, expansion, truncate, parallel);
+  }
+
   /**
    * Constructor.
    *
@@ -175,8 +199,134 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     }
   }
 
+  /**
+   * Serialize the tree into a snapshot, storing objects as offsets into the
+   * relation.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  private static class SnapshotSerializer<O> implements ByteBufferSerializer<CoverTree<O>> {
+    /**
+     * Factory for the restored tree.
+     */
+    private final Factory<O> factory;
+
+    /**
+     * Relation indexed.
+     */
+    private final Relation<O> relation;
+
+    /**
+     * DBIDs of the relation.
+     */
+    private final DBIDRange ids;
+
+    /**
+     * Constructor.
+     *
+     * @param factory Factory for the restored tree
+     * @param relation Relation indexed
+     */
+    SnapshotSerializer(Factory<O> factory, Relation<O> relation) {
+      this.factory = factory;
+      this.relation = relation;
+      this.ids = DBIDUtil.assertRange(relation.getDBIDs());
+    }
+
+    @Override
+    public CoverTree<O> fromByteBuffer(ByteBuffer buffer) throws IOException {
+      CoverTree<O> tree = factory.instantiate(relation);
+      tree.root = buffer.get() != 0 ? readNode(buffer, ids.iter()) : null;
+      return tree;
+    }
+
+    /**
+     * Read a node and its children.
+     *
+     * @param buffer Buffer
+     * @param it Iterator to position on the objects
+     * @return Node
+     * @throws IOException on invalid data
+     */
+    private Node readNode(ByteBuffer buffer, DBIDArrayIter it) throws IOException {
+      final int size = ByteArrayUtil.readUnsignedVarint(buffer);
+      it.seek(ByteArrayUtil.readUnsignedVarint(buffer));
+      buffer.getDouble(); // Routing object has distance 0.
+      Node node = new Node(it, 0., 0.);
+      for(int i = 1; i < size; i++) {
+        it.seek(ByteArrayUtil.readUnsignedVarint(buffer));
+        node.singletons.add(buffer.getDouble(), it);
+      }
+      node.maxDist = buffer.getDouble();
+      node.parentDist = buffer.getDouble();
+      final int numc = ByteArrayUtil.readUnsignedVarint(buffer);
+      if(numc == 0) {
+        node.children = Collections.emptyList();
+      }
+      for(int i = 0; i < numc; i++) {
+        node.children.add(readNode(buffer, it));
+      }
+      return node;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, CoverTree<O> tree) throws IOException {
+      buffer.put((byte) (tree.root != null ? 1 : 0));
+      if(tree.root != null) {
+        writeNode(buffer, tree.root);
+      }
+    }
+
+    /**
+     * Write a node and its children.
+     *
+     * @param buffer Buffer
+     * @param node Node
+     */
+    private void writeNode(ByteBuffer buffer, Node node) {
+      ByteArrayUtil.writeUnsignedVarint(buffer, node.singletons.size());
+      for(DoubleDBIDListIter it = node.singletons.iter(); it.valid(); it.advance()) {
+        ByteArrayUtil.writeUnsignedVarint(buffer, ids.getOffset(it));
+        buffer.putDouble(it.doubleValue());
+      }
+      buffer.putDouble(node.maxDist).putDouble(node.parentDist);
+      ByteArrayUtil.writeUnsignedVarint(buffer, node.children.size());
+      for(Node child : node.children) {
+        writeNode(buffer, child);
+      }
+    }
+
+    @Override
+    public int getByteSize(CoverTree<O> tree) throws IOException {
+      return SnapshotUtil.checkedByteSize(1 + (tree.root != null ? getByteSize(tree.root) : 0));
+    }
+
+    /**
+     * Get the serialized size of a node and its children.
+     *
+     * @param node Node
+     * @return Size in bytes
+     */
+    private long getByteSize(Node node) {
+      long size = ByteArrayUtil.getUnsignedVarintSize(node.singletons.size()) + 16 //
+          + ByteArrayUtil.getUnsignedVarintSize(node.children.size());
+      for(DoubleDBIDListIter it = node.singletons.iter(); it.valid(); it.advance()) {
+        size += ByteArrayUtil.getUnsignedVarintSize(ids.getOffset(it)) + 8;
+      }
+      for(Node child : node.children) {
+        size += getByteSize(child);
+      }
+      return size;
+    }
+  }
+
   @Override
   public void initialize() {
+    if(root != null) {
+      return; // Already built, or restored from a snapshot.
+    }
     bulkLoad(relation.getDBIDs());
     if(LOG.isVerbose()) {
       int[] counts = new int[5];
@@ -206,7 +356,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     for(it.advance(); it.valid(); it.advance()) {
       candidates.add(distance(first, it), it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
+    root = parallel ? //
+        ParallelExecutor.invoke(ForkJoinTask.adapt(() -> bulkConstruct(first, Integer.MAX_VALUE, 0., candidates))) : //
+        bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
   }
 
   /**
@@ -214,6 +366,10 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * <p>
    * This bulk-load is slightly simpler than the one used in the original
    * cover-tree source: We do not look back into the "far" set of candidates.
+   * <p>
+   * When building in parallel, the subtrees of large nodes are built in
+   * separate fork/join tasks once the cover sets have been computed, and are
+   * added in the same order as in the sequential build.
    *
    * @param cur Current routing object
    * @param maxScale Maximum scale
@@ -242,9 +398,19 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     Node node = new Node(cur, max, parentDist);
     // Routing element now is a singleton:
     final boolean curSingleton = elems.isEmpty();
+    // Build subtrees in separate tasks, collected in order:
+    final List<ForkJoinTask<Node>> tasks = parallel && elems.size() + candidates.size() >= PARALLEL_MIN_SIZE ? new ArrayList<>() : null;
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, 0, elems));
+      if(tasks != null) {
+        final DBID r = DBIDUtil.deref(cur);
+        final ModifiableDoubleDBIDList relems = elems;
+        tasks.add(ForkJoinTask.adapt(() -> bulkConstruct(r, nextScale, 0, relems)).fork());
+        elems = DBIDUtil.newDistanceDBIDList();
+      }
+      else {
+        node.children.add(bulkConstruct(cur, nextScale, 0, elems));
+      }
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -256,6 +422,12 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
       if(elems.isEmpty()) { // Singleton
         node.singletons.add(it.doubleValue(), it);
       }
+      else if(tasks != null) {
+        final double pdist = it.doubleValue();
+        final ModifiableDoubleDBIDList celems = elems;
+        tasks.add(ForkJoinTask.adapt(() -> bulkConstruct(t, nextScale, pdist, celems)).fork());
+        elems = DBIDUtil.newDistanceDBIDList();
+      }
       else {
         // Build a full child node:
         node.children.add(bulkConstruct(it, nextScale, it.doubleValue(), elems));
@@ -263,6 +435,11 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
       candidates.removeSwap(0);
     }
     assert candidates.isEmpty();
+    if(tasks != null) {
+      for(ForkJoinTask<Node> task : tasks) {
+        node.children.add(task.join());
+      }
+    }
     // Routing object is not yet handled:
     if(curSingleton && !node.children.isEmpty()) {
       node.singletons.add(parentDist, cur); // Add as regular singleton.
@@ -320,6 +497,13 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
             new CoverTreePriorityDBIDSearcher() : null;
   }
 
+  @Override
+  public BatchKNNSearcher kNNBatch(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    return (flags & QueryBuilder.FLAG_PRECOMPUTE) == 0 && //
+        distanceQuery.getRelation() == relation && this.distance.equals(distanceQuery.getDistance()) ? //
+            new CoverTreeBatchKNNSearcher() : null;
+  }
+
   @Override
   public PrioritySearcher<O> priorityByObject(DistanceQuery<O> distanceQuery, double maxradius, int flags) {
     return (flags & QueryBuilder.FLAG_PRECOMPUTE) == 0 && //
@@ -589,6 +773,132 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     }
   }
 
+  /**
+   * Batch kNN query class.
+   * <p>
+   * For an all-kNN self-join, the objects stored in each node are used as a
+   * block of queries, and the tree is searched once per block. Nodes are
+   * pruned using the radius of the block around its routing object, and
+   * candidates using the triangle inequality for each query.
+   *
+   * @author Erich Schubert
+   */
+  public class CoverTreeBatchKNNSearcher extends CoverTreeKNNDBIDSearcher implements BatchKNNSearcher {
+    /**
+     * Priority queue of candidates.
+     */
+    private DoubleObjectMinHeap<Node> bpq = new DoubleObjectMinHeap<>();
+
+    /**
+     * Temporary storage.
+     */
+    private DBIDVar btmp = DBIDUtil.newVar();
+
+    @Override
+    public void getKNNBatch(DBIDs queries, int k, BiConsumer<? super DBIDRef, ? super KNNList> out) {
+      if(queries.size() != relation.size() || root == null) { // Not a self-join
+        BatchKNNSearcher.super.getKNNBatch(queries, k, out);
+        return;
+      }
+      batchNode(root, k, out);
+    }
+
+    /**
+     * Process the objects of each node as query blocks.
+     *
+     * @param cur Current node
+     * @param k Number of neighbors
+     * @param out Output consumer
+     */
+    private void batchNode(Node cur, int k, BiConsumer<? super DBIDRef, ? super KNNList> out) {
+      // The routing object of inner nodes is also stored in a child.
+      final boolean inner = !cur.children.isEmpty();
+      final int size = cur.singletons.size() - (inner ? 1 : 0);
+      if(size > 0) {
+        ModifiableDoubleDBIDList group = DBIDUtil.newDistanceDBIDList(size);
+        DBIDVar center = cur.singletons.assignVar(0, DBIDUtil.newVar());
+        double radius = 0.;
+        DoubleDBIDListIter it = cur.singletons.iter();
+        for(it.seek(inner ? 1 : 0); it.valid(); it.advance()) {
+          final double d = it.getOffset() == 0 ? 0. : distance(center, it);
+          group.add(d, it);
+          radius = d > radius ? d : radius;
+        }
+        KNNHeap[] heaps = searchBlock(center, radius, group, k);
+        for(DoubleDBIDListIter gi = group.iter(); gi.valid(); gi.advance()) {
+          out.accept(gi, heaps[gi.getOffset()].toKNNList());
+        }
+      }
+      for(Node c : cur.children) {
+        batchNode(c, k, out);
+      }
+    }
+
+    /**
+     * Search the tree for a block of queries.
+     *
+     * @param center Routing object of the block
+     * @param radius Radius of the block
+     * @param group Queries, with distances to the routing object
+     * @param k Number of neighbors
+     * @return kNN heaps
+     */
+    private KNNHeap[] searchBlock(DBIDRef center, double radius, DoubleDBIDList group, int k) {
+      final int size = group.size();
+      KNNHeap[] heaps = new KNNHeap[size];
+      double[] kdist = new double[size];
+      for(int i = 0; i < size; i++) {
+        heaps[i] = DBIDUtil.newHeap(k);
+        kdist[i] = Double.POSITIVE_INFINITY;
+      }
+      DoubleDBIDListIter gi = group.iter();
+      double maxdist = Double.POSITIVE_INFINITY;
+      bpq.clear();
+      bpq.add(distance(center, root.singletons.iter()) - root.maxDist - radius, root);
+      while(!bpq.isEmpty()) {
+        final Node cur = bpq.peekValue();
+        final double prio = bpq.peekKey(); // Minimum distance to cover
+        bpq.poll(); // Remove
+        if(prio > maxdist) {
+          break;
+        }
+        final double d = prio + cur.maxDist + radius; // Restore distance.
+        final DoubleDBIDListIter it = cur.singletons.iter();
+        for(Node c : cur.children) {
+          if(Math.abs(d - c.parentDist) - c.maxDist - radius <= maxdist) {
+            // Reuse distance if the previous routing object is the same:
+            double newprio = (DBIDUtil.equal(c.singletons.assignVar(0, btmp), it) //
+                ? d : distance(center, btmp)) - c.maxDist - radius;
+            if(newprio <= maxdist) {
+              bpq.add(newprio, c);
+            }
+          }
+        }
+        // Routing objects of inner nodes are handled in the child nodes.
+        for(it.seek(cur.children.isEmpty() ? 0 : 1); it.valid(); it.advance()) {
+          final double dc = it.getOffset() == 0 ? d : distance(center, it);
+          if(dc - radius > maxdist) {
+            continue;
+          }
+          for(gi.seek(0); gi.valid(); gi.advance()) {
+            final int i = gi.getOffset();
+            if(Math.abs(dc - gi.doubleValue()) <= kdist[i]) {
+              final double d2 = distance(gi, it);
+              if(d2 <= kdist[i]) {
+                kdist[i] = heaps[i].insert(d2, it);
+              }
+            }
+          }
+        }
+        maxdist = 0.;
+        for(double v : kdist) {
+          maxdist = v > maxdist ? v : maxdist;
+        }
+      }
+      return heaps;
+    }
+  }
+
   /**
    * Priority query class.
    *
@@ -822,7 +1132,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    *
    * @param <O> Object type
    */
-  public static class Factory<O> extends AbstractCoverTree.Factory<O> {
+  public static class Factory<O> extends AbstractCoverTree.Factory<O> implements SnapshotIndexFactory<O, CoverTree<O>> {
     /**
      * Constructor.
      *
@@ -834,9 +1144,26 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
       super(distance, expansion, truncate);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of instances
+     * @param parallel Build independent subtrees with multiple threads
+     */
+    public Factory(Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
+      super(distance, expansion, truncate, parallel);
+    }
+
     @Override
     public CoverTree<O> instantiate(Relation<O> relation) {
-      return new CoverTree<>(relation, distance, expansion, truncate);
+      return new CoverTree<>(relation, distance, expansion, truncate, parallel);
+    }
+
+    @Override
+    public ByteBufferSerializer<CoverTree<O>> getSnapshotSerializer(Relation<O> relation) {
+      return new SnapshotSerializer<>(this, relation);
     }
 
     /**
@@ -847,7 +1174,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     public static class Par<O> extends AbstractCoverTree.Factory.Par<O> {
       @Override
       public CoverTree.Factory<O> make() {
-        return new CoverTree.Factory<>(distance, expansion, truncate);
+        return new CoverTree.Factory<>(distance, expansion, truncate, parallel);
       }
     }
   }
@@ -20,9 +20,12 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
@@ -33,11 +36,16 @@ import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DistancePriorityIndex;
+import elki.index.SnapshotIndexFactory;
+import elki.index.SnapshotUtil;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
 import elki.math.MathUtil;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 
 /**
  * Simplified cover tree data structure (in-memory). This is a <i>metrical</i>
@@ -86,6 +94,19 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     super(relation, distance, expansion, truncate);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param relation data relation
+   * @param distance distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances
+   * @param parallel Build independent subtrees with multiple threads
+   */
+  public SimplifiedCoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
+    super(relation, distance, expansion, truncate, parallel);
+  }
+
   /**
    * Node object.
    *
@@ -137,8 +158,129 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     }
   }
 
+  /**
+   * Serialize the tree into a snapshot, storing objects as offsets into the
+   * relation.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  private static class SnapshotSerializer<O> implements ByteBufferSerializer<SimplifiedCoverTree<O>> {
+    /**
+     * Factory for the restored tree.
+     */
+    private final Factory<O> factory;
+
+    /**
+     * Relation indexed.
+     */
+    private final Relation<O> relation;
+
+    /**
+     * DBIDs of the relation.
+     */
+    private final DBIDRange ids;
+
+    /**
+     * Constructor.
+     *
+     * @param factory Factory for the restored tree
+     * @param relation Relation indexed
+     */
+    SnapshotSerializer(Factory<O> factory, Relation<O> relation) {
+      this.factory = factory;
+      this.relation = relation;
+      this.ids = DBIDUtil.assertRange(relation.getDBIDs());
+    }
+
+    @Override
+    public SimplifiedCoverTree<O> fromByteBuffer(ByteBuffer buffer) throws IOException {
+      SimplifiedCoverTree<O> tree = factory.instantiate(relation);
+      tree.root = buffer.get() != 0 ? readNode(buffer, ids.iter()) : null;
+      return tree;
+    }
+
+    /**
+     * Read a node and its children.
+     *
+     * @param buffer Buffer
+     * @param it Iterator to position on the objects
+     * @return Node
+     * @throws IOException on invalid data
+     */
+    private Node readNode(ByteBuffer buffer, DBIDArrayIter it) throws IOException {
+      final int size = ByteArrayUtil.readUnsignedVarint(buffer);
+      Node node = new Node(it.seek(ByteArrayUtil.readUnsignedVarint(buffer)), 0.);
+      for(int i = 1; i < size; i++) {
+        node.singletons.add(it.seek(ByteArrayUtil.readUnsignedVarint(buffer)));
+      }
+      node.maxDist = buffer.getDouble();
+      final int numc = ByteArrayUtil.readUnsignedVarint(buffer);
+      if(numc == 0) {
+        node.children = Collections.emptyList();
+      }
+      for(int i = 0; i < numc; i++) {
+        node.children.add(readNode(buffer, it));
+      }
+      return node;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, SimplifiedCoverTree<O> tree) throws IOException {
+      buffer.put((byte) (tree.root != null ? 1 : 0));
+      if(tree.root != null) {
+        writeNode(buffer, tree.root);
+      }
+    }
+
+    /**
+     * Write a node and its children.
+     *
+     * @param buffer Buffer
+     * @param node Node
+     */
+    private void writeNode(ByteBuffer buffer, Node node) {
+      ByteArrayUtil.writeUnsignedVarint(buffer, node.singletons.size());
+      for(DBIDIter it = node.singletons.iter(); it.valid(); it.advance()) {
+        ByteArrayUtil.writeUnsignedVarint(buffer, ids.getOffset(it));
+      }
+      buffer.putDouble(node.maxDist);
+      ByteArrayUtil.writeUnsignedVarint(buffer, node.children.size());
+      for(Node child : node.children) {
+        writeNode(buffer, child);
+      }
+    }
+
+    @Override
+    public int getByteSize(SimplifiedCoverTree<O> tree) throws IOException {
+      return SnapshotUtil.checkedByteSize(1 + (tree.root != null ? getByteSize(tree.root) : 0));
+    }
+
+    /**
+     * Get the serialized size of a node and its children.
+     *
+     * @param node Node
+     * @return Size in bytes
+     */
+    private long getByteSize(Node node) {
+      long size = ByteArrayUtil.getUnsignedVarintSize(node.singletons.size()) + 8 //
+          + ByteArrayUtil.getUnsignedVarintSize(node.children.size());
+      for(DBIDIter it = node.singletons.iter(); it.valid(); it.advance()) {
+        size += ByteArrayUtil.getUnsignedVarintSize(ids.getOffset(it));
+      }
+      for(Node child : node.children) {
+        size += getByteSize(child);
+      }
+      return size;
+    }
+  }
+
   @Override
   public void initialize() {
+    if(root != null) {
+      return; // Already built, or restored from a snapshot.
+    }
     bulkLoad(relation.getDBIDs());
     if(LOG.isVerbose()) {
       int[] counts = new int[5];
@@ -168,7 +310,9 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     for(it.advance(); it.valid(); it.advance()) {
       candidates.add(distance(first, it), it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, candidates);
+    root = parallel ? //
+        ParallelExecutor.invoke(ForkJoinTask.adapt(() -> bulkConstruct(first, Integer.MAX_VALUE, candidates))) : //
+        bulkConstruct(first, Integer.MAX_VALUE, candidates);
   }
 
   /**
@@ -176,6 +320,10 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
    * <p>
    * This bulk-load is slightly simpler than the one used in the original
    * cover-tree source: We do not look back into the "far" set of candidates.
+   * <p>
+   * When building in parallel, the subtrees of large nodes are built in
+   * separate fork/join tasks once the cover sets have been computed, and are
+   * added in the same order as in the sequential build.
    *
    * @param cur Current routing object
    * @param maxScale Maximum scale
@@ -203,9 +351,19 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     Node node = new Node(cur, max);
     // Routing element now is a singleton:
     final boolean curSingleton = elems.isEmpty();
+    // Build subtrees in separate tasks, collected in order:
+    final List<ForkJoinTask<Node>> tasks = parallel && elems.size() + candidates.size() >= PARALLEL_MIN_SIZE ? new ArrayList<>() : null;
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, elems));
+      if(tasks != null) {
+        final DBID r = DBIDUtil.deref(cur);
+        final ModifiableDoubleDBIDList relems = elems;
+        tasks.add(ForkJoinTask.adapt(() -> bulkConstruct(r, nextScale, relems)).fork());
+        elems = DBIDUtil.newDistanceDBIDList();
+      }
+      else {
+        node.children.add(bulkConstruct(cur, nextScale, elems));
+      }
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -217,6 +375,11 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
       if(elems.isEmpty()) { // Singleton
         node.singletons.add(it);
       }
+      else if(tasks != null) {
+        final ModifiableDoubleDBIDList celems = elems;
+        tasks.add(ForkJoinTask.adapt(() -> bulkConstruct(t, nextScale, celems)).fork());
+        elems = DBIDUtil.newDistanceDBIDList();
+      }
       else {
         // Build a full child node:
         node.children.add(bulkConstruct(it, nextScale, elems));
@@ -224,6 +387,11 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
       candidates.removeSwap(0);
     }
     assert candidates.isEmpty();
+    if(tasks != null) {
+      for(ForkJoinTask<Node> task : tasks) {
+        node.children.add(task.join());
+      }
+    }
     // Routing object is not yet handled:
     if(curSingleton && !node.children.isEmpty()) {
       node.singletons.add(cur); // Add as regular singleton.
@@ -767,7 +935,7 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
    *
    * @param <O> Object type
    */
-  public static class Factory<O> extends AbstractCoverTree.Factory<O> {
+  public static class Factory<O> extends AbstractCoverTree.Factory<O> implements SnapshotIndexFactory<O, SimplifiedCoverTree<O>> {
     /**
      * Constructor.
      *
@@ -779,9 +947,26 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
       super(distance, expansion, truncate);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of instances
+     * @param parallel Build independent subtrees with multiple threads
+     */
+    public Factory(Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
+      super(distance, expansion, truncate, parallel);
+    }
+
     @Override
     public SimplifiedCoverTree<O> instantiate(Relation<O> relation) {
-      return new SimplifiedCoverTree<>(relation, distance, expansion, truncate);
+      return new SimplifiedCoverTree<>(relation, distance, expansion, truncate, parallel);
+    }
+
+    @Override
+    public ByteBufferSerializer<SimplifiedCoverTree<O>> getSnapshotSerializer(Relation<O> relation) {
+      return new SnapshotSerializer<>(this, relation);
     }
 
     /**
@@ -792,7 +977,7 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     public static class Par<O> extends AbstractCoverTree.Factory.Par<O> {
       @Override
       public SimplifiedCoverTree.Factory<O> make() {
-        return new SimplifiedCoverTree.Factory<>(distance, expansion, truncate);
+        return new SimplifiedCoverTree.Factory<>(distance, expansion, truncate, parallel);
       }
     }
   }
@@ -20,7 +20,11 @@
  */
 package elki.index.tree.metrical.vptree;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
 
 import elki.data.NumberVector;
 import elki.data.type.TypeInformation;
@@ -37,6 +41,7 @@ import elki.index.DistancePriorityIndex;
 import elki.index.IndexFactory;
 import elki.logging.Logging;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Alias;
 import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import elki.utilities.datastructures.heap.ComparableMinHeap;
@@ -45,10 +50,12 @@ import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 import elki.utilities.optionhandling.parameters.RandomParameter;
 import elki.utilities.random.RandomFactory;
+import elki.utilities.random.Xoroshiro128NonThreadsafeRandom;
 
 /**
  * Geometric Near-neighbor Access Tree (GNAT), also known as Multi Vantage Point
@@ -113,6 +120,16 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
    */
   int numberVPs;
 
+  /**
+   * Build independent subtrees with multiple threads
+   */
+  boolean parallel;
+
+  /**
+   * Minimum number of elements in a subtree to use a separate random generator.
+   */
+  private static final int PARALLEL_MIN_SIZE = 256;
+
   /**
    * Root node from the tree
    */
@@ -125,11 +142,25 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
    * @param distance distance function for tree construction
    */
   public GNAT(Relation<O> relation, Distance<? super O> distance, RandomFactory random, int numberVPs) {
+    this(relation, distance, random, numberVPs, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation data for tree construction
+   * @param distance distance function for tree construction
+   * @param random Random generator for vantage point selection
+   * @param numberVPs Number of vantage points on the root layer
+   * @param parallel Build independent subtrees with multiple threads
+   */
+  public GNAT(Relation<O> relation, Distance<? super O> distance, RandomFactory random, int numberVPs, boolean parallel) {
     this.relation = relation;
     this.distFunc = distance;
     this.random = random;
     this.distQuery = distance.instantiate(relation);
     this.numberVPs = numberVPs;
+    this.parallel = parallel;
   }
 
   @Override
@@ -139,7 +170,13 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
       sorted.add(Double.NaN, it);
     }
     root = new Node(numberVPs);
-    buildTree(root, relation.getDBIDs(), numberVPs);
+    final Random rnd = random.getSingleThreadedRandom();
+    if(parallel) {
+      ParallelExecutor.invoke(ForkJoinTask.adapt(() -> buildTree(root, relation.getDBIDs(), numberVPs, rnd)));
+    }
+    else {
+      buildTree(root, relation.getDBIDs(), numberVPs, rnd);
+    }
   }
 
   /**
@@ -168,14 +205,19 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
 
   /**
    * builds the tree recursively
+   * <p>
+   * Large children use their own random generators, seeded in a fixed order,
+   * so they can be built in separate fork/join tasks without changing the
+   * resulting tree.
    * 
    * @param current current node to build
    * @param content data to index
    * @param vps number of vantage points to use
+   * @param rnd random generator
    */
-  private void buildTree(Node current, DBIDs content, int vps) {
+  private void buildTree(Node current, DBIDs content, int vps, Random rnd) {
     // find vantage points
-    current.vps = findVantagePoints(content, vps);
+    current.vps = findVantagePoints(content, vps, rnd);
     // array to cache the distances to the vps for bound tracking
     double[] distances = new double[vps];
     // array to build up the childtree contents
@@ -225,13 +267,32 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
       }
     }
     // recursively build children
+    List<ForkJoinTask<?>> tasks = null;
     for(int i = 0; i < vps; i++) {
       // only build child if there are nodes in the child-tree
       if(children[i] != null) {
         int cvps = (numberVPs * children[i].size()) / relation.size();
         // bound cvps to [2,200]
         cvps = cvps > 200 ? 200 : cvps < 2 ? 2 : cvps;
-        buildTree(current.children[i] = new Node(cvps), children[i], cvps);
+        final Node child = current.children[i] = new Node(cvps);
+        if(children[i].size() < PARALLEL_MIN_SIZE) {
+          buildTree(child, children[i], cvps, rnd);
+          continue;
+        }
+        final Random crnd = new Xoroshiro128NonThreadsafeRandom(rnd.nextLong());
+        if(!parallel) {
+          buildTree(child, children[i], cvps, crnd);
+          continue;
+        }
+        final DBIDs ccontent = children[i];
+        final int ccvps = cvps;
+        tasks = tasks != null ? tasks : new ArrayList<>();
+        tasks.add(ForkJoinTask.adapt(() -> buildTree(child, ccontent, ccvps, crnd)).fork());
+      }
+    }
+    if(tasks != null) {
+      for(ForkJoinTask<?> task : tasks) {
+        task.join();
       }
     }
   }
@@ -241,9 +302,10 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
    *
    * @param content content to process
    * @param vps Number of vantage points to choose
+   * @param random random generator
    * @return vantage point
    */
-  private ArrayDBIDs findVantagePoints(DBIDs content, int vps) {
+  private ArrayDBIDs findVantagePoints(DBIDs content, int vps, Random random) {
     vps = Math.min(content.size(), vps);
     int sampleSize = Math.min(vps * 3, content.size());
     // target workset
@@ -829,6 +891,11 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
      */
     int numbervps;
 
+    /**
+     * Build independent subtrees with multiple threads
+     */
+    boolean parallel;
+
     /**
      * Constructor.
      *
@@ -837,15 +904,28 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
      * @param numberVantagePoints Number of vantage points to use
      */
     public Factory(Distance<? super O> distFunc, RandomFactory random, int numberVantagePoints) {
+      this(distFunc, random, numberVantagePoints, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distFunc Distance function
+     * @param random Random generator
+     * @param numberVantagePoints Number of vantage points to use
+     * @param parallel Build independent subtrees with multiple threads
+     */
+    public Factory(Distance<? super O> distFunc, RandomFactory random, int numberVantagePoints, boolean parallel) {
       super();
       this.distance = distFunc;
       this.random = random;
       this.numbervps = numberVantagePoints;
+      this.parallel = parallel;
     }
 
     @Override
     public GNAT<O> instantiate(Relation<O> relation) {
-      return new GNAT<>(relation, distance, random, numbervps);
+      return new GNAT<>(relation, distance, random, numbervps, parallel);
     }
 
     @Override
@@ -876,6 +956,11 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
        */
       public final static OptionID SEED_ID = new OptionID("vptree.seed", "The random number generator seed.");
 
+      /**
+       * Parameter to build independent subtrees with multiple threads
+       */
+      public final static OptionID PARALLEL_ID = new OptionID("vptree.parallel", "Build independent subtrees with multiple threads.");
+
       /**
        * Distance function
        */
@@ -891,6 +976,11 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
        */
       protected int amountVantagePoints;
 
+      /**
+       * Build independent subtrees with multiple threads
+       */
+      protected boolean parallel;
+
       @Override
       public void configure(Parameterization config) {
         new ObjectParameter<Distance<? super O>>(DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class)//
@@ -904,11 +994,12 @@ public class GNAT<O> implements DistancePriorityIndex<O> {
             .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
             .grab(config, x -> this.amountVantagePoints = x);
         new RandomParameter(SEED_ID).grab(config, x -> random = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
       }
 
       @Override
       public Factory<O> make() {
-        return new Factory<>(distance, random, amountVantagePoints);
+        return new Factory<>(distance, random, amountVantagePoints, parallel);
       }
     }
   }
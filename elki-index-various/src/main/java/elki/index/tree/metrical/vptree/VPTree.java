@@ -20,7 +20,10 @@
  */
 package elki.index.tree.metrical.vptree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
 
 import elki.data.NumberVector;
 import elki.data.type.TypeInformation;
@@ -33,21 +36,27 @@ import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DistancePriorityIndex;
-import elki.index.IndexFactory;
+import elki.index.SnapshotIndexFactory;
+import elki.index.SnapshotUtil;
 import elki.logging.Logging;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Alias;
 import elki.utilities.datastructures.QuickSelect;
 import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 import elki.utilities.documentation.Reference;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 import elki.utilities.optionhandling.parameters.RandomParameter;
 import elki.utilities.random.RandomFactory;
+import elki.utilities.random.Xoroshiro128NonThreadsafeRandom;
 
 /**
  * Vantage Point Tree with no additional information
@@ -112,6 +121,16 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
    */
   int truncate;
 
+  /**
+   * Build independent subtrees with multiple threads
+   */
+  boolean parallel;
+
+  /**
+   * Minimum number of elements in a subtree to use a separate builder.
+   */
+  private static final int PARALLEL_MIN_SIZE = 256;
+
   /**
    * Counter for distance computations.
    */
@@ -143,21 +162,46 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
    * @param truncate Leaf size threshold
    */
   public VPTree(Relation<O> relation, Distance<? super O> distance, RandomFactory random, int sampleSize, int truncate) {
+    this(relation, distance, random, sampleSize, truncate, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation data for tree construction
+   * @param distance distance function for tree construction
+   * @param random Random generator for sampling
+   * @param sampleSize Sample size for finding the vantage point
+   * @param truncate Leaf size threshold
+   * @param parallel Build independent subtrees with multiple threads
+   */
+  public VPTree(Relation<O> relation, Distance<? super O> distance, RandomFactory random, int sampleSize, int truncate, boolean parallel) {
     this.relation = relation;
     this.distFunc = distance;
     this.random = random;
     this.distQuery = distance.instantiate(relation);
     this.sampleSize = Math.max(sampleSize, 1);
     this.truncate = Math.max(truncate, 1);
+    this.parallel = parallel;
   }
 
   @Override
   public void initialize() {
-    root = new Builder().buildTree(0, relation.size());
+    if(root != null) {
+      return; // Already built, or restored from a snapshot.
+    }
+    root = parallel ? //
+        ParallelExecutor.invoke(ForkJoinTask.adapt(() -> new Builder().buildTree(0, relation.size()))) : //
+        new Builder().buildTree(0, relation.size());
   }
 
   /**
    * Build the VP-Tree
+   * <p>
+   * Large subtrees are built by separate builders with their own random
+   * generators, seeded in a fixed order. These builders run in fork/join
+   * tasks when building in parallel, and the resulting tree does not depend
+   * on the number of threads.
    *
    * @author Erich Schubert
    */
@@ -189,6 +233,18 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
       rnd = VPTree.this.random.getSingleThreadedRandom();
     }
 
+    /**
+     * Constructor for a subtree builder, sharing the scratch space.
+     *
+     * @param parent Parent builder
+     * @param seed Random seed
+     */
+    private Builder(Builder parent, long seed) {
+      scratch = parent.scratch;
+      scratchit = scratch.iter();
+      rnd = new Xoroshiro128NonThreadsafeRandom(seed);
+    }
+
     /**
      * Build the tree recursively
      * 
@@ -270,13 +326,35 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
         vps.add(scratchit.doubleValue(), scratchit);
       }
       Node current = new Node(vps);
-      // Note: left branch may disappear if the medoid is tied often
-      if(left + tied < middle) {
-        current.leftChild = buildTree(left + tied, middle);
+      final int lstart = left + tied, mid = middle;
+      if(right - left < PARALLEL_MIN_SIZE) {
+        // Note: left branch may disappear if the medoid is tied often
+        if(lstart < mid) {
+          current.leftChild = buildTree(lstart, mid);
+        }
+        current.rightChild = buildTree(mid, right);
+      }
+      else {
+        final Builder lb = new Builder(this, rnd.nextLong());
+        final Builder rb = new Builder(this, rnd.nextLong());
+        ForkJoinTask<Node> ltask = null;
+        if(lstart < mid) {
+          if(parallel) {
+            ltask = ForkJoinTask.adapt(() -> lb.buildTree(lstart, mid)).fork();
+          }
+          else {
+            current.leftChild = lb.buildTree(lstart, mid);
+          }
+        }
+        current.rightChild = rb.buildTree(mid, right);
+        if(ltask != null) {
+          current.leftChild = ltask.join();
+        }
+      }
+      if(current.leftChild != null) {
         current.leftChild.lowBound = leftLowBound;
         current.leftChild.highBound = leftHighBound;
       }
-      current.rightChild = buildTree(middle, right);
       current.rightChild.lowBound = rightLowBound;
       current.rightChild.highBound = rightHighBound;
       return current;
@@ -375,6 +453,124 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
     }
   }
 
+  /**
+   * Serialize the tree into a snapshot, storing objects as offsets into the
+   * relation.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  private static class SnapshotSerializer<O extends NumberVector> implements ByteBufferSerializer<VPTree<O>> {
+    /**
+     * Factory for the restored tree.
+     */
+    private final Factory<O> factory;
+
+    /**
+     * Relation indexed.
+     */
+    private final Relation<O> relation;
+
+    /**
+     * DBIDs of the relation.
+     */
+    private final DBIDRange ids;
+
+    /**
+     * Constructor.
+     *
+     * @param factory Factory for the restored tree
+     * @param relation Relation indexed
+     */
+    SnapshotSerializer(Factory<O> factory, Relation<O> relation) {
+      this.factory = factory;
+      this.relation = relation;
+      this.ids = DBIDUtil.assertRange(relation.getDBIDs());
+    }
+
+    @Override
+    public VPTree<O> fromByteBuffer(ByteBuffer buffer) throws IOException {
+      VPTree<O> tree = factory.instantiate(relation);
+      tree.root = buffer.get() != 0 ? readNode(buffer, ids.iter()) : null;
+      return tree;
+    }
+
+    /**
+     * Read a node and its children.
+     *
+     * @param buffer Buffer
+     * @param it Iterator to position on the objects
+     * @return Node
+     * @throws IOException on invalid data
+     */
+    private Node readNode(ByteBuffer buffer, DBIDArrayIter it) throws IOException {
+      final int size = ByteArrayUtil.readUnsignedVarint(buffer);
+      ModifiableDoubleDBIDList vp = DBIDUtil.newDistanceDBIDList(size);
+      for(int i = 0; i < size; i++) {
+        vp.add(buffer.getDouble(), it.seek(ByteArrayUtil.readUnsignedVarint(buffer)));
+      }
+      Node node = new Node(vp);
+      node.lowBound = buffer.getDouble();
+      node.highBound = buffer.getDouble();
+      final byte children = buffer.get();
+      node.leftChild = (children & 1) != 0 ? readNode(buffer, it) : null;
+      node.rightChild = (children & 2) != 0 ? readNode(buffer, it) : null;
+      return node;
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, VPTree<O> tree) throws IOException {
+      buffer.put((byte) (tree.root != null ? 1 : 0));
+      if(tree.root != null) {
+        writeNode(buffer, tree.root);
+      }
+    }
+
+    /**
+     * Write a node and its children.
+     *
+     * @param buffer Buffer
+     * @param node Node
+     */
+    private void writeNode(ByteBuffer buffer, Node node) {
+      ByteArrayUtil.writeUnsignedVarint(buffer, node.vp.size());
+      for(DoubleDBIDListIter it = node.vp.iter(); it.valid(); it.advance()) {
+        buffer.putDouble(it.doubleValue());
+        ByteArrayUtil.writeUnsignedVarint(buffer, ids.getOffset(it));
+      }
+      buffer.putDouble(node.lowBound).putDouble(node.highBound);
+      buffer.put((byte) ((node.leftChild != null ? 1 : 0) | (node.rightChild != null ? 2 : 0)));
+      if(node.leftChild != null) {
+        writeNode(buffer, node.leftChild);
+      }
+      if(node.rightChild != null) {
+        writeNode(buffer, node.rightChild);
+      }
+    }
+
+    @Override
+    public int getByteSize(VPTree<O> tree) throws IOException {
+      return SnapshotUtil.checkedByteSize(1 + (tree.root != null ? getByteSize(tree.root) : 0));
+    }
+
+    /**
+     * Get the serialized size of a node and its children.
+     *
+     * @param node Node
+     * @return Size in bytes
+     */
+    private long getByteSize(Node node) {
+      long size = ByteArrayUtil.getUnsignedVarintSize(node.vp.size()) + 17;
+      for(DoubleDBIDListIter it = node.vp.iter(); it.valid(); it.advance()) {
+        size += 8 + ByteArrayUtil.getUnsignedVarintSize(ids.getOffset(it));
+      }
+      size += node.leftChild != null ? getByteSize(node.leftChild) : 0;
+      size += node.rightChild != null ? getByteSize(node.rightChild) : 0;
+      return size;
+    }
+  }
+
   /**
    * Compute a distance, and count.
    *
@@ -864,7 +1060,7 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
    * @param <O> Object type
    */
   @Alias({ "vp" })
-  public static class Factory<O extends NumberVector> implements IndexFactory<O> {
+  public static class Factory<O extends NumberVector> implements SnapshotIndexFactory<O, VPTree<O>> {
     /**
      * Distance Function
      */
@@ -885,20 +1081,44 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
      */
     int truncate;
 
+    /**
+     * Build independent subtrees with multiple threads
+     */
+    boolean parallel;
+
     /**
      * Constructor.
      */
     public Factory(Distance<? super O> distFunc, RandomFactory random, int sampleSize, int truncate) {
+      this(distFunc, random, sampleSize, truncate, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distFunc Distance function
+     * @param random Random generator
+     * @param sampleSize Sample size for finding the vantage point
+     * @param truncate Leaf size threshold
+     * @param parallel Build independent subtrees with multiple threads
+     */
+    public Factory(Distance<? super O> distFunc, RandomFactory random, int sampleSize, int truncate, boolean parallel) {
       super();
       this.distance = distFunc;
       this.random = random;
       this.sampleSize = Math.max(sampleSize, 1);
       this.truncate = Math.max(truncate, 1);
+      this.parallel = parallel;
     }
 
     @Override
     public VPTree<O> instantiate(Relation<O> relation) {
-      return new VPTree<>(relation, distance, random, sampleSize, truncate);
+      return new VPTree<>(relation, distance, random, sampleSize, truncate, parallel);
+    }
+
+    @Override
+    public ByteBufferSerializer<VPTree<O>> getSnapshotSerializer(Relation<O> relation) {
+      return new SnapshotSerializer<>(this, relation);
     }
 
     @Override
@@ -934,6 +1154,11 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
        */
       public final static OptionID SEED_ID = new OptionID("vptree.seed", "The rnd number generator seed.");
 
+      /**
+       * Parameter to build independent subtrees with multiple threads
+       */
+      public final static OptionID PARALLEL_ID = new OptionID("vptree.parallel", "Build independent subtrees with multiple threads.");
+
       /**
        * Distance function
        */
@@ -954,6 +1179,11 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
        */
       int truncate;
 
+      /**
+       * Build independent subtrees with multiple threads
+       */
+      boolean parallel;
+
       @Override
       public void configure(Parameterization config) {
         new ObjectParameter<Distance<? super O>>(DISTANCE_FUNCTION_ID, Distance.class) //
@@ -970,11 +1200,12 @@ public class VPTree<O> implements DistancePriorityIndex<O> {
             .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
             .grab(config, x -> this.truncate = x);
         new RandomParameter(SEED_ID).grab(config, x -> random = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
       }
 
       @Override
       public Factory<O> make() {
-        return new Factory<>(distance, random, sampleSize, truncate);
+        return new Factory<>(distance, random, sampleSize, truncate, parallel);
       }
     }
   }
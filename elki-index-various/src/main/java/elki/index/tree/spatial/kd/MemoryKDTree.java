@@ -20,6 +20,13 @@
  */
 package elki.index.tree.spatial.kd;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
 import elki.data.NumberVector;
 import elki.data.VectorUtil;
 import elki.data.type.SimpleTypeInformation;
@@ -29,6 +36,7 @@ import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.BatchKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
@@ -39,7 +47,8 @@ import elki.distance.minkowski.LPNormDistance;
 import elki.distance.minkowski.ManhattanDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.DistancePriorityIndex;
-import elki.index.IndexFactory;
+import elki.index.SnapshotIndexFactory;
+import elki.index.SnapshotUtil;
 import elki.index.tree.spatial.kd.split.BoundedMidpointSplit;
 import elki.index.tree.spatial.kd.split.LeastOneDimSSQSplit;
 import elki.index.tree.spatial.kd.split.SplitStrategy;
@@ -48,6 +57,8 @@ import elki.logging.statistics.Counter;
 import elki.utilities.Alias;
 import elki.utilities.datastructures.heap.ComparableMinHeap;
 import elki.utilities.documentation.Reference;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -76,6 +87,7 @@ import elki.utilities.pairs.IntIntPair;
  * @author Erich Schubert
  *
  * @has - - - KDTreeKNNSearcher
+ * @has - - - KDTreeBatchKNNSearcher
  * @has - - - KDTreeRangeSearcher
  *
  * @param <O> Vector type
@@ -166,6 +178,9 @@ public class MemoryKDTree<O extends NumberVector> implements DistancePriorityInd
 
   @Override
   public void initialize() {
+    if(sorted != null) {
+      return; // Already built, or restored from a snapshot.
+    }
     dims = RelationUtil.dimensionality(relation);
     ArrayModifiableDBIDs ids = DBIDUtil.newArray(relation.getDBIDs());
     // to count object accesses:
@@ -279,6 +294,132 @@ public class MemoryKDTree<O extends NumberVector> implements DistancePriorityInd
     }
   }
 
+  /**
+   * Serialize the tree into a snapshot, storing objects as offsets into the
+   * relation.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  private static class SnapshotSerializer<O extends NumberVector> implements ByteBufferSerializer<MemoryKDTree<O>> {
+    /**
+     * Factory for the restored tree.
+     */
+    private final Factory<O> factory;
+
+    /**
+     * Relation indexed.
+     */
+    private final Relation<O> relation;
+
+    /**
+     * DBIDs of the relation.
+     */
+    private final DBIDRange ids;
+
+    /**
+     * Constructor.
+     *
+     * @param factory Factory for the restored tree
+     * @param relation Relation indexed
+     */
+    SnapshotSerializer(Factory<O> factory, Relation<O> relation) {
+      this.factory = factory;
+      this.relation = relation;
+      this.ids = DBIDUtil.assertRange(relation.getDBIDs());
+    }
+
+    @Override
+    public MemoryKDTree<O> fromByteBuffer(ByteBuffer buffer) throws IOException {
+      MemoryKDTree<O> tree = factory.instantiate(relation);
+      tree.dims = ByteArrayUtil.readSignedVarint(buffer);
+      final int size = ByteArrayUtil.readUnsignedVarint(buffer);
+      ArrayModifiableDBIDs sorted = DBIDUtil.newArray(size);
+      DBIDArrayIter it = ids.iter();
+      for(int i = 0; i < size; i++) {
+        sorted.add(it.seek(ByteArrayUtil.readUnsignedVarint(buffer)));
+      }
+      tree.root = readNode(buffer);
+      tree.sorted = sorted;
+      return tree;
+    }
+
+    /**
+     * Read a node and its children.
+     *
+     * @param buffer Buffer
+     * @return Node
+     * @throws IOException on invalid data
+     */
+    private Object readNode(ByteBuffer buffer) throws IOException {
+      if(buffer.get() == 0) {
+        final int start = ByteArrayUtil.readUnsignedVarint(buffer);
+        return new IntIntPair(start, start + ByteArrayUtil.readUnsignedVarint(buffer));
+      }
+      final int dim = ByteArrayUtil.readUnsignedVarint(buffer);
+      final double split = buffer.getDouble();
+      final Object left = readNode(buffer);
+      return new KDNode(dim, split, left, readNode(buffer));
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, MemoryKDTree<O> tree) throws IOException {
+      ByteArrayUtil.writeSignedVarint(buffer, tree.dims);
+      ByteArrayUtil.writeUnsignedVarint(buffer, tree.sorted.size());
+      for(DBIDIter it = tree.sorted.iter(); it.valid(); it.advance()) {
+        ByteArrayUtil.writeUnsignedVarint(buffer, ids.getOffset(it));
+      }
+      writeNode(buffer, tree.root);
+    }
+
+    /**
+     * Write a node and its children.
+     *
+     * @param buffer Buffer
+     * @param node Node
+     */
+    private void writeNode(ByteBuffer buffer, Object node) {
+      if(node.getClass() == IntIntPair.class) { // leaf
+        final IntIntPair leaf = (IntIntPair) node;
+        buffer.put((byte) 0);
+        ByteArrayUtil.writeUnsignedVarint(buffer, leaf.first);
+        ByteArrayUtil.writeUnsignedVarint(buffer, leaf.second - leaf.first);
+        return;
+      }
+      final KDNode kdnode = (KDNode) node;
+      buffer.put((byte) 1);
+      ByteArrayUtil.writeUnsignedVarint(buffer, kdnode.dim);
+      buffer.putDouble(kdnode.split);
+      writeNode(buffer, kdnode.leftChild);
+      writeNode(buffer, kdnode.rightChild);
+    }
+
+    @Override
+    public int getByteSize(MemoryKDTree<O> tree) throws IOException {
+      long size = ByteArrayUtil.getSignedVarintSize(tree.dims) + ByteArrayUtil.getUnsignedVarintSize(tree.sorted.size());
+      for(DBIDIter it = tree.sorted.iter(); it.valid(); it.advance()) {
+        size += ByteArrayUtil.getUnsignedVarintSize(ids.getOffset(it));
+      }
+      return SnapshotUtil.checkedByteSize(size + getNodeByteSize(tree.root));
+    }
+
+    /**
+     * Get the serialized size of a node and its children.
+     *
+     * @param node Node
+     * @return Size in bytes
+     */
+    private long getNodeByteSize(Object node) {
+      if(node.getClass() == IntIntPair.class) { // leaf
+        final IntIntPair leaf = (IntIntPair) node;
+        return 1 + ByteArrayUtil.getUnsignedVarintSize(leaf.first) + ByteArrayUtil.getUnsignedVarintSize(leaf.second - leaf.first);
+      }
+      final KDNode kdnode = (KDNode) node;
+      return 9L + ByteArrayUtil.getUnsignedVarintSize(kdnode.dim) + getNodeByteSize(kdnode.leftChild) + getNodeByteSize(kdnode.rightChild);
+    }
+  }
+
   /**
    * Assert that the generated split is consistent.
    *
@@ -349,6 +490,27 @@ public class MemoryKDTree<O extends NumberVector> implements DistancePriorityInd
     return null;
   }
 
+  @Override
+  public BatchKNNSearcher kNNBatch(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    if((flags & QueryBuilder.FLAG_PRECOMPUTE) != 0) {
+      return null; // Precomputed only requested
+    }
+    Distance<? super O> df = distanceQuery.getDistance();
+    if(df instanceof SquaredEuclideanDistance) {
+      return new KDTreeBatchKNNSearcher(PartialSquaredEuclideanDistance.STATIC);
+    }
+    if(df instanceof EuclideanDistance) {
+      return new KDTreeBatchKNNSearcher(PartialEuclideanDistance.STATIC);
+    }
+    if(df instanceof ManhattanDistance) {
+      return new KDTreeBatchKNNSearcher(PartialManhattanDistance.STATIC);
+    }
+    if(df instanceof LPNormDistance) {
+      return new KDTreeBatchKNNSearcher(new PartialLPNormDistance((LPNormDistance) df));
+    }
+    return null;
+  }
+
   @Override
   public RangeSearcher<O> rangeByObject(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
     if((flags & QueryBuilder.FLAG_PRECOMPUTE) != 0) {
@@ -492,6 +654,219 @@ public class MemoryKDTree<O extends NumberVector> implements DistancePriorityInd
     }
   }
 
+  /**
+   * Batch kNN query for the k-d-tree.
+   * <p>
+   * For an all-kNN self-join, each leaf is used as a block of queries, and the
+   * tree is traversed once per block, pruning by the distance of the bounding
+   * box of the block to the tree cells. This is a simple dual-tree search that
+   * shares the traversal among spatially close queries.
+   *
+   * @author Erich Schubert
+   */
+  public class KDTreeBatchKNNSearcher implements BatchKNNSearcher {
+    /**
+     * Distance to use.
+     */
+    private PartialDistance<? super O> distance;
+
+    /**
+     * Searcher for single queries.
+     */
+    private KDTreeKNNSearcher single;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance to use
+     */
+    public KDTreeBatchKNNSearcher(PartialDistance<? super O> distance) {
+      super();
+      this.distance = distance;
+      this.single = new KDTreeKNNSearcher(distance);
+    }
+
+    @Override
+    public KNNList getKNN(DBIDRef id, int k) {
+      return single.getKNN(relation.get(id), k);
+    }
+
+    @Override
+    public void getKNNBatch(DBIDs queries, int k, BiConsumer<? super DBIDRef, ? super KNNList> out) {
+      if(queries.size() != sorted.size()) { // Not a self-join
+        BatchKNNSearcher.super.getKNNBatch(queries, k, out);
+        return;
+      }
+      batchLeaves(root, k, out, sorted.iter(), sorted.iter());
+    }
+
+    /**
+     * Process all leaves as query blocks.
+     *
+     * @param cur Current node
+     * @param k Number of neighbors
+     * @param out Output consumer
+     * @param qiter Iterator for the queries
+     * @param iter Iterator for the candidates
+     */
+    private void batchLeaves(Object cur, int k, BiConsumer<? super DBIDRef, ? super KNNList> out, DBIDArrayIter qiter, DBIDArrayIter iter) {
+      if(cur.getClass() == IntIntPair.class) { // leaf
+        final int start = ((IntIntPair) cur).first, end = ((IntIntPair) cur).second;
+        Block block = new Block(start, end, k, qiter);
+        dualSearch(root, block, iter, new double[dims], 0);
+        for(int i = 0; i < block.queries.size(); i++) {
+          out.accept(qiter.seek(start + i), block.heaps[i].toKNNList());
+        }
+        return;
+      }
+      KDNode node = (KDNode) cur;
+      batchLeaves(node.leftChild, k, out, qiter, iter);
+      batchLeaves(node.rightChild, k, out, qiter, iter);
+    }
+
+    /**
+     * Search the tree for a block of queries.
+     *
+     * @param cur Current node
+     * @param block Query block
+     * @param iter Iterator variable
+     * @param bounds Current per-axis gaps to the query bounding box
+     * @param rawdist Raw distance to current rectangle (usually squared)
+     */
+    private void dualSearch(Object cur, Block block, DBIDArrayIter iter, double[] bounds, double rawdist) {
+      if(cur.getClass() == IntIntPair.class) { // leaf
+        final int start = ((IntIntPair) cur).first, end = ((IntIntPair) cur).second;
+        final List<O> queries = block.queries;
+        for(iter.seek(start); iter.getOffset() < end; iter.advance()) {
+          final O cand = relation.get(iter);
+          countObjectAccess();
+          for(int i = 0; i < queries.size(); i++) {
+            final double dist = distance.distance(queries.get(i), cand);
+            countDistanceComputation();
+            if(dist <= block.kdist[i]) {
+              block.kdist[i] = block.heaps[i].insert(dist, iter);
+            }
+          }
+        }
+        block.updateMax();
+        return;
+      }
+      KDNode node = (KDNode) cur;
+      final int axis = node.dim;
+      final double lgap = block.min[axis] - node.split;
+      final double rgap = node.split - block.max[axis];
+      if(block.min[axis] + block.max[axis] <= 2 * node.split) { // left first
+        dualVisit(node.leftChild, axis, lgap, block, iter, bounds, rawdist);
+        dualVisit(node.rightChild, axis, rgap, block, iter, bounds, rawdist);
+      }
+      else {
+        dualVisit(node.rightChild, axis, rgap, block, iter, bounds, rawdist);
+        dualVisit(node.leftChild, axis, lgap, block, iter, bounds, rawdist);
+      }
+    }
+
+    /**
+     * Visit a child node, if it cannot be pruned.
+     *
+     * @param child Child node
+     * @param axis Split axis
+     * @param gap Gap between the query block and the child on the split axis
+     * @param block Query block
+     * @param iter Iterator variable
+     * @param bounds Current per-axis gaps to the query bounding box
+     * @param rawdist Raw distance to current rectangle (usually squared)
+     */
+    private void dualVisit(Object child, int axis, double gap, Block block, DBIDArrayIter iter, double[] bounds, double rawdist) {
+      final double prevgap = bounds[axis];
+      if(gap <= prevgap) {
+        dualSearch(child, block, iter, bounds, rawdist);
+        return;
+      }
+      final double mindist = distance.combineRaw(rawdist, gap, prevgap);
+      if(distance.compareRawRegular(mindist, block.maxdist)) {
+        bounds[axis] = gap;
+        dualSearch(child, block, iter, bounds, mindist);
+        bounds[axis] = prevgap; // restore
+      }
+    }
+
+    /**
+     * Block of queries processed together.
+     *
+     * @author Erich Schubert
+     */
+    private class Block {
+      /**
+       * Query objects.
+       */
+      List<O> queries;
+
+      /**
+       * Bounding box of the queries.
+       */
+      double[] min, max;
+
+      /**
+       * kNN heaps of the queries.
+       */
+      KNNHeap[] heaps;
+
+      /**
+       * Current kNN distances of the queries.
+       */
+      double[] kdist;
+
+      /**
+       * Maximum kNN distance of the block.
+       */
+      double maxdist = Double.POSITIVE_INFINITY;
+
+      /**
+       * Constructor.
+       *
+       * @param start First query offset
+       * @param end Query end offset
+       * @param k Number of neighbors
+       * @param qiter Iterator for the queries
+       */
+      Block(int start, int end, int k, DBIDArrayIter qiter) {
+        final int size = end - start;
+        queries = new ArrayList<>(size);
+        min = new double[dims];
+        max = new double[dims];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for(qiter.seek(start); qiter.getOffset() < end; qiter.advance()) {
+          final O q = relation.get(qiter);
+          countObjectAccess();
+          queries.add(q);
+          for(int d = 0; d < dims; d++) {
+            final double v = q.doubleValue(d);
+            min[d] = v < min[d] ? v : min[d];
+            max[d] = v > max[d] ? v : max[d];
+          }
+        }
+        heaps = new KNNHeap[size];
+        kdist = new double[size];
+        for(int i = 0; i < size; i++) {
+          heaps[i] = DBIDUtil.newHeap(k);
+          kdist[i] = Double.POSITIVE_INFINITY;
+        }
+      }
+
+      /**
+       * Update the maximum kNN distance of the block.
+       */
+      void updateMax() {
+        double m = 0.;
+        for(double d : kdist) {
+          m = d > m ? d : m;
+        }
+        maxdist = m;
+      }
+    }
+  }
+
   /**
    * Range query for the k-d-tree.
    * <p>
@@ -788,7 +1163,7 @@ public class MemoryKDTree<O extends NumberVector> implements DistancePriorityInd
    * @param <O> Vector type
    */
   @Alias({ "kd" })
-  public static class Factory<O extends NumberVector> implements IndexFactory<O> {
+  public static class Factory<O extends NumberVector> implements SnapshotIndexFactory<O, MemoryKDTree<O>> {
     /**
      * Split stragegy
      */
@@ -816,6 +1191,11 @@ public class MemoryKDTree<O extends NumberVector> implements DistancePriorityInd
       return new MemoryKDTree<>(relation, split, leafsize);
     }
 
+    @Override
+    public ByteBufferSerializer<MemoryKDTree<O>> getSnapshotSerializer(Relation<O> relation) {
+      return new SnapshotSerializer<>(this, relation);
+    }
+
     @Override
     public TypeInformation getInputTypeRestriction() {
       return TypeUtil.NUMBER_VECTOR_FIELD;
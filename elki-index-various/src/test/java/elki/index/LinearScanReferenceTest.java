@@ -23,6 +23,7 @@ package elki.index;
 import org.junit.Test;
 
 import elki.database.query.distance.LinearScanEuclideanPrioritySearcher;
+import elki.database.query.knn.LinearScanBatchKNN;
 import elki.database.query.knn.LinearScanEuclideanKNNByObject;
 import elki.database.query.knn.LinearScanPrimitiveKNNByObject;
 import elki.database.query.knn.WrappedKNNDBIDByLookup;
@@ -44,6 +45,7 @@ public class LinearScanReferenceTest extends AbstractIndexStructureTest {
   public void testExact() {
     assertExactEuclidean(null, LinearScanEuclideanKNNByObject.class, LinearScanEuclideanRangeByObject.class);
     assertPrioritySearchEuclidean(null, LinearScanEuclideanPrioritySearcher.class);
+    assertBatchKNNEuclidean(null, LinearScanBatchKNN.class);
     assertSinglePoint(null, WrappedKNNDBIDByLookup.Linear.class, WrappedRangeDBIDByLookup.Linear.class);
   }
 
@@ -0,0 +1,117 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.hnsw;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.AbstractDatabaseConnection;
+import elki.datasource.filter.FixedDBIDsFilter;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.parallel.ParallelismRule;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the {@link HNSW} index.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class HNSWTest extends AbstractIndexStructureTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
+  @Test
+  public void testHNSW() {
+    HNSW.Factory<?> factory = new ELKIBuilder<>(HNSW.Factory.class) //
+        .with(HNSW.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(HNSW.Factory.Par.SEED_ID, 0) //
+        .build();
+    assertExactEuclidean(factory, HNSW.HNSWPrioritySearcher.class, HNSW.HNSWPrioritySearcher.class);
+    assertPrioritySearchEuclidean(factory, HNSW.HNSWPrioritySearcher.class);
+    assertSinglePoint(factory, HNSW.HNSWPrioritySearcher.class, HNSW.HNSWPrioritySearcher.class);
+  }
+
+  @Test
+  public void testRecall() {
+    assertRecall(false);
+  }
+
+  @Test
+  public void testParallelRecall() {
+    parallelism.set(4);
+    assertRecall(true);
+  }
+
+  /**
+   * Compare the kNN of every object to a linear scan.
+   *
+   * @param parallel Build the graph in parallel
+   */
+  private static void assertRecall(boolean parallel) {
+    HNSW.Factory<?> factory = new ELKIBuilder<>(HNSW.Factory.class) //
+        .with(HNSW.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(HNSW.Factory.Par.M_ID, 8) //
+        .with(HNSW.Factory.Par.EF_CONSTRUCTION_ID, 50) //
+        .with(HNSW.Factory.Par.EF_SEARCH_ID, 20) //
+        .with(HNSW.Factory.Par.SEED_ID, 0) //
+        .with(HNSW.Factory.Par.PARALLEL_ID, parallel) //
+        .build();
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0)) //
+        .addParameter(StaticArrayDatabase.Par.INDEX_ID, factory);
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/different-densities-2d-no-noise.ascii", 1000, inputparams);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    final int k = 10;
+    KNNSearcher<DBIDRef> knnq = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly().kNNByDBID(k);
+    assertTrue(knnq instanceof HNSW.HNSWPrioritySearcher);
+    assertFalse("Approximate index used for exact queries.", //
+        new QueryBuilder<>(relation, EuclideanDistance.STATIC).exactOnly().kNNByDBID(k) instanceof HNSW.HNSWPrioritySearcher);
+    KNNSearcher<DBIDRef> exact = new QueryBuilder<>(relation, EuclideanDistance.STATIC).linearOnly().kNNByDBID(k);
+    int hits = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList approx = knnq.getKNN(it, k);
+      double kdist = exact.getKNN(it, k).getKNNDistance();
+      for(DoubleDBIDListIter r = approx.iter(); r.valid(); r.advance()) {
+        hits += r.doubleValue() <= kdist ? 1 : 0;
+      }
+    }
+    double recall = hits / (double) (k * relation.size());
+    assertTrue("Recall too low: " + recall, recall > 0.95);
+  }
+}
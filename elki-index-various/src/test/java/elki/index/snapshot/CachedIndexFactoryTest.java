@@ -0,0 +1,165 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.snapshot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.index.tree.metrical.covertree.CoverTree;
+import elki.index.tree.metrical.covertree.SimplifiedCoverTree;
+import elki.index.tree.metrical.vptree.VPTree;
+import elki.index.tree.spatial.kd.MemoryKDTree;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test restoring indexes from snapshots.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class CachedIndexFactoryTest extends AbstractIndexStructureTest {
+  /**
+   * Temporary folder for the snapshot files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCoverTree() throws IOException {
+    CachedIndexFactory<?> factory = new ELKIBuilder<>(CachedIndexFactory.class) //
+        .with(CachedIndexFactory.Par.DIRECTORY_ID, folder.getRoot()) //
+        .with(CachedIndexFactory.Par.INDEX_ID, CoverTree.Factory.class) //
+        .with(CoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class).build();
+    assertExactEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    Path snapshot = markSnapshot();
+    assertExactEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class);
+    assertSinglePoint(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    assertReused(snapshot);
+  }
+
+  @Test
+  public void testSimplifiedCoverTree() throws IOException {
+    CachedIndexFactory<?> factory = new ELKIBuilder<>(CachedIndexFactory.class) //
+        .with(CachedIndexFactory.Par.DIRECTORY_ID, folder.getRoot()) //
+        .with(CachedIndexFactory.Par.INDEX_ID, SimplifiedCoverTree.Factory.class) //
+        .with(SimplifiedCoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class).build();
+    assertExactEuclidean(factory, SimplifiedCoverTree.CoverTreeKNNSearcher.class, SimplifiedCoverTree.CoverTreeRangeSearcher.class);
+    Path snapshot = markSnapshot();
+    assertExactEuclidean(factory, SimplifiedCoverTree.CoverTreeKNNSearcher.class, SimplifiedCoverTree.CoverTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, SimplifiedCoverTree.CoverTreePrioritySearcher.class);
+    assertReused(snapshot);
+  }
+
+  @Test
+  public void testVPTree() throws IOException {
+    CachedIndexFactory<?> factory = new ELKIBuilder<>(CachedIndexFactory.class) //
+        .with(CachedIndexFactory.Par.DIRECTORY_ID, folder.getRoot()) //
+        .with(CachedIndexFactory.Par.INDEX_ID, VPTree.Factory.class) //
+        .with(VPTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(VPTree.Factory.Par.SEED_ID, 1234).build();
+    assertExactEuclidean(factory, VPTree.VPTreeKNNSearcher.class, VPTree.VPTreeRangeSearcher.class);
+    Path snapshot = markSnapshot();
+    assertExactEuclidean(factory, VPTree.VPTreeKNNSearcher.class, VPTree.VPTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, VPTree.VPTreePrioritySearcher.class);
+    assertReused(snapshot);
+  }
+
+  @Test
+  public void testMemoryKDTree() throws IOException {
+    CachedIndexFactory<?> factory = new ELKIBuilder<>(CachedIndexFactory.class) //
+        .with(CachedIndexFactory.Par.DIRECTORY_ID, folder.getRoot()) //
+        .with(CachedIndexFactory.Par.INDEX_ID, MemoryKDTree.Factory.class) //
+        .with(MemoryKDTree.Factory.Par.LEAFSIZE_P, 2).build();
+    assertExactEuclidean(factory, MemoryKDTree.KDTreeKNNSearcher.class, MemoryKDTree.KDTreeRangeSearcher.class);
+    Path snapshot = markSnapshot();
+    assertExactEuclidean(factory, MemoryKDTree.KDTreeKNNSearcher.class, MemoryKDTree.KDTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, MemoryKDTree.KDTreePrioritySearcher.class);
+    assertBatchKNNEuclidean(factory, MemoryKDTree.KDTreeBatchKNNSearcher.class);
+    assertReused(snapshot);
+  }
+
+  @Test
+  public void testSettingsKey() throws IOException {
+    for(int seed : new int[] { 1234, 4321 }) {
+      CachedIndexFactory<?> factory = new ELKIBuilder<>(CachedIndexFactory.class) //
+          .with(CachedIndexFactory.Par.DIRECTORY_ID, folder.getRoot()) //
+          .with(CachedIndexFactory.Par.INDEX_ID, VPTree.Factory.class) //
+          .with(VPTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+          .with(VPTree.Factory.Par.SEED_ID, seed).build();
+      assertExactEuclidean(factory, VPTree.VPTreeKNNSearcher.class, VPTree.VPTreeRangeSearcher.class);
+    }
+    assertEquals("Different settings must not share a snapshot.", 2, listSnapshots().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingKey() {
+    new CachedIndexFactory<>(new MemoryKDTree.Factory<>(null, 2), folder.getRoot().toPath(), null);
+  }
+
+  /**
+   * Find the single snapshot file, and reset its modification time.
+   *
+   * @return Snapshot file
+   * @throws IOException on errors
+   */
+  private Path markSnapshot() throws IOException {
+    List<Path> snapshots = listSnapshots();
+    assertEquals("Snapshot not written.", 1, snapshots.size());
+    Files.setLastModifiedTime(snapshots.get(0), FileTime.fromMillis(0));
+    return snapshots.get(0);
+  }
+
+  /**
+   * Assert that the snapshot was reused, and not rewritten.
+   *
+   * @param snapshot Snapshot file
+   * @throws IOException on errors
+   */
+  private void assertReused(Path snapshot) throws IOException {
+    assertEquals("Snapshot rewritten.", 0, Files.getLastModifiedTime(snapshot).toMillis());
+  }
+
+  /**
+   * List the snapshot files in the temporary folder.
+   *
+   * @return Snapshot files
+   * @throws IOException on errors
+   */
+  private List<Path> listSnapshots() throws IOException {
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+      return files.filter(p -> p.toString().endsWith(".snapshot")).collect(Collectors.toList());
+    }
+  }
+}
@@ -20,10 +20,14 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -33,12 +37,51 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class CoverTreeTest extends AbstractIndexStructureTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   @Test
   public void testCovertree() {
     CoverTree.Factory<?> factory = new ELKIBuilder<>(CoverTree.Factory.class) //
         .with(CoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class).build();
     assertExactEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class);
+    assertBatchKNNEuclidean(factory, CoverTree.CoverTreeBatchKNNSearcher.class);
     assertSinglePoint(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
   }
+
+  @Test
+  public void testCovertreeParallel() {
+    CoverTree.Factory<?> factory = new ELKIBuilder<>(CoverTree.Factory.class) //
+        .with(CoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(CoverTree.Factory.Par.PARALLEL_ID).build();
+    parallelism.set(4);
+    assertExactEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class);
+  }
+
+  /**
+   * The parallel build must give the same tree as the sequential build.
+   */
+  @Test
+  public void testCovertreeParallelStructure() {
+    byte[] sequential = snapshot(makeFactory(false));
+    parallelism.set(4);
+    assertArrayEquals("Parallel build differs.", sequential, snapshot(makeFactory(true)));
+  }
+
+  /**
+   * Build a cover tree factory.
+   *
+   * @param parallel Build in parallel
+   * @return Factory
+   */
+  private static CoverTree.Factory<?> makeFactory(boolean parallel) {
+    return new ELKIBuilder<>(CoverTree.Factory.class) //
+        .with(CoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class)//
+        .with(CoverTree.Factory.Par.PARALLEL_ID, parallel).build();
+  }
 }
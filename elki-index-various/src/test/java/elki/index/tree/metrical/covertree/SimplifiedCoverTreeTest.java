@@ -20,10 +20,14 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -33,6 +37,12 @@ import elki.utilities.ELKIBuilder;
  * @since 0.7.5
  */
 public class SimplifiedCoverTreeTest extends AbstractIndexStructureTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   @Test
   public void testCovertree() {
     SimplifiedCoverTree.Factory<?> factory = new ELKIBuilder<>(SimplifiedCoverTree.Factory.class) //
@@ -41,4 +51,36 @@ public class SimplifiedCoverTreeTest extends AbstractIndexStructureTest {
     assertPrioritySearchEuclidean(factory, SimplifiedCoverTree.CoverTreePrioritySearcher.class);
     assertSinglePoint(factory, SimplifiedCoverTree.CoverTreeKNNSearcher.class, SimplifiedCoverTree.CoverTreeRangeSearcher.class);
   }
+
+  @Test
+  public void testCovertreeParallel() {
+    SimplifiedCoverTree.Factory<?> factory = new ELKIBuilder<>(SimplifiedCoverTree.Factory.class) //
+        .with(SimplifiedCoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(SimplifiedCoverTree.Factory.Par.PARALLEL_ID).build();
+    parallelism.set(4);
+    assertExactEuclidean(factory, SimplifiedCoverTree.CoverTreeKNNSearcher.class, SimplifiedCoverTree.CoverTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, SimplifiedCoverTree.CoverTreePrioritySearcher.class);
+  }
+
+  /**
+   * The parallel build must give the same tree as the sequential build.
+   */
+  @Test
+  public void testSimplifiedCovertreeParallelStructure() {
+    byte[] sequential = snapshot(makeFactory(false));
+    parallelism.set(4);
+    assertArrayEquals("Parallel build differs.", sequential, snapshot(makeFactory(true)));
+  }
+
+  /**
+   * Build a cover tree factory.
+   *
+   * @param parallel Build in parallel
+   * @return Factory
+   */
+  private static SimplifiedCoverTree.Factory<?> makeFactory(boolean parallel) {
+    return new ELKIBuilder<>(SimplifiedCoverTree.Factory.class) //
+        .with(SimplifiedCoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class)//
+        .with(SimplifiedCoverTree.Factory.Par.PARALLEL_ID, parallel).build();
+  }
 }
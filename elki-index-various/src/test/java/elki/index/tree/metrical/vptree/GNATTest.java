@@ -20,11 +20,25 @@
  */
 package elki.index.tree.metrical.vptree;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
 import org.junit.Test;
 
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Unit test for GNAT.
@@ -32,6 +46,12 @@ import elki.utilities.ELKIBuilder;
  * @author Robert Gehde
  */
 public class GNATTest extends AbstractIndexStructureTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   @Test
   public void testGNAT() {
     GNAT.Factory<?> factory = new ELKIBuilder<>(GNAT.Factory.class) //
@@ -42,4 +62,56 @@ public class GNATTest extends AbstractIndexStructureTest {
     assertPrioritySearchEuclidean(factory, GNAT.GNATPrioritySearcher.class);
     assertSinglePoint(factory, GNAT.GNATKNNDBIDSearcher.class, GNAT.GNATRangeDBIDSearcher.class);
   }
+
+  @Test
+  public void testGNATParallel() {
+    GNAT.Factory<?> factory = new ELKIBuilder<>(GNAT.Factory.class) //
+        .with(GNAT.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class)//
+        .with(GNAT.Factory.Par.NUMBER_VANTAGE_POINTS_ID, 10)//
+        .with(GNAT.Factory.Par.SEED_ID, 1234)//
+        .with(GNAT.Factory.Par.PARALLEL_ID).build();
+    parallelism.set(4);
+    assertExactEuclidean(factory, GNAT.GNATKNNObjectSearcher.class, GNAT.GNATRangeObjectSearcher.class);
+    assertPrioritySearchEuclidean(factory, GNAT.GNATPrioritySearcher.class);
+  }
+
+  /**
+   * A seeded parallel build must give the same tree as the sequential build.
+   */
+  @Test
+  public void testGNATParallelStructure() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/hierarchical-3d2d1d.csv", 600);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    GNAT<DoubleVector> sequential = new GNAT<>(relation, EuclideanDistance.STATIC, new RandomFactory(1234L), 10, false);
+    sequential.initialize();
+    parallelism.set(4);
+    GNAT<DoubleVector> parallel = new GNAT<>(relation, EuclideanDistance.STATIC, new RandomFactory(1234L), 10, true);
+    parallel.initialize();
+    assertSameNode(sequential.root, parallel.root);
+  }
+
+  /**
+   * Compare two subtrees recursively.
+   *
+   * @param a First node
+   * @param b Second node
+   */
+  private static void assertSameNode(GNAT.Node a, GNAT.Node b) {
+    if(a == null || b == null) {
+      assertTrue("Tree shape differs.", a == b);
+      return;
+    }
+    assertEquals("Number of vantage points differs.", a.vps.size(), b.vps.size());
+    for(DBIDArrayIter ia = a.vps.iter(), ib = b.vps.iter(); ia.valid(); ia.advance(), ib.advance()) {
+      assertTrue("Vantage points differ.", DBIDUtil.equal(ia, ib));
+    }
+    assertEquals("Number of children differs.", a.children.length, b.children.length);
+    for(int i = 0; i < a.lowerBound.length; i++) {
+      assertArrayEquals("Lower bounds differ.", a.lowerBound[i], b.lowerBound[i], 0.);
+      assertArrayEquals("Upper bounds differ.", a.upperBound[i], b.upperBound[i], 0.);
+    }
+    for(int i = 0; i < a.children.length; i++) {
+      assertSameNode(a.children[i], b.children[i]);
+    }
+  }
 }
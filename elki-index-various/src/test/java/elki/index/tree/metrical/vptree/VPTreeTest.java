@@ -20,10 +20,14 @@
  */
 package elki.index.tree.metrical.vptree;
 
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Rule;
 import org.junit.Test;
 
 import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
+import elki.parallel.ParallelismRule;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -32,6 +36,12 @@ import elki.utilities.ELKIBuilder;
  * @author Robert Gehde
  */
 public class VPTreeTest extends AbstractIndexStructureTest {
+  /**
+   * Set the number of threads for parallel tests.
+   */
+  @Rule
+  public ParallelismRule parallelism = new ParallelismRule();
+
   @Test
   public void testVPTree() {
     VPTree.Factory<?> factory = new ELKIBuilder<>(VPTree.Factory.class) //
@@ -56,4 +66,40 @@ public class VPTreeTest extends AbstractIndexStructureTest {
     assertPrioritySearchEuclidean(factory, VPTree.VPTreePrioritySearcher.class);
     assertSinglePoint(factory, VPTree.VPTreeKNNSearcher.class, VPTree.VPTreeRangeSearcher.class);
   }
+
+  @Test
+  public void testVPTreeParallel() {
+    VPTree.Factory<?> factory = new ELKIBuilder<>(VPTree.Factory.class) //
+        .with(VPTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class)//
+        .with(VPTree.Factory.Par.SAMPLE_SIZE_ID, 10)//
+        .with(VPTree.Factory.Par.SEED_ID, 1234)//
+        .with(VPTree.Factory.Par.PARALLEL_ID).build();
+    parallelism.set(4);
+    assertExactEuclidean(factory, VPTree.VPTreeKNNSearcher.class, VPTree.VPTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, VPTree.VPTreePrioritySearcher.class);
+  }
+
+  /**
+   * A seeded parallel build must give the same tree as the sequential build.
+   */
+  @Test
+  public void testVPTreeParallelStructure() {
+    byte[] sequential = snapshot(makeFactory(false));
+    parallelism.set(4);
+    assertArrayEquals("Parallel build differs.", sequential, snapshot(makeFactory(true)));
+  }
+
+  /**
+   * Build a seeded vantage-point tree factory.
+   *
+   * @param parallel Build in parallel
+   * @return Factory
+   */
+  private static VPTree.Factory<?> makeFactory(boolean parallel) {
+    return new ELKIBuilder<>(VPTree.Factory.class) //
+        .with(VPTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class)//
+        .with(VPTree.Factory.Par.SAMPLE_SIZE_ID, 10)//
+        .with(VPTree.Factory.Par.SEED_ID, 1234)//
+        .with(VPTree.Factory.Par.PARALLEL_ID, parallel).build();
+  }
 }
@@ -43,6 +43,7 @@ public class MemoryKDTreeTest extends AbstractIndexStructureTest {
     assertExactSqEuclidean(factory, MemoryKDTree.KDTreeKNNSearcher.class, MemoryKDTree.KDTreeRangeSearcher.class);
     assertExactEuclidean(factory, MemoryKDTree.KDTreeKNNSearcher.class, MemoryKDTree.KDTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, MemoryKDTree.KDTreePrioritySearcher.class);
+    assertBatchKNNEuclidean(factory, MemoryKDTree.KDTreeBatchKNNSearcher.class);
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
   }
 }
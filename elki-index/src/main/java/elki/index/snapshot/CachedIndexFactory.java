@@ -0,0 +1,211 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.snapshot;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import elki.data.type.TypeInformation;
+import elki.database.relation.Relation;
+import elki.index.Index;
+import elki.index.IndexFactory;
+import elki.index.SnapshotIndexFactory;
+import elki.index.SnapshotUtil;
+import elki.utilities.io.ByteBufferSerializer;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameterization.TrackedParameter;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Index factory that stores the built index in a binary snapshot file, and
+ * restores it from this snapshot instead of building it again when the same
+ * data is indexed with the same settings, for example in parameter sweeps.
+ * <p>
+ * Snapshots are keyed by a fingerprint of the data (in relation order) and the
+ * settings of the wrapped index factory, see {@link SnapshotUtil}. Reading a
+ * snapshot only needs to memory map the file and decode the index structure,
+ * without computing any distances. Note that randomized indexes without a fixed
+ * seed are reused, too.
+ * <p>
+ * Snapshots store objects as offsets into the relation, and hence require a
+ * static database with a DBID range; otherwise the index is built as usual.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @composed - - - SnapshotIndexFactory
+ *
+ * @param <O> Object type
+ */
+public class CachedIndexFactory<O> implements IndexFactory<O> {
+  /**
+   * Version of the snapshot format, part of the key.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Inner index factory.
+   */
+  SnapshotIndexFactory<O, ?> inner;
+
+  /**
+   * Directory to store the snapshots in.
+   */
+  Path directory;
+
+  /**
+   * Index configuration, part of the snapshot key.
+   */
+  String cachekey;
+
+  /**
+   * Constructor.
+   *
+   * @param inner Inner index factory
+   * @param directory Directory to store the snapshots in
+   * @param cachekey Index configuration, for the snapshot key; must include
+   *        all settings of the inner factory, see {@link Par}
+   */
+  public CachedIndexFactory(SnapshotIndexFactory<O, ?> inner, Path directory, String cachekey) {
+    super();
+    if(cachekey == null || cachekey.isEmpty()) {
+      throw new IllegalArgumentException("Index snapshots require a key describing the index settings.");
+    }
+    this.inner = inner;
+    this.directory = directory;
+    this.cachekey = cachekey;
+  }
+
+  @Override
+  public Index instantiate(Relation<O> relation) {
+    return instantiate(inner, relation);
+  }
+
+  /**
+   * Restore the index from a snapshot, or build it and store a snapshot.
+   *
+   * @param factory Index factory
+   * @param relation Relation to index
+   * @param <I> Index type
+   * @return Index, already initialized if snapshots are used
+   */
+  private <I extends Index> I instantiate(SnapshotIndexFactory<O, I> factory, Relation<O> relation) {
+    final ByteBufferSerializer<I> serializer = factory.getSnapshotSerializer(relation);
+    final Path file = serializer != null ? snapshotFile(relation) : null;
+    if(file == null) {
+      return factory.instantiate(relation);
+    }
+    I index = SnapshotUtil.readSnapshot(serializer, relation.size(), file);
+    if(index != null) {
+      return index;
+    }
+    index = factory.instantiate(relation);
+    index.initialize();
+    SnapshotUtil.writeSnapshot(serializer, index, relation.size(), file);
+    return index;
+  }
+
+  /**
+   * Get the snapshot file name for the current data and settings.
+   *
+   * @param relation Relation to index
+   * @return Snapshot file, or {@code null} if snapshots cannot be used
+   */
+  Path snapshotFile(Relation<O> relation) {
+    return SnapshotUtil.snapshotFile(directory, inner.getClass().getName().replace('$', '.'), VERSION + "\n" + cachekey, relation);
+  }
+
+  @Override
+  public TypeInformation getInputTypeRestriction() {
+    return inner.getInputTypeRestriction();
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> implements Parameterizer {
+    /**
+     * Index to build or restore.
+     */
+    public static final OptionID INDEX_ID = new OptionID("snapshot.index", "Index to build, or to restore from a snapshot of an earlier run with the same data and settings.");
+
+    /**
+     * Directory for the snapshot files.
+     */
+    public static final OptionID DIRECTORY_ID = new OptionID("snapshot.directory", "Directory to store the index snapshots in.");
+
+    /**
+     * Inner index factory.
+     */
+    protected SnapshotIndexFactory<O, ?> inner;
+
+    /**
+     * Directory to store the snapshots in.
+     */
+    protected Path directory;
+
+    /**
+     * Index configuration.
+     */
+    protected String cachekey;
+
+    @Override
+    public void configure(Parameterization config) {
+      new FileParameter(DIRECTORY_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .grab(config, x -> directory = toPath(x));
+      TrackParameters track = new TrackParameters(config);
+      new ObjectParameter<SnapshotIndexFactory<O, ?>>(INDEX_ID, SnapshotIndexFactory.class) //
+          .grab(track, x -> inner = x);
+      StringBuilder buf = new StringBuilder(1000);
+      for(TrackedParameter p : track.getAllParameters()) {
+        if(p.getParameter().isDefined()) {
+          buf.append(p.getParameter().getOptionID().getName()).append('=') //
+              .append(p.getParameter().getValueAsString()).append('\n');
+        }
+      }
+      cachekey = buf.toString();
+    }
+
+    /**
+     * Convert a file name to a local path.
+     *
+     * @param uri File name
+     * @return Path
+     */
+    private static Path toPath(URI uri) {
+      return uri.getScheme() == null ? Paths.get(uri.getPath()) : Paths.get(uri);
+    }
+
+    @Override
+    public CachedIndexFactory<O> make() {
+      return new CachedIndexFactory<>(inner, directory, cachekey);
+    }
+  }
+}
@@ -20,10 +20,21 @@
  */
 package elki.index.tree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
 import elki.index.Index;
 import elki.logging.Logging;
 import elki.logging.statistics.LongStatistic;
 import elki.persistent.PageFile;
+import elki.utilities.exceptions.AbortException;
 
 /**
  * Abstract super class for all tree based index classes.
@@ -76,6 +87,11 @@ public abstract class IndexTree<N extends Node<E>, E> implements Index {
    */
   private E rootEntry;
 
+  /**
+   * The header of the page file.
+   */
+  private TreeIndexHeader header;
+
   /**
    * Constructor.
    *
@@ -91,11 +107,51 @@ public abstract class IndexTree<N extends Node<E>, E> implements Index {
    */
   @Override
   public void initialize() {
-    TreeIndexHeader header = createHeader();
+    header = createHeader();
+    final long fingerprint = file.isPersistent() ? computeFingerprint() : 0;
+    header.setFingerprint(fingerprint);
+    rootEntry = createRootEntry();
     if(this.file.initialize(header)) {
+      if(header.getFingerprint() != fingerprint) {
+        throw new AbortException("The existing page file was built for different data. Remove the file to rebuild the index.");
+      }
       initializeFromFile(header, file);
     }
-    rootEntry = createRootEntry();
+  }
+
+  /**
+   * Compute a fingerprint of the indexed data, which is stored in the header
+   * to detect when an existing page file does not match the data.
+   *
+   * @return Fingerprint, {@code 0} to not check
+   */
+  protected long computeFingerprint() {
+    return 0;
+  }
+
+  /**
+   * Fingerprint of the data in a relation, including the object ids.
+   *
+   * @param relation Relation
+   * @param settings Additional settings to include, such as the distance
+   * @return Fingerprint
+   */
+  protected static long fingerprint(Relation<?> relation, String settings) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(settings.getBytes(StandardCharsets.UTF_8));
+      RelationUtil.digest(relation, md);
+      ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES);
+      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+        buf.clear();
+        buf.putInt(DBIDUtil.asInteger(it)).flip();
+        md.update(buf);
+      }
+      return ByteBuffer.wrap(md.digest()).getLong();
+    }
+    catch(IOException | NoSuchAlgorithmException e) {
+      throw new AbortException("Cannot fingerprint the data.", e);
+    }
   }
 
   /**
@@ -184,6 +240,18 @@ public abstract class IndexTree<N extends Node<E>, E> implements Index {
     file.deletePage(node.getPageID());
   }
 
+  /**
+   * Write all pending changes to the backing storage.
+   */
+  protected void flush() {
+    // Capacities may have been determined after creating the header.
+    header.dirCapacity = dirCapacity;
+    header.leafCapacity = leafCapacity;
+    header.dirMinimum = dirMinimum;
+    header.leafMinimum = leafMinimum;
+    file.flush();
+  }
+
   /**
    * Creates a header for this index structure which is an instance of
    * {@link TreeIndexHeader}. Subclasses may need to overwrite this method if
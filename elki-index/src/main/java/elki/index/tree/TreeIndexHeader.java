@@ -36,11 +36,12 @@ import elki.utilities.datastructures.arraylike.IntegerArray;
  */
 public class TreeIndexHeader extends DefaultPageHeader {
   /**
-   * The size of this header in Bytes, which is 20 Bytes ( 4 Bytes for
+   * The size of this header in Bytes, which is 32 Bytes ( 4 Bytes for
    * {@link #dirCapacity}, {@link #leafCapacity}, {@link #dirMinimum},
-   * {@link #leafMinimum}, {@link #emptyPagesSize}), and {@link #largestPageID}.
+   * {@link #leafMinimum}, {@link #emptyPagesSize}), {@link #largestPageID},
+   * and 8 Bytes for the {@link #fingerprint}.
    */
-  private static int SIZE = 6 * 4;
+  private static int SIZE = 6 * 4 + 8;
 
   /**
    * The capacity of a directory node (= 1 + maximum number of entries in a
@@ -75,6 +76,11 @@ public class TreeIndexHeader extends DefaultPageHeader {
    */
   private int largestPageID = 0;
 
+  /**
+   * Fingerprint of the indexed data, to detect stale files.
+   */
+  private long fingerprint = 0;
+
   /**
    * Empty constructor for serialization.
    */
@@ -115,6 +121,7 @@ public class TreeIndexHeader extends DefaultPageHeader {
     this.leafMinimum = buffer.getInt();
     this.emptyPagesSize = buffer.getInt();
     this.largestPageID = buffer.getInt();
+    this.fingerprint = buffer.getLong();
   }
 
   /**
@@ -131,6 +138,7 @@ public class TreeIndexHeader extends DefaultPageHeader {
         .putInt(this.leafMinimum) //
         .putInt(this.emptyPagesSize) //
         .putInt(this.largestPageID) //
+        .putLong(this.fingerprint) //
         .flip();
   }
 
@@ -197,6 +205,24 @@ public class TreeIndexHeader extends DefaultPageHeader {
     this.largestPageID = largestPageID;
   }
 
+  /**
+   * Get the fingerprint of the indexed data.
+   *
+   * @return Fingerprint, {@code 0} if not used
+   */
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Set the fingerprint of the indexed data.
+   *
+   * @param fingerprint Fingerprint, {@code 0} if not used
+   */
+  public void setFingerprint(long fingerprint) {
+    this.fingerprint = fingerprint;
+  }
+
   /**
    * Returns {@link elki.persistent.DefaultPageHeader#size()}
    * plus the value of {@link #SIZE}). Note, this is only the base size and
@@ -25,20 +25,51 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
+import elki.data.type.SimpleTypeInformation;
+import elki.datasource.bundle.BundleReader;
+import elki.datasource.bundle.BundleWriter;
+import elki.datasource.bundle.MappedDoubleVector;
+import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.datasource.filter.ObjectFilter;
 import elki.datasource.parser.ArffParser;
 import elki.datasource.parser.NumberVectorLabelParser;
 import elki.datasource.parser.Parser;
+import elki.logging.Logging;
 import elki.utilities.Priority;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.io.FileUtil;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameterization.TrackedParameter;
 import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * File based database connection based on the parser to be set.
+ * <p>
+ * Optionally, the parsed and filtered data can be cached in a binary bundle
+ * file next to the input file. The cache is keyed by the file size,
+ * modification time, a checksum of the head and tail of the file, and the
+ * parser and filter settings, and is rebuilt whenever any of these change.
+ * When the input file was modified, the cache file of the previous version
+ * with the same settings is removed.
+ * Reading the cache only needs to memory map the file instead of parsing the
+ * text again; with the {@code mapped} option, double vectors are even used as
+ * views into the mapped file without copying them onto the heap.
  * 
  * @author Arthur Zimek
  * @since 0.1
@@ -47,6 +78,41 @@ import elki.utilities.optionhandling.parameters.FileParameter;
  */
 @Priority(Priority.IMPORTANT)
 public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(FileBasedDatabaseConnection.class);
+
+  /**
+   * Suffix of cache files.
+   */
+  private static final String CACHE_SUFFIX = ".bundle";
+
+  /**
+   * Number of bytes checksummed at the head and tail of the file.
+   */
+  private static final int FINGERPRINT_BYTES = 1 << 20;
+
+  /**
+   * Input file.
+   */
+  URI infile;
+
+  /**
+   * Use a binary cache file.
+   */
+  boolean cache;
+
+  /**
+   * Read double vectors as views into the mapped cache file.
+   */
+  boolean mapped;
+
+  /**
+   * Parser and filter configuration, part of the cache key.
+   */
+  String cachekey;
+
   /**
    * Constructor.
    * 
@@ -55,6 +121,20 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
    * @param infile File to load the data from
    */
   public FileBasedDatabaseConnection(List<? extends ObjectFilter> filters, Parser parser, URI infile) {
+    this(filters, parser, infile, false, false, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param filters Filters, can be null
+   * @param parser the parser to provide a database
+   * @param infile File to load the data from
+   * @param cache Use a binary cache file
+   * @param mapped Read double vectors as views into the mapped cache
+   * @param cachekey Parser and filter configuration, for the cache key
+   */
+  public FileBasedDatabaseConnection(List<? extends ObjectFilter> filters, Parser parser, URI infile, boolean cache, boolean mapped, String cachekey) {
     super(() -> {
       try {
         return new BufferedInputStream(FileUtil.open(infile));
@@ -63,6 +143,10 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
         throw new UncheckedIOException("Could not load input file: " + infile, e);
       }
     }, filters, parser);
+    this.infile = infile;
+    this.cache = cache;
+    this.mapped = mapped;
+    this.cachekey = cachekey;
   }
 
   /**
@@ -87,6 +171,185 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
     super(in, filters, parser);
   }
 
+  @Override
+  public MultipleObjectsBundle loadData() {
+    final Path cachefile = cache ? cacheFile() : null;
+    if(cachefile == null) {
+      return super.loadData();
+    }
+    if(Files.isRegularFile(cachefile)) {
+      try (FileChannel channel = FileChannel.open(cachefile, StandardOpenOption.READ)) {
+        LOG.verbose("Reading cached data from " + cachefile);
+        // Mapped buffers remain valid after closing the channel.
+        return (!mapped ? new BundleReader(channel) : new BundleReader(channel) {
+          @Override
+          protected SimpleTypeInformation<? extends Object> mapType(SimpleTypeInformation<? extends Object> type) {
+            return MappedDoubleVector.mapType(type);
+          }
+        }).asMultipleObjectsBundle();
+      }
+      catch(IOException | AbortException e) {
+        LOG.warning("Cannot read cache file " + cachefile + ", rebuilding: " + e.getMessage());
+      }
+    }
+    MultipleObjectsBundle bundle = super.loadData();
+    writeCache(bundle, cachefile);
+    return bundle;
+  }
+
+  /**
+   * Get the cache file name for the current input file and settings.
+   *
+   * @return Cache file, or {@code null} if the input is not a local file
+   */
+  Path cacheFile() {
+    final Path file;
+    try {
+      file = infile.getScheme() == null ? Paths.get(infile.getPath()) : //
+          "file".equals(infile.getScheme()) ? Paths.get(infile) : null;
+    }
+    catch(IllegalArgumentException e) {
+      return null;
+    }
+    if(file == null || !Files.isRegularFile(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      final long size = channel.size();
+      ByteBuffer buf = ByteBuffer.allocate(FINGERPRINT_BYTES + 16);
+      buf.putLong(size).putLong(Files.getLastModifiedTime(file).toMillis());
+      buf.flip();
+      md.update(buf);
+      // Checksum the head and tail of the file, to detect modifications
+      // that preserve the time stamp.
+      digestRange(channel, md, buf, 0);
+      if(size > FINGERPRINT_BYTES) {
+        digestRange(channel, md, buf, Math.max(FINGERPRINT_BYTES, size - FINGERPRINT_BYTES));
+      }
+      final byte[] settings = (cachekey != null ? cachekey : parser.getClass().getName()).getBytes(StandardCharsets.UTF_8);
+      md.update(settings);
+      // The name starts with a hash of the settings only, so that cache files
+      // of an older version of the input can be found and removed.
+      StringBuilder name = new StringBuilder(100).append(file.getFileName()).append('.');
+      appendHex(name, MessageDigest.getInstance("SHA-256").digest(settings), 4).append('.');
+      return file.resolveSibling(appendHex(name, md.digest(), 8).append(CACHE_SUFFIX).toString());
+    }
+    catch(IOException | NoSuchAlgorithmException e) {
+      LOG.warning("Cannot fingerprint input file " + file + ", not caching: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Append the leading bytes of a digest in hexadecimal.
+   *
+   * @param buf Output buffer
+   * @param digest Digest
+   * @param len Number of bytes
+   * @return Output buffer
+   */
+  private static StringBuilder appendHex(StringBuilder buf, byte[] digest, int len) {
+    for(int i = 0; i < len; i++) {
+      buf.append(Character.forDigit((digest[i] >>> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+    }
+    return buf;
+  }
+
+  /**
+   * Add a range of the file to the digest.
+   *
+   * @param channel File channel
+   * @param md Digest
+   * @param buf Buffer to use
+   * @param start Starting position
+   * @throws IOException on read errors
+   */
+  private static void digestRange(FileChannel channel, MessageDigest md, ByteBuffer buf, long start) throws IOException {
+    buf.clear().limit(FINGERPRINT_BYTES);
+    long pos = start;
+    for(int r; buf.hasRemaining() && (r = channel.read(buf, pos)) > 0;) {
+      pos += r;
+    }
+    buf.flip();
+    md.update(buf);
+  }
+
+  /**
+   * Write the cache file. The data is written to a temporary file first, and
+   * then moved, so that concurrent readers never see partial files.
+   *
+   * @param bundle Data to write
+   * @param cachefile Cache file name
+   */
+  private static void writeCache(MultipleObjectsBundle bundle, Path cachefile) {
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(cachefile.toAbsolutePath().getParent(), cachefile.getFileName().toString(), ".tmp");
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        new BundleWriter().writeBundleStream(bundle.asStream(), channel);
+      }
+      try {
+        Files.move(tmp, cachefile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch(IOException e) {
+        Files.move(tmp, cachefile, StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmp = null;
+      LOG.verbose("Wrote cache file " + cachefile);
+      removeStaleCaches(cachefile);
+    }
+    catch(IOException | AbortException e) {
+      LOG.warning("Cannot write cache file " + cachefile + ": " + e.getMessage());
+    }
+    finally {
+      if(tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        }
+        catch(IOException e) {
+          // Ignore.
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove cache files of older versions of the input file with the same
+   * settings, which will never be used again.
+   *
+   * @param cachefile Current cache file
+   */
+  private static void removeStaleCaches(Path cachefile) {
+    final String name = cachefile.getFileName().toString();
+    // Input file name and settings hash, without the content hash:
+    final String prefix = name.substring(0, name.lastIndexOf('.', name.length() - CACHE_SUFFIX.length() - 1) + 1);
+    try (DirectoryStream<Path> stale = Files.newDirectoryStream(cachefile.toAbsolutePath().getParent(), //
+        p -> {
+          String n = p.getFileName().toString();
+          return n.startsWith(prefix) && n.endsWith(CACHE_SUFFIX) && !n.equals(name);
+        })) {
+      for(Path p : stale) {
+        try {
+          Files.deleteIfExists(p);
+          LOG.verbose("Removed stale cache file " + p);
+        }
+        catch(IOException e) {
+          // Possibly still mapped by another process.
+          LOG.warning("Cannot remove stale cache file " + p + ": " + e.getMessage());
+        }
+      }
+    }
+    catch(IOException e) {
+      LOG.warning("Cannot list stale cache files: " + e.getMessage());
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
   /**
    * Parameterization class.
    * 
@@ -98,27 +361,67 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
      */
     public static final OptionID INPUT_ID = new OptionID("dbc.in", "The name of the input file to be parsed.");
 
+    /**
+     * Flag to cache the parsed data in a binary file next to the input.
+     */
+    public static final OptionID CACHE_ID = new OptionID("dbc.cache", "Cache the parsed and filtered data in a binary bundle file next to the input file, and reuse it while the input and settings are unchanged.");
+
+    /**
+     * Flag to read vectors as views into the mapped cache file.
+     */
+    public static final OptionID MAPPED_ID = new OptionID("dbc.cache.mapped", "Use double vectors from the cache file as views into the memory mapped file, instead of copying them. The relation type then is a generic number vector.");
+
     /**
      * Input stream to process.
      */
     protected URI infile;
 
+    /**
+     * Use a binary cache file.
+     */
+    protected boolean cache;
+
+    /**
+     * Read double vectors as views.
+     */
+    protected boolean mapped;
+
+    /**
+     * Parser and filter configuration.
+     */
+    protected String cachekey;
+
     @Override
     public void configure(Parameterization config) {
       // Add the input file first, for usability reasons.
       new FileParameter(INPUT_ID, FileParameter.FileType.INPUT_FILE) //
           .grab(config, x -> infile = x);
+      new Flag(CACHE_ID).grab(config, x -> cache = x);
+      if(cache) {
+        new Flag(MAPPED_ID).grab(config, x -> mapped = x);
+      }
       Class<? extends Parser> defaultParser = NumberVectorLabelParser.class;
       if(infile != null && (infile.toString().endsWith(".arff") || infile.toString().endsWith(".arff.gz"))) {
         defaultParser = ArffParser.class;
       }
-      configParser(config, Parser.class, defaultParser);
-      configFilters(config);
+      TrackParameters track = new TrackParameters(config);
+      configParser(track, Parser.class, defaultParser);
+      configFilters(track);
+      if(cache) {
+        StringBuilder buf = new StringBuilder(1000);
+        for(TrackedParameter p : track.getAllParameters()) {
+          if(p.getParameter().isDefined()) {
+            buf.append(p.getParameter().getOptionID().getName()).append('=') //
+                .append(p.getParameter().getValueAsString()).append('\n');
+          }
+        }
+        cachekey = buf.toString();
+      }
     }
 
     @Override
     public FileBasedDatabaseConnection make() {
-      return new FileBasedDatabaseConnection(filters, parser, infile);
+      return new FileBasedDatabaseConnection(filters, parser, infile, cache, mapped, cachekey);
     }
   }
 }
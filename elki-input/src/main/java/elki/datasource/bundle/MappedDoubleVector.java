@@ -0,0 +1,204 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.bundle;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.utilities.datastructures.arraylike.ArrayAdapter;
+import elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Read-only view of a double vector stored in a (memory mapped) byte buffer,
+ * in the format of {@link DoubleVector.VariableSerializer}.
+ * <p>
+ * This allows reading bundle files without copying the vector data onto the
+ * Java heap. The views are only {@link NumberVector}s, not
+ * {@link DoubleVector}s, and keep the underlying buffer reachable.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @has - - - Serializer
+ */
+public class MappedDoubleVector implements NumberVector {
+  /**
+   * Static serializer.
+   */
+  public static final Serializer SERIALIZER = new Serializer();
+
+  /**
+   * Static factory.
+   */
+  public static final Factory FACTORY = new Factory();
+
+  /**
+   * Buffer containing the data.
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * Offset of the first value in the buffer.
+   */
+  private final int off;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Constructor.
+   *
+   * @param buffer Buffer containing the data
+   * @param off Offset of the first value
+   * @param dim Dimensionality
+   */
+  public MappedDoubleVector(ByteBuffer buffer, int off, int dim) {
+    this.buffer = buffer;
+    this.off = off;
+    this.dim = dim;
+  }
+
+  @Override
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public double doubleValue(int dimension) {
+    return buffer.getDouble(off + (dimension << 3));
+  }
+
+  @Override
+  public long longValue(int dimension) {
+    return (long) doubleValue(dimension);
+  }
+
+  @Override
+  public double[] toArray() {
+    double[] ret = new double[dim];
+    for(int i = 0, p = off; i < dim; i++, p += ByteArrayUtil.SIZE_DOUBLE) {
+      ret[i] = buffer.getDouble(p);
+    }
+    return ret;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder(dim * 8);
+    for(int i = 0; i < dim; i++) {
+      buf.append(i > 0 ? ATTRIBUTE_SEPARATOR : "").append(doubleValue(i));
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Substitute the type of double vector fields stored with the variable
+   * serializer, to read them as views.
+   *
+   * @param type Type stored
+   * @return Type to use
+   */
+  public static SimpleTypeInformation<? extends Object> mapType(SimpleTypeInformation<? extends Object> type) {
+    if(!(type instanceof VectorFieldTypeInformation) || !(type.getSerializer() instanceof DoubleVector.VariableSerializer)) {
+      return type;
+    }
+    VectorFieldTypeInformation<?> vtype = (VectorFieldTypeInformation<?>) type;
+    final int dim = vtype.getDimensionality();
+    String[] labels = null;
+    if(vtype.getLabel(0) != null) {
+      labels = new String[dim];
+      for(int i = 0; i < dim; i++) {
+        labels[i] = vtype.getLabel(i);
+      }
+    }
+    return new VectorFieldTypeInformation<>(FACTORY, dim, labels, SERIALIZER);
+  }
+
+  /**
+   * Serializer producing views; the written format is compatible with
+   * {@link DoubleVector.VariableSerializer}.
+   *
+   * @author Erich Schubert
+   */
+  public static class Serializer implements ByteBufferSerializer<NumberVector> {
+    @Override
+    public NumberVector fromByteBuffer(ByteBuffer buffer) throws IOException {
+      final int dim = ByteArrayUtil.readUnsignedVarint(buffer);
+      final int off = buffer.position(), len = dim * ByteArrayUtil.SIZE_DOUBLE;
+      if(buffer.remaining() < len) {
+        throw new BufferUnderflowException();
+      }
+      buffer.position(off + len);
+      return new MappedDoubleVector(buffer, off, dim);
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, NumberVector vec) throws IOException {
+      final int dim = vec.getDimensionality();
+      ByteArrayUtil.writeUnsignedVarint(buffer, dim);
+      for(int i = 0; i < dim; i++) {
+        buffer.putDouble(vec.doubleValue(i));
+      }
+    }
+
+    @Override
+    public int getByteSize(NumberVector vec) throws IOException {
+      final int dim = vec.getDimensionality();
+      return ByteArrayUtil.getUnsignedVarintSize(dim) + ByteArrayUtil.SIZE_DOUBLE * dim;
+    }
+  }
+
+  /**
+   * Factory for the view type; new vectors are {@link DoubleVector}s.
+   *
+   * @author Erich Schubert
+   */
+  public static class Factory implements NumberVector.Factory<NumberVector> {
+    @Override
+    public <A> NumberVector newFeatureVector(A array, ArrayAdapter<? extends Number, A> adapter) {
+      return DoubleVector.FACTORY.newFeatureVector(array, adapter);
+    }
+
+    @Override
+    public <A> NumberVector newNumberVector(A array, NumberArrayAdapter<?, ? super A> adapter) {
+      return DoubleVector.FACTORY.newNumberVector(array, adapter);
+    }
+
+    @Override
+    public ByteBufferSerializer<NumberVector> getDefaultSerializer() {
+      return SERIALIZER;
+    }
+
+    @Override
+    public Class<? super NumberVector> getRestrictionClass() {
+      return NumberVector.class;
+    }
+  }
+}
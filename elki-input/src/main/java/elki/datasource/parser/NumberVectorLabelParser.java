@@ -75,7 +75,7 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
   /**
    * Keeps the indices of the attributes to be treated as a string label.
    */
-  private long[] labelIndices;
+  protected long[] labelIndices;
 
   /**
    * Vector factory class.
@@ -212,24 +212,7 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     try {
       while(reader.nextLineExceptComments()) {
         if(parseLineInternal()) {
-          final int curdim = curvec.getDimensionality();
-          if(curdim > maxdim || mindim > curdim) {
-            mindim = (curdim < mindim) ? curdim : mindim;
-            maxdim = (curdim > maxdim) ? curdim : maxdim;
-            if(!warnedDim && mindim != maxdim && LOG.isVerbose()) {
-              LOG.verbose("Non-uniform column width detected in input line " + reader.getLineNumber() + ", widening data type to " + mindim + "-" + maxdim + " dimensions.");
-              warnedDim = true;
-            }
-            buildMeta();
-            nextevent = Event.NEXT_OBJECT;
-            return Event.META_CHANGED;
-          }
-          else if(curlbl != null && meta != null && haslabels && meta.size() == 1) {
-            buildMeta();
-            nextevent = Event.NEXT_OBJECT;
-            return Event.META_CHANGED;
-          }
-          return Event.NEXT_OBJECT;
+          return nextObjectEvent(reader.getLineNumber());
         }
       }
       if(maxdim == 0) {
@@ -242,6 +225,34 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     }
   }
 
+  /**
+   * Produce the event for the current object, updating the meta data if the
+   * dimensionality changed or labels were first seen.
+   *
+   * @param line Current line number, for logging
+   * @return Event to report
+   */
+  protected Event nextObjectEvent(long line) {
+    final int curdim = curvec.getDimensionality();
+    if(curdim > maxdim || mindim > curdim) {
+      mindim = (curdim < mindim) ? curdim : mindim;
+      maxdim = (curdim > maxdim) ? curdim : maxdim;
+      if(!warnedDim && mindim != maxdim && getLogger().isVerbose()) {
+        getLogger().verbose("Non-uniform column width detected in input line " + line + ", widening data type to " + mindim + "-" + maxdim + " dimensions.");
+        warnedDim = true;
+      }
+      buildMeta();
+      nextevent = Event.NEXT_OBJECT;
+      return Event.META_CHANGED;
+    }
+    else if(curlbl != null && meta != null && haslabels && meta.size() == 1) {
+      buildMeta();
+      nextevent = Event.NEXT_OBJECT;
+      return Event.META_CHANGED;
+    }
+    return Event.NEXT_OBJECT;
+  }
+
   @Override
   public void cleanup() {
     super.cleanup();
@@ -0,0 +1,439 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import elki.data.LabelList;
+import elki.data.NumberVector;
+import elki.logging.Logging;
+import elki.parallel.ParallelCore;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Parallel variant of the {@link NumberVectorLabelParser}.
+ * <p>
+ * The input is read in chunks of bytes, cut at line breaks, which are parsed
+ * on the worker threads of the {@link ParallelCore} with separate tokenizers.
+ * The parsed chunks are then reported as a stream in input order, so stream
+ * filters still apply, and only a bounded number of chunks is held in memory.
+ * <p>
+ * The result is the same as with the serial parser, except that label strings
+ * are only unified within each chunk. Quoted values must not span multiple
+ * lines (which the serial parser does not support either).
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @param <V> the type of NumberVector used
+ */
+public class ParallelNumberVectorLabelParser<V extends NumberVector> extends NumberVectorLabelParser<V> {
+  /**
+   * Logging class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelNumberVectorLabelParser.class);
+
+  /**
+   * Input format.
+   */
+  private CSVReaderFormat format;
+
+  /**
+   * Chunk size in bytes.
+   */
+  private int chunksize;
+
+  /**
+   * Input stream.
+   */
+  private InputStream in;
+
+  /**
+   * Partial line left over from the previous chunk.
+   */
+  private byte[] carry;
+
+  /**
+   * End of input reached.
+   */
+  private boolean eof;
+
+  /**
+   * Number of chunks submitted.
+   */
+  private int submitted;
+
+  /**
+   * Chunks being parsed, in input order.
+   */
+  private ArrayDeque<Future<Chunk<V>>> pending = new ArrayDeque<>();
+
+  /**
+   * Chunk currently being reported.
+   */
+  private Chunk<V> current;
+
+  /**
+   * Position in the current chunk.
+   */
+  private int pos;
+
+  /**
+   * Number of lines before the current chunk.
+   */
+  private long lineoffset;
+
+  /**
+   * Connected to the parallel core.
+   */
+  private boolean connected;
+
+  /**
+   * Constructor.
+   *
+   * @param format Input format
+   * @param labelIndices Column indexes that are not numeric.
+   * @param factory Vector factory
+   * @param chunksize Chunk size in bytes
+   */
+  public ParallelNumberVectorLabelParser(CSVReaderFormat format, long[] labelIndices, NumberVector.Factory<V> factory, int chunksize) {
+    super(format, labelIndices, factory);
+    this.format = format;
+    this.chunksize = chunksize;
+  }
+
+  /**
+   * Constructor with defaults.
+   *
+   * @param factory Vector factory
+   */
+  public ParallelNumberVectorLabelParser(NumberVector.Factory<V> factory) {
+    this(CSVReaderFormat.DEFAULT_FORMAT, null, factory, Par.DEFAULT_CHUNKSIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param colSep Column separator
+   * @param quoteChars Quote character
+   * @param comment Comment pattern
+   * @param labelIndices Column indexes that are not numeric.
+   * @param factory Vector factory
+   * @param chunksize Chunk size in bytes
+   */
+  public ParallelNumberVectorLabelParser(Pattern colSep, String quoteChars, Pattern comment, long[] labelIndices, NumberVector.Factory<V> factory, int chunksize) {
+    this(new CSVReaderFormat(colSep, quoteChars, comment), labelIndices, factory, chunksize);
+  }
+
+  @Override
+  public void initStream(InputStream in) {
+    super.initStream(in);
+    this.in = in;
+    carry = null;
+    eof = false;
+    submitted = 0;
+    pending.clear();
+    current = null;
+    pos = 0;
+    lineoffset = 0;
+    if(!connected) {
+      ParallelCore.getCore().connect();
+      connected = true;
+    }
+  }
+
+  @Override
+  public Event nextEvent() {
+    if(nextevent != null) {
+      Event ret = nextevent;
+      nextevent = null;
+      return ret;
+    }
+    while(true) {
+      if(current != null && pos < current.size()) {
+        curvec = current.vecs.get(pos);
+        curlbl = current.lbls.get(pos);
+        haslabels |= curlbl.size() > 0;
+        return nextObjectEvent(lineoffset + current.lines[pos++]);
+      }
+      if(current != null) {
+        lineoffset += current.numlines;
+      }
+      current = nextChunk();
+      pos = 0;
+      if(current == null) {
+        if(maxdim == 0) {
+          throw new AbortException("No numeric data was read in " + lineoffset + " lines. Verify the column separator; for textual data use other parsers.");
+        }
+        return Event.END_OF_STREAM;
+      }
+      if(current.columnnames != null) {
+        columnnames = current.columnnames;
+      }
+    }
+  }
+
+  /**
+   * Get the next parsed chunk, submitting further chunks for parsing.
+   *
+   * @return Next chunk, or {@code null} at the end of the input.
+   */
+  private Chunk<V> nextChunk() {
+    final ParallelCore core = ParallelCore.getCore();
+    final int maxpending = core.getParallelism() << 1;
+    try {
+      while(!eof && pending.size() < maxpending) {
+        final byte[] buf = readChunk();
+        if(buf.length > 0) {
+          final boolean first = submitted++ == 0;
+          pending.add(core.submit(() -> parseChunk(buf, first)));
+        }
+      }
+    }
+    catch(IOException e) {
+      throw new IllegalArgumentException("Error while reading input after line " + lineoffset + ".", e);
+    }
+    Future<Chunk<V>> next = pending.poll();
+    if(next == null) {
+      return null;
+    }
+    try {
+      return next.get();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AbortException("Parsing was interrupted.", e);
+    }
+    catch(ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new AbortException("Parsing failed.", e.getCause());
+    }
+  }
+
+  /**
+   * Read the next chunk of complete lines from the input.
+   *
+   * @return Chunk data, may be empty at the end of the input
+   * @throws IOException on read errors
+   */
+  private byte[] readChunk() throws IOException {
+    final int clen = carry != null ? carry.length : 0;
+    byte[] buf = new byte[Math.max(chunksize, clen << 1)];
+    if(clen > 0) {
+      System.arraycopy(carry, 0, buf, 0, clen);
+    }
+    carry = null;
+    int len = clen;
+    while(true) {
+      while(len < buf.length) {
+        final int r = in.read(buf, len, buf.length - len);
+        if(r < 0) {
+          eof = true;
+          return len < buf.length ? Arrays.copyOf(buf, len) : buf;
+        }
+        len += r;
+      }
+      // Cut after the last line break:
+      int cut = len;
+      while(cut > 0 && buf[cut - 1] != '\n') {
+        --cut;
+      }
+      if(cut > 0) {
+        carry = cut < len ? Arrays.copyOfRange(buf, cut, len) : null;
+        return cut < len ? Arrays.copyOf(buf, cut) : buf;
+      }
+      // A single line longer than the buffer:
+      buf = Arrays.copyOf(buf, buf.length << 1);
+    }
+  }
+
+  /**
+   * Parse a chunk of lines, using a separate parser instance.
+   *
+   * @param buf Input data
+   * @param first First chunk, which may contain a header row
+   * @return Parsed chunk
+   */
+  private Chunk<V> parseChunk(byte[] buf, boolean first) {
+    NumberVectorLabelParser<V> parser = new NumberVectorLabelParser<>(format, labelIndices, factory);
+    parser.initStream(new ByteArrayInputStream(buf));
+    if(!first) {
+      // Header rows are only recognized before the first vector of the input.
+      parser.curvec = parser.createVector();
+    }
+    Chunk<V> chunk = new Chunk<>(Math.max(16, buf.length >>> 6));
+    try {
+      while(parser.reader.nextLineExceptComments()) {
+        if(parser.parseLineInternal()) {
+          chunk.add(parser.curvec, parser.curlbl, parser.reader.getLineNumber());
+        }
+      }
+    }
+    catch(IOException e) {
+      throw new IllegalArgumentException("Error while parsing line " + parser.reader.getLineNumber() + " of a chunk.", e);
+    }
+    chunk.numlines = parser.reader.getLineNumber();
+    chunk.columnnames = parser.columnnames;
+    return chunk;
+  }
+
+  @Override
+  public void cleanup() {
+    super.cleanup();
+    for(Future<Chunk<V>> f : pending) {
+      f.cancel(false);
+    }
+    pending.clear();
+    current = null;
+    carry = null;
+    in = null;
+    if(connected) {
+      ParallelCore.getCore().disconnect();
+      connected = false;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parsed chunk of the input.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> Vector type
+   */
+  private static class Chunk<V> {
+    /**
+     * Vectors.
+     */
+    ArrayList<V> vecs;
+
+    /**
+     * Labels.
+     */
+    ArrayList<LabelList> lbls;
+
+    /**
+     * Line numbers within the chunk.
+     */
+    int[] lines;
+
+    /**
+     * Number of lines in the chunk.
+     */
+    int numlines;
+
+    /**
+     * Column names, if a header row was found.
+     */
+    List<String> columnnames;
+
+    /**
+     * Constructor.
+     *
+     * @param size Expected size
+     */
+    Chunk(int size) {
+      vecs = new ArrayList<>(size);
+      lbls = new ArrayList<>(size);
+      lines = new int[size];
+    }
+
+    /**
+     * Add a parsed line.
+     *
+     * @param vec Vector
+     * @param lbl Labels
+     * @param line Line number
+     */
+    void add(V vec, LabelList lbl, int line) {
+      final int i = vecs.size();
+      if(i == lines.length) {
+        lines = Arrays.copyOf(lines, lines.length << 1);
+      }
+      lines[i] = line;
+      vecs.add(vec);
+      lbls.add(lbl);
+    }
+
+    /**
+     * Number of parsed objects.
+     *
+     * @return Size
+     */
+    int size() {
+      return vecs.size();
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends NumberVectorLabelParser.Par<V> {
+    /**
+     * Size of the chunks to parse in parallel, in bytes.
+     */
+    public static final OptionID CHUNKSIZE_ID = new OptionID("parser.chunksize", "Size of the chunks of the input to parse in parallel, in bytes.");
+
+    /**
+     * Default chunk size.
+     */
+    public static final int DEFAULT_CHUNKSIZE = 8 << 20;
+
+    /**
+     * Chunk size in bytes.
+     */
+    protected int chunksize = DEFAULT_CHUNKSIZE;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new IntParameter(CHUNKSIZE_ID, DEFAULT_CHUNKSIZE) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> chunksize = x);
+    }
+
+    @Override
+    public ParallelNumberVectorLabelParser<V> make() {
+      return new ParallelNumberVectorLabelParser<>(format, labelIndices, factory, chunksize);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import elki.data.DoubleVector;
+import elki.datasource.bundle.MappedDoubleVector;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test the binary cache of the file based database connection.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class FileBasedDatabaseConnectionTest extends AbstractDataSourceTest {
+  /**
+   * Temporary folder for the input and cache files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCache() throws IOException {
+    Path file = copyInput("normally-distributed-data-1.csv");
+    MultipleObjectsBundle expect = load(file, false, false);
+    assertEquals("Cache file written without caching.", 0, countCacheFiles());
+    MultipleObjectsBundle first = load(file, true, false);
+    assertEquals("Cache file not written.", 1, countCacheFiles());
+    assertSameBundle(expect, first);
+    MultipleObjectsBundle cached = load(file, true, false);
+    assertSameBundle(expect, cached);
+    assertTrue("Not a double vector.", cached.data(0, 0) instanceof DoubleVector);
+    MultipleObjectsBundle mapped = load(file, true, true);
+    assertSameBundle(expect, mapped);
+    assertTrue("Not a mapped vector.", mapped.data(0, 0) instanceof MappedDoubleVector);
+    assertEquals("Cache file not reused.", 1, countCacheFiles());
+    // Modify the input, which must invalidate the cache.
+    Files.write(file, new byte[] { '1', ' ', '2', ' ', 'x', '\n' });
+    MultipleObjectsBundle modified = load(file, true, false);
+    assertEquals("Stale cache used.", 1, modified.dataLength());
+    assertEquals("Stale cache file not removed.", 1, countCacheFiles());
+    assertEquals("Cache file not rebuilt.", 1, load(file, true, false).dataLength());
+  }
+
+  /**
+   * Copy a test resource into the temporary folder.
+   *
+   * @param name Resource name
+   * @return Path
+   * @throws IOException on errors
+   */
+  private Path copyInput(String name) throws IOException {
+    Path file = folder.getRoot().toPath().resolve(name);
+    try (InputStream is = open(UNITTEST + name)) {
+      Files.copy(is, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return file;
+  }
+
+  /**
+   * Count the cache files in the temporary folder.
+   *
+   * @return Number of cache files
+   * @throws IOException on errors
+   */
+  private long countCacheFiles() throws IOException {
+    try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+      return files.filter(p -> p.toString().endsWith(".bundle")).count();
+    }
+  }
+
+  /**
+   * Load a file.
+   *
+   * @param file File to load
+   * @param cache Use the cache
+   * @param mapped Use mapped vectors
+   * @return Bundle
+   */
+  private static MultipleObjectsBundle load(Path file, boolean cache, boolean mapped) {
+    return new ELKIBuilder<>(FileBasedDatabaseConnection.class) //
+        .with(FileBasedDatabaseConnection.Par.INPUT_ID, file.toString()) //
+        .with(FileBasedDatabaseConnection.Par.CACHE_ID, cache) //
+        .with(FileBasedDatabaseConnection.Par.MAPPED_ID, mapped) //
+        .build().loadData();
+  }
+
+  /**
+   * Compare two bundles.
+   *
+   * @param expect Expected bundle
+   * @param got Observed bundle
+   */
+  private static void assertSameBundle(MultipleObjectsBundle expect, MultipleObjectsBundle got) {
+    assertEquals("columns", expect.metaLength(), got.metaLength());
+    assertEquals("rows", expect.dataLength(), got.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      for(int r = 0; r < expect.dataLength(); r++) {
+        assertEquals("row " + r, expect.data(r, c).toString(), got.data(r, c).toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.datasource.AbstractDataSourceTest;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test the parallel number vector parser against the serial parser.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class ParallelNumberVectorLabelParserTest extends AbstractDataSourceTest {
+  @Test
+  public void testFiles() throws IOException {
+    for(String name : new String[] { "normally-distributed-data-1.csv", "dimensionality-test-1.csv", "label-selection-test-1.csv" }) {
+      MultipleObjectsBundle expect, got;
+      try (InputStream is = open(UNITTEST + name)) {
+        expect = new NumberVectorLabelParser<>(DoubleVector.FACTORY).parse(is);
+      }
+      try (InputStream is = open(UNITTEST + name)) {
+        Parser parser = new ELKIBuilder<>(ParallelNumberVectorLabelParser.class) //
+            .with(ParallelNumberVectorLabelParser.Par.CHUNKSIZE_ID, 64).build();
+        got = parser.parse(is);
+        parser.cleanup();
+      }
+      assertSameBundle(name, expect, got);
+    }
+  }
+
+  @Test
+  public void testHeaderAndComments() {
+    StringBuilder buf = new StringBuilder(1000).append("x y label\n");
+    for(int i = 0; i < 100; i++) {
+      buf.append(i).append(' ').append(i * .5).append(" l").append(i % 3).append('\n');
+      if(i % 7 == 0) {
+        buf.append("# comment ").append(i).append('\n');
+      }
+    }
+    byte[] input = buf.toString().getBytes(StandardCharsets.UTF_8);
+    NumberVectorLabelParser<DoubleVector> serial = new NumberVectorLabelParser<>(DoubleVector.FACTORY);
+    MultipleObjectsBundle expect = serial.parse(new ByteArrayInputStream(input));
+    for(int chunksize : new int[] { 1, 10, 100, 1 << 20 }) {
+      ParallelNumberVectorLabelParser<DoubleVector> parser = new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY, chunksize);
+      MultipleObjectsBundle got = parser.parse(new ByteArrayInputStream(input));
+      parser.cleanup();
+      assertSameBundle("chunk size " + chunksize, expect, got);
+      assertEquals("Column names lost.", "y", ((VectorFieldTypeInformation<?>) got.meta(0)).getLabel(1));
+    }
+  }
+
+  /**
+   * Compare two bundles.
+   *
+   * @param msg Message prefix
+   * @param expect Expected bundle
+   * @param got Observed bundle
+   */
+  private static void assertSameBundle(String msg, MultipleObjectsBundle expect, MultipleObjectsBundle got) {
+    assertEquals(msg + ": columns", expect.metaLength(), got.metaLength());
+    assertEquals(msg + ": rows", expect.dataLength(), got.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      assertEquals(msg + ": type", expect.meta(c).toString(), got.meta(c).toString());
+      for(int r = 0; r < expect.dataLength(); r++) {
+        assertEquals(msg + ": row " + r, expect.data(r, c).toString(), got.data(r, c).toString());
+      }
+    }
+  }
+}
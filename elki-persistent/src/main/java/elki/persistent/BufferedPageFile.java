@@ -0,0 +1,297 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import java.util.Arrays;
+
+import elki.logging.Logging;
+import elki.logging.statistics.Counter;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.datastructures.arraylike.IntegerArray;
+import elki.utilities.exceptions.AbortException;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * A buffer pool on top of another page file, keeping a limited number of pages
+ * in memory. Written pages are only marked dirty, and written to the
+ * underlying page file when they are evicted from the buffer, or when the
+ * buffer is flushed.
+ * <p>
+ * Pages are replaced using the CLOCK (second chance) approximation of LRU,
+ * which has less maintenance cost on buffer hits than the {@link LRUCache}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @composed - - - PageFile
+ *
+ * @param <P> Page type
+ */
+public class BufferedPageFile<P extends Page> extends AbstractPageFile<P> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(BufferedPageFile.class);
+
+  /**
+   * The underlying file of this buffer.
+   */
+  protected final PageFile<P> file;
+
+  /**
+   * Buffer size in bytes.
+   */
+  private final long bufferSize;
+
+  /**
+   * Map from page ids to buffer slots.
+   */
+  private Int2IntOpenHashMap slots;
+
+  /**
+   * Buffered pages.
+   */
+  private Object[] pages;
+
+  /**
+   * Page ids of the buffer slots.
+   */
+  private int[] ids;
+
+  /**
+   * Number of slots used so far.
+   */
+  private int used;
+
+  /**
+   * Slots freed by page deletions.
+   */
+  private IntegerArray free = new IntegerArray();
+
+  /**
+   * Reference bits of the slots.
+   */
+  private boolean[] referenced;
+
+  /**
+   * Current position of the clock hand.
+   */
+  private int hand;
+
+  /**
+   * Buffer hit and miss counters.
+   */
+  private Counter hits, misses;
+
+  /**
+   * Constructor.
+   *
+   * @param file Underlying page file
+   * @param bufferSize Buffer size in bytes
+   */
+  public BufferedPageFile(PageFile<P> file, long bufferSize) {
+    super();
+    this.file = file;
+    this.bufferSize = bufferSize;
+    Logging log = getLogger();
+    this.hits = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".hits") : null;
+    this.misses = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".misses") : null;
+  }
+
+  @Override
+  public boolean initialize(PageHeader header) {
+    boolean existed = file.initialize(header);
+    final long capacity = bufferSize / header.getPageSize();
+    if(capacity <= 0 || capacity > Integer.MAX_VALUE) {
+      throw new AbortException("Invalid buffer size: " + bufferSize + " / " + header.getPageSize() + " = " + capacity);
+    }
+    final int cap = (int) capacity;
+    slots = new Int2IntOpenHashMap();
+    slots.defaultReturnValue(-1);
+    pages = new Object[cap];
+    ids = new int[cap];
+    referenced = new boolean[cap];
+    if(LOG.isDebugging()) {
+      LOG.debug("Buffer size is " + cap + " pages.");
+    }
+    return existed;
+  }
+
+  @Override
+  public synchronized P readPage(int pageID) {
+    countRead();
+    final int slot = slots.get(pageID);
+    if(slot >= 0) {
+      if(hits != null) {
+        hits.increment();
+      }
+      referenced[slot] = true;
+      @SuppressWarnings("unchecked")
+      P page = (P) pages[slot];
+      return page;
+    }
+    if(misses != null) {
+      misses.increment();
+    }
+    P page = file.readPage(pageID);
+    if(page != null) {
+      insert(pageID, page);
+    }
+    return page;
+  }
+
+  @Override
+  protected synchronized void writePage(int pageID, P page) {
+    countWrite();
+    page.setDirty(true);
+    final int slot = slots.get(pageID);
+    if(slot >= 0) {
+      pages[slot] = page;
+      referenced[slot] = true;
+      return;
+    }
+    insert(pageID, page);
+  }
+
+  @Override
+  public synchronized void deletePage(int pageID) {
+    final int slot = slots.remove(pageID);
+    if(slot >= 0) {
+      pages[slot] = null;
+      referenced[slot] = false;
+      free.add(slot);
+    }
+    file.deletePage(pageID);
+  }
+
+  /**
+   * Insert a page into the buffer, evicting another page if necessary.
+   *
+   * @param pageID Page id
+   * @param page Page
+   */
+  private void insert(int pageID, P page) {
+    final int slot = !free.isEmpty() ? free.data[--free.size] : //
+        used < pages.length ? used++ : evict();
+    pages[slot] = page;
+    ids[slot] = pageID;
+    slots.put(pageID, slot);
+    referenced[slot] = true;
+  }
+
+  /**
+   * Evict a page from the buffer, writing it back if it is dirty.
+   *
+   * @return Slot that became available
+   */
+  private int evict() {
+    while(referenced[hand]) {
+      referenced[hand] = false;
+      hand = hand + 1 < pages.length ? hand + 1 : 0;
+    }
+    final int slot = hand;
+    hand = hand + 1 < pages.length ? hand + 1 : 0;
+    @SuppressWarnings("unchecked")
+    P page = (P) pages[slot];
+    if(page.isDirty()) {
+      file.writePage(page);
+    }
+    slots.remove(ids[slot]);
+    pages[slot] = null;
+    return slot;
+  }
+
+  /**
+   * Write all dirty pages to the underlying file, and flush it.
+   */
+  @Override
+  public synchronized void flush() {
+    for(int i = 0; i < used; i++) {
+      @SuppressWarnings("unchecked")
+      P page = (P) pages[i];
+      if(page != null && page.isDirty()) {
+        file.writePage(page);
+      }
+    }
+    file.flush();
+  }
+
+  @Override
+  public synchronized void close() {
+    flush();
+    file.close();
+  }
+
+  /**
+   * Clears this buffer and the underlying file, without writing dirty pages.
+   */
+  @Override
+  public synchronized void clear() {
+    slots.clear();
+    Arrays.fill(pages, null);
+    used = 0;
+    free.clear();
+    hand = 0;
+    Arrays.fill(referenced, false);
+    file.clear();
+  }
+
+  @Override
+  public int setPageID(P page) {
+    return file.setPageID(page);
+  }
+
+  @Override
+  public int getNextPageID() {
+    return file.getNextPageID();
+  }
+
+  @Override
+  public void setNextPageID(int nextPageID) {
+    file.setNextPageID(nextPageID);
+  }
+
+  @Override
+  public int getPageSize() {
+    return file.getPageSize();
+  }
+
+  @Override
+  public boolean isPersistent() {
+    return file.isPersistent();
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    if(hits != null) {
+      LOG.statistics(hits);
+      LOG.statistics(misses);
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".buffered", slots.size()));
+    }
+    file.logStatistics();
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
+import elki.utilities.optionhandling.parameters.LongParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Page file factory for a buffer pool on top of another page file, using
+ * either the {@link LRUCache} or the CLOCK replacement of a
+ * {@link BufferedPageFile}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @has - - - BufferedPageFile
+ * @has - - - LRUCache
+ *
+ * @param <P> Page type
+ */
+public class BufferedPageFileFactory<P extends Page> implements PageFileFactory<P> {
+  /**
+   * Page replacement policy.
+   *
+   * @author Erich Schubert
+   */
+  public enum Policy {
+    /**
+     * Evict the least recently used page.
+     */
+    LRU,
+    /**
+     * Evict using the CLOCK (second chance) algorithm.
+     */
+    CLOCK
+  }
+
+  /**
+   * Inner page file factory.
+   */
+  private PageFileFactory<P> pageFileFactory;
+
+  /**
+   * Buffer size in bytes.
+   */
+  private long bufferSize;
+
+  /**
+   * Page replacement policy.
+   */
+  private Policy policy;
+
+  /**
+   * Constructor.
+   *
+   * @param pageFileFactory Inner page file factory
+   * @param bufferSize Buffer size in bytes
+   * @param policy Page replacement policy
+   */
+  public BufferedPageFileFactory(PageFileFactory<P> pageFileFactory, long bufferSize, Policy policy) {
+    super();
+    this.pageFileFactory = pageFileFactory;
+    this.bufferSize = bufferSize;
+    this.policy = policy;
+  }
+
+  @Override
+  public PageFile<P> newPageFile(Class<P> cls) {
+    PageFile<P> inner = pageFileFactory.newPageFile(cls);
+    return policy == Policy.LRU ? new LRUCache<>(bufferSize, inner) : new BufferedPageFile<>(inner, bufferSize);
+  }
+
+  @Override
+  public int getPageSize() {
+    return pageFileFactory.getPageSize();
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par implements Parameterizer {
+    /**
+     * Parameter to specify the underlying page file.
+     */
+    public static final OptionID PAGEFILE_ID = new OptionID("pagefile.buffer.pagefile", "The page file to buffer.");
+
+    /**
+     * Parameter to specify the size of the buffer in bytes.
+     */
+    public static final OptionID BUFFER_SIZE_ID = new OptionID("pagefile.buffer.size", "The size of the buffer in bytes.");
+
+    /**
+     * Parameter to specify the page replacement policy.
+     */
+    public static final OptionID POLICY_ID = new OptionID("pagefile.buffer.policy", "The page replacement policy of the buffer.");
+
+    /**
+     * Inner page file factory.
+     */
+    private PageFileFactory<Page> pageFileFactory;
+
+    /**
+     * Buffer size in bytes.
+     */
+    private long bufferSize;
+
+    /**
+     * Page replacement policy.
+     */
+    private Policy policy;
+
+    @Override
+    public void configure(Parameterization config) {
+      new ObjectParameter<PageFileFactory<Page>>(PAGEFILE_ID, PageFileFactory.class) //
+          .grab(config, x -> pageFileFactory = x);
+      new LongParameter(BUFFER_SIZE_ID, 64L << 20) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> bufferSize = x);
+      new EnumParameter<Policy>(POLICY_ID, Policy.class, Policy.LRU) //
+          .grab(config, x -> policy = x);
+    }
+
+    @Override
+    public BufferedPageFileFactory<Page> make() {
+      return new BufferedPageFileFactory<>(pageFileFactory, bufferSize, policy);
+    }
+  }
+}
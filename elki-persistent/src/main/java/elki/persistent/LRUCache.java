@@ -27,6 +27,8 @@ import java.util.List;
 import java.util.Map;
 
 import elki.logging.Logging;
+import elki.logging.statistics.Counter;
+import elki.logging.statistics.LongStatistic;
 import elki.utilities.exceptions.AbortException;
 
 /**
@@ -51,7 +53,7 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   /**
    * Cache size in bytes.
    */
-  protected int cacheSizeBytes;
+  protected long cacheSizeBytes;
 
   /**
    * The maximum number of objects in this cache.
@@ -69,6 +71,11 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   protected PageFile<P> file;
 
+  /**
+   * Cache hit and miss counters.
+   */
+  private Counter hits, misses;
+
   /**
    * Initializes this cache with the specified parameters.
    * 
@@ -76,9 +83,12 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    * @param file the underlying file of this cache, if a page is dropped it is
    *        written to the file
    */
-  public LRUCache(int cacheSizeBytes, PageFile<P> file) {
+  public LRUCache(long cacheSizeBytes, PageFile<P> file) {
     this.file = file;
     this.cacheSizeBytes = cacheSizeBytes;
+    Logging log = getLogger();
+    this.hits = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".hits") : null;
+    this.misses = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".misses") : null;
   }
 
   /**
@@ -94,16 +104,24 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
     countRead();
     P page = map.get(pageID);
     if(page != null) {
+      if(hits != null) {
+        hits.increment();
+      }
       if(LOG.isDebuggingFine()) {
         LOG.debugFine("Read from cache: " + pageID);
       }
     }
     else {
+      if(misses != null) {
+        misses.increment();
+      }
       if(LOG.isDebuggingFine()) {
         LOG.debugFine("Read from backing: " + pageID);
       }
       page = file.readPage(pageID);
-      map.put(pageID, page);
+      if(page != null) {
+        map.put(pageID, page);
+      }
     }
     return page;
   }
@@ -119,7 +137,7 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   }
 
   @Override
-  public void deletePage(int pageID) {
+  public synchronized void deletePage(int pageID) {
     countWrite();
     map.remove(pageID);
     file.deletePage(pageID);
@@ -160,15 +178,20 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
     return file.getPageSize();
   }
 
+  @Override
+  public boolean isPersistent() {
+    return file.isPersistent();
+  }
+
   @Override
   public boolean initialize(PageHeader header) {
     boolean created = file.initialize(header);
     // Compute the actual cache size.
-    this.cacheSize = cacheSizeBytes / header.getPageSize();
-
-    if(this.cacheSize <= 0) {
-      throw new AbortException("Invalid cache size: " + cacheSizeBytes + " / " + header.getPageSize() + " = " + cacheSize);
+    final long pages = cacheSizeBytes / header.getPageSize();
+    if(pages <= 0 || pages > Integer.MAX_VALUE) {
+      throw new AbortException("Invalid cache size: " + cacheSizeBytes + " / " + header.getPageSize() + " = " + pages);
     }
+    this.cacheSize = (int) pages;
 
     if(LOG.isDebugging()) {
       LOG.debug("LRU cache size is " + cacheSize + " pages.");
@@ -193,19 +216,22 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   }
 
   @Override
-  public void close() {
+  public synchronized void close() {
     flush();
+    map.clear();
     file.close();
   }
 
   /**
-   * Flushes this caches by writing any entry to the underlying file.
+   * Flushes this caches by writing any modified entry to the underlying file.
+   * The pages remain in the cache.
    */
-  public void flush() {
+  @Override
+  public synchronized void flush() {
     for(P object : map.values()) {
       expirePage(object);
     }
-    map.clear();
+    file.flush();
   }
 
   /**
@@ -222,7 +248,7 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    * Clears this cache.
    */
   @Override
-  public void clear() {
+  public synchronized void clear() {
     map.clear();
   }
 
@@ -251,6 +277,11 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   @Override
   public void logStatistics() {
     super.logStatistics();
+    if(hits != null) {
+      LOG.statistics(hits);
+      LOG.statistics(misses);
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".cached", map.size()));
+    }
     file.logStatistics();
   }
 
@@ -63,6 +63,23 @@ public interface PageFile<P extends Page> {
    */
   void deletePage(int pageID);
 
+  /**
+   * Write all pending changes to the backing storage.
+   */
+  default void flush() {
+    // Nothing to do by default.
+  }
+
+  /**
+   * Test whether the pages are stored persistently, so that an existing file
+   * may be reopened.
+   *
+   * @return {@code true} for persistent page files
+   */
+  default boolean isPersistent() {
+    return false;
+  }
+
   /**
    * Closes this file.
    */
@@ -0,0 +1,329 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import elki.logging.Logging;
+import elki.utilities.exceptions.AbortException;
+
+/**
+ * A PersistentPageFile stores objects persistently that implement the
+ * <code>Page</code> interface, in fixed-size slots of a single file accessed
+ * via a {@link FileChannel}.
+ * <p>
+ * Each page slot starts with a marker whether the slot is in use; the
+ * remainder contains the page serialized using
+ * {@link ExternalizablePage#writeExternal}. When an existing file is opened,
+ * the header is read from the file, and the empty pages are recovered from the
+ * slot markers, so that an index can be reopened from disk.
+ * <p>
+ * This page file does not cache pages; use a {@link BufferedPageFile} on top
+ * to avoid repeated deserialization of frequently accessed pages.
+ *
+ * @author Elke Achtert
+ * @since 0.1
+ *
+ * @composed - - - PageHeader
+ *
+ * @param <P> Page type
+ */
+public class PersistentPageFile<P extends ExternalizablePage> extends AbstractStoringPageFile<P> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(PersistentPageFile.class);
+
+  /**
+   * Indicates an empty page.
+   */
+  private static final int EMPTY_PAGE = 0;
+
+  /**
+   * Indicates a filled page.
+   */
+  private static final int FILLED_PAGE = 1;
+
+  /**
+   * The file name.
+   */
+  private final Path filename;
+
+  /**
+   * The file storing the pages.
+   */
+  private FileChannel file;
+
+  /**
+   * The header of this page file.
+   */
+  private PageHeader header;
+
+  /**
+   * The class of the pages, to instantiate them when reading.
+   */
+  private final Class<P> pageclass;
+
+  /**
+   * Buffer for reading and writing a single page.
+   */
+  private ByteBuffer buffer;
+
+  /**
+   * Creates a new page file, or opens an existing file.
+   *
+   * @param pageSize the page size
+   * @param filename the name of the file
+   * @param pageclass the class of pages to be used
+   */
+  public PersistentPageFile(int pageSize, Path filename, Class<P> pageclass) {
+    super(pageSize);
+    this.filename = filename;
+    this.pageclass = pageclass;
+    try {
+      file = FileChannel.open(filename, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    catch(IOException e) {
+      throw new AbortException("Cannot open page file " + filename, e);
+    }
+  }
+
+  /**
+   * Offset of a page in the file.
+   *
+   * @param pageID Page ID
+   * @return Offset
+   */
+  private long offset(int pageID) {
+    return (header.getReservedPages() + (long) pageID) * pageSize;
+  }
+
+  @Override
+  public synchronized P readPage(int pageID) {
+    countRead();
+    try {
+      final long off = offset(pageID);
+      if(off + pageSize > file.size()) {
+        return null;
+      }
+      buffer.clear();
+      while(buffer.hasRemaining()) {
+        if(file.read(buffer, off + buffer.position()) < 0) {
+          throw new AbortException("Unexpected end of page file " + filename);
+        }
+      }
+      buffer.flip();
+      if(buffer.getInt() != FILLED_PAGE) {
+        return null;
+      }
+      P page = pageclass.getDeclaredConstructor().newInstance();
+      try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buffer.array(), Integer.BYTES, pageSize - Integer.BYTES))) {
+        page.readExternal(ois);
+      }
+      page.setDirty(false);
+      return page;
+    }
+    catch(IOException | ClassNotFoundException e) {
+      throw new AbortException("Error reading page " + pageID + " from " + filename, e);
+    }
+    catch(ReflectiveOperationException e) {
+      throw new AbortException("Cannot instantiate page class " + pageclass.getName(), e);
+    }
+  }
+
+  @Override
+  protected void writePage(int pageID, P page) {
+    countWrite();
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+      try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+        page.writeExternal(oos);
+      }
+      if(baos.size() + Integer.BYTES > pageSize) {
+        throw new AbortException("Serialized size of page " + pageID + " exceeds the page size: " + (baos.size() + Integer.BYTES) + " > " + pageSize);
+      }
+      buffer.clear();
+      buffer.putInt(FILLED_PAGE).put(baos.toByteArray());
+      writeBuffer(pageID);
+      page.setDirty(false);
+    }
+    catch(IOException e) {
+      throw new AbortException("Error writing page " + pageID + " to " + filename, e);
+    }
+  }
+
+  @Override
+  public synchronized void deletePage(int pageID) {
+    // put id to empty pages list
+    super.deletePage(pageID);
+    // mark as empty in the file
+    countWrite();
+    try {
+      buffer.clear();
+      buffer.putInt(EMPTY_PAGE);
+      writeBuffer(pageID);
+    }
+    catch(IOException e) {
+      throw new AbortException("Error deleting page " + pageID + " from " + filename, e);
+    }
+  }
+
+  /**
+   * Write the page buffer to the file, padded to the full page size.
+   *
+   * @param pageID Page ID
+   * @throws IOException on write errors
+   */
+  private void writeBuffer(int pageID) throws IOException {
+    Arrays.fill(buffer.array(), buffer.position(), pageSize, (byte) 0);
+    buffer.clear();
+    final long off = offset(pageID);
+    while(buffer.hasRemaining()) {
+      file.write(buffer, off + buffer.position());
+    }
+  }
+
+  @Override
+  public synchronized void flush() {
+    try {
+      header.writeHeader(file);
+      file.force(false);
+    }
+    catch(IOException e) {
+      throw new AbortException("Error flushing page file " + filename, e);
+    }
+  }
+
+  /**
+   * Closes this file.
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      file.close();
+    }
+    catch(IOException e) {
+      throw new AbortException("Error closing page file " + filename, e);
+    }
+  }
+
+  /**
+   * Clears this PageFile.
+   */
+  @Override
+  public synchronized void clear() {
+    try {
+      file.truncate(header.getReservedPages() * (long) pageSize);
+      emptyPages.clear();
+      nextPageID = 0;
+    }
+    catch(IOException e) {
+      throw new AbortException("Error clearing page file " + filename, e);
+    }
+  }
+
+  /**
+   * Initialize the page file with the given header. If the file already
+   * contains data, the header is read from the file, and the page ids in use
+   * are recovered.
+   *
+   * @param header Header
+   * @return true when the file already existed.
+   */
+  @Override
+  public synchronized boolean initialize(PageHeader header) {
+    this.header = header;
+    try {
+      if(file.size() > 0) {
+        if(file.size() < header.size()) {
+          throw new AbortException("Page file " + filename + " is truncated or not a page file.");
+        }
+        header.readHeader(file);
+        if(header.getPageSize() != pageSize) {
+          throw new AbortException("Page file " + filename + " uses page size " + header.getPageSize() + ", but " + pageSize + " was configured.");
+        }
+        this.buffer = ByteBuffer.allocate(pageSize);
+        if((file.size() - offset(0)) % pageSize != 0) {
+          throw new AbortException("Page file " + filename + " is truncated.");
+        }
+        // Recover the empty pages from the slot markers.
+        final long numpages = (file.size() - offset(0)) / pageSize;
+        ByteBuffer marker = ByteBuffer.allocate(Integer.BYTES);
+        for(int i = 0; i < numpages; i++) {
+          marker.clear();
+          file.read(marker, offset(i));
+          marker.flip();
+          if(marker.getInt() == FILLED_PAGE) {
+            for(int j = nextPageID; j < i; j++) {
+              emptyPages.add(j);
+            }
+            nextPageID = i + 1;
+          }
+        }
+        return true;
+      }
+      super.initialize(header);
+      this.buffer = ByteBuffer.allocate(pageSize);
+      header.writeHeader(file);
+      return false;
+    }
+    catch(IOException e) {
+      throw new AbortException("Error initializing page file " + filename, e);
+    }
+  }
+
+  @Override
+  public boolean isPersistent() {
+    return true;
+  }
+
+  /**
+   * Get the file storing the pages.
+   *
+   * @return the file storing the pages
+   */
+  public FileChannel getFile() {
+    return file;
+  }
+
+  /**
+   * Get the header of this persistent page file.
+   *
+   * @return the header used by this page file
+   */
+  public PageHeader getHeader() {
+    return header;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
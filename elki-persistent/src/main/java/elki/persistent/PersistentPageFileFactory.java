@@ -23,13 +23,15 @@ package elki.persistent;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
-import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.FileParameter;
 
 /**
  * Page file factory for disk-based page files.
+ * <p>
+ * If the file already exists, the index is reopened from disk instead of being
+ * rebuilt.
  * 
  * @author Erich Schubert
  * @since 0.6.0
@@ -56,12 +58,7 @@ public class PersistentPageFileFactory<P extends ExternalizablePage> extends Abs
 
   @Override
   public PageFile<P> newPageFile(Class<P> cls) {
-    if(fileName == null) {
-      throw new AbortException("Disk-backed page file may only be instantiated once!");
-    }
-    PersistentPageFile<P> pfile = new PersistentPageFile<>(pageSize, fileName, cls);
-    fileName = null; // To avoid double instantiation.
-    return pfile;
+    return new PersistentPageFile<>(pageSize, fileName, cls);
   }
 
   /**
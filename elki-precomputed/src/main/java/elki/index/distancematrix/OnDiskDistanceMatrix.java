@@ -0,0 +1,474 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.distancematrix;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import elki.data.type.TypeInformation;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDs;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.index.IndexFactory;
+import elki.index.SnapshotUtil;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.Duration;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.Processor;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameterization.TrackedParameter;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Distance matrix stored in memory-mapped files, for data sets beyond the
+ * \(2^{16}\) objects supported by {@link PrecomputedDistanceMatrix}.
+ * <p>
+ * The memory layout is the same strict lower triangle, but addressed with
+ * {@code long} offsets and split into several mapped segments of 1 GB each,
+ * as a single mapping is limited to 2 GB. Values can be stored with single
+ * precision to halve the storage (200000 objects need about 80 GB as float).
+ * The matrix is computed in parallel, one row per task.
+ * <p>
+ * If a directory is given, the matrix is kept after the run, and reused by
+ * later runs on the same data with the same distance settings. The file name
+ * is a fingerprint of the data and the settings, see {@link SnapshotUtil}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ *
+ * @param <O> Object type
+ */
+public class OnDiskDistanceMatrix<O> extends PrecomputedDistanceMatrix<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(OnDiskDistanceMatrix.class);
+
+  /**
+   * Magic number to identify the file format ("ELDM").
+   */
+  public static final int MAGIC = 0x454C444D;
+
+  /**
+   * Version of the file format, part of the key.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * Header size: magic, value size, matrix size, format version.
+   */
+  private static final int HEADER_SIZE = 16;
+
+  /**
+   * Bytes per segment, as bit shift.
+   */
+  private static final int SEGMENT_SHIFT = 30;
+
+  /**
+   * Directory to keep the matrix in, may be {@code null} for a temporary file.
+   */
+  private Path directory;
+
+  /**
+   * Key describing the distance settings.
+   */
+  private String key;
+
+  /**
+   * Matrix file.
+   */
+  private Path file;
+
+  /**
+   * Use single precision.
+   */
+  private boolean single;
+
+  /**
+   * Bit shift for the value size (2 for float, 3 for double).
+   */
+  private final int vshift;
+
+  /**
+   * Bit shift for the segment number.
+   */
+  private final int pshift;
+
+  /**
+   * Mask for the position within a segment.
+   */
+  private final long pmask;
+
+  /**
+   * Mapped segments.
+   */
+  private MappedByteBuffer[] segments;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param range DBID range
+   * @param distance Distance function
+   * @param directory Directory to keep the matrix in, may be {@code null}
+   * @param key Key describing the distance settings
+   * @param single Use single precision
+   */
+  public OnDiskDistanceMatrix(Relation<O> relation, DBIDRange range, Distance<? super O> distance, Path directory, String key, boolean single) {
+    super(relation, range, distance);
+    this.directory = directory;
+    this.key = key;
+    this.single = single;
+    this.vshift = single ? 2 : 3;
+    this.pshift = SEGMENT_SHIFT - vshift;
+    this.pmask = (1L << pshift) - 1;
+  }
+
+  @Override
+  public void initialize() {
+    final int size = ids.size();
+    final long msize = triangleSize(size);
+    try {
+      file = directory == null ? null : SnapshotUtil.snapshotFile(directory, OnDiskDistanceMatrix.class.getName(), //
+          VERSION + "\n" + (single ? "float" : "double") + "\n" + key, refrelation.get());
+      boolean reuse = file != null && Files.exists(file) && isValid(file, size);
+      if(file == null) {
+        file = Files.createTempFile("elki-distances", ".bin");
+        file.toFile().deleteOnExit();
+      }
+      try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), reuse ? "r" : "rw")) {
+        final long bytes = msize << vshift;
+        if(!reuse) {
+          raf.setLength(0); // Discard old contents
+          raf.setLength(HEADER_SIZE + bytes);
+        }
+        FileChannel channel = raf.getChannel();
+        final FileChannel.MapMode mode = reuse ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        segments = new MappedByteBuffer[(int) ((bytes + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT)];
+        for(int i = 0; i < segments.length; i++) {
+          final long start = ((long) i) << SEGMENT_SHIFT;
+          segments[i] = channel.map(mode, HEADER_SIZE + start, Math.min(1L << SEGMENT_SHIFT, bytes - start));
+        }
+        if(reuse) {
+          LOG.verbose("Reusing distance matrix from " + file);
+          return;
+        }
+        compute(size);
+        for(MappedByteBuffer segment : segments) {
+          segment.force();
+        }
+        // Write the header last, so incomplete files are not reused.
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putInt(4, 1 << vshift).putInt(8, size).putInt(12, VERSION);
+        header.putInt(0, MAGIC);
+        header.force();
+      }
+    }
+    catch(IOException e) {
+      throw new AbortException("Could not map distance matrix file " + file, e);
+    }
+  }
+
+  /**
+   * Check whether an existing file can be reused.
+   *
+   * @param file File name
+   * @param size Data set size
+   * @return {@code true} when the header matches
+   * @throws IOException on read errors
+   */
+  private boolean isValid(Path file, int size) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+      if(raf.length() != HEADER_SIZE + (triangleSize(size) << vshift)) {
+        return false;
+      }
+      return raf.readInt() == MAGIC && raf.readInt() == 1 << vshift //
+          && raf.readInt() == size && raf.readInt() == VERSION;
+    }
+  }
+
+  /**
+   * Compute all distances in parallel.
+   *
+   * @param size Data set size
+   */
+  private void compute(int size) {
+    Duration timer = LOG.newDuration(getClass().getName() + ".precomputation-time").begin();
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", size, LOG) : null;
+    ParallelExecutor.run(ids, new RowProcessor(prog));
+    LOG.ensureCompleted(prog);
+    LOG.statistics(timer.end());
+  }
+
+  @Override
+  protected double get(long pos) {
+    final ByteBuffer segment = segments[(int) (pos >>> pshift)];
+    final int off = ((int) (pos & pmask)) << vshift;
+    return single ? segment.getFloat(off) : segment.getDouble(off);
+  }
+
+  @Override
+  protected void getRow(long pos, double[] dst, int off, int len) {
+    for(int i = 0; i < len; i++) {
+      dst[off + i] = get(pos + i);
+    }
+  }
+
+  @Override
+  public void logStatistics() {
+    if(segments != null) {
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", triangleSize(ids.size())));
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".segments", segments.length));
+    }
+  }
+
+  /**
+   * Processor to compute one row of the matrix.
+   *
+   * @author Erich Schubert
+   */
+  private class RowProcessor implements Processor {
+    /**
+     * Progress, may be {@code null}.
+     */
+    private FiniteProgress prog;
+
+    /**
+     * Constructor.
+     *
+     * @param prog Progress, may be {@code null}
+     */
+    RowProcessor(FiniteProgress prog) {
+      this.prog = prog;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance();
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      // Nothing to do.
+    }
+
+    /**
+     * Per-thread instance, with its own distance query and buffer views.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * Distance query.
+       */
+      private DistanceQuery<O> dq = distance.instantiate(refrelation.get());
+
+      /**
+       * Iterator for the second object.
+       */
+      private DBIDArrayIter iy = ids.iter();
+
+      /**
+       * Thread-local views of the segments.
+       */
+      private ByteBuffer[] views = new ByteBuffer[segments.length];
+
+      /**
+       * Constructor.
+       */
+      Instance() {
+        for(int i = 0; i < views.length; i++) {
+          views[i] = segments[i].duplicate();
+        }
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final int x = ids.getOffset(id);
+        // y < x -- must match {@link #getOffset}!
+        long pos = triangleSize(x);
+        for(iy.seek(0); iy.getOffset() < x; iy.advance(), pos++) {
+          final double d = dq.distance(id, iy);
+          final ByteBuffer segment = views[(int) (pos >>> pshift)];
+          final int off = ((int) (pos & pmask)) << vshift;
+          if(single) {
+            segment.putFloat(off, (float) d);
+          }
+          else {
+            segment.putDouble(off, d);
+          }
+        }
+        if(prog != null) {
+          prog.incrementProcessed(LOG);
+        }
+      }
+    }
+  }
+
+  /**
+   * Factory for the index.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - OnDiskDistanceMatrix
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Nested distance function.
+     */
+    protected final Distance<? super O> distance;
+
+    /**
+     * Directory to keep the matrix in, may be {@code null}.
+     */
+    protected final Path directory;
+
+    /**
+     * Key describing the distance settings.
+     */
+    protected final String key;
+
+    /**
+     * Use single precision.
+     */
+    protected final boolean single;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param directory Directory to keep the matrix in, may be {@code null}
+     * @param key Key describing all settings of the distance, required when
+     *        a directory is given, see {@link Par}
+     * @param single Use single precision
+     */
+    public Factory(Distance<? super O> distance, Path directory, String key, boolean single) {
+      super();
+      if(directory != null && (key == null || key.isEmpty())) {
+        throw new IllegalArgumentException("Keeping the distance matrix requires a key describing the distance settings.");
+      }
+      this.distance = distance;
+      this.directory = directory;
+      this.key = key;
+      this.single = single;
+    }
+
+    @Override
+    public OnDiskDistanceMatrix<O> instantiate(Relation<O> relation) {
+      DBIDs rids = relation.getDBIDs();
+      if(!(rids instanceof DBIDRange)) {
+        throw new AbortException("Distance matrixes are currently only supported for DBID ranges (as used by static databases; not on modifiable databases) for performance reasons (Patches welcome).");
+      }
+      return new OnDiskDistanceMatrix<>(relation, (DBIDRange) rids, distance, directory, key, single);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterizer.
+     *
+     * @author Erich Schubert
+     *
+     * @hidden
+     *
+     * @param <O> Object type
+     */
+    public static class Par<O> implements Parameterizer {
+      /**
+       * Directory to keep the distance matrix in.
+       */
+      public static final OptionID DIRECTORY_ID = new OptionID("matrix.directory", "Directory to keep the distance matrix in, to reuse it in later runs on the same data with the same distance. If not given, a temporary file is used.");
+
+      /**
+       * Flag to use single precision.
+       */
+      public static final OptionID FLOAT_ID = new OptionID("matrix.float", "Store distances with single precision, to halve the file size.");
+
+      /**
+       * Nested distance function.
+       */
+      protected Distance<? super O> distanceFunction;
+
+      /**
+       * Directory to keep the matrix in.
+       */
+      protected Path directory;
+
+      /**
+       * Key describing the distance settings.
+       */
+      protected String key;
+
+      /**
+       * Use single precision.
+       */
+      protected boolean single;
+
+      @Override
+      public void configure(Parameterization config) {
+        TrackParameters track = new TrackParameters(config);
+        new ObjectParameter<Distance<? super O>>(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, Distance.class) //
+            .grab(track, x -> distanceFunction = x);
+        StringBuilder buf = new StringBuilder(200);
+        for(TrackedParameter p : track.getAllParameters()) {
+          if(p.getParameter().isDefined()) {
+            buf.append(p.getParameter().getOptionID().getName()).append('=') //
+                .append(p.getParameter().getValueAsString()).append('\n');
+          }
+        }
+        key = buf.toString();
+        new FileParameter(DIRECTORY_ID, FileParameter.FileType.OUTPUT_FILE) //
+            .setOptional(true) //
+            .grab(config, x -> directory = Paths.get(x));
+        new Flag(FLOAT_ID).grab(config, x -> single = x);
+      }
+
+      @Override
+      public Factory<O> make() {
+        return new Factory<>(distanceFunction, directory, key, single);
+      }
+    }
+  }
+}
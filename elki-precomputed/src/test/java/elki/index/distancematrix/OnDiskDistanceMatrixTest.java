@@ -0,0 +1,136 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.distancematrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.LPNormDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the memory-mapped distance matrix.
+ *
+ * @author Erich Schubert
+ */
+public class OnDiskDistanceMatrixTest extends AbstractIndexStructureTest {
+  // the following values depend on the data set used!
+  final static String dataset = "elki/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  // size of the data set
+  final static int shoulds = 600;
+
+  @Test
+  public void testEuclidean() {
+    OnDiskDistanceMatrix.Factory<?> factory = new ELKIBuilder<>(OnDiskDistanceMatrix.Factory.class) //
+        .with(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, EuclideanDistance.class).build();
+    assertExactEuclidean(factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class, true);
+    assertPrioritySearchEuclidean(factory, PrecomputedDistanceMatrix.PrecomputedDistancePrioritySearcher.class, true);
+    assertSinglePoint(factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class);
+  }
+
+  @Test
+  public void testReuse() throws IOException {
+    Path directory = Files.createTempDirectory("ELKIUnitTest");
+    try {
+      OnDiskDistanceMatrix.Factory<?> factory = new ELKIBuilder<>(OnDiskDistanceMatrix.Factory.class) //
+          .with(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, EuclideanDistance.class) //
+          .with(OnDiskDistanceMatrix.Factory.Par.DIRECTORY_ID, directory).build();
+      assertExactEuclidean(factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class, true);
+      Path file = onlyFile(directory);
+      FileTime written = Files.getLastModifiedTime(file);
+      // Second run reuses the existing file:
+      assertExactEuclidean(factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class, true);
+      assertEquals("Matrix file was rewritten.", written, Files.getLastModifiedTime(file));
+      // Different distance parameters must not reuse the file:
+      AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, new ListParameterization() //
+          .addParameter(StaticArrayDatabase.Par.INDEX_ID, OnDiskDistanceMatrix.Factory.class) //
+          .addParameter(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, LPNormDistance.class) //
+          .addParameter(LPNormDistance.Par.P_ID, 3) //
+          .addParameter(OnDiskDistanceMatrix.Factory.Par.DIRECTORY_ID, directory));
+      try (Stream<Path> files = Files.list(directory)) {
+        assertEquals("Matrix file was reused for different settings.", 2, files.count());
+      }
+      assertEquals("Matrix file was rewritten.", written, Files.getLastModifiedTime(file));
+    }
+    finally {
+      try (Stream<Path> files = Files.list(directory)) {
+        for(Path f : (Iterable<Path>) files::iterator) {
+          Files.delete(f);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * Get the only file in a directory.
+   *
+   * @param directory Directory
+   * @return File
+   * @throws IOException on errors
+   */
+  private static Path onlyFile(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      Object[] all = files.toArray();
+      assertEquals("Expected exactly one matrix file.", 1, all.length);
+      return (Path) all[0];
+    }
+  }
+
+  @Test
+  public void testFloat() {
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(StaticArrayDatabase.Par.INDEX_ID, OnDiskDistanceMatrix.Factory.class) //
+        .addParameter(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, EuclideanDistance.class) //
+        .addFlag(OnDiskDistanceMatrix.Factory.Par.FLOAT_ID);
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, inputparams);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = new QueryBuilder<>(relation, EuclideanDistance.STATIC).distanceQuery();
+    assertTrue("Matrix not used.", dq instanceof PrecomputedDistanceMatrix.PrecomputedDistanceQuery);
+    for(DBIDIter ix = relation.iterDBIDs(); ix.valid(); ix.advance()) {
+      for(DBIDIter iy = relation.iterDBIDs(); iy.valid(); iy.advance()) {
+        double exp = EuclideanDistance.STATIC.distance(relation.get(ix), relation.get(iy));
+        assertEquals("Distance mismatch.", exp, dq.distance(ix, iy), exp * 1e-6);
+      }
+    }
+  }
+}
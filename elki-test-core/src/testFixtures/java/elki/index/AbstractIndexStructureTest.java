@@ -22,6 +22,8 @@ package elki.index;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import elki.algorithm.AbstractSimpleAlgorithmTest;
@@ -34,7 +36,9 @@ import elki.database.query.ExactPrioritySearcher;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.BatchKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.LinearScanKNNByDBID;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.datasource.AbstractDatabaseConnection;
@@ -43,6 +47,7 @@ import elki.datasource.filter.FixedDBIDsFilter;
 import elki.distance.CosineDistance;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.utilities.io.ByteBufferSerializer;
 import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -503,4 +508,64 @@ public abstract class AbstractIndexStructureTest {
       assertEquals("Incomplete results.", relation.size(), c);
     }
   }
+
+  /**
+   * Test helper for batch kNN queries: every object of the data set is
+   * queried, and the results are compared to a linear scan.
+   *
+   * @param factory Index factory
+   * @param expectQuery expected batch knn query class
+   */
+  protected static void assertBatchKNNEuclidean(IndexFactory<?> factory, Class<?> expectQuery) {
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0));
+    if(factory != null) {
+      inputparams.addParameter(StaticArrayDatabase.Par.INDEX_ID, factory);
+    }
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, inputparams);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly();
+    BatchKNNSearcher batchq = qb.kNNBatch(k);
+    assertClass(expectQuery, batchq, null);
+    KNNSearcher<DBIDRef> ref = new LinearScanKNNByDBID<>(qb.distanceQuery());
+    HashSetModifiableDBIDs seen = DBIDUtil.newHashSet(relation.size());
+    batchq.getKNNBatch(relation.getDBIDs(), k, (id, knn) -> {
+      assertTrue("Duplicate result for " + id, seen.add(id));
+      KNNList exp = ref.getKNN(id, k);
+      assertEquals("Result size does not match expectation!", exp.size(), knn.size());
+      for(DoubleDBIDListIter a = exp.iter(), b = knn.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("Distance at offset " + a.getOffset() + " doesn't match.", a.doubleValue(), b.doubleValue(), 1e-12);
+      }
+    });
+    assertEquals("Not all objects were queried.", relation.size(), seen.size());
+  }
+
+  /**
+   * Build an index on the test data set, and serialize it.
+   * <p>
+   * This can be used to compare the structure of indexes built with different
+   * settings, such as a sequential and a parallel build.
+   *
+   * @param factory Index factory
+   * @return Serialized index
+   */
+  @SuppressWarnings("unchecked")
+  protected static byte[] snapshot(SnapshotIndexFactory<?, ?> factory) {
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0));
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, inputparams);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    SnapshotIndexFactory<DoubleVector, Index> f = (SnapshotIndexFactory<DoubleVector, Index>) factory;
+    Index index = f.instantiate(relation);
+    index.initialize();
+    ByteBufferSerializer<Index> serializer = f.getSnapshotSerializer(relation);
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(serializer.getByteSize(index));
+      serializer.toByteBuffer(buffer, index);
+      return buffer.array();
+    }
+    catch(IOException e) {
+      throw new AssertionError("Serialization failed.", e);
+    }
+  }
 }
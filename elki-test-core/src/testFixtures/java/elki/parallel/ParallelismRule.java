@@ -0,0 +1,68 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.parallel;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * JUnit rule to run tests with a fixed number of threads, even on machines
+ * with fewer processors, and to restore the default parallelism afterwards.
+ * <p>
+ * Usage:
+ * 
+ * <pre>
+ * &#64;Rule
+ * public ParallelismRule parallelism = new ParallelismRule();
+ *
+ * &#64;Test
+ * public void testParallel() {
+ *   parallelism.set(4);
+ *   ...
+ * }
+ * </pre>
+ *
+ * @author Erich Schubert
+ * @since 0.7.6
+ */
+public class ParallelismRule extends ExternalResource {
+  /**
+   * Flag whether the parallelism was changed.
+   */
+  private boolean changed = false;
+
+  /**
+   * Set the parallelism for the remainder of the current test.
+   *
+   * @param threads Number of threads
+   */
+  public void set(int threads) {
+    changed = true;
+    ParallelCore.getCore().setParallelism(threads);
+  }
+
+  @Override
+  protected void after() {
+    if(changed) {
+      changed = false;
+      ParallelCore.getCore().setParallelism(0);
+    }
+  }
+}
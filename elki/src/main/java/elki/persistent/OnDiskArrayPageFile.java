@@ -276,6 +276,11 @@ public class OnDiskArrayPageFile<P extends Page> extends AbstractStoringPageFile
     }
   }
 
+  @Override
+  public boolean isPersistent() {
+    return true;
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;